@@ -0,0 +1,350 @@
+package com.strongloop.android.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates an <code>ObjectSerializer</code> for each class annotated with
+ * <code>@GenerateSerializer</code>, which must extend
+ * <code>VirtualObject</code>. The generated code calls the getters
+ * and setters directly, also when converting to and from JSON, and follows
+ * the rules of <code>BeanUtil</code>:
+ * <ul>
+ * <li>properties are read from the public getters declared by the class
+ * itself (<code>getX()</code> and <code>isX()</code>),</li>
+ * <li>properties are written through the public setters of the class and
+ * its superclasses,</li>
+ * <li>methods annotated with <code>@Transient</code> are skipped.</li>
+ * </ul>
+ */
+public class SerializerProcessor extends AbstractProcessor {
+    private static final String GENERATE_SERIALIZER =
+            "com.strongloop.android.remoting.GenerateSerializer";
+    private static final String TRANSIENT =
+            "com.strongloop.android.remoting.Transient";
+    private static final String OBJECT_SERIALIZER =
+            "com.strongloop.android.remoting.ObjectSerializer";
+    private static final String VIRTUAL_OBJECT =
+            "com.strongloop.android.remoting.VirtualObject";
+    private static final String JSON_OBJECT = "org.json.JSONObject";
+    private static final String SUFFIX = "$$Serializer";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(GENERATE_SERIALIZER);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations,
+                           RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS) {
+                    error(element, "@GenerateSerializer can only be applied to classes");
+                    continue;
+                }
+                TypeElement type = (TypeElement) element;
+                if (!check(type)) continue;
+                try {
+                    generate(type);
+                } catch (IOException e) {
+                    error(type, "Cannot write the serializer: " + e);
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean check(TypeElement type) {
+        Set<Modifier> modifiers = type.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE) ||
+                modifiers.contains(Modifier.ABSTRACT)) {
+            error(type, "Classes with a serializer cannot be private or abstract");
+            return false;
+        }
+        if (type.getNestingKind() == NestingKind.MEMBER &&
+                !modifiers.contains(Modifier.STATIC)) {
+            error(type, "Nested classes with a serializer must be static");
+            return false;
+        }
+        if (type.getNestingKind() != NestingKind.TOP_LEVEL &&
+                type.getNestingKind() != NestingKind.MEMBER) {
+            error(type, "Local and anonymous classes cannot have a serializer");
+            return false;
+        }
+        TypeElement virtualObject = processingEnv.getElementUtils()
+                .getTypeElement(VIRTUAL_OBJECT);
+        if (virtualObject == null || !processingEnv.getTypeUtils().isSubtype(
+                processingEnv.getTypeUtils().erasure(type.asType()),
+                processingEnv.getTypeUtils().erasure(virtualObject.asType()))) {
+            error(type, "Classes with a serializer must extend " + VIRTUAL_OBJECT);
+            return false;
+        }
+        for (ExecutableElement constructor :
+                ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() &&
+                    !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        error(type, "Classes with a serializer need a non-private no-argument constructor");
+        return false;
+    }
+
+    private void generate(TypeElement type) throws IOException {
+        String packageName = getPackage(type).getQualifiedName().toString();
+        String typeName = type.getQualifiedName().toString();
+        String serializerName = binaryName(type) + SUFFIX;
+        String serializerSimpleName = packageName.length() == 0
+                ? serializerName
+                : serializerName.substring(packageName.length() + 1);
+
+        List<ExecutableElement> getters = new ArrayList<ExecutableElement>();
+        List<String> getterProperties = new ArrayList<String>();
+        Map<String, List<ExecutableElement>> setters =
+                new LinkedHashMap<String, List<ExecutableElement>>();
+
+        for (ExecutableElement method : ElementFilter.methodsIn(
+                processingEnv.getElementUtils().getAllMembers(type))) {
+            Set<Modifier> modifiers = method.getModifiers();
+            if (!modifiers.contains(Modifier.PUBLIC) ||
+                    modifiers.contains(Modifier.STATIC)) continue;
+            TypeElement owner = (TypeElement) method.getEnclosingElement();
+            if (owner.getQualifiedName().contentEquals("java.lang.Object")) continue;
+            if (isTransient(method)) continue;
+
+            String name = method.getSimpleName().toString();
+            int parameterCount = method.getParameters().size();
+
+            if (parameterCount == 1 && name.length() > 3 && name.startsWith("set") &&
+                    Character.isUpperCase(name.charAt(3))) {
+                String property = Character.toLowerCase(name.charAt(3)) +
+                        name.substring(4);
+                List<ExecutableElement> list = setters.get(property);
+                if (list == null) {
+                    list = new ArrayList<ExecutableElement>(1);
+                    setters.put(property, list);
+                }
+                list.add(method);
+                continue;
+            }
+
+            // Properties are read from the declaring class only, like
+            // VirtualObject.toMap() does.
+            if (!owner.equals(type)) continue;
+            if (parameterCount > 0) continue;
+            if (method.getReturnType().getKind() == TypeKind.VOID) continue;
+
+            String property = "";
+            if (name.startsWith("get")) {
+                property = name.substring(3);
+            } else if (name.startsWith("is")) {
+                property = name.substring(2);
+            }
+            if (property.length() > 0 && Character.isUpperCase(property.charAt(0))) {
+                getters.add(method);
+                getterProperties.add(Character.toLowerCase(property.charAt(0)) +
+                        property.substring(1));
+            }
+        }
+
+        JavaFileObject file = processingEnv.getFiler()
+                .createSourceFile(serializerName, type);
+        Writer out = file.openWriter();
+        try {
+            if (packageName.length() > 0) {
+                out.write("package " + packageName + ";\n\n");
+            }
+            out.write("// Generated from " + typeName + ", do not edit.\n");
+            out.write("public class " + serializerSimpleName + " extends " +
+                    OBJECT_SERIALIZER + "<" + typeName + "> {\n\n");
+
+            out.write("    @Override\n");
+            out.write("    public " + typeName + " newInstance() {\n");
+            out.write("        return new " + typeName + "();\n");
+            out.write("    }\n\n");
+
+            // One method per writable property, shared by setProperty()
+            // and fromJson().
+            List<String> properties = new ArrayList<String>(setters.keySet());
+            for (int i = 0; i < properties.size(); i++) {
+                out.write("    @SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+                out.write("    private static boolean set" + i + "(" + typeName +
+                        " object, Object value) {\n");
+                out.write("        Object converted;\n");
+                for (ExecutableElement setter : setters.get(properties.get(i))) {
+                    TypeMirror parameterType = processingEnv.getTypeUtils()
+                            .erasure(setter.getParameters().get(0).asType());
+                    out.write("        converted = convert(value, " +
+                            parameterType + ".class);\n");
+                    out.write("        if (converted != NOT_CONVERTIBLE) {\n");
+                    out.write("            object." + setter.getSimpleName() +
+                            "((" + boxedName(parameterType) + ") converted);\n");
+                    out.write("            return true;\n");
+                    out.write("        }\n");
+                }
+                out.write("        return false;\n");
+                out.write("    }\n\n");
+            }
+
+            out.write("    @Override\n");
+            out.write("    public boolean setProperty(" + typeName +
+                    " object, String name, Object value) {\n");
+            for (int i = 0; i < properties.size(); i++) {
+                out.write("        if (" + quote(properties.get(i)) +
+                        ".equals(name)) return set" + i + "(object, value);\n");
+            }
+            out.write("        return false;\n");
+            out.write("    }\n\n");
+
+            out.write("    @Override\n");
+            out.write("    public java.util.Map<String, Object> getProperties(" +
+                    typeName + " object) {\n");
+            out.write("        java.util.Map<String, Object> map =\n");
+            out.write("                new java.util.HashMap<String, Object>();\n");
+            for (int i = 0; i < getters.size(); i++) {
+                out.write("        map.put(" + quote(getterProperties.get(i)) +
+                        ", object." + getters.get(i).getSimpleName() + "());\n");
+            }
+            out.write("        return map;\n");
+            out.write("    }\n\n");
+
+            out.write("    @Override\n");
+            out.write("    public " + JSON_OBJECT + " toJson(" + typeName +
+                    " object) throws org.json.JSONException {\n");
+            out.write("        " + JSON_OBJECT + " json = new " +
+                    JSON_OBJECT + "();\n");
+            for (int i = 0; i < getters.size(); i++) {
+                ExecutableElement getter = getters.get(i);
+                String value = "object." + getter.getSimpleName() + "()";
+                if (!isJsonPrimitive(getter.getReturnType())) {
+                    value = "toJsonValue(" + value + ")";
+                }
+                out.write("        json.put(" + quote(getterProperties.get(i)) +
+                        ", " + value + ");\n");
+            }
+            out.write("        return json;\n");
+            out.write("    }\n\n");
+
+            out.write("    @Override\n");
+            out.write("    public " + typeName + " fromJson(" + JSON_OBJECT +
+                    " json) {\n");
+            out.write("        " + typeName + " object = newInstance();\n");
+            for (int i = 0; i < properties.size(); i++) {
+                String name = quote(properties.get(i));
+                out.write("        if (json.has(" + name + ")) set" + i +
+                        "(object, fromJsonValue(json.opt(" + name + ")));\n");
+            }
+            out.write("        return object;\n");
+            out.write("    }\n");
+            out.write("}\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Checks whether values of the type can be passed to
+     * <code>JSONObject.put()</code> as they are.
+     */
+    private static boolean isJsonPrimitive(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+            case INT:
+            case LONG:
+            case DOUBLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean isTransient(ExecutableElement method) {
+        for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+            TypeElement annotationType =
+                    (TypeElement) annotation.getAnnotationType().asElement();
+            if (annotationType.getQualifiedName().contentEquals(TRANSIENT)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static PackageElement getPackage(Element element) {
+        while (element.getKind() != ElementKind.PACKAGE) {
+            element = element.getEnclosingElement();
+        }
+        return (PackageElement) element;
+    }
+
+    /**
+     * Returns the name <code>Class.forName()</code> knows the type by,
+     * e.g. <code>com.example.Outer$Inner</code>.
+     */
+    private static String binaryName(TypeElement type) {
+        Element enclosing = type.getEnclosingElement();
+        if (enclosing.getKind() == ElementKind.PACKAGE) {
+            return type.getQualifiedName().toString();
+        }
+        return binaryName((TypeElement) enclosing) + "$" + type.getSimpleName();
+    }
+
+    private static String boxedName(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN: return "java.lang.Boolean";
+            case BYTE: return "java.lang.Byte";
+            case CHAR: return "java.lang.Character";
+            case SHORT: return "java.lang.Short";
+            case INT: return "java.lang.Integer";
+            case LONG: return "java.lang.Long";
+            case FLOAT: return "java.lang.Float";
+            case DOUBLE: return "java.lang.Double";
+            default: return type.toString();
+        }
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\');
+            }
+            quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(
+                Diagnostic.Kind.ERROR, message, element);
+    }
+}
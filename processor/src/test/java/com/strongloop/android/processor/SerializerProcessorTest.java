@@ -0,0 +1,215 @@
+package com.strongloop.android.processor;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Runs the processor in-process on small sources. The library classes the
+ * processor refers to are replaced by stubs.
+ */
+public class SerializerProcessorTest extends TestCase {
+    private static final String[] STUBS = {
+            "com.strongloop.android.remoting.VirtualObject",
+            "package com.strongloop.android.remoting;\n" +
+                    "public class VirtualObject {}",
+            "com.strongloop.android.remoting.GenerateSerializer",
+            "package com.strongloop.android.remoting;\n" +
+                    "public @interface GenerateSerializer {}",
+            "com.strongloop.android.remoting.Transient",
+            "package com.strongloop.android.remoting;\n" +
+                    "public @interface Transient {}",
+    };
+
+    private File outputDir;
+    private final List<Diagnostic<? extends JavaFileObject>> errors =
+            new ArrayList<Diagnostic<? extends JavaFileObject>>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        outputDir = File.createTempFile("SerializerProcessorTest", "");
+        assertTrue(outputDir.delete());
+        assertTrue(outputDir.mkdir());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(outputDir);
+        super.tearDown();
+    }
+
+    public void testGeneratesSerializer() throws Exception {
+        process("com.example.Widget",
+                "package com.example;\n" +
+                "import com.strongloop.android.remoting.*;\n" +
+                "@GenerateSerializer\n" +
+                "public class Widget extends VirtualObject {\n" +
+                "    public String getName() { return null; }\n" +
+                "    public void setName(String name) {}\n" +
+                "    public boolean isActive() { return false; }\n" +
+                "    public void setActive(boolean active) {}\n" +
+                "    @Transient public String getSecret() { return null; }\n" +
+                "}\n");
+
+        assertEquals(Collections.emptyList(), errors);
+        String source = read("com/example/Widget$$Serializer.java");
+        assertTrue(source, source.contains("object.setName((java.lang.String) converted);"));
+        assertTrue(source, source.contains("object.setActive((java.lang.Boolean) converted);"));
+        assertTrue(source, source.contains("map.put(\"name\", object.getName());"));
+        assertTrue(source, source.contains("json.put(\"active\", object.isActive());"));
+        assertTrue(source, source.contains("json.put(\"name\", toJsonValue(object.getName()));"));
+        assertTrue(source, source.contains("if (json.has(\"name\"))"));
+        assertFalse(source, source.contains("secret"));
+    }
+
+    public void testNamesSerializersOfNestedClassesAfterBinaryName() throws Exception {
+        process("com.example.Outer",
+                "package com.example;\n" +
+                "import com.strongloop.android.remoting.*;\n" +
+                "public class Outer {\n" +
+                "    @GenerateSerializer\n" +
+                "    public static class Inner extends VirtualObject {}\n" +
+                "}\n");
+
+        assertEquals(Collections.emptyList(), errors);
+        assertTrue(new File(outputDir, "com/example/Outer$Inner$$Serializer.java").exists());
+    }
+
+    public void testRejectsClassesNotExtendingVirtualObject() throws Exception {
+        process("com.example.Plain",
+                "package com.example;\n" +
+                "@com.strongloop.android.remoting.GenerateSerializer\n" +
+                "public class Plain {}\n");
+
+        assertError("must extend com.strongloop.android.remoting.VirtualObject");
+    }
+
+    public void testRejectsClassesWithoutNoArgumentConstructor() throws Exception {
+        process("com.example.Widget",
+                "package com.example;\n" +
+                "import com.strongloop.android.remoting.*;\n" +
+                "@GenerateSerializer\n" +
+                "public class Widget extends VirtualObject {\n" +
+                "    public Widget(String name) {}\n" +
+                "}\n");
+
+        assertError("non-private no-argument constructor");
+    }
+
+    public void testRejectsInnerClasses() throws Exception {
+        process("com.example.Outer",
+                "package com.example;\n" +
+                "import com.strongloop.android.remoting.*;\n" +
+                "public class Outer {\n" +
+                "    @GenerateSerializer\n" +
+                "    public class Inner extends VirtualObject {}\n" +
+                "}\n");
+
+        assertError("must be static");
+    }
+
+    private void process(String className, String source) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull("The tests must run on a JDK", compiler);
+        StandardJavaFileManager fileManager =
+                compiler.getStandardFileManager(null, null, null);
+        try {
+            fileManager.setLocation(StandardLocation.SOURCE_OUTPUT,
+                    Collections.singleton(outputDir));
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT,
+                    Collections.singleton(outputDir));
+
+            List<JavaFileObject> sources = new ArrayList<JavaFileObject>();
+            for (int i = 0; i < STUBS.length; i += 2) {
+                sources.add(new Source(STUBS[i], STUBS[i + 1]));
+            }
+            sources.add(new Source(className, source));
+
+            DiagnosticCollector<JavaFileObject> diagnostics =
+                    new DiagnosticCollector<JavaFileObject>();
+            JavaCompiler.CompilationTask task = compiler.getTask(null,
+                    fileManager, diagnostics, Arrays.asList("-proc:only"),
+                    null, sources);
+            task.setProcessors(Collections.singleton(new SerializerProcessor()));
+            task.call();
+
+            for (Diagnostic<? extends JavaFileObject> diagnostic :
+                    diagnostics.getDiagnostics()) {
+                // The generated sources refer to library classes missing
+                // from the stubs, only errors of the processor count.
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR &&
+                        diagnostic.getSource() instanceof Source) {
+                    errors.add(diagnostic);
+                }
+            }
+        } finally {
+            fileManager.close();
+        }
+    }
+
+    private void assertError(String message) {
+        for (Diagnostic<? extends JavaFileObject> error : errors) {
+            if (error.getMessage(null).contains(message)) return;
+        }
+        fail("No error containing \"" + message + "\": " + errors);
+    }
+
+    private String read(String path) throws IOException {
+        File file = new File(outputDir, path);
+        assertTrue(path + " was not generated", file.exists());
+        java.io.Reader reader = new java.io.InputStreamReader(
+                new java.io.FileInputStream(file), "UTF-8");
+        try {
+            StringBuilder content = new StringBuilder();
+            char[] buffer = new char[4096];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                content.append(buffer, 0, count);
+            }
+            return content.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class Source extends SimpleJavaFileObject {
+        private final String content;
+
+        Source(String className, String content) {
+            super(URI.create("string:///" + className.replace('.', '/') +
+                    Kind.SOURCE.extension), Kind.SOURCE);
+            this.content = content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return content;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+# Rules applied to apps using loopback-sdk-android, see consumerProguardFiles.
+
+# ObjectSerializer.forClass() checks for the annotation at runtime and loads
+# the generated serializer by name, <class name>$$Serializer.
+-keepattributes *Annotation*
+-keep @interface com.strongloop.android.remoting.GenerateSerializer
+-keepnames @com.strongloop.android.remoting.GenerateSerializer class *
+-keep class **$$Serializer {
+    public <init>();
+}
@@ -1,25 +1,43 @@
 package com.strongloop.android.loopback.test;
 
 import android.os.Environment;
+import android.os.SystemClock;
 import android.test.MoreAsserts;
 import android.util.Log;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.strongloop.android.loopback.Container;
 import com.strongloop.android.loopback.ContainerRepository;
 import com.strongloop.android.loopback.File;
 import com.strongloop.android.loopback.RestAdapter;
+import com.strongloop.android.loopback.TransferProgress;
+import com.strongloop.android.loopback.TransferResult;
 import com.strongloop.android.loopback.callbacks.ObjectCallback;
+import com.strongloop.android.loopback.callbacks.ProgressCallback;
+import com.strongloop.android.loopback.callbacks.TransferResultCallback;
 import com.strongloop.android.remoting.adapters.Adapter;
 import com.strongloop.android.remoting.adapters.RestContractItem;
+import com.strongloop.android.remoting.adapters.RetryPolicy;
+import com.strongloop.android.remoting.adapters.Transport;
+import com.strongloop.android.remoting.adapters.TransportRequest;
+import com.strongloop.android.remoting.adapters.TransportResponse;
 
 import junit.framework.AssertionFailedError;
 
+import org.apache.http.Header;
 import org.apache.http.client.HttpResponseException;
+import org.apache.http.message.BasicHeader;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class FileTest extends AsyncTestCase {
     static final private String TAG = "FileTest";
@@ -240,6 +258,89 @@ public class FileTest extends AsyncTestCase {
         MoreAsserts.assertEquals(binaryData, content);
     }
 
+    public void testResumableUpload() throws Throwable {
+        final Container container = givenContainer(containerRepo);
+        final byte[] largeData = new byte[10000];
+        for (int i = 0; i < largeData.length; i++) {
+            largeData[i] = (byte) i;
+        }
+        final java.io.File local = givenLocalFile(largeData);
+        final java.io.File stateDir = new java.io.File(localDir, "state");
+        if (!stateDir.exists()) assertTrue(stateDir.mkdir());
+
+        doAsyncTest(new AsyncTest() {
+            @Override
+            public void run() {
+                container.getFileRepository().uploadResumable(local, stateDir,
+                        4096, new ObjectTestCallback<File>() {
+                            @Override
+                            public void onSuccess(File file) {
+                                assertEquals(local.getName(), file.getName());
+                                // The session state was removed.
+                                assertEquals(0, stateDir.list().length);
+                                notifyFinished();
+                            }
+                        });
+            }
+        });
+
+        byte[] content = download(container, local.getName());
+        MoreAsserts.assertEquals(largeData, content);
+    }
+
+    public void testUploadAllAndDownloadAll() throws Throwable {
+        final Container container = givenContainer(containerRepo);
+        final List<java.io.File> localFiles = new ArrayList<java.io.File>();
+        for (int i = 0; i < 5; i++) {
+            java.io.File local = new java.io.File(localDir, "file-" + i);
+            Files.write(new byte[]{(byte) i}, local);
+            localFiles.add(local);
+        }
+        final List<File> uploaded = new ArrayList<File>();
+
+        doAsyncTest(new AsyncTest() {
+            @Override
+            public void run() {
+                container.getFileRepository().uploadAll(localFiles, 2, 0,
+                        new TransferResultCallback() {
+                            @Override
+                            public void onComplete(TransferResult result) {
+                                assertTrue(result.isSuccessful());
+                                assertEquals(5, result.getItems().size());
+                                for (TransferResult.Item item : result.getItems()) {
+                                    assertEquals(item.getLocalFile().getName(),
+                                            item.getFile().getName());
+                                    uploaded.add(item.getFile());
+                                }
+                                notifyFinished();
+                            }
+                        });
+            }
+        });
+
+        final java.io.File downloadDir = new java.io.File(localDir, "downloads");
+        if (!downloadDir.exists()) assertTrue(downloadDir.mkdir());
+
+        doAsyncTest(new AsyncTest() {
+            @Override
+            public void run() {
+                File.downloadAll(uploaded, downloadDir,
+                        new TransferResultCallback() {
+                            @Override
+                            public void onComplete(TransferResult result) {
+                                assertTrue(result.isSuccessful());
+                                notifyFinished();
+                            }
+                        });
+            }
+        });
+
+        for (int i = 0; i < 5; i++) {
+            MoreAsserts.assertEquals(new byte[]{(byte) i},
+                    Files.toByteArray(new java.io.File(downloadDir, "file-" + i)));
+        }
+    }
+
     public void testFileDownloadToLocalFile() throws Throwable {
         final File file = givenFile(containerRepo, binaryData);
         final java.io.File local = new java.io.File(localDir, "outfile");
@@ -253,6 +354,10 @@ public class FileTest extends AsyncTestCase {
                         try {
                             byte[] content = Files.toByteArray(local);
                             MoreAsserts.assertEquals(binaryData, content);
+                            // The temporary file was renamed.
+                            for (String name : localDir.list()) {
+                                assertFalse(name.endsWith(".download"));
+                            }
                             notifyFinished();
                         } catch (IOException ex) {
                             notifyFailed(ex);
@@ -263,6 +368,65 @@ public class FileTest extends AsyncTestCase {
         });
     }
 
+    public void testFileDownloadReportsProgress() throws Throwable {
+        final File file = givenFile(containerRepo, binaryData);
+        final java.io.File local = new java.io.File(localDir, "outfile");
+        final List<Long> transferred = new ArrayList<Long>();
+        final TransferProgress progress = new TransferProgress(
+                new ProgressCallback() {
+                    @Override
+                    public void onProgress(long bytesTransferred, long bytesTotal) {
+                        transferred.add(bytesTransferred);
+                    }
+                });
+
+        doAsyncTest(new AsyncTest() {
+            @Override
+            public void run() {
+                file.download(local, progress, new VoidTestCallback() {
+                    @Override
+                    public void onSuccess() {
+                        notifyFinished();
+                    }
+                });
+            }
+        });
+
+        assertEquals(binaryData.length, progress.getBytesTransferred());
+        assertEquals(binaryData.length, progress.getBytesTotal());
+        assertEquals(Long.valueOf(binaryData.length),
+                transferred.get(transferred.size() - 1));
+    }
+
+    public void testFileDownloadAsStream() throws Throwable {
+        final File file = givenFile(containerRepo, binaryData);
+
+        doAsyncTest(new AsyncTest() {
+            @Override
+            public void run() {
+                file.download(new Adapter.StreamCallback() {
+                    @Override
+                    public void onResponse(InputStream body, String contentType)
+                            throws Exception {
+                        final byte[] content = ByteStreams.toByteArray(body);
+                        post(new Runnable() {
+                            @Override
+                            public void run() {
+                                MoreAsserts.assertEquals(binaryData, content);
+                                notifyFinished();
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFailed(t);
+                    }
+                });
+            }
+        });
+    }
+
     private byte[] download(final Container container, final String fileName)
             throws Throwable {
         final List<byte[]> ref = new ArrayList<byte[]>(1);
@@ -290,6 +454,191 @@ public class FileTest extends AsyncTestCase {
         return ref.get(0);
     }
 
+    public void testDownloadAllRetriesFailedDownloads() throws Throwable {
+        final List<File> files = givenRemoteFiles(3);
+        final FlakyTransport transport = flakyTransport(1, 503);
+
+        final TransferResult result = downloadAll(files, 2, 2);
+
+        assertTrue(result.isSuccessful());
+        for (TransferResult.Item item : result.getItems()) {
+            assertEquals(2, item.getAttempts());
+            MoreAsserts.assertEquals(binaryData,
+                    Files.toByteArray(item.getLocalFile()));
+        }
+        assertEquals(6, transport.requests.get());
+    }
+
+    public void testDownloadAllReportsFinalFailures() throws Throwable {
+        final List<File> files = givenRemoteFiles(2);
+        final FlakyTransport transport = flakyTransport(Integer.MAX_VALUE, 503);
+
+        final TransferResult result = downloadAll(files, 2, 1);
+
+        assertEquals(2, result.getFailedItems().size());
+        for (TransferResult.Item item : result.getItems()) {
+            assertEquals(2, item.getAttempts());
+            assertEquals(503,
+                    ((HttpResponseException) item.getError()).getStatusCode());
+        }
+        assertEquals(4, transport.requests.get());
+    }
+
+    public void testDownloadAllDoesNotRetryClientErrors() throws Throwable {
+        final List<File> files = givenRemoteFiles(2);
+        final FlakyTransport transport = flakyTransport(Integer.MAX_VALUE, 404);
+
+        final TransferResult result = downloadAll(files, 2, 2);
+
+        assertEquals(2, result.getFailedItems().size());
+        assertEquals(2, transport.requests.get());
+    }
+
+    public void testDownloadAllLimitsConcurrency() throws Throwable {
+        final List<File> files = givenRemoteFiles(6);
+        final FlakyTransport transport = flakyTransport(0, 0);
+
+        final TransferResult result = downloadAll(files, 2, 0);
+
+        assertTrue(result.isSuccessful());
+        assertEquals(6, transport.requests.get());
+        assertEquals(2, transport.maxInFlight.get());
+    }
+
+    public void testDownloadAllRejectsUnsafeNames() throws Throwable {
+        final Container container = givenContainer(containerRepo);
+        final List<File> files = new ArrayList<File>();
+        files.add(container.getFileRepository().createObject(
+                ImmutableMap.of("name", "../escaped")));
+        final FlakyTransport transport = flakyTransport(0, 0);
+
+        final TransferResult result = downloadAll(files, 2, 2);
+
+        TransferResult.Item item = result.getItems().get(0);
+        assertNull(item.getLocalFile());
+        assertTrue(item.getError() instanceof IllegalArgumentException);
+        assertEquals(0, transport.requests.get());
+        assertFalse(new java.io.File(localDir.getParentFile(), "escaped").exists());
+    }
+
+    private List<File> givenRemoteFiles(int count) throws Throwable {
+        final Container container = givenContainer(containerRepo);
+        final List<File> files = new ArrayList<File>();
+        for (int i = 0; i < count; i++) {
+            files.add(container.getFileRepository().createObject(
+                    ImmutableMap.of("name", "file-" + i)));
+        }
+        return files;
+    }
+
+    /**
+     * Replaces the transport of the adapter with one failing the first
+     * <code>failures</code> requests of each file with the given status,
+     * and disables the retries and the circuit breaker of the adapter.
+     */
+    private FlakyTransport flakyTransport(int failures, int statusCode) {
+        FlakyTransport transport = new FlakyTransport(failures, statusCode,
+                binaryData);
+        adapter.setTransport(transport);
+        adapter.setRetryPolicy(RetryPolicy.NONE);
+        adapter.setCircuitBreakerThreshold(0);
+        return transport;
+    }
+
+    private TransferResult downloadAll(final List<File> files,
+                                       final int concurrency, final int retries)
+            throws Throwable {
+        final TransferResult[] ref = new TransferResult[1];
+        await(new AsyncTask() {
+            @Override
+            public void run() {
+                File.downloadAll(files, localDir, concurrency, retries,
+                        new TransferResultCallback() {
+                            @Override
+                            public void onComplete(TransferResult result) {
+                                ref[0] = result;
+                                notifyFinished();
+                            }
+                        });
+            }
+        });
+        return ref[0];
+    }
+
+    /**
+     * Answers each request on a new thread after a short delay, failing the
+     * first requests of each URL.
+     */
+    private static class FlakyTransport implements Transport {
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        private final Map<String, Integer> attempts = new HashMap<String, Integer>();
+        private final int failures;
+        private final int statusCode;
+        private final byte[] content;
+
+        FlakyTransport(int failures, int statusCode, byte[] content) {
+            this.failures = failures;
+            this.statusCode = statusCode;
+            this.content = content;
+        }
+
+        @Override
+        public Call execute(TransportRequest request, final Listener listener) {
+            requests.incrementAndGet();
+            int current = inFlight.incrementAndGet();
+            synchronized (this) {
+                if (current > maxInFlight.get()) maxInFlight.set(current);
+            }
+            final boolean fail;
+            synchronized (attempts) {
+                Integer count = attempts.get(request.getUrl());
+                count = count == null ? 1 : count + 1;
+                attempts.put(request.getUrl(), count);
+                fail = count <= failures;
+            }
+            new Thread() {
+                @Override
+                public void run() {
+                    SystemClock.sleep(20);
+                    inFlight.decrementAndGet();
+                    TransportResponse response = fail
+                            ? new TransportResponse(statusCode, "Failed",
+                                    new Header[0],
+                                    new ByteArrayInputStream(new byte[0]), 0)
+                            : new TransportResponse(200, "OK",
+                                    new Header[] { new BasicHeader(
+                                            "Content-Type",
+                                            "application/octet-stream") },
+                                    new ByteArrayInputStream(content),
+                                    content.length);
+                    try {
+                        listener.onResponse(response);
+                    } catch (Throwable t) {
+                        listener.onFailure(t);
+                    }
+                }
+            }.start();
+            return new Call() {
+                @Override
+                public boolean cancel() {
+                    return false;
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return false;
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return false;
+                }
+            };
+        }
+    }
+
     private void destroyAllContainers() throws Throwable {
         adapter.getContract().addItem(
                 new RestContractItem("/containers", "DELETE"),
@@ -0,0 +1,307 @@
+package com.strongloop.android.loopback.test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.strongloop.android.loopback.IdentityMap;
+import com.strongloop.android.loopback.Model;
+import com.strongloop.android.loopback.ModelBinder;
+import com.strongloop.android.loopback.ModelRepository;
+import com.strongloop.android.loopback.callbacks.JsonArrayParser;
+import com.strongloop.android.loopback.callbacks.ListCallback;
+import com.strongloop.android.remoting.JsonStreamReader;
+import com.strongloop.android.remoting.LazyJsonObject;
+import com.strongloop.android.remoting.Transient;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ModelBinderTest extends TestCase {
+
+    public static class Gadget extends Model {
+        private String name;
+        private int count;
+        private Double price;
+        private String secret;
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+
+        public int getCount() { return count; }
+        public void setCount(int count) { this.count = count; }
+
+        public Double getPrice() { return price; }
+        public void setPrice(Double price) { this.price = price; }
+
+        @Transient
+        public String getSecret() { return secret; }
+        @Transient
+        public void setSecret(String secret) { this.secret = secret; }
+    }
+
+    public static class Part extends Model {
+        public Part(String kind) {
+            put("kind", kind);
+        }
+    }
+
+    public static class PartRepository extends ModelRepository<Part> {
+        public PartRepository() {
+            super("part", Part.class);
+        }
+
+        @Override
+        public Part createObject(Map<String, ? extends Object> parameters) {
+            Part part = new Part((String) parameters.get("kind"));
+            part.setRepository(this);
+            return part;
+        }
+    }
+
+    private ModelRepository<Gadget> repository;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        repository = new ModelRepository<Gadget>("gadget", Gadget.class);
+    }
+
+    public void testBinderIsCachedPerClass() {
+        assertSame(ModelBinder.forClass(Gadget.class),
+                ModelBinder.forClass(Gadget.class));
+    }
+
+    public void testRepositoryOverridingCreateObject() {
+        PartRepository parts = new PartRepository();
+        Part part = parts.createObject(ImmutableMap.of("kind", "bolt"));
+        assertEquals("bolt", part.get("kind"));
+    }
+
+    public void testCreateFromMap() {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("id", 7);
+        params.put("name", "widget");
+        params.put("count", 3);
+        params.put("price", 10);
+        params.put("secret", "shhh");
+        params.put("extra", true);
+
+        Gadget gadget = repository.createObject(params);
+
+        assertSame(repository, gadget.getRepository());
+        assertSame(params, gadget.getCreationParameters());
+        assertEquals(7, gadget.getId());
+        assertEquals("widget", gadget.getName());
+        assertEquals(3, gadget.getCount());
+        assertEquals(10.0, gadget.getPrice());
+        assertNull("Transient setter must not be called", gadget.getSecret());
+        assertEquals(true, gadget.get("extra"));
+        assertEquals("widget", gadget.get("name"));
+    }
+
+    public void testCreateFromStream() throws Exception {
+        JsonStreamReader reader = new JsonStreamReader(new StringReader(
+                "{\"id\":\"abc\",\"name\":\"widget\",\"count\":5," +
+                "\"price\":1.5,\"data\":{\"quux\":true}}"));
+
+        Gadget gadget = repository.createObject(reader);
+
+        assertEquals("abc", gadget.getId());
+        assertEquals("widget", gadget.getName());
+        assertEquals(5, gadget.getCount());
+        assertEquals(1.5, gadget.getPrice());
+        assertEquals(ImmutableMap.of("quux", true), gadget.get("data"));
+        assertEquals("abc", gadget.getCreationParameters().get("id"));
+    }
+
+    public void testIncompatibleValuesAreKeptInOverflowOnly() {
+        Gadget gadget = repository.createObject(ImmutableMap.of(
+                "count", "many",
+                "price", "free"));
+
+        assertEquals(0, gadget.getCount());
+        assertNull(gadget.getPrice());
+        assertEquals("many", gadget.get("count"));
+        assertEquals("free", gadget.get("price"));
+    }
+
+    public void testCompactStorage() throws Exception {
+        repository.setCompactStorageEnabled(true);
+        assertTrue(repository.isCompactStorageEnabled());
+
+        JsonStreamReader reader = new JsonStreamReader(new StringReader(
+                "[{\"id\":1,\"name\":\"a\",\"count\":5,\"price\":1.5," +
+                "\"big\":5000000000,\"on\":true,\"none\":null}," +
+                "{\"id\":2,\"name\":\"b\",\"extra\":\"x\"}]"));
+        reader.beginArray();
+        Gadget first = repository.createObject(reader);
+        Gadget second = repository.createObject(reader);
+        reader.endArray();
+
+        assertEquals("a", first.getName());
+        assertEquals(5, first.get("count"));
+        assertEquals(1.5, first.get("price"));
+        assertEquals(5000000000L, first.get("big"));
+        assertEquals(true, first.get("on"));
+        assertNull(first.get("none"));
+        assertTrue(first.getCreationParameters().containsKey("none"));
+        assertFalse(first.getCreationParameters().containsKey("extra"));
+        assertEquals(7, first.getCreationParameters().size());
+
+        assertEquals("x", second.get("extra"));
+        assertNull(second.get("count"));
+        assertFalse(second.getCreationParameters().containsKey("count"));
+
+        second.put("extra", null);
+        second.put("on", false);
+        Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("id", 2);
+        expected.put("name", "b");
+        expected.put("count", 0);
+        expected.put("price", null);
+        expected.put("extra", null);
+        expected.put("on", false);
+        assertEquals(expected, second.toMap());
+    }
+
+    public void testCompactStorageSpillsUnknownNames() {
+        repository.setCompactStorageEnabled(true);
+        Map<String, Object> params = new HashMap<String, Object>();
+        for (int i = 0; i < 200; i++) {
+            params.put("p" + i, i);
+        }
+        Gadget gadget = repository.createObject(params);
+
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, gadget.get("p" + i));
+        }
+        Map<String, ? extends Object> map = gadget.toMap();
+        assertEquals(200 + 4, map.size());
+        assertEquals(199, map.get("p199"));
+    }
+
+    public void testLazyModel() throws Exception {
+        LazyJsonObject parameters = LazyJsonObject.parse(
+                "{\"id\":4,\"name\":\"widget\",\"count\":2," +
+                "\"data\":{\"quux\":true},\"tags\":[\"a\"]}");
+        Gadget gadget = repository.createObject(parameters);
+
+        assertEquals(4, gadget.getId());
+        assertEquals("widget", gadget.getName());
+        assertEquals(2, gadget.getCount());
+        // id, name and count were decoded to bind the model
+        assertEquals(3, parameters.getDecodedCount());
+
+        assertEquals(ImmutableMap.of("quux", true), gadget.get("data"));
+        assertEquals(4, parameters.getDecodedCount());
+
+        gadget.put("extra", 1);
+        Map<String, ? extends Object> map = gadget.toMap();
+        assertEquals(ImmutableList.of("a"), map.get("tags"));
+        assertEquals(1, map.get("extra"));
+        assertEquals("widget", map.get("name"));
+    }
+
+    public void testIdentityMapUpdatesLoadedInstance() {
+        IdentityMap<Gadget> map = new IdentityMap<Gadget>(10);
+        repository.setIdentityMap(map);
+
+        Gadget first = repository.resolveObject(
+                ImmutableMap.of("id", 1, "name", "widget", "count", 2));
+        Gadget second = repository.resolveObject(
+                ImmutableMap.of("id", 1, "name", "gizmo"));
+
+        assertSame(first, second);
+        assertEquals("gizmo", first.getName());
+        assertEquals("gizmo", first.get("name"));
+        assertEquals("Unloaded value dropped", 2, first.get("count"));
+        assertEquals(2, first.getCount());
+        assertEquals(1, map.getHitCount());
+        assertEquals(1, map.getMissCount());
+
+        Gadget other = repository.resolveObject(
+                ImmutableMap.of("id", 2, "name", "widget"));
+        assertNotSame(first, other);
+    }
+
+    public void testIdentityMapMergesPartialData() throws Exception {
+        repository.setIdentityMap(new IdentityMap<Gadget>(10));
+        Gadget loaded = repository.resolveObject(
+                ImmutableMap.of("id", 1, "name", "widget", "count", 2));
+        Gadget projected = repository.resolveObject(LazyJsonObject.parse(
+                "{\"id\":1,\"price\":1.5}"));
+
+        assertSame(loaded, projected);
+        assertEquals("widget", loaded.get("name"));
+        assertEquals("widget", loaded.getName());
+        assertEquals(2, loaded.get("count"));
+        assertEquals(1.5, loaded.get("price"));
+        assertEquals(Double.valueOf(1.5), loaded.getPrice());
+    }
+
+    public void testIdentityMapIsNotUsedWhenCreateObjectIsOverridden() {
+        ModelRepository<Gadget> gadgets =
+                new ModelRepository<Gadget>("gadget", Gadget.class) {
+            @Override
+            public Gadget createObject(Map<String, ? extends Object> parameters) {
+                Gadget gadget = super.createObject(parameters);
+                gadget.setSecret("created");
+                return gadget;
+            }
+        };
+        IdentityMap<Gadget> map = new IdentityMap<Gadget>(10);
+        gadgets.setIdentityMap(map);
+
+        Gadget first = gadgets.resolveObject(ImmutableMap.of("id", 1));
+        Gadget second = gadgets.resolveObject(ImmutableMap.of("id", 1));
+
+        assertNotSame(first, second);
+        assertEquals("created", second.getSecret());
+        assertEquals(0, map.getHitCount());
+    }
+
+    public void testIdentityMapIsBounded() {
+        IdentityMap<Gadget> map = new IdentityMap<Gadget>(2);
+        repository.setIdentityMap(map);
+
+        Gadget first = repository.resolveObject(ImmutableMap.of("id", 1));
+        repository.resolveObject(ImmutableMap.of("id", 2));
+        repository.resolveObject(ImmutableMap.of("id", 3));
+
+        assertEquals(2, map.size());
+        assertNull(map.get(1));
+        assertNotSame(first, repository.resolveObject(ImmutableMap.of("id", 1)));
+    }
+
+    public void testArrayParserReusesMappedInstances() throws Exception {
+        repository.setIdentityMap(new IdentityMap<Gadget>(10));
+        final List<Gadget> received = new ArrayList<Gadget>();
+        ListCallback<Gadget> callback = new ListCallback<Gadget>() {
+            @Override
+            public void onSuccess(List<Gadget> objects) {
+                received.addAll(objects);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                fail(t.toString());
+            }
+        };
+        JsonArrayParser<Gadget> parser =
+                new JsonArrayParser<Gadget>(repository, callback);
+
+        parser.onSuccess(new JSONArray(
+                "[{\"id\":1,\"name\":\"a\"},{\"id\":2,\"name\":\"b\"}]"));
+        parser.decode("[{\"id\":2,\"name\":\"c\"}]").run();
+
+        assertEquals(3, received.size());
+        assertSame(received.get(1), received.get(2));
+        assertEquals("c", received.get(1).getName());
+    }
+}
@@ -3,14 +3,22 @@ package com.strongloop.android.loopback.test;
 import android.util.Log;
 
 import com.google.common.collect.ImmutableMap;
+import com.strongloop.android.loopback.IdentityMap;
+import com.strongloop.android.loopback.LocalModelStore;
 import com.strongloop.android.loopback.Model;
+import com.strongloop.android.loopback.OfflineWriteQueue;
+import com.strongloop.android.loopback.ReadPolicy;
 import com.strongloop.android.loopback.RestAdapter;
 import com.strongloop.android.loopback.ModelRepository;
+import com.strongloop.android.loopback.callbacks.IncrementalListCallback;
 import com.strongloop.android.loopback.callbacks.ObjectCallback;
 import com.strongloop.android.loopback.callbacks.VoidCallback;
+import com.strongloop.android.remoting.adapters.RequestHandle;
 
 import org.json.JSONObject;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -130,6 +138,42 @@ public class ModelTest extends AsyncTestCase {
         });
     }
 
+    public void testFindAllIncremental() throws Throwable {
+        final List<Model> received = new ArrayList<Model>();
+
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                repository.findAll(new IncrementalListCallback<Model>() {
+
+                    @Override
+                    public void onChunk(List<Model> objects) {
+                        assertFalse("Empty chunk", objects.isEmpty());
+                        received.addAll(objects);
+                    }
+
+                    @Override
+                    public void onSuccess() {
+                        notifyFinished();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFailed(t);
+                    }
+                });
+            }
+        });
+
+        assertTrue("Invalid # of models returned: " + received.size(),
+                received.size() >= 2);
+        assertEquals("Invalid name", "Foo", received.get(0).get("name"));
+        assertEquals("Invalid bars", 0, received.get(0).get("bars"));
+        assertEquals("Invalid id", received.get(0).getId(),
+                received.get(0).get("id"));
+    }
+
     public void testFindOne() throws Throwable {
         doAsyncTest(new AsyncTest() {
 
@@ -198,6 +242,430 @@ public class ModelTest extends AsyncTestCase {
         });
     }
 
+    public void testIdentityMapIsUsedByFindAndFindById() throws Throwable {
+        IdentityMap<Model> map = new IdentityMap<Model>(100);
+        repository.setIdentityMap(map);
+        final Model[] found = new Model[2];
+        final List<Model> all = new ArrayList<Model>();
+
+        doAsyncTest(new AsyncTest() {
+            @Override
+            public void run() {
+                repository.findById(2, new ObjectTestCallback<Model>() {
+                    @Override
+                    public void onSuccess(Model model) {
+                        found[0] = model;
+                        notifyFinished();
+                    }
+                });
+            }
+        });
+        doAsyncTest(new AsyncTest() {
+            @Override
+            public void run() {
+                repository.findAll(new ListTestCallback<Model>() {
+                    @Override
+                    public void onSuccess(List<Model> list) {
+                        all.addAll(list);
+                        notifyFinished();
+                    }
+                });
+            }
+        });
+        doAsyncTest(new AsyncTest() {
+            @Override
+            public void run() {
+                repository.findById(2, new ObjectTestCallback<Model>() {
+                    @Override
+                    public void onSuccess(Model model) {
+                        found[1] = model;
+                        notifyFinished();
+                    }
+                });
+            }
+        });
+
+        Model listed = null;
+        for (Model model : all) {
+            if (String.valueOf(found[0].getId()).equals(
+                    String.valueOf(model.getId()))) {
+                listed = model;
+            }
+        }
+        assertSame("find created a new instance", found[0], listed);
+        assertSame("findById created a new instance", found[0], found[1]);
+        assertEquals(2, map.getHitCount());
+    }
+
+    public void testLocalStoreReadPolicies() throws Throwable {
+        final LocalModelStore store = new LocalModelStore(
+                getInstrumentation().getTargetContext(), "test-models.db");
+        store.clear();
+        repository.setLocalStore(store);
+        repository.setReadPolicy(ReadPolicy.CACHE_FIRST);
+
+        AsyncTest findBar = new AsyncTest() {
+            @Override
+            public void run() {
+                repository.findById(2, new ObjectTestCallback<Model>() {
+                    @Override
+                    public void onSuccess(Model model) {
+                        assertNotNull("No model found with id 2", model);
+                        assertEquals("Invalid name", "Bar", model.get("name"));
+                        notifyFinished();
+                    }
+                });
+            }
+        };
+
+        doAsyncTest(findBar);
+        assertEquals(1, store.getMissCount());
+        assertEquals(0, store.getHitCount());
+
+        doAsyncTest(findBar);
+        assertEquals("Read not served from the store", 1, store.getHitCount());
+
+        repository.setReadPolicy(ReadPolicy.CACHE_THEN_NETWORK);
+        final int[] deliveries = new int[1];
+        doAsyncTest(new AsyncTest() {
+            @Override
+            public void run() {
+                repository.findById(2, new ObjectTestCallback<Model>() {
+                    @Override
+                    public void onSuccess(Model model) {
+                        assertEquals("Invalid name", "Bar", model.get("name"));
+                        if (++deliveries[0] == 2) {
+                            notifyFinished();
+                        }
+                    }
+                });
+            }
+        });
+        assertEquals(2, store.getHitCount());
+        store.close();
+    }
+
+    public void testLocalStoreAnswersQueries() throws Throwable {
+        LocalModelStore store = openLocalStore();
+        final Map<String, ?> filter = ImmutableMap.of("filter",
+                ImmutableMap.of("where", ImmutableMap.of("name", "Bar")));
+
+        AsyncTest findBars = new AsyncTest() {
+            @Override
+            public void run() {
+                repository.find(filter, new ListTestCallback<Model>() {
+                    @Override
+                    public void onSuccess(List<Model> list) {
+                        assertEquals("Invalid # of models returned",
+                                1, list.size());
+                        assertEquals("Invalid name", "Bar",
+                                list.get(0).get("name"));
+                        notifyFinished();
+                    }
+                });
+            }
+        };
+        doAsyncTest(findBars);
+        doAsyncTest(findBars);
+        assertEquals("find not served from the store", 1, store.getHitCount());
+
+        AsyncTest findOneBar = new AsyncTest() {
+            @Override
+            public void run() {
+                repository.findOne(filter, new ObjectTestCallback<Model>() {
+                    @Override
+                    public void onSuccess(Model model) {
+                        assertEquals("Invalid name", "Bar", model.get("name"));
+                        notifyFinished();
+                    }
+                });
+            }
+        };
+        doAsyncTest(findOneBar);
+        doAsyncTest(findOneBar);
+        assertEquals("findOne not served from the store",
+                2, store.getHitCount());
+        assertEquals(2, store.getMissCount());
+        store.close();
+    }
+
+    public void testLocalStoreEvictsBySize() throws Throwable {
+        LocalModelStore store = openLocalStore();
+        store.setMaxSize(1);
+
+        doAsyncTest(findByIdTest(2, "Bar"));
+        doAsyncTest(findByIdTest(2, "Bar"));
+        assertEquals(0, store.getHitCount());
+        assertEquals(2, store.getMissCount());
+        store.close();
+    }
+
+    public void testLocalStoreFollowsSaveAndDestroy() throws Throwable {
+        LocalModelStore store = openLocalStore();
+        final List<Model> found = new ArrayList<Model>();
+        AsyncTest findAll = new AsyncTest() {
+            @Override
+            public void run() {
+                repository.findAll(new ListTestCallback<Model>() {
+                    @Override
+                    public void onSuccess(List<Model> list) {
+                        found.clear();
+                        found.addAll(list);
+                        notifyFinished();
+                    }
+                });
+            }
+        };
+        doAsyncTest(findAll);
+        int count = found.size();
+
+        final Model model = repository.createModel(
+                ImmutableMap.of("name", "Stored", "bars", 3));
+        doAsyncTest(new AsyncTest() {
+            @Override
+            public void run() {
+                model.save(new VoidTestCallback());
+            }
+        });
+
+        doAsyncTest(findByIdTest(model.getId(), "Stored"));
+        assertEquals("Saved model not stored", 1, store.getHitCount());
+
+        doAsyncTest(findAll);
+        assertEquals("Query result not invalidated", count + 1, found.size());
+        assertEquals(1, store.getHitCount());
+
+        doAsyncTest(new AsyncTest() {
+            @Override
+            public void run() {
+                model.destroy(new VoidTestCallback());
+            }
+        });
+        doAsyncTest(new AsyncTest() {
+            @Override
+            public void run() {
+                repository.findById(model.getId(), new ObjectCallback<Model>() {
+                    @Override
+                    public void onSuccess(Model destroyed) {
+                        assertNull("Destroyed model found", destroyed);
+                        notifyFinished();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFinished();
+                    }
+                });
+            }
+        });
+        assertEquals("Destroyed model served from the store",
+                1, store.getHitCount());
+        store.close();
+    }
+
+    public void testLocalReadIsCancelledByTag() {
+        LocalModelStore store = openLocalStore();
+        Object screen = new Object();
+        RequestHandle handle = repository.findById(2, new ObjectCallback<Model>() {
+            @Override
+            public void onSuccess(Model model) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+        }).setTag(screen);
+
+        assertEquals(1, adapter.cancelAll(screen));
+        assertTrue(handle.isCancelled());
+        assertEquals(0, adapter.cancelAll(screen));
+        store.close();
+    }
+
+    private LocalModelStore openLocalStore() {
+        LocalModelStore store = new LocalModelStore(
+                getInstrumentation().getTargetContext(), "test-models.db");
+        store.clear();
+        repository.setLocalStore(store);
+        repository.setReadPolicy(ReadPolicy.CACHE_FIRST);
+        return store;
+    }
+
+    private AsyncTest findByIdTest(final Object id, final String name) {
+        return new AsyncTest() {
+            @Override
+            public void run() {
+                repository.findById(id, new ObjectTestCallback<Model>() {
+                    @Override
+                    public void onSuccess(Model model) {
+                        assertNotNull("No model found with id " + id, model);
+                        assertEquals("Invalid name", name, model.get("name"));
+                        notifyFinished();
+                    }
+                });
+            }
+        };
+    }
+
+    public void testOfflineSaveIsQueuedAndReplayed() throws Throwable {
+        File journal = new File(
+                getInstrumentation().getTargetContext().getCacheDir(),
+                "offline-writes");
+        journal.delete();
+        final OfflineWriteQueue queue = new OfflineWriteQueue(journal);
+        adapter.setWriteQueue(queue);
+        queue.setOnline(false);
+
+        final int[] callbacks = new int[1];
+        VoidCallback counting = new VoidCallback() {
+            @Override
+            public void onSuccess() {
+                callbacks[0]++;
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                fail("Replay failed: " + t);
+            }
+        };
+
+        final Model model = repository.createModel(
+                ImmutableMap.of("name", "Queued", "bars", 1));
+        model.save(counting);
+        model.put("name", "Renamed");
+        model.save(counting);
+
+        queue.flush();
+        assertEquals("Saves were not coalesced", 1, queue.getPendingCount());
+        assertEquals("Callback invoked while offline", 0, callbacks[0]);
+        assertNull(model.getId());
+
+        OfflineWriteQueue restoredQueue = new OfflineWriteQueue(journal);
+        restoredQueue.flush();
+        List<OfflineWriteQueue.Operation> restored =
+                restoredQueue.getPendingOperations();
+        assertEquals(1, restored.size());
+        assertEquals("widget.prototype.create", restored.get(0).getMethod());
+        assertEquals("Renamed", restored.get(0).getParameters().get("name"));
+
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                queue.setListener(new OfflineWriteQueue.Listener() {
+                    @Override
+                    public void onReplayed(OfflineWriteQueue.Operation operation) {
+                        notifyFinished();
+                    }
+
+                    @Override
+                    public void onRejected(OfflineWriteQueue.Operation operation,
+                                           Throwable t) {
+                        notifyFailed(t);
+                    }
+                });
+                queue.setOnline(true);
+            }
+        });
+
+        assertEquals(2, callbacks[0]);
+        assertNotNull(model.getId());
+        assertEquals(0, queue.getPendingCount());
+        queue.flush();
+        assertFalse("Journal was not removed", journal.exists());
+
+        JSONObject remoteJson = fetchJsonObjectById(repository, model.getId());
+        assertEquals("Renamed", remoteJson.optString("name"));
+
+        adapter.setWriteQueue(null);
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                model.destroy(new VoidTestCallback());
+            }
+        });
+    }
+
+    public void testOfflineCreateThenDestroyIsReplayedWithId() throws Throwable {
+        File journal = new File(
+                getInstrumentation().getTargetContext().getCacheDir(),
+                "offline-writes");
+        journal.delete();
+        final OfflineWriteQueue queue = new OfflineWriteQueue(journal);
+        adapter.setWriteQueue(queue);
+        queue.setOnline(false);
+
+        final Model model = repository.createModel(
+                ImmutableMap.of("name", "Short-lived", "bars", 1));
+        VoidCallback failing = new VoidCallback() {
+            @Override
+            public void onSuccess() {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                fail("Replay failed: " + t);
+            }
+        };
+        model.save(failing);
+        model.destroy(failing);
+
+        queue.flush();
+        assertEquals(2, queue.getPendingCount());
+        final OfflineWriteQueue.Operation remove =
+                queue.getPendingOperations().get(1);
+        assertNull(remove.getModelId());
+
+        final int[] replayed = new int[1];
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                queue.setListener(new OfflineWriteQueue.Listener() {
+                    @Override
+                    public void onReplayed(OfflineWriteQueue.Operation operation) {
+                        if (++replayed[0] == 2) {
+                            notifyFinished();
+                        }
+                    }
+
+                    @Override
+                    public void onRejected(OfflineWriteQueue.Operation operation,
+                                           Throwable t) {
+                        notifyFailed(t);
+                    }
+                });
+                queue.setOnline(true);
+            }
+        });
+        adapter.setWriteQueue(null);
+
+        assertNotNull(model.getId());
+        assertEquals("Removal did not receive the id",
+                model.getId(), remove.getModelId());
+
+        final Object id = model.getId();
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                repository.findById(id, new ObjectCallback<Model>() {
+                    @Override
+                    public void onSuccess(Model found) {
+                        assertNull("Model was not destroyed", found);
+                        notifyFinished();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFinished();
+                    }
+                });
+            }
+        });
+    }
+
     public void testRestContractUsesPluralizedNameInUrl() {
         adapter.createRepository("weapon");
 
@@ -11,7 +11,9 @@ import com.strongloop.android.remoting.VirtualObject;
 
 import junit.framework.TestCase;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class BeanUtilTest extends TestCase {
@@ -132,6 +134,12 @@ public class BeanUtilTest extends TestCase {
         public void setTrans(String trans) { this.trans = trans; }
     }
 
+    public static class Group extends VirtualObject {
+        private List<Bean> members = new ArrayList<Bean>();
+
+        public List<Bean> getMembers() { return members; }
+    }
+
     public void testBean() {
         Bean fromBean = new Bean();
         fromBean.setName("Fred");
@@ -195,6 +203,37 @@ public class BeanUtilTest extends TestCase {
                 ownProperties.keySet());
     }
 
+    public void testDeepCopyOfIterable() {
+        Bean bean = new Bean();
+        bean.setName("Fred");
+        Group group = new Group();
+        group.getMembers().add(bean);
+
+        Map<String, Object> properties = BeanUtil.getProperties(group, false, true);
+        List<?> members = (List<?>) properties.get("members");
+        assertEquals(1, members.size());
+        assertEquals("Fred", ((Map<?, ?>) members.get(0)).get("name"));
+    }
+
+    public void testRepeatedConversionsUseSameSetters() {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("name", "Fred");
+        properties.put("age", 100);
+
+        for (int i = 0; i < 3; i++) {
+            Bean bean = new Bean();
+            BeanUtil.setProperties(bean, properties, true);
+            assertEquals("Fred", bean.getName());
+            assertEquals(100, bean.getAge());
+        }
+
+        // A value no setter accepts is ignored.
+        properties.put("age", "old");
+        Bean bean = new Bean();
+        BeanUtil.setProperties(bean, properties, true);
+        assertEquals(0, bean.getAge());
+    }
+
     public void testVirtualObjectHasTransientPropertiesOnly() {
         VirtualObject obj = new VirtualObject();
         MoreAsserts.assertEmpty(BeanUtil.getProperties(obj, true, true));
@@ -0,0 +1,112 @@
+package com.strongloop.android.remoting.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.strongloop.android.remoting.JsonStreamReader;
+import com.strongloop.android.remoting.JsonUtil;
+
+public class JsonStreamReaderTest extends TestCase {
+
+    private static JsonStreamReader reader(String json) {
+        return new JsonStreamReader(new StringReader(json));
+    }
+
+    public void testPrimitives() throws Exception {
+        assertEquals("str", reader("\"str\"").readValue());
+        assertEquals(1, reader("1").readValue());
+        assertEquals(-5000000000L, reader("-5000000000").readValue());
+        assertEquals(1.5, reader("1.5").readValue());
+        assertEquals(1e3, reader("1e3").readValue());
+        assertEquals(true, reader("true").readValue());
+        assertEquals(false, reader(" false ").readValue());
+        assertNull(reader("null").readValue());
+    }
+
+    public void testEscapes() throws Exception {
+        assertEquals("a\"b\\c/d\né",
+                reader("\"a\\\"b\\\\c\\/d\\n\\u00e9\"").readValue());
+    }
+
+    public void testMatchesJsonUtil() throws Exception {
+        String json = "{\"name\":\"fred\",\"age\":100," +
+                "\"scores\":[5000,4000,3000]," +
+                "\"location\":{\"lat\":37.7833,\"long\":122.4167}," +
+                "\"isACoolPerson\":true,\"nothing\":null}";
+
+        assertEquals(JsonUtil.fromJson(new JSONObject(json)),
+                reader(json).readValue());
+    }
+
+    public void testPullArrayOfObjects() throws Exception {
+        JsonStreamReader reader = reader(" [ {\"id\":1}, {\"id\":2,\"x\":[]} ] ");
+
+        assertEquals(JsonStreamReader.Token.BEGIN_ARRAY, reader.peek());
+        reader.beginArray();
+        assertTrue(reader.hasNext());
+        assertEquals(ImmutableMap.of("id", 1), reader.readObject());
+        assertTrue(reader.hasNext());
+        Map<String, Object> second = reader.readObject();
+        assertEquals(2, second.get("id"));
+        assertEquals(ImmutableList.of(), second.get("x"));
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals(JsonStreamReader.Token.END_DOCUMENT, reader.peek());
+    }
+
+    public void testSkipValue() throws Exception {
+        JsonStreamReader reader = reader(
+                "{\"skip\":{\"a\":[1,{\"b\":2}]},\"keep\":\"yes\"}");
+        reader.beginObject();
+        assertEquals("skip", reader.nextName());
+        reader.skipValue();
+        assertEquals("keep", reader.nextName());
+        assertEquals("yes", reader.nextString());
+        reader.endObject();
+    }
+
+    public void testLongInputSpanningBuffers() throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"id\":").append(i)
+                    .append(",\"name\":\"item \\\"").append(i).append("\\\"\"}");
+        }
+        json.append(']');
+
+        List<Object> list = reader(json.toString()).readArray();
+        assertEquals(2000, list.size());
+        assertEquals(ImmutableMap.of("id", 1999, "name", "item \"1999\""),
+                list.get(1999));
+    }
+
+    public void testInvalidInput() throws IOException {
+        doInvalidInputTest("");
+        doInvalidInputTest("[1,2");
+        doInvalidInputTest("{\"a\" 1}");
+        doInvalidInputTest("\"unterminated");
+        doInvalidInputTest("[1] 2");
+        doInvalidInputTest("[undefined]");
+    }
+
+    private void doInvalidInputTest(String json) throws IOException {
+        try {
+            JsonStreamReader reader = reader(json);
+            reader.readValue();
+            reader.peek();
+        }
+        catch (JSONException ex) {
+            return;
+        }
+        fail("Parsing should throw an exception: " + json);
+    }
+}
@@ -0,0 +1,79 @@
+package com.strongloop.android.remoting.test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.strongloop.android.remoting.JsonStreamReader;
+import com.strongloop.android.remoting.JsonStreamWriter;
+import com.strongloop.android.remoting.JsonUtil;
+
+public class JsonStreamWriterTest extends TestCase {
+
+    private static String write(Object value) throws Exception {
+        StringWriter out = new StringWriter();
+        new JsonStreamWriter(out).value(value);
+        return out.toString();
+    }
+
+    public void testPrimitives() throws Exception {
+        assertEquals("\"str\"", write("str"));
+        assertEquals("1", write(1));
+        assertEquals("-5000000000", write(-5000000000L));
+        assertEquals("1.5", write(1.5));
+        assertEquals("true", write(true));
+        assertEquals("null", write(null));
+        assertEquals("null", write(JSONObject.NULL));
+    }
+
+    public void testEscapes() throws Exception {
+        String value = "a\"b\\c</d\n\u0001é";
+        assertEquals("\"a\\\"b\\\\c<\\/d\\n\\u0001é\"", write(value));
+        assertEquals(value, new JsonStreamReader(
+                new StringReader(write(value))).readValue());
+    }
+
+    public void testNesting() throws Exception {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("name", "fred");
+        map.put("scores", ImmutableList.of(1, 2));
+        map.put("empty", ImmutableMap.of());
+        map.put("location", ImmutableMap.of("lat", 37.5, "long", 122));
+        map.put("tags", new String[] { "a", "b" });
+
+        assertEquals("{\"name\":\"fred\",\"scores\":[1,2],\"empty\":{}," +
+                "\"location\":{\"lat\":37.5,\"long\":122}," +
+                "\"tags\":[\"a\",\"b\"]}", write(map));
+    }
+
+    public void testMatchesJsonUtil() throws Exception {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("name", "fred");
+        map.put("age", 100);
+        map.put("scores", ImmutableList.of(5000, 4000, 3000));
+        map.put("location", ImmutableMap.of("lat", 37.7833, "long", 122.4167));
+        map.put("isACoolPerson", true);
+        map.put("nothing", null);
+        map.put("other", new StringBuilder("text"));
+
+        Object expected = JsonUtil.fromJson((JSONObject) JsonUtil.toJson(map));
+        assertEquals(expected, JsonUtil.fromJson(new JSONObject(write(map))));
+    }
+
+    public void testRejectsNaN() throws Exception {
+        try {
+            write(ImmutableList.of(Double.NaN));
+            fail("NaN should have been rejected");
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+}
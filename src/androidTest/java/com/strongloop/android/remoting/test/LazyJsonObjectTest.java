@@ -0,0 +1,138 @@
+package com.strongloop.android.remoting.test;
+
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.strongloop.android.remoting.JsonUtil;
+import com.strongloop.android.remoting.LazyJsonObject;
+
+public class LazyJsonObjectTest extends TestCase {
+
+    private static final String JSON = "{\"name\":\"fred\",\"age\":100," +
+            "\"scores\":[5000,4000,3000]," +
+            "\"location\":{\"lat\":37.7833,\"long\":122.4167}," +
+            "\"isACoolPerson\":true,\"nothing\":null," +
+            "\"quote\":\"a \\\"b\\\" {c}\",\"esc\\u0061ped\":1}";
+
+    public void testDecodesOnAccess() throws Exception {
+        LazyJsonObject object = LazyJsonObject.parse(JSON);
+
+        assertEquals(8, object.size());
+        assertEquals(0, object.getDecodedCount());
+        assertEquals("fred", object.get("name"));
+        assertEquals(1, object.getDecodedCount());
+        assertEquals(ImmutableMap.of("lat", 37.7833, "long", 122.4167),
+                object.get("location"));
+        assertSame(object.get("location"), object.get("location"));
+        assertEquals(2, object.getDecodedCount());
+        assertEquals("a \"b\" {c}", object.get("quote"));
+        assertEquals(1, object.get("escaped"));
+        assertTrue(object.containsKey("nothing"));
+        assertNull(object.get("nothing"));
+        assertFalse(object.containsKey("missing"));
+    }
+
+    public void testConcurrentReadsDecodeEachValueOnce() throws Exception {
+        final LazyJsonObject object = LazyJsonObject.parse(JSON);
+        final Object[][] seen = new Object[4][];
+        Thread[] threads = new Thread[seen.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    seen[n] = new Object[] {
+                            object.get("location"), object.get("scores") };
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (Object[] values : seen) {
+            assertSame(object.get("location"), values[0]);
+            assertSame(object.get("scores"), values[1]);
+        }
+        assertEquals(2, object.getDecodedCount());
+    }
+
+    public void testMatchesJsonUtil() throws Exception {
+        Map<String, Object> expected = JsonUtil.fromJson(new JSONObject(JSON));
+        assertEquals(expected, LazyJsonObject.parse(JSON));
+    }
+
+    public void testModifications() throws Exception {
+        LazyJsonObject object = LazyJsonObject.parse(
+                "{\"a\":1,\"b\":[1,2],\"a\":2}");
+        assertEquals(2, object.get("a"));
+
+        object.put("b", "replaced");
+        object.put("c", true);
+        object.remove("a");
+
+        assertEquals(ImmutableMap.of("b", "replaced", "c", true), object);
+        object.put("a", 3);
+        assertEquals(3, object.size());
+        assertEquals(3, object.get("a"));
+    }
+
+    public void testValidatesNestedValues() throws Exception {
+        LazyJsonObject object = LazyJsonObject.parse(
+                "{\"a\":[1,-2.5e3,true,false,null,\"\\u0041\\n\"]," +
+                "\"b\":{\"c\":{},\"d\":[[]]}}");
+        assertEquals(ImmutableList.of(1, -2500.0, true, false,
+                JSONObject.NULL, "A\n"), object.get("a"));
+    }
+
+    public void testParseArray() throws Exception {
+        List<LazyJsonObject> list = LazyJsonObject.parseArray(
+                " [ {\"id\":1}, null, 3, {} ] ");
+        assertEquals(4, list.size());
+        assertEquals(ImmutableMap.of("id", 1), list.get(0));
+        assertNull(list.get(1));
+        assertNull(list.get(2));
+        assertTrue(list.get(3).isEmpty());
+
+        assertEquals(ImmutableList.of(), LazyJsonObject.parseArray("[]"));
+        assertNull(LazyJsonObject.parseArray("null"));
+        assertNull(LazyJsonObject.parse("null"));
+    }
+
+    public void testInvalidDocuments() throws Exception {
+        assertInvalidObject("[]");
+        assertInvalidObject("{\"a\":1");
+        assertInvalidObject("{\"a\" 1}");
+        assertInvalidObject("{\"a\":\"1}");
+        assertInvalidObject("{\"a\":1} x");
+        // Malformed values are found while indexing, not on access.
+        assertInvalidObject("{\"a\":[1,}");
+        assertInvalidObject("{\"a\":[1}");
+        assertInvalidObject("{\"a\":{\"b\" 1}}");
+        assertInvalidObject("{\"a\":{\"b\":1]}");
+        assertInvalidObject("{\"a\":tru}");
+        assertInvalidObject("{\"a\":1.2.3}");
+        assertInvalidObject("{\"a\":\"\\x\"}");
+        assertInvalidObject("{\"a\":\"\\u12\"}");
+        assertInvalidObject("{\"a\":[{\"b\":[true,]}]}");
+    }
+
+    private static void assertInvalidObject(String json) {
+        try {
+            LazyJsonObject.parse(json);
+            fail("Expected JSONException for " + json);
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.strongloop.android.remoting.test;
+
+import com.strongloop.android.remoting.GenerateSerializer;
+import com.strongloop.android.remoting.ObjectSerializer;
+import com.strongloop.android.remoting.Repository;
+import com.strongloop.android.remoting.VirtualObject;
+
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ObjectSerializerTest extends TestCase {
+
+    @GenerateSerializer
+    public static class Widget extends VirtualObject {
+        private String name;
+        private int count;
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+
+        public int getCount() { return count; }
+        public void setCount(int count) { this.count = count; }
+    }
+
+    public void testForClassFindsGeneratedSerializer() {
+        assertTrue(ObjectSerializer.forClass(Widget.class)
+                instanceof ObjectSerializerTest$Widget$$Serializer);
+        assertNull(ObjectSerializer.forClass(VirtualObject.class));
+    }
+
+    public void testCreateObjectUsesSerializer() {
+        Repository<Widget> repository =
+                new Repository<Widget>("widget", Widget.class);
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("name", "Fred");
+        parameters.put("count", 42L);
+        parameters.put("unknown", true);
+
+        Widget widget = repository.createObject(parameters);
+        assertSame(repository, widget.getRepository());
+        assertEquals("Fred", widget.getName());
+        assertEquals(42, widget.getCount());
+
+        Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("name", "Fred");
+        expected.put("count", 42);
+        assertEquals(expected, widget.toMap());
+    }
+
+    public void testJsonRoundTrip() throws Exception {
+        ObjectSerializer<Widget> serializer = ObjectSerializer.forClass(Widget.class);
+        Widget widget = serializer.fromJson(
+                new JSONObject("{ \"name\": \"Fred\", \"count\": 3 }"));
+        assertEquals("Fred", widget.getName());
+        assertEquals(3, widget.getCount());
+
+        JSONObject json = serializer.toJson(widget);
+        assertEquals("Fred", json.getString("name"));
+        assertEquals(3, json.getInt("count"));
+    }
+
+    public void testJsonNullValues() throws Exception {
+        ObjectSerializer<Widget> serializer = ObjectSerializer.forClass(Widget.class);
+        Widget widget = serializer.fromJson(
+                new JSONObject("{ \"name\": null, \"count\": 3 }"));
+        assertNull(widget.getName());
+
+        JSONObject json = serializer.toJson(widget);
+        assertTrue(json.has("name"));
+        assertTrue(json.isNull("name"));
+    }
+
+    public void testRegisteredSerializerIsUsed() {
+        ObjectSerializer<Gadget> serializer = new ObjectSerializer<Gadget>() {
+            @Override
+            public Gadget newInstance() {
+                return new Gadget();
+            }
+
+            @Override
+            public boolean setProperty(Gadget object, String name, Object value) {
+                return false;
+            }
+
+            @Override
+            public Map<String, Object> getProperties(Gadget object) {
+                return new HashMap<String, Object>();
+            }
+        };
+        ObjectSerializer.register(Gadget.class, serializer);
+        assertSame(serializer, ObjectSerializer.forClass(Gadget.class));
+    }
+
+    public static class Gadget extends VirtualObject {
+    }
+
+    public void testConvert() {
+        assertEquals(7, ObjectSerializer.convert(7L, Integer.TYPE));
+        assertEquals(7.0, ObjectSerializer.convert(7, Double.class));
+        assertSame(ObjectSerializer.NOT_CONVERTIBLE,
+                ObjectSerializer.convert(1L << 40, Integer.TYPE));
+        assertSame(ObjectSerializer.NOT_CONVERTIBLE,
+                ObjectSerializer.convert(null, Boolean.TYPE));
+        assertNull(ObjectSerializer.convert(null, String.class));
+    }
+}
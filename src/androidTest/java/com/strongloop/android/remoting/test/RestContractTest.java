@@ -1,20 +1,32 @@
 package com.strongloop.android.remoting.test;
 
 import android.test.MoreAsserts;
+import android.test.suitebuilder.annotation.Suppress;
+import android.util.Log;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.strongloop.android.remoting.Repository;
 import com.strongloop.android.remoting.VirtualObject;
 import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.Batch;
+import com.strongloop.android.remoting.adapters.CachePolicy;
+import com.strongloop.android.remoting.adapters.CompressionStats;
+import com.strongloop.android.remoting.adapters.RemoteMethod;
+import com.strongloop.android.remoting.adapters.ResponseCache;
 import com.strongloop.android.remoting.adapters.RestAdapter;
 import com.strongloop.android.remoting.adapters.RestContract;
 import com.strongloop.android.remoting.adapters.RestContractItem;
+import com.strongloop.android.remoting.adapters.RetryPolicy;
+import com.strongloop.android.remoting.adapters.UrlTemplate;
 
 import org.json.JSONObject;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class RestContractTest extends AsyncTestCase {
     /**
@@ -85,6 +97,116 @@ public class RestContractTest extends AsyncTestCase {
                 parent.getVerbForMethod("new.route"));
     }
 
+    public void testRetryPolicyPerRoute() {
+        RestContract contract = new RestContract();
+        RetryPolicy policy = RetryPolicy.maxRetries(5).withBackoff(100, 1000);
+        contract.addItem(new RestContractItem("/items/:id", "GET")
+                .withCachePolicy(CachePolicy.NO_STORE)
+                .withRetryPolicy(policy), "items.get");
+        contract.addItem(new RestContractItem("/items", "POST"),
+                "items.create");
+
+        assertSame(policy, contract.getRetryPolicyForMethod("items.get"));
+        assertSame(CachePolicy.NO_STORE,
+                contract.getCachePolicyForMethod("items.get"));
+        assertNull(contract.getRetryPolicyForMethod("items.create"));
+        assertTrue(policy.isRetryAllowed("GET"));
+        assertFalse(policy.isRetryAllowed("POST"));
+        assertTrue(policy.retryingAllVerbs().isRetryAllowed("POST"));
+    }
+
+    public void testUrlPlaceholderNamesDoNotOverlap() {
+        RestContract contract = new RestContract();
+        contract.addItem(new RestContractItem("/items/:id/parts/:idx", "GET"),
+                "items.part");
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("id", 1);
+        params.put("idx", 2);
+
+        assertEquals("/items/1/parts/2",
+                contract.getUrlForMethod("items.part", params));
+    }
+
+    public void testUrlPlaceholderValuesAreEncoded() {
+        assertEquals("/files/a%20b%2Fc%C3%A9",
+                new RestContract().getUrl("/files/:name",
+                        param("name", "a b/c\u00e9")));
+        assertEquals("Missing values are kept",
+                "/files/:name",
+                new RestContract().getUrl("/files/:name", null));
+    }
+
+    public void testUrlTemplateMatchesReplacingEachParameter() {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("container", "album");
+        params.put("name", "photo.jpg");
+        params.put("id", 42);
+        params.put("filter", "value");
+
+        for (String pattern : new String[] {
+                "/containers/:container/files/:name",
+                "/widgets/:id",
+                "/widgets/:id/parts",
+                "/widgets",
+                ":container/:name" }) {
+            assertEquals(pattern, replaceEach(pattern, params),
+                    new UrlTemplate(pattern).expand(params));
+        }
+    }
+
+    /**
+     * Compares rendering a URL with a compiled template to replacing
+     * each parameter in the pattern, the results are written to the log
+     * (tag "RestContractTest"). Timings are not asserted, the benchmark is
+     * excluded from the suite and must be run explicitly.
+     */
+    @Suppress
+    public void testUrlTemplateBenchmark() {
+        final int iterations = 10000;
+        String pattern = "/containers/:container/files/:name";
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("container", "album");
+        params.put("name", "photo.jpg");
+        for (int i = 0; i < 20; i++) {
+            params.put("filter" + i, "value" + i);
+        }
+        UrlTemplate template = new UrlTemplate(pattern);
+
+        // Warm up.
+        for (int i = 0; i < iterations; i++) {
+            replaceEach(pattern, params);
+            template.expand(params);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            replaceEach(pattern, params);
+        }
+        long replaceTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            template.expand(params);
+        }
+        long templateTime = System.nanoTime() - start;
+
+        assertEquals(replaceEach(pattern, params), template.expand(params));
+        Log.i("RestContractTest", String.format(
+                "%d URLs: String.replace %.1f ms, UrlTemplate %.1f ms",
+                iterations, replaceTime / 1e6, templateTime / 1e6));
+    }
+
+    // The way URLs were rendered before UrlTemplate.
+    private static String replaceEach(String pattern, Map<String, Object> params) {
+        String url = pattern;
+        for (Map.Entry<String, Object> entry : params.entrySet()) {
+            url = url.replace(":" + entry.getKey(),
+                    String.valueOf(entry.getValue()));
+        }
+        return url;
+    }
+
     public void testGet() throws Throwable {
         doAsyncTest(new AsyncTest() {
 
@@ -96,6 +218,153 @@ public class RestContractTest extends AsyncTestCase {
         });
     }
 
+    public void testOverriddenStringCallbackReceivesBody() throws Throwable {
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("contract.getSecret", null,
+                        new Adapter.JsonObjectCallback() {
+                            @Override
+                            public void onSuccess(String response) {
+                                assertTrue(response, response.contains("shhh!"));
+                                notifyFinished();
+                            }
+
+                            @Override
+                            public void onSuccess(JSONObject response) {
+                                fail("The string callback was overridden");
+                            }
+
+                            @Override
+                            public void onError(Throwable t) {
+                                notifyFailed(t);
+                            }
+                        });
+            }
+        });
+    }
+
+    public void testConcurrentIdenticalGetsAreCollapsed() throws Throwable {
+        final long collapsedBefore = adapter.getCollapsedRequestCount();
+        doAsyncTest(new AsyncTest() {
+
+            private int pending = 2;
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("contract.getSecret", null,
+                        expectSecret());
+                adapter.invokeStaticMethod("contract.getSecret", null,
+                        expectSecret());
+            }
+
+            private Adapter.JsonObjectCallback expectSecret() {
+                return new Adapter.JsonObjectCallback() {
+                    @Override
+                    public void onSuccess(JSONObject response) {
+                        assertEquals("shhh!", response.optString("data"));
+                        if (--pending == 0) notifyFinished();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFailed(t);
+                    }
+                };
+            }
+        });
+        assertEquals(collapsedBefore + 1, adapter.getCollapsedRequestCount());
+    }
+
+    public void testCachedGetIsServedFromCache() throws Throwable {
+        File cacheDir = new File(
+                getInstrumentation().getTargetContext().getCacheDir(),
+                "RestContractTest");
+        final ResponseCache cache = new ResponseCache(cacheDir, 64 * 1024);
+        cache.clear();
+        adapter.setResponseCache(cache);
+        adapter.getContract().addItem(
+                new RestContractItem("/contract/customizedGetSecret", "GET")
+                        .withCachePolicy(CachePolicy.maxAge(60)),
+                "contract.cachedSecret");
+
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("contract.cachedSecret", null,
+                        new Adapter.JsonObjectCallback() {
+                            @Override
+                            public void onSuccess(JSONObject response) {
+                                assertEquals("shhh!", response.optString("data"));
+                                adapter.invokeStaticMethod("contract.cachedSecret",
+                                        null, expectJsonResponse("shhh!"));
+                            }
+
+                            @Override
+                            public void onError(Throwable t) {
+                                notifyFailed(t);
+                            }
+                        });
+            }
+        });
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testBatch() throws Throwable {
+        adapter.setBatchPath("/batch");
+        doBatchTest();
+    }
+
+    public void testBatchFallsBackToSeparateRequests() throws Throwable {
+        adapter.setBatchPath("/no-such-batch-route");
+        doBatchTest();
+    }
+
+    private void doBatchTest() throws Throwable {
+        doAsyncTest(new AsyncTest() {
+
+            private int completed = 0;
+
+            @Override
+            public void run() {
+                adapter.batch()
+                        .invokeStatic("contract.getSecret", null,
+                                expect("shhh!"))
+                        .invokeStatic("contract.transform",
+                                param("str", "somevalue"),
+                                expect("transformed: somevalue"))
+                        .invokeInstance("ContractClass.prototype.getName",
+                                param("name", "somename"), null,
+                                expect("somename"))
+                        .execute(new Batch.CompletionCallback() {
+                            @Override
+                            public void onComplete() {
+                                assertEquals(3, completed);
+                                notifyFinished();
+                            }
+                        });
+            }
+
+            private Adapter.JsonObjectCallback expect(final String data) {
+                return new Adapter.JsonObjectCallback() {
+                    @Override
+                    public void onSuccess(JSONObject response) {
+                        assertEquals(data, response.optString("data"));
+                        completed++;
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFailed(t);
+                    }
+                };
+            }
+        });
+    }
+
     public void testTransform() throws Throwable {
         doAsyncTest(new AsyncTest() {
 
@@ -109,6 +378,71 @@ public class RestContractTest extends AsyncTestCase {
     }
 
 
+    public void testBoundMethod() throws Throwable {
+        final RemoteMethod transform = adapter.bindStaticMethod(
+                "contract.transform");
+
+        doAsyncTest(new AsyncTest() {
+            private int pending = 2;
+
+            @Override
+            public void run() {
+                transform.invoke(param("str", "first"), expect("first"));
+                transform.invoke(param("str", "second"), expect("second"));
+            }
+
+            private Adapter.JsonObjectCallback expect(final String value) {
+                return new Adapter.JsonObjectCallback() {
+                    @Override
+                    public void onSuccess(JSONObject response) {
+                        assertEquals("transformed: " + value,
+                                response.optString("data"));
+                        if (--pending == 0) notifyFinished();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFailed(t);
+                    }
+                };
+            }
+        });
+    }
+
+    public void testBoundPrototypeMethod() throws Throwable {
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                testClass.prototypeMethod("greet").invoke(
+                        param("name", "somename"),
+                        param("other", "othername"),
+                        expectJsonResponse("Hi, othername!"));
+            }
+        });
+    }
+
+    public void testDecodeExecutor() throws Throwable {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        adapter.setDecodeExecutor(executor);
+        try {
+            doAsyncTest(new AsyncTest() {
+
+                @Override
+                public void run() {
+                    adapter.invokeStaticMethod("contract.transform",
+                            param("str", "somevalue"),
+                            expectJsonResponse("transformed: somevalue"));
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, adapter.getDecodeStats().getCount());
+        assertTrue(adapter.getDecodeStats().getTime() > 0);
+    }
+
     public void testTestClassGet() throws Throwable {
         doAsyncTest(new AsyncTest() {
 
@@ -172,6 +506,26 @@ public class RestContractTest extends AsyncTestCase {
         });
     }
 
+    public void testCompressedRequestBody() throws Throwable {
+        adapter.setRequestCompressionThreshold(0);
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                VirtualObject test = testClass.createObject(
+                        param("name", "somename"));
+                test.invokeMethod("greet",
+                        param("other", "othername"),
+                        expectJsonResponse("Hi, othername!"));
+            }
+        });
+
+        CompressionStats stats = adapter.getCompressionStats(
+                "ContractClass.prototype.greet");
+        assertEquals(1, stats.getCompressedRequestCount());
+        assertTrue(stats.getCompressedRequestBytes() > 0);
+    }
+
     public void testNestedParameterObjectsAreFlattened() throws Throwable {
         doAsyncTest(new AsyncTest() {
             @Override
@@ -0,0 +1,663 @@
+package com.strongloop.android.remoting.test;
+
+import android.util.Log;
+
+import com.google.common.io.CountingInputStream;
+import com.strongloop.android.remoting.Repository;
+import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.CachePolicy;
+import com.strongloop.android.remoting.adapters.CircuitOpenException;
+import com.strongloop.android.remoting.adapters.LoopjTransport;
+import com.strongloop.android.remoting.adapters.Priority;
+import com.strongloop.android.remoting.adapters.RequestBody;
+import com.strongloop.android.remoting.adapters.RequestHandle;
+import com.strongloop.android.remoting.adapters.ResponseCache;
+import com.strongloop.android.remoting.adapters.RestAdapter;
+import com.strongloop.android.remoting.adapters.RestContractItem;
+import com.strongloop.android.remoting.adapters.RetryPolicy;
+import com.strongloop.android.remoting.adapters.Transport;
+import com.strongloop.android.remoting.adapters.TransportRequest;
+import com.strongloop.android.remoting.adapters.TransportResponse;
+import com.strongloop.android.remoting.adapters.UrlConnectionTransport;
+
+import org.apache.http.Header;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.message.BasicHeader;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TransportTest extends AsyncTestCase {
+    private static final String TAG = "TransportTest";
+    private static final int BENCHMARK_REQUESTS = 100;
+    private static final int BENCHMARK_CONCURRENCY = 5;
+
+    private RestAdapter adapter;
+    private ResponseCache cache;
+    private Repository testClass;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        adapter = createRestAdapter();
+        adapter.setTransport(new UrlConnectionTransport());
+        testClass = new Repository("SimpleClass");
+        testClass.setAdapter(adapter);
+    }
+
+    public void testDefaultTransport() {
+        assertTrue(createRestAdapter().getTransport() instanceof LoopjTransport);
+    }
+
+    public void testUrlConnectionGet() throws Throwable {
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("simple.transform",
+                        param("str", "somevalue"),
+                        expectJsonResponse("transformed: somevalue"));
+            }
+        });
+    }
+
+    public void testUrlConnectionPost() throws Throwable {
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                testClass.createObject(param("name", "somename"))
+                        .invokeMethod("getName", null,
+                                expectJsonResponse("somename"));
+            }
+        });
+    }
+
+    public void testUrlConnectionErrorStatus() throws Throwable {
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("simple.no-such-method", null,
+                        new Adapter.Callback() {
+                            @Override
+                            public void onSuccess(String response) {
+                                notifyFailed(new AssertionError(
+                                        "Expected an error, got " + response));
+                            }
+
+                            @Override
+                            public void onError(Throwable t) {
+                                assertTrue(t instanceof HttpResponseException);
+                                assertEquals(404,
+                                        ((HttpResponseException) t).getStatusCode());
+                                notifyFinished();
+                            }
+                        });
+            }
+        });
+    }
+
+    public void testPriorityScheduling() {
+        HoldingTransport holding = holdRequests();
+        adapter.setMaxRequests(1);
+        adapter.setPriority("simple", Priority.BACKGROUND);
+        adapter.setPriority("simple.getSecret", Priority.NORMAL);
+
+        adapter.invokeStaticMethod("simple.transform", param("str", "first"),
+                IGNORED);
+        adapter.invokeStaticMethod("simple.transform", param("str", "second"),
+                IGNORED);
+        adapter.invokeStaticMethod("simple.getSecret", null, IGNORED);
+        adapter.runWithPriority(Priority.INTERACTIVE, new Runnable() {
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("simple.transform",
+                        param("str", "third"), IGNORED);
+            }
+        });
+        assertEquals(1, holding.urls.size());
+
+        holding.completeNext();
+        holding.completeNext();
+        holding.completeNext();
+        holding.completeNext();
+
+        assertEquals(4, holding.urls.size());
+        assertTrue(holding.urls.get(0).contains("first"));
+        assertTrue(holding.urls.get(1).contains("third"));
+        assertTrue(holding.urls.get(2).contains("getSecret"));
+        assertTrue(holding.urls.get(3).contains("second"));
+
+        assertEquals(2, adapter.getQueueStats(Priority.BACKGROUND).getCount());
+        assertEquals(1,
+                adapter.getQueueStats(Priority.BACKGROUND).getQueuedCount());
+        assertEquals(1,
+                adapter.getQueueStats(Priority.INTERACTIVE).getQueuedCount());
+    }
+
+    public void testCancelWaitingRequest() {
+        HoldingTransport holding = holdRequests();
+        adapter.setMaxRequests(1);
+
+        adapter.invokeStaticMethod("simple.transform", param("str", "first"),
+                IGNORED);
+        RequestHandle second = adapter.invokeStaticMethod("simple.transform",
+                param("str", "second"), IGNORED);
+        assertTrue(second.cancel());
+        assertTrue(second.isCancelled());
+        assertFalse(second.cancel());
+
+        holding.completeNext();
+        assertEquals(1, holding.urls.size());
+        assertEquals(1, adapter.getCancellationStats().getDequeuedCount());
+    }
+
+    public void testCancelAllByTag() {
+        HoldingTransport holding = holdRequests();
+        adapter.setMaxRequests(2);
+
+        Object screen = new Object();
+        adapter.invokeStaticMethod("simple.transform", param("str", "first"),
+                IGNORED).setTag(screen);
+        adapter.invokeStaticMethod("simple.transform", param("str", "second"),
+                IGNORED).setTag(screen);
+        RequestHandle other = adapter.invokeStaticMethod("simple.transform",
+                param("str", "third"), IGNORED);
+        assertEquals(2, holding.urls.size());
+
+        assertEquals(2, adapter.cancelAll(screen));
+        assertTrue(holding.calls.get(0).isCancelled());
+        assertTrue(holding.calls.get(1).isCancelled());
+        assertFalse(other.isCancelled());
+
+        // The slots of the aborted requests are free again.
+        assertEquals(3, holding.urls.size());
+        assertEquals(2, adapter.getCancellationStats().getAbortedCount());
+        assertEquals(0, adapter.cancelAll(screen));
+    }
+
+    public void testRetryIdempotentRequest() throws InterruptedException {
+        HoldingTransport holding = holdRequests();
+        adapter.setRetryPolicy(RetryPolicy.maxRetries(1).withBackoff(0, 0));
+
+        adapter.invokeStaticMethod("simple.transform", param("str", "value"),
+                IGNORED);
+        holding.completeNext();
+        holding.awaitRequests(2);
+        holding.completeNext();
+
+        Thread.sleep(100);
+        assertEquals(2, holding.urls.size());
+    }
+
+    public void testCircuitBreakerFailsFast() {
+        HoldingTransport holding = holdRequests();
+        adapter.setCircuitBreakerThreshold(2);
+
+        adapter.invokeStaticMethod("simple.transform", param("str", "first"),
+                IGNORED);
+        holding.completeNext();
+        adapter.invokeStaticMethod("simple.transform", param("str", "second"),
+                IGNORED);
+        holding.completeNext();
+
+        final Throwable[] error = new Throwable[1];
+        adapter.invokeStaticMethod("simple.transform", param("str", "third"),
+                new Adapter.Callback() {
+                    @Override
+                    public void onSuccess(String response) {
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        error[0] = t;
+                    }
+                });
+        assertEquals(2, holding.urls.size());
+        if (error[0] != null) {
+            assertTrue(error[0] instanceof CircuitOpenException);
+        }
+    }
+
+    public void testCircuitBreakerIgnoresNotImplemented() throws Exception {
+        HoldingTransport holding = holdRequests();
+        adapter.setCircuitBreakerThreshold(1);
+
+        adapter.invokeStaticMethod("simple.transform", param("str", "first"),
+                IGNORED);
+        holding.awaitRequests(1);
+        holding.calls.get(0).finished = true;
+        holding.calls.get(0).listener.onResponse(new TransportResponse(501,
+                "Not Implemented", new Header[0],
+                new ByteArrayInputStream(new byte[0]), 0));
+
+        adapter.invokeStaticMethod("simple.transform", param("str", "second"),
+                IGNORED);
+        holding.awaitRequests(2);
+    }
+
+    public void testCircuitBreakerIgnoresClientErrors() throws Exception {
+        HoldingTransport holding = holdRequests();
+        adapter.setCircuitBreakerThreshold(1);
+
+        adapter.invokeStaticMethod("simple.transform", param("str", "first"),
+                IGNORED);
+        holding.awaitRequests(1);
+        holding.calls.get(0).finished = true;
+        holding.calls.get(0).listener.onFailure(
+                new IllegalArgumentException("Invalid URL"));
+
+        adapter.invokeStaticMethod("simple.transform", param("str", "second"),
+                IGNORED);
+        holding.awaitRequests(2);
+    }
+
+    public void testStreamedRequestsAreNotCollapsed() {
+        HoldingTransport holding = holdRequests();
+        adapter.setRequestCollapsingEnabled(true);
+        adapter.getContract().addItem(
+                new RestContractItem("/downloads/file", "GET"),
+                "downloads.file");
+        Adapter.StreamCallback ignored = new Adapter.StreamCallback() {
+            @Override
+            public void onResponse(InputStream body, String contentType) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+        };
+
+        adapter.invokeStaticMethod("downloads.file", null, ignored);
+        adapter.invokeStaticMethod("downloads.file", null, ignored);
+
+        assertEquals(2, holding.urls.size());
+        assertEquals(0, adapter.getCollapsedRequestCount());
+    }
+
+    public void testJsonBodyIsEncodedWhileTheRequestIsSent() throws Exception {
+        HoldingTransport holding = holdRequests();
+        adapter.getContract().addItem(new RestContractItem("/widgets", "POST"),
+                "widgets.create");
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("name", "before");
+        adapter.invokeStaticMethod("widgets.create", params, IGNORED);
+        params.put("name", "after");
+
+        holding.awaitRequests(1);
+        RequestBody body = holding.requests.get(0).getBody();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        assertEquals("{\"name\":\"before\"}", out.toString("UTF-8"));
+        assertEquals("Length is not unknown", -1, body.getContentLength());
+    }
+
+    public void testJsonBodiesBelowThresholdAreNotCompressed() throws Exception {
+        HoldingTransport holding = holdRequests();
+        adapter.setRequestCompressionThreshold(1024);
+        adapter.getContract().addItem(new RestContractItem("/widgets", "POST"),
+                "widgets.create");
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 2048; i++) {
+            large.append('x');
+        }
+
+        adapter.invokeStaticMethod("widgets.create", param("name", "small"),
+                IGNORED);
+        adapter.invokeStaticMethod("widgets.create",
+                param("name", large.toString()), IGNORED);
+
+        holding.awaitRequests(2);
+        assertNull(holding.requests.get(0).getHeader("Content-Encoding"));
+        assertEquals("gzip",
+                holding.requests.get(1).getHeader("Content-Encoding"));
+    }
+
+    public void testResponseCacheSurvivesRestart() throws Exception {
+        ScriptedTransport scripted = cacheRequests(CachePolicy.maxAge(60));
+        scripted.respond(200, "{\"data\":\"one\"}", "\"v1\"");
+        assertEquals("{\"data\":\"one\"}", fetch("cached.get"));
+
+        ResponseCache reopened = new ResponseCache(cacheDir(), 64 * 1024);
+        reopened.awaitIndexing();
+        adapter.setResponseCache(reopened);
+        assertEquals("{\"data\":\"one\"}", fetch("cached.get"));
+        assertEquals(1, scripted.requests.size());
+        assertEquals(1, reopened.getHitCount());
+    }
+
+    public void testResponseCacheClearedBeforeIndexing() throws Exception {
+        ScriptedTransport scripted = cacheRequests(CachePolicy.maxAge(60));
+        scripted.respond(200, "{\"data\":\"one\"}", "\"v1\"");
+        assertEquals("{\"data\":\"one\"}", fetch("cached.get"));
+
+        ResponseCache reopened = new ResponseCache(cacheDir(), 64 * 1024);
+        reopened.clear();
+        reopened.awaitIndexing();
+        assertEquals(0, reopened.getSize());
+
+        ResponseCache again = new ResponseCache(cacheDir(), 64 * 1024);
+        again.awaitIndexing();
+        assertEquals(0, again.getSize());
+    }
+
+    public void testResponseCacheRevalidatesWithETag() throws Exception {
+        ScriptedTransport scripted = cacheRequests(CachePolicy.maxAge(0));
+        scripted.respond(200, "{\"data\":\"one\"}", "\"v1\"");
+        scripted.respond(304, "", null);
+
+        assertEquals("{\"data\":\"one\"}", fetch("cached.get"));
+        assertEquals("{\"data\":\"one\"}", fetch("cached.get"));
+
+        assertEquals(2, scripted.requests.size());
+        assertNull(scripted.requests.get(0).getHeader("If-None-Match"));
+        assertEquals("\"v1\"",
+                scripted.requests.get(1).getHeader("If-None-Match"));
+        assertEquals(1, cache.getNotModifiedCount());
+    }
+
+    public void testResponseCacheReplacesEntry() throws Exception {
+        ScriptedTransport scripted = cacheRequests(CachePolicy.maxAge(0));
+        scripted.respond(200, "{\"data\":\"one\"}", "\"v1\"");
+        scripted.respond(200, "{\"data\":\"three\"}", "\"v2\"");
+
+        assertEquals("{\"data\":\"one\"}", fetch("cached.get"));
+        assertEquals("{\"data\":\"three\"}", fetch("cached.get"));
+
+        long size = "{\"data\":\"three\"}".length();
+        assertEquals(size, cache.getSize());
+        ResponseCache reopened = new ResponseCache(cacheDir(), 64 * 1024);
+        reopened.awaitIndexing();
+        assertEquals(size, reopened.getSize());
+    }
+
+    public void testCancelledResponseIsNotDrainedIntoCache() throws Exception {
+        HoldingTransport holding = holdRequests();
+        cache = new ResponseCache(cacheDir(), 1024 * 1024);
+        cache.clear();
+        adapter.setResponseCache(cache);
+        adapter.getContract().addItem(new RestContractItem("/cached", "GET")
+                .withCachePolicy(CachePolicy.maxAge(60)), "cached.get");
+
+        RequestHandle handle = adapter.invokeStaticMethod("cached.get", null,
+                IGNORED);
+        holding.awaitRequests(1);
+        assertTrue(handle.cancel());
+
+        // The transport delivers the response the abort came too late for.
+        CountingInputStream body = new CountingInputStream(
+                new ByteArrayInputStream(new byte[256 * 1024]));
+        holding.calls.get(0).listener.onResponse(new TransportResponse(200,
+                "OK", new Header[0], body, 256 * 1024));
+
+        assertEquals(0, body.getCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    /**
+     * Replaces the transport of the adapter with one holding requests
+     * until completed by the test, without retries.
+     */
+    private HoldingTransport holdRequests() {
+        HoldingTransport holding = new HoldingTransport();
+        adapter.setTransport(holding);
+        adapter.setRequestCollapsingEnabled(false);
+        adapter.setRetryPolicy(RetryPolicy.NONE);
+        adapter.setCircuitBreakerThreshold(0);
+        return holding;
+    }
+
+    /**
+     * Replaces the transport of the adapter with one answering with
+     * scripted responses, and caches the responses of the GET route
+     * <code>"cached.get"</code> in an empty cache.
+     */
+    private ScriptedTransport cacheRequests(CachePolicy policy) {
+        ScriptedTransport scripted = new ScriptedTransport();
+        adapter.setTransport(scripted);
+        adapter.setRequestCollapsingEnabled(false);
+        adapter.setRetryPolicy(RetryPolicy.NONE);
+        cache = new ResponseCache(cacheDir(), 64 * 1024);
+        cache.clear();
+        adapter.setResponseCache(cache);
+        adapter.getContract().addItem(
+                new RestContractItem("/cached", "GET").withCachePolicy(policy),
+                "cached.get");
+        return scripted;
+    }
+
+    private File cacheDir() {
+        return new File(getInstrumentation().getTargetContext().getCacheDir(),
+                "TransportTest");
+    }
+
+    private String fetch(String method) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final String[] result = new String[1];
+        adapter.invokeStaticMethod(method, null, new Adapter.Callback() {
+            @Override
+            public void onSuccess(String response) {
+                result[0] = response;
+                done.countDown();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                result[0] = "error: " + t;
+                done.countDown();
+            }
+        });
+        assertTrue("No response", done.await(5, TimeUnit.SECONDS));
+        return result[0];
+    }
+
+    /**
+     * Answers requests with the scripted responses, in order.
+     */
+    private static class ScriptedTransport implements Transport {
+        final List<TransportRequest> requests = new ArrayList<TransportRequest>();
+        final List<TransportResponse> responses = new ArrayList<TransportResponse>();
+
+        void respond(int statusCode, String body, String etag) {
+            Header[] headers = etag != null
+                    ? new Header[] { new BasicHeader("ETag", etag) }
+                    : new Header[0];
+            responses.add(new TransportResponse(statusCode,
+                    statusCode == 200 ? "OK" : "Not Modified", headers,
+                    new ByteArrayInputStream(body.getBytes()), -1));
+        }
+
+        @Override
+        public Call execute(TransportRequest request, Listener listener) {
+            TransportResponse response;
+            synchronized (this) {
+                requests.add(request);
+                response = responses.remove(0);
+            }
+            HoldingCall call = new HoldingCall(listener);
+            call.finished = true;
+            try {
+                listener.onResponse(response);
+            } catch (Throwable t) {
+                listener.onFailure(t);
+            }
+            return call;
+        }
+    }
+
+    private static final Adapter.Callback IGNORED = new Adapter.Callback() {
+        @Override
+        public void onSuccess(String response) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+    };
+
+    /**
+     * Records the requests and completes them only when asked to.
+     */
+    private static class HoldingTransport implements Transport {
+        final List<String> urls = new ArrayList<String>();
+        final List<TransportRequest> requests = new ArrayList<TransportRequest>();
+        final List<HoldingCall> calls = new ArrayList<HoldingCall>();
+
+        @Override
+        public synchronized Call execute(TransportRequest request,
+                                         Listener listener) {
+            urls.add(request.getUrl());
+            requests.add(request);
+            HoldingCall call = new HoldingCall(listener);
+            calls.add(call);
+            notifyAll();
+            return call;
+        }
+
+        synchronized void awaitRequests(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (urls.size() < count &&
+                    System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertEquals(count, urls.size());
+        }
+
+        void completeNext() {
+            List<HoldingCall> current;
+            synchronized (this) {
+                current = new ArrayList<HoldingCall>(calls);
+            }
+            for (HoldingCall call : current) {
+                if (!call.isFinished()) {
+                    call.finished = true;
+                    call.listener.onFailure(new IOException("done"));
+                    return;
+                }
+            }
+            fail("No request in progress");
+        }
+    }
+
+    private static class HoldingCall implements Transport.Call {
+        final Transport.Listener listener;
+        boolean finished;
+        boolean cancelled;
+
+        HoldingCall(Transport.Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (finished) return false;
+            finished = true;
+            cancelled = true;
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+    }
+
+    /**
+     * Compares the transports shipped with the library, the results are
+     * written to the log (tag "TransportTest").
+     */
+    public void testCompareTransports() throws Throwable {
+        RestAdapter loopj = createRestAdapter();
+        loopj.setRequestCollapsingEnabled(false);
+        RestAdapter urlConnection = createRestAdapter();
+        urlConnection.setRequestCollapsingEnabled(false);
+        urlConnection.setTransport(
+                new UrlConnectionTransport(BENCHMARK_CONCURRENCY));
+
+        // Warm up the connection pools.
+        runRequests(loopj, BENCHMARK_CONCURRENCY);
+        runRequests(urlConnection, BENCHMARK_CONCURRENCY);
+
+        long loopjTime = runRequests(loopj, BENCHMARK_REQUESTS);
+        long urlConnectionTime = runRequests(urlConnection, BENCHMARK_REQUESTS);
+
+        Log.i(TAG, describe(loopj.getTransport(), loopjTime));
+        Log.i(TAG, describe(urlConnection.getTransport(), urlConnectionTime));
+    }
+
+    private String describe(Transport transport, long nanos) {
+        return String.format("%s: %d requests in %.1f ms (%.2f ms/request)",
+                transport.getClass().getSimpleName(), BENCHMARK_REQUESTS,
+                nanos / 1e6, nanos / 1e6 / BENCHMARK_REQUESTS);
+    }
+
+    /**
+     * Sends the requests keeping {@link #BENCHMARK_CONCURRENCY} of them
+     * in progress.
+     * @return The elapsed time in nanoseconds.
+     */
+    private long runRequests(final RestAdapter restAdapter, final int count)
+            throws Throwable {
+        final long[] elapsed = new long[1];
+        doAsyncTest(new AsyncTest() {
+            private long start;
+            private int sent;
+            private int received;
+
+            @Override
+            public void run() {
+                start = System.nanoTime();
+                for (int i = 0; i < BENCHMARK_CONCURRENCY && i < count; i++) {
+                    sendNext();
+                }
+            }
+
+            private void sendNext() {
+                sent++;
+                restAdapter.invokeStaticMethod("simple.transform",
+                        param("str", "value" + sent),
+                        new Adapter.JsonObjectCallback() {
+                            @Override
+                            public void onSuccess(JSONObject response) {
+                                received++;
+                                if (received == count) {
+                                    elapsed[0] = System.nanoTime() - start;
+                                    notifyFinished();
+                                }
+                                else if (sent < count) {
+                                    sendNext();
+                                }
+                            }
+
+                            @Override
+                            public void onError(Throwable t) {
+                                notifyFailed(t);
+                            }
+                        });
+            }
+        });
+        return elapsed[0];
+    }
+
+    private static <T> Map<String, T> param(String name, T value) {
+        Map<String, T> params = new HashMap<String, T>();
+        params.put(name, value);
+        return params;
+    }
+}
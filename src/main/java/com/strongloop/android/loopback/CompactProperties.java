@@ -0,0 +1,296 @@
+package com.strongloop.android.loopback;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The key-value dictionary of a {@link Model} using compact storage, see
+ * {@link ModelRepository#setCompactStorageEnabled(boolean)}.
+ * <p>
+ * Values are stored in flat arrays indexed by the slots of a
+ * {@link ModelSchema} shared by all models of the repository. Integers,
+ * longs, doubles and booleans are stored unboxed and boxed again when
+ * read. Names without a slot are kept in a small spill map.
+ * <p>
+ * Like {@link HashMap}, this class is not thread-safe.
+ */
+class CompactProperties extends AbstractMap<String, Object> {
+    private static final byte ABSENT = 0;
+    private static final byte OBJECT = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte BOOLEAN = 5;
+
+    private static final Object[] NO_VALUES = new Object[0];
+    private static final byte[] NO_KINDS = new byte[0];
+
+    private final ModelSchema schema;
+    private byte[] kinds = NO_KINDS;
+    private Object[] values = NO_VALUES;
+    private long[] primitives;
+    private int slotCount = 0;
+    private Map<String, Object> spill;
+
+    CompactProperties(ModelSchema schema) {
+        this.schema = schema;
+    }
+
+    @Override
+    public int size() {
+        return slotCount + (spill != null ? spill.size() : 0);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int slot = schema.getSlot(key);
+        if (slot >= 0) {
+            return slot < kinds.length && kinds[slot] != ABSENT;
+        }
+        return spill != null && spill.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        int slot = schema.getSlot(key);
+        if (slot >= 0) {
+            return slot < kinds.length ? getSlot(slot) : null;
+        }
+        return spill != null ? spill.get(key) : null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int slot = key != null ? schema.getOrAddSlot(key) : -1;
+        if (slot < 0) {
+            if (spill == null) {
+                spill = new HashMap<String, Object>(4);
+            }
+            return spill.put(key, value);
+        }
+
+        if (slot >= kinds.length) {
+            grow(slot + 1);
+        }
+        Object previous = getSlot(slot);
+        if (kinds[slot] == ABSENT) {
+            slotCount++;
+        }
+        setSlot(slot, value);
+        return previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int slot = schema.getSlot(key);
+        if (slot < 0) {
+            return spill != null ? spill.remove(key) : null;
+        }
+        if (slot >= kinds.length || kinds[slot] == ABSENT) {
+            return null;
+        }
+        Object previous = getSlot(slot);
+        kinds[slot] = ABSENT;
+        values[slot] = null;
+        slotCount--;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < kinds.length; i++) {
+            kinds[i] = ABSENT;
+            values[i] = null;
+        }
+        slotCount = 0;
+        spill = null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return CompactProperties.this.size();
+            }
+        };
+    }
+
+    private Object getSlot(int slot) {
+        switch (kinds[slot]) {
+            case INT:
+                return (int) primitives[slot];
+            case LONG:
+                return primitives[slot];
+            case DOUBLE:
+                return Double.longBitsToDouble(primitives[slot]);
+            case BOOLEAN:
+                return primitives[slot] != 0;
+            default:
+                return values[slot];
+        }
+    }
+
+    private void setSlot(int slot, Object value) {
+        byte kind;
+        long primitive;
+        if (value instanceof Integer) {
+            kind = INT;
+            primitive = (Integer) value;
+        }
+        else if (value instanceof Long) {
+            kind = LONG;
+            primitive = (Long) value;
+        }
+        else if (value instanceof Double) {
+            kind = DOUBLE;
+            primitive = Double.doubleToRawLongBits((Double) value);
+        }
+        else if (value instanceof Boolean) {
+            kind = BOOLEAN;
+            primitive = ((Boolean) value) ? 1 : 0;
+        }
+        else {
+            kinds[slot] = OBJECT;
+            values[slot] = value;
+            return;
+        }
+
+        if (primitives == null) {
+            primitives = new long[kinds.length];
+        }
+        kinds[slot] = kind;
+        values[slot] = null;
+        primitives[slot] = primitive;
+    }
+
+    private void grow(int minLength) {
+        // Grow by half so that filling the slots one by one copies the
+        // arrays only a few times. The size of the schema is not a good
+        // hint: it counts the properties seen on all models of the
+        // repository, including those of sparse or projected models.
+        int length = Math.max(minLength, kinds.length + (kinds.length >> 1));
+        byte[] newKinds = new byte[length];
+        System.arraycopy(kinds, 0, newKinds, 0, kinds.length);
+        Object[] newValues = new Object[length];
+        System.arraycopy(values, 0, newValues, 0, values.length);
+        if (primitives != null) {
+            long[] newPrimitives = new long[length];
+            System.arraycopy(primitives, 0, newPrimitives, 0, primitives.length);
+            primitives = newPrimitives;
+        }
+        kinds = newKinds;
+        values = newValues;
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private int nextSlot = -1;
+        private Iterator<Map.Entry<String, Object>> spillIterator;
+        private String lastSlotName;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            do {
+                nextSlot++;
+            } while (nextSlot < kinds.length && kinds[nextSlot] == ABSENT);
+            if (nextSlot >= kinds.length && spill != null) {
+                spillIterator = spill.entrySet().iterator();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextSlot < kinds.length ||
+                    (spillIterator != null && spillIterator.hasNext());
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (nextSlot < kinds.length) {
+                lastSlotName = schema.getName(nextSlot);
+                Map.Entry<String, Object> entry = new Entry(lastSlotName, getSlot(nextSlot));
+                advance();
+                return entry;
+            }
+            if (spillIterator == null) {
+                throw new NoSuchElementException();
+            }
+            lastSlotName = null;
+            return spillIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            if (lastSlotName != null) {
+                CompactProperties.this.remove(lastSlotName);
+                lastSlotName = null;
+            }
+            else if (spillIterator != null) {
+                spillIterator.remove();
+            }
+            else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    private class Entry implements Map.Entry<String, Object> {
+        private final String key;
+        private Object value;
+
+        Entry(String key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object previous = this.value;
+            this.value = value;
+            put(key, value);
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey()) && (value == null
+                    ? e.getValue() == null
+                    : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+}
@@ -1,14 +1,16 @@
 package com.strongloop.android.loopback;
 
 import com.google.common.collect.ImmutableMap;
-import com.google.common.io.Files;
 import com.strongloop.android.loopback.callbacks.EmptyResponseParser;
+import com.strongloop.android.loopback.callbacks.LocalFileWriter;
+import com.strongloop.android.loopback.callbacks.TransferResultCallback;
 import com.strongloop.android.loopback.callbacks.VoidCallback;
 import com.strongloop.android.remoting.Transient;
 import com.strongloop.android.remoting.VirtualObject;
 import com.strongloop.android.remoting.adapters.Adapter;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 public class File extends VirtualObject {
@@ -69,28 +71,105 @@ public class File extends VirtualObject {
     }
 
     /**
-     * Download content of this file to a local file.
+     * Download content of this file, streaming it to the callback as it
+     * arrives. See {@link Adapter.StreamCallback} for the threading rules.
+     * @param callback The callback to be executed when the response arrives.
+     */
+    public void download(Adapter.StreamCallback callback) {
+        invokeMethod("download", getCommonParams(), callback);
+    }
+
+    /**
+     * Download content of this file to a local file. The content is
+     * written to the disk as it arrives, the local file is replaced
+     * only when the download completes.
      * @param localFile Path to the local file.
      * @param callback The callback to be executed when finished.
      */
-    public void download(final java.io.File localFile, final VoidCallback callback) {
-        download(new DownloadCallback() {
-            @Override
-            public void onSuccess(byte[] content, String contentType) {
-                try {
-                    Files.write(content, localFile);
-                    callback.onSuccess();
-                } catch (IOException ex) {
-                    callback.onError(ex);
-                }
-            }
+    public void download(java.io.File localFile, VoidCallback callback) {
+        download(new LocalFileWriter(localFile, callback));
+    }
+
+    /**
+     * Download content of this file to a local file, reporting the progress.
+     * @param localFile Path to the local file.
+     * @param progress The progress tracker.
+     * @param callback The callback to be executed when finished.
+     */
+    public void download(java.io.File localFile, TransferProgress progress,
+                         VoidCallback callback) {
+        download(new LocalFileWriter(localFile, callback, progress));
+    }
 
+    /**
+     * Download multiple files into a local directory, see
+     * {@link #downloadAll(List, java.io.File, int, int, TransferResultCallback)}.
+     * Runs up to three downloads at the same time and retries each failed
+     * download twice.
+     * @param files The files to download.
+     * @param localDir The directory to download to, the local files are
+     * named after the remote ones. Files whose name contains a path
+     * separator or <code>".."</code> are not downloaded.
+     * @param callback The callback to be executed when all downloads finished.
+     */
+    public static void downloadAll(List<File> files, java.io.File localDir,
+                                   TransferResultCallback callback) {
+        downloadAll(files, localDir, ParallelTransfer.DEFAULT_CONCURRENCY,
+                ParallelTransfer.DEFAULT_RETRIES, callback);
+    }
+
+    /**
+     * Download multiple files into a local directory. Downloads failing
+     * because of a network or server error are retried. The result lists
+     * the error for each file that could not be downloaded.
+     * @param files The files to download.
+     * @param localDir The directory to download to, the local files are
+     * named after the remote ones. Files whose name contains a path
+     * separator or <code>".."</code> are not downloaded.
+     * @param concurrency The maximal number of downloads running at the same
+     * time.
+     * @param retries The number of retries of a failed download.
+     * @param callback The callback to be executed when all downloads finished.
+     */
+    public static void downloadAll(List<File> files, java.io.File localDir,
+                                   int concurrency, int retries,
+                                   TransferResultCallback callback) {
+        List<TransferResult.Item> items = new ArrayList<TransferResult.Item>();
+        for (File file : files) {
+            // The name comes from the server, it must not escape localDir.
+            java.io.File localFile = isSafeName(file.getName())
+                    ? new java.io.File(localDir, file.getName())
+                    : null;
+            items.add(new TransferResult.Item(localFile, file));
+        }
+
+        new ParallelTransfer(items, concurrency, retries, callback) {
             @Override
-            public void onError(Throwable error) {
-                callback.onError(error);
+            protected void transfer(final TransferResult.Item item) {
+                if (item.getLocalFile() == null) {
+                    failed(item, new IllegalArgumentException(
+                            "Invalid file name: " + item.getFile().getName()));
+                    return;
+                }
+                item.getFile().download(item.getLocalFile(), new VoidCallback() {
+                    @Override
+                    public void onSuccess() {
+                        succeeded(item, item.getFile());
+                    }
 
+                    @Override
+                    public void onError(Throwable t) {
+                        failed(item, t);
+                    }
+                });
             }
-        });
+        }.start();
+    }
+
+    private static boolean isSafeName(String name) {
+        return name != null && name.length() > 0 &&
+                name.indexOf('/') < 0 && name.indexOf('\\') < 0 &&
+                !name.contains("..");
     }
 
     /**
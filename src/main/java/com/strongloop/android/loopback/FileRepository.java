@@ -5,6 +5,7 @@ import com.strongloop.android.loopback.callbacks.JsonArrayParser;
 import com.strongloop.android.loopback.callbacks.JsonObjectParser;
 import com.strongloop.android.loopback.callbacks.ListCallback;
 import com.strongloop.android.loopback.callbacks.ObjectCallback;
+import com.strongloop.android.loopback.callbacks.TransferResultCallback;
 import com.strongloop.android.remoting.JsonUtil;
 import com.strongloop.android.remoting.adapters.Adapter;
 import com.strongloop.android.remoting.adapters.RestContract;
@@ -15,13 +16,23 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class FileRepository extends RestRepository<File> {
     private final static String TAG = "FileRepository";
 
+    /**
+     * The default chunk size of resumable uploads.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
     private Container container;
 
     public Container getContainer() {
@@ -63,6 +74,19 @@ public class FileRepository extends RestRepository<File> {
                 RestContractItem.createMultipart(basePath + "/upload", "POST"),
                 className + ".upload");
 
+        contract.addItem(new RestContractItem(basePath + "/uploads", "POST"),
+                className + ".createUpload");
+
+        contract.addItem(new RestContractItem(basePath + "/uploads/:id", "GET"),
+                className + ".getUpload");
+
+        contract.addItem(
+                RestContractItem.createMultipart(basePath + "/uploads/:id/chunks", "POST"),
+                className + ".uploadChunk");
+
+        contract.addItem(new RestContractItem(basePath + "/uploads/:id/commit", "POST"),
+                className + ".commitUpload");
+
         contract.addItem(new RestContractItem(basePath +  "/download/:name", "GET"),
                 className + ".prototype.download");
 
@@ -118,6 +142,121 @@ public class FileRepository extends RestRepository<File> {
                 new UploadResponseParser(this, callback));
     }
 
+    /**
+     * Upload a new file, reporting the progress.
+     * @param localFile The local file to upload.
+     * @param progress The progress tracker.
+     * @param callback The callback to be executed when finished.
+     */
+    public void upload(java.io.File localFile, TransferProgress progress,
+                       final ObjectCallback<File> callback) {
+        final InputStream content;
+        try {
+            content = progress.wrap(new FileInputStream(localFile),
+                    localFile.length());
+        } catch (FileNotFoundException e) {
+            callback.onError(e);
+            return;
+        }
+
+        StreamParam param = new StreamParam(content, localFile.getName());
+        invokeStaticMethod("upload",
+                ImmutableMap.of("container", getContainerName(), "file", param),
+                new UploadResponseParser(this, new ObjectCallback<File>() {
+                    @Override
+                    public void onSuccess(File file) {
+                        closeQuietly(content);
+                        callback.onSuccess(file);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        closeQuietly(content);
+                        callback.onError(t);
+                    }
+                }));
+    }
+
+    /**
+     * Upload multiple files, see {@link #uploadAll(List, int, int, TransferResultCallback)}.
+     * Runs up to three uploads at the same time and retries each failed
+     * upload twice.
+     * @param localFiles The local files to upload.
+     * @param callback The callback to be executed when all uploads finished.
+     */
+    public void uploadAll(List<java.io.File> localFiles,
+                          TransferResultCallback callback) {
+        uploadAll(localFiles, ParallelTransfer.DEFAULT_CONCURRENCY,
+                ParallelTransfer.DEFAULT_RETRIES, callback);
+    }
+
+    /**
+     * Upload multiple files. Uploads failing because of a network or
+     * server error are retried. The result lists the uploaded file or the
+     * error for each local file.
+     * @param localFiles The local files to upload.
+     * @param concurrency The maximal number of uploads running at the same
+     * time.
+     * @param retries The number of retries of a failed upload.
+     * @param callback The callback to be executed when all uploads finished.
+     */
+    public void uploadAll(List<java.io.File> localFiles, int concurrency,
+                          int retries, TransferResultCallback callback) {
+        List<TransferResult.Item> items = new ArrayList<TransferResult.Item>();
+        for (java.io.File localFile : localFiles) {
+            items.add(new TransferResult.Item(localFile, null));
+        }
+
+        new ParallelTransfer(items, concurrency, retries, callback) {
+            @Override
+            protected void transfer(final TransferResult.Item item) {
+                upload(item.getLocalFile(), new ObjectCallback<File>() {
+                    @Override
+                    public void onSuccess(File file) {
+                        succeeded(item, file);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        failed(item, t);
+                    }
+                });
+            }
+        }.start();
+    }
+
+    /**
+     * Upload a new file in chunks of {@link #DEFAULT_CHUNK_SIZE} bytes,
+     * see {@link #uploadResumable(java.io.File, java.io.File, int, ObjectCallback)}.
+     * @param localFile The local file to upload.
+     * @param stateDir The directory where to keep the upload state.
+     * @param callback The callback to be executed when finished.
+     */
+    public void uploadResumable(java.io.File localFile, java.io.File stateDir,
+                                ObjectCallback<File> callback) {
+        uploadResumable(localFile, stateDir, DEFAULT_CHUNK_SIZE, callback);
+    }
+
+    /**
+     * Upload a new file in chunks. A failed chunk is retried a few times
+     * before the callback receives the error. The upload state is kept
+     * in <code>stateDir</code>: calling this method again with the same
+     * (unmodified) file continues from the last chunk acknowledged by
+     * the server, also after the application was restarted.
+     * <p>
+     * The server must implement the chunked upload protocol, see
+     * <code>test-server/index.js</code>.
+     * @param localFile The local file to upload.
+     * @param stateDir The directory where to keep the upload state.
+     * @param chunkSize The size of the chunks in bytes.
+     * @param callback The callback to be executed when finished.
+     */
+    public void uploadResumable(java.io.File localFile, java.io.File stateDir,
+                                int chunkSize, ObjectCallback<File> callback) {
+        new ResumableUpload(this, localFile, stateDir, chunkSize, callback)
+                .start();
+    }
+
     /**
      * Get file by name
      * @param name The name of the file to get.
@@ -142,6 +281,14 @@ public class FileRepository extends RestRepository<File> {
                 new JsonArrayParser<File>(this, callback));
     }
 
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
     private class UploadResponseParser extends Adapter.JsonObjectCallback {
         private final FileRepository repository;
         private final ObjectCallback<File> callback;
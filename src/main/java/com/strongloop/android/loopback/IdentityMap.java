@@ -0,0 +1,217 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.loopback;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps model ids to the model instances loaded by a {@link ModelRepository},
+ * so that loading the same model again updates the existing instance
+ * instead of creating a new one, see
+ * {@link ModelRepository#setIdentityMap(IdentityMap)}.
+ * <p>
+ * Instances are referenced weakly, or softly when requested: the map never
+ * keeps a model alive the application does not use (or, with soft
+ * references, when memory runs low). The map holds at most
+ * {@link #getMaxSize()} ids and forgets the least recently used ones first.
+ * @param <T> The model class.
+ */
+public class IdentityMap<T extends Model> {
+    private final int maxSize;
+    private final boolean softReferences;
+    private final ReferenceQueue<T> queue = new ReferenceQueue<T>();
+
+    // Guarded by this. Ordered from the least to the most recently used.
+    private final LinkedHashMap<String, Ref<T>> entries;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Creates a map referencing the models weakly.
+     * @param maxSize The maximum number of ids.
+     */
+    public IdentityMap(int maxSize) {
+        this(maxSize, false);
+    }
+
+    /**
+     * Creates a map.
+     * @param maxSize The maximum number of ids.
+     * @param softReferences <code>true</code> to reference the models
+     *                       softly, keeping them until memory runs low.
+     */
+    public IdentityMap(final int maxSize, boolean softReferences) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive");
+        }
+        this.maxSize = maxSize;
+        this.softReferences = softReferences;
+        this.entries = new LinkedHashMap<String, Ref<T>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Ref<T>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return The maximum number of ids.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return <code>true</code> if models are referenced softly.
+     */
+    public boolean isUsingSoftReferences() {
+        return softReferences;
+    }
+
+    /**
+     * @return The number of loaded models that updated an existing instance.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return The number of loaded models that were not mapped, or whose
+     * instance was already collected.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return The number of mapped ids, including ids of models collected
+     * but not purged yet.
+     */
+    public synchronized int size() {
+        purge();
+        return entries.size();
+    }
+
+    /**
+     * Gets the instance of the model with the given id.
+     * @param id The id.
+     * @return The model or <code>null</code> if not mapped.
+     */
+    public synchronized T get(Object id) {
+        if (id == null) return null;
+        purge();
+        Ref<T> entry = entries.get(String.valueOf(id));
+        return entry != null ? entry.get() : null;
+    }
+
+    /**
+     * Forgets the model with the given id.
+     * @param id The id.
+     */
+    public synchronized void remove(Object id) {
+        if (id == null) return;
+        entries.remove(String.valueOf(id));
+    }
+
+    /**
+     * Forgets all models.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        purge();
+    }
+
+    /**
+     * Looks up a model being loaded, counting hits and misses.
+     */
+    T lookup(Object id) {
+        T model = get(id);
+        if (model != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return model;
+    }
+
+    /**
+     * Maps the model under its id, replacing the instance mapped before.
+     */
+    synchronized void put(T model) {
+        Object id = model.getId();
+        if (id == null) return;
+        purge();
+        String key = String.valueOf(id);
+        entries.put(key, softReferences
+                ? new SoftRef<T>(key, model, queue)
+                : new WeakRef<T>(key, model, queue));
+    }
+
+    /**
+     * Removes the ids of collected models.
+     */
+    @SuppressWarnings("unchecked")
+    private void purge() {
+        Reference<? extends T> reference;
+        while ((reference = queue.poll()) != null) {
+            String key = ((Ref<T>) reference).getKey();
+            // The id may have been mapped to a new instance since.
+            if (entries.get(key) == reference) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    private interface Ref<T> {
+        String getKey();
+        T get();
+    }
+
+    private static class WeakRef<T> extends WeakReference<T>
+            implements Ref<T> {
+        private final String key;
+
+        WeakRef(String key, T model, ReferenceQueue<T> queue) {
+            super(model, queue);
+            this.key = key;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private static class SoftRef<T> extends SoftReference<T>
+            implements Ref<T> {
+        private final String key;
+
+        SoftRef(String key, T model, ReferenceQueue<T> queue) {
+            super(model, queue);
+            this.key = key;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IdentityMap{size=" + size() +
+                ", maxSize=" + maxSize +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() + "}";
+    }
+}
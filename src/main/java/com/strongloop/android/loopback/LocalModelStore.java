@@ -0,0 +1,624 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.loopback;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.strongloop.android.remoting.JsonUtil;
+import com.strongloop.android.remoting.adapters.Adapter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent SQLite store of the models fetched by {@link ModelRepository}
+ * instances, used to answer reads locally according to the repository's
+ * {@link ReadPolicy}.
+ * <p>
+ * Each model class has its own table holding the JSON of each model,
+ * indexed by id and by the time it was stored. The results of
+ * {@link ModelRepository#find} and {@link ModelRepository#findOne} are
+ * recorded as lists of ids per filter. Models saved through
+ * {@link Model#save} are updated in place, destroyed models are removed;
+ * both drop the recorded query results of the model class, since the
+ * change may add or remove the model from them.
+ * <p>
+ * Entries older than {@link #getMaxAge()} are evicted, and the least
+ * recently stored models are evicted when the size of the stored JSON
+ * exceeds {@link #getMaxSize()}. All database work runs on a background
+ * thread.
+ * <pre>
+ * {@code
+ * LocalModelStore store = new LocalModelStore(context, "loopback-models.db");
+ * repository.setLocalStore(store);
+ * repository.setReadPolicy(ReadPolicy.CACHE_THEN_NETWORK);
+ * }
+ * </pre>
+ */
+public class LocalModelStore {
+    private static final String TAG = "loopback.LocalModelStore";
+    private static final int DATABASE_VERSION = 1;
+    private static final String TABLE_PREFIX = "model_";
+    private static final String QUERIES = "queries";
+    private static final int EVICTION_BATCH = 32;
+
+    private final Helper helper;
+    private final ExecutorService executor;
+
+    private volatile long maxSize = 4 * 1024 * 1024;
+    private volatile long maxAge = 7L * 24 * 60 * 60 * 1000;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    // Accessed on the executor thread only.
+    private final Set<String> tables = new HashSet<String>();
+    // The size of the stored JSON, -1 until computed.
+    private long size = -1;
+
+    /**
+     * Creates a store kept in the named database of the application.
+     * @param context The context.
+     * @param name The name of the database file.
+     */
+    public LocalModelStore(Context context, String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name cannot be null");
+        }
+        this.helper = new Helper(context.getApplicationContext(), name);
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "LocalModelStore");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return The maximum size of the stored JSON in bytes.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum size of the stored JSON, the least recently stored
+     * models are evicted beyond it.
+     * @param maxSize The size in bytes.
+     */
+    public void setMaxSize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return The time in milliseconds entries are kept, 7 days by default.
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Sets the time entries are kept. Older entries are evicted and never
+     * served.
+     * @param maxAge The time in milliseconds, 0 to keep entries until
+     *               evicted by size.
+     */
+    public void setMaxAge(long maxAge) {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("Max age cannot be negative");
+        }
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return The number of reads answered from the store.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return The number of reads the store could not answer.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Removes all stored models.
+     */
+    public void clear() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SQLiteDatabase db = helper.getWritableDatabase();
+                    for (String table : listTables(db)) {
+                        db.execSQL("DROP TABLE IF EXISTS " + table);
+                    }
+                    db.delete(QUERIES, null, null);
+                    tables.clear();
+                    size = 0;
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Cannot clear the store", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the database once pending work is done. The store cannot be
+     * used afterwards.
+     */
+    public void close() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                helper.close();
+            }
+        });
+        executor.shutdown();
+    }
+
+    //
+    // Repository interface
+    //
+
+    /**
+     * Builds the key of a query from its method and parameters, equal
+     * parameters give the same key.
+     */
+    static String queryKey(String method,
+                           Map<String, ? extends Object> parameters) {
+        try {
+            return method + ":" + String.valueOf(JsonUtil.toJson(
+                    canonical(parameters)));
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object canonical(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> sorted = new TreeMap<String, Object>();
+            for (Map.Entry<String, ?> entry :
+                    ((Map<String, ?>) value).entrySet()) {
+                sorted.put(entry.getKey(), canonical(entry.getValue()));
+            }
+            return sorted;
+        }
+        if (value instanceof List) {
+            List<Object> list = new ArrayList<Object>();
+            for (Object item : (List<Object>) value) {
+                list.add(canonical(item));
+            }
+            return list;
+        }
+        return value;
+    }
+
+    /**
+     * Looks up a model by id, or the result of a query when
+     * <code>query</code> is set, and decodes it with the given decoder on
+     * the background thread. The decoded result is delivered on the calling
+     * thread, <code>onMiss</code> is run there when nothing is stored.
+     */
+    void load(final String model, final Object id, final String query,
+              final boolean list, final Adapter.DecodingCallback decoder,
+              final Runnable onMiss) {
+        Looper looper = Looper.myLooper();
+        final Handler handler = looper != null ? new Handler(looper) : null;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Runnable result = null;
+                try {
+                    String json = query != null
+                            ? readQuery(model, query, list)
+                            : readObject(model, String.valueOf(id));
+                    if (json != null) {
+                        result = decoder.decode(json);
+                    }
+                } catch (Exception e) {
+                    Log.w(TAG, "Cannot read " + model + " from the store", e);
+                }
+                if (result != null) {
+                    hitCount.incrementAndGet();
+                } else {
+                    missCount.incrementAndGet();
+                    result = onMiss;
+                }
+                if (handler != null) {
+                    handler.post(result);
+                } else {
+                    result.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Wraps the decoder of a network read to store the response.
+     */
+    Adapter.DecodingCallback storing(final String model, final String query,
+                                     final Adapter.DecodingCallback decoder) {
+        return new Adapter.DecodingCallback() {
+            @Override
+            public Runnable decode(String response) throws Exception {
+                storeResponse(model, query, response);
+                return decoder.decode(response);
+            }
+
+            @Override
+            public void onSuccess(String response) {
+                storeResponse(model, query, response);
+                decoder.onSuccess(response);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                decoder.onError(t);
+            }
+        };
+    }
+
+    /**
+     * Stores a model returned by the server, e.g. after saving it.
+     */
+    void storeObject(final String model, final JSONObject object) {
+        if (object == null || object.opt("id") == null) return;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SQLiteDatabase db = helper.getWritableDatabase();
+                    writeObject(db, model, object, System.currentTimeMillis());
+                    db.delete(QUERIES, "model = ?", new String[] { model });
+                    trim(db);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Cannot store " + model, e);
+                    size = -1;
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes a model, e.g. after destroying it.
+     */
+    void removeObject(final String model, final Object id) {
+        if (id == null) return;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SQLiteDatabase db = helper.getWritableDatabase();
+                    if (hasTable(db, model)) {
+                        deleteObject(db, model, String.valueOf(id));
+                    }
+                    db.delete(QUERIES, "model = ?", new String[] { model });
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Cannot remove " + model, e);
+                    size = -1;
+                }
+            }
+        });
+    }
+
+    private void storeResponse(final String model, final String query,
+                               final String response) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Object json = new JSONTokener(response).nextValue();
+                    SQLiteDatabase db = helper.getWritableDatabase();
+                    long now = System.currentTimeMillis();
+                    JSONArray ids = new JSONArray();
+                    db.beginTransaction();
+                    try {
+                        if (json instanceof JSONArray) {
+                            JSONArray array = (JSONArray) json;
+                            for (int i = 0; i < array.length(); i++) {
+                                JSONObject object = array.optJSONObject(i);
+                                if (!writeObject(db, model, object, now)) {
+                                    ids = null;
+                                } else if (ids != null) {
+                                    ids.put(object.get("id"));
+                                }
+                            }
+                        } else if (json instanceof JSONObject) {
+                            if (writeObject(db, model, (JSONObject) json, now)) {
+                                ids.put(((JSONObject) json).get("id"));
+                            } else {
+                                ids = null;
+                            }
+                        }
+                        // Results holding models without id cannot be
+                        // rebuilt from the model table.
+                        if (query != null && ids != null) {
+                            ContentValues values = new ContentValues();
+                            values.put("model", model);
+                            values.put("query", query);
+                            values.put("ids", ids.toString());
+                            values.put("updated_at", now);
+                            db.replace(QUERIES, null, values);
+                        }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                    trim(db);
+                } catch (Exception e) {
+                    Log.w(TAG, "Cannot store " + model, e);
+                    // Recount, a rolled back write may have been counted.
+                    size = -1;
+                }
+            }
+        });
+    }
+
+    //
+    // Database
+    //
+
+    private String readObject(String model, String id) {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        if (!hasTable(db, model)) return null;
+        Cursor cursor = db.query(tableName(model), new String[] { "json" },
+                "id = ? AND updated_at >= ?",
+                new String[] { id, String.valueOf(oldestAllowed()) },
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String readQuery(String model, String query, boolean list)
+            throws JSONException {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        Cursor cursor = db.query(QUERIES, new String[] { "ids" },
+                "model = ? AND query = ? AND updated_at >= ?",
+                new String[] { model, query, String.valueOf(oldestAllowed()) },
+                null, null, null);
+        String ids;
+        try {
+            if (!cursor.moveToFirst()) return null;
+            ids = cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+
+        JSONArray array = new JSONArray(ids);
+        if (!list) {
+            return array.length() > 0
+                    ? readObject(model, String.valueOf(array.get(0)))
+                    : "null";
+        }
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < array.length(); i++) {
+            String object = readObject(model, String.valueOf(array.get(i)));
+            if (object == null) {
+                // A model of the result was evicted.
+                return null;
+            }
+            if (i > 0) json.append(',');
+            json.append(object);
+        }
+        return json.append(']').toString();
+    }
+
+    private boolean writeObject(SQLiteDatabase db, String model,
+                                JSONObject object, long now) {
+        Object id = object != null ? object.opt("id") : null;
+        if (id == null || id == JSONObject.NULL) return false;
+        createTable(db, model);
+        String table = tableName(model);
+        String json = object.toString();
+        long replaced = queryLong(db, "SELECT size FROM " + table +
+                " WHERE id = ?", String.valueOf(id));
+        ContentValues values = new ContentValues();
+        values.put("id", String.valueOf(id));
+        values.put("json", json);
+        values.put("size", json.length());
+        values.put("updated_at", now);
+        db.replace(table, null, values);
+        addSize(json.length() - replaced);
+        return true;
+    }
+
+    private void deleteObject(SQLiteDatabase db, String model, String id) {
+        String table = tableName(model);
+        long removed = queryLong(db, "SELECT size FROM " + table +
+                " WHERE id = ?", id);
+        if (db.delete(table, "id = ?", new String[] { id }) > 0) {
+            addSize(-removed);
+        }
+    }
+
+    private void addSize(long delta) {
+        if (size >= 0) {
+            size += delta;
+        }
+    }
+
+    private long oldestAllowed() {
+        long age = maxAge;
+        return age > 0 ? System.currentTimeMillis() - age : 0;
+    }
+
+    /**
+     * Evicts entries older than the max age, then the least recently
+     * stored models until the size fits. The size is summed up once and
+     * kept up to date afterwards, expired entries are found through the
+     * index.
+     */
+    private void trim(SQLiteDatabase db) {
+        if (tables.isEmpty()) {
+            tables.addAll(listTables(db));
+        }
+        List<String> all = new ArrayList<String>(tables);
+        if (size < 0) {
+            size = 0;
+            for (String table : all) {
+                size += queryLong(db, "SELECT SUM(size) FROM " + table);
+            }
+        }
+
+        String oldest = String.valueOf(oldestAllowed());
+        for (String table : all) {
+            long expired = queryLong(db, "SELECT SUM(size) FROM " + table +
+                    " WHERE updated_at < ?", oldest);
+            if (expired > 0) {
+                db.delete(table, "updated_at < ?", new String[] { oldest });
+                size -= expired;
+            }
+        }
+        db.delete(QUERIES, "updated_at < ?", new String[] { oldest });
+
+        long max = maxSize;
+        while (size > max) {
+            String victim = null;
+            long victimTime = Long.MAX_VALUE;
+            for (String table : all) {
+                Cursor cursor = db.rawQuery(
+                        "SELECT MIN(updated_at) FROM " + table, null);
+                try {
+                    if (cursor.moveToFirst() && !cursor.isNull(0) &&
+                            cursor.getLong(0) < victimTime) {
+                        victimTime = cursor.getLong(0);
+                        victim = table;
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            if (victim == null) break;
+            size -= queryLong(db, "SELECT SUM(size) FROM (SELECT size FROM " +
+                    victim + " ORDER BY updated_at LIMIT " + EVICTION_BATCH + ")");
+            db.execSQL("DELETE FROM " + victim + " WHERE id IN (SELECT id FROM " +
+                    victim + " ORDER BY updated_at LIMIT " + EVICTION_BATCH + ")");
+        }
+    }
+
+    private static long queryLong(SQLiteDatabase db, String sql,
+                                  String... args) {
+        Cursor cursor = db.rawQuery(sql, args);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0)
+                    ? cursor.getLong(0)
+                    : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private boolean hasTable(SQLiteDatabase db, String model) {
+        if (tables.isEmpty()) {
+            tables.addAll(listTables(db));
+        }
+        return tables.contains(tableName(model));
+    }
+
+    private void createTable(SQLiteDatabase db, String model) {
+        String table = tableName(model);
+        if (hasTable(db, model)) return;
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + table + " (" +
+                "id TEXT PRIMARY KEY, " +
+                "json TEXT NOT NULL, " +
+                "size INTEGER NOT NULL, " +
+                "updated_at INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + table + "_updated_at ON " +
+                table + " (updated_at)");
+        tables.add(table);
+    }
+
+    private static List<String> listTables(SQLiteDatabase db) {
+        List<String> names = new ArrayList<String>();
+        Cursor cursor = db.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'table'", null);
+        try {
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(0);
+                if (name.startsWith(TABLE_PREFIX)) {
+                    names.add(name);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    /**
+     * Maps a model name to a table name. Table names are case-insensitive,
+     * so everything but lowercase ASCII letters and digits is escaped as
+     * <code>_</code> and four hex digits, e.g. <code>a-b</code> becomes
+     * <code>model_a_002db</code>; distinct models never share a table.
+     */
+    static String tableName(String model) {
+        StringBuilder name = new StringBuilder(TABLE_PREFIX);
+        for (int i = 0; i < model.length(); i++) {
+            char c = model.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                name.append(c);
+            } else {
+                String hex = Integer.toHexString(c);
+                name.append('_');
+                for (int j = hex.length(); j < 4; j++) {
+                    name.append('0');
+                }
+                name.append(hex);
+            }
+        }
+        return name.toString();
+    }
+
+    private static class Helper extends SQLiteOpenHelper {
+        Helper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + QUERIES + " (" +
+                    "model TEXT NOT NULL, " +
+                    "query TEXT NOT NULL, " +
+                    "ids TEXT NOT NULL, " +
+                    "updated_at INTEGER NOT NULL, " +
+                    "PRIMARY KEY (model, query))");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
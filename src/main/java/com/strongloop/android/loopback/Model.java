@@ -78,6 +78,28 @@ public class Model extends VirtualObject {
         overflow.putAll(params);
     }
 
+    /* package private */ Map<String, Object> getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * Replaces the key-value dictionary, e.g. by a
+     * {@link com.strongloop.android.remoting.LazyJsonObject}.
+     */
+    /* package private */ void setOverflow(Map<String, Object> overflow) {
+        this.overflow = overflow;
+    }
+
+    /**
+     * Moves the key-value dictionary to compact storage using the given
+     * schema, see {@link ModelRepository#setCompactStorageEnabled(boolean)}.
+     */
+    /* package private */ void useSchema(ModelSchema schema) {
+        Map<String, Object> properties = new CompactProperties(schema);
+        properties.putAll(overflow);
+        overflow = properties;
+    }
+
     /**
      * Converts the Model (and all of its Java Bean properties) into a
      * {@link java.util.Map}.
@@ -98,12 +120,22 @@ public class Model extends VirtualObject {
      * @param callback The callback to be executed when finished.
      */
     public void save(final VoidCallback callback) {
-        invokeMethod(id == null ? "create" : "save", toMap(),
-                new Adapter.JsonObjectCallback() {
+        final String method = id == null ? "create" : "save";
+        final Map<String, ? extends Object> parameters = toMap();
+        final OfflineWriteQueue queue = getWriteQueue();
+        if (queue != null && queue.isQueueing()) {
+            queue.enqueue(this, method, parameters, callback, null);
+            return;
+        }
+        invokeMethod(method, parameters, new Adapter.JsonObjectCallback() {
 
             @Override
             public void onError(Throwable t) {
-                callback.onError(t);
+                if (queue != null && queue.isQueueable(method, t)) {
+                    queue.enqueue(Model.this, method, parameters, callback, t);
+                } else {
+                    callback.onError(t);
+                }
             }
 
             @Override
@@ -112,6 +144,10 @@ public class Model extends VirtualObject {
                 if (id != null) {
                     setId(id);
                 }
+                LocalModelStore store = getLocalStore();
+                if (store != null) {
+                    store.storeObject(getRepository().getClassName(), response);
+                }
                 callback.onSuccess();
             }
         });
@@ -122,17 +158,54 @@ public class Model extends VirtualObject {
      * @param callback The callback to be executed when finished.
      */
     public void destroy(final VoidCallback callback) {
-        invokeMethod("remove", toMap(), new Adapter.Callback() {
+        final Map<String, ? extends Object> parameters = toMap();
+        final OfflineWriteQueue queue = getWriteQueue();
+        if (queue != null && queue.isQueueing()) {
+            queue.enqueue(this, "remove", parameters, callback, null);
+            return;
+        }
+        invokeMethod("remove", parameters, new Adapter.Callback() {
 
             @Override
             public void onError(Throwable t) {
-                callback.onError(t);
+                if (queue != null && queue.isQueueable("remove", t)) {
+                    queue.enqueue(Model.this, "remove", parameters, callback, t);
+                } else {
+                    callback.onError(t);
+                }
             }
 
             @Override
             public void onSuccess(String response) {
+                LocalModelStore store = getLocalStore();
+                if (store != null) {
+                    store.removeObject(getRepository().getClassName(), id);
+                }
+                if (getRepository() instanceof ModelRepository) {
+                    IdentityMap<?> map = ((ModelRepository<?>) getRepository())
+                            .getIdentityMap();
+                    if (map != null) {
+                        map.remove(id);
+                    }
+                }
                 callback.onSuccess();
             }
         });
     }
+
+    /* package private */ LocalModelStore getLocalStore() {
+        Repository repository = getRepository();
+        return repository instanceof ModelRepository
+                ? ((ModelRepository<?>) repository).getLocalStore()
+                : null;
+    }
+
+    private OfflineWriteQueue getWriteQueue() {
+        Repository repository = getRepository();
+        if (repository == null ||
+                !(repository.getAdapter() instanceof RestAdapter)) {
+            return null;
+        }
+        return ((RestAdapter) repository.getAdapter()).getWriteQueue();
+    }
 }
@@ -0,0 +1,307 @@
+package com.strongloop.android.loopback;
+
+import android.util.Log;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.strongloop.android.remoting.GenerateSerializer;
+import com.strongloop.android.remoting.JsonStreamReader;
+import com.strongloop.android.remoting.LazyJsonObject;
+import com.strongloop.android.remoting.ObjectSerializer;
+import com.strongloop.android.remoting.Repository;
+import com.strongloop.android.remoting.Transient;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates {@link Model} instances of a single class and fills them with
+ * data. The constructor, the setters and the conversion of JSON values
+ * to setter argument types are resolved once per class and reused for
+ * all instances while the binder is in use, see {@link #forClass(Class)}.
+ * <p>
+ * All values are stored in the model's key-value dictionary
+ * (see {@link Model#get(String)}), values of properties having a setter
+ * are also passed to the setter, the same way
+ * {@link ModelRepository#createObject(Map)} always did.
+ * <p>
+ * Classes annotated with {@link GenerateSerializer} are created and filled
+ * by their generated {@link ObjectSerializer} when there is one.
+ */
+public class ModelBinder<T extends Model> {
+
+    // A binder references its class through its constructor and setters,
+    // weak values let the entries of unloaded classes be collected. The
+    // repositories of a class hold its binder, so it is not rebuilt while
+    // they are used.
+    private static final Cache<Class<?>, ModelBinder<?>> binders =
+            CacheBuilder.newBuilder().weakKeys().weakValues().build();
+
+    /**
+     * Returns the binder for the given class, creating it on the first call
+     * or after the earlier binder was no longer referenced.
+     * @param modelClass The model class. It must have a no-argument
+     *                   constructor.
+     * @return The binder.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Model> ModelBinder<T> forClass(Class<T> modelClass) {
+        ModelBinder<T> binder = (ModelBinder<T>) binders.getIfPresent(modelClass);
+        if (binder == null) {
+            binder = new ModelBinder<T>(modelClass);
+            ModelBinder<T> created = (ModelBinder<T>)
+                    binders.asMap().putIfAbsent(modelClass, binder);
+            if (created != null) {
+                binder = created;
+            }
+        }
+        return binder;
+    }
+
+    private final ObjectSerializer<T> serializer;
+    private final Constructor<T> constructor;
+    private final Map<String, Property[]> properties;
+
+    private ModelBinder(Class<T> modelClass) {
+        serializer = ObjectSerializer.forClass(modelClass);
+        if (serializer != null) {
+            constructor = null;
+            properties = Collections.emptyMap();
+            return;
+        }
+
+        try {
+            constructor = modelClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        }
+        catch (NoSuchMethodException e) {
+            IllegalArgumentException ex = new IllegalArgumentException(
+                    modelClass.getName() + " has no no-argument constructor");
+            ex.initCause(e);
+            throw ex;
+        }
+
+        Map<String, List<Property>> setters = new HashMap<String, List<Property>>();
+        for (Method method : modelClass.getMethods()) {
+            String name = method.getName();
+            if (name.length() < 4 || !name.startsWith("set")) continue;
+            if (!Character.isUpperCase(name.charAt(3))) continue;
+            if (method.getParameterTypes().length != 1) continue;
+            if (method.getAnnotation(Transient.class) != null) continue;
+
+            String propertyName = Character.toLowerCase(name.charAt(3)) +
+                    name.substring(4);
+            List<Property> list = setters.get(propertyName);
+            if (list == null) {
+                list = new ArrayList<Property>(1);
+                setters.put(propertyName, list);
+            }
+            list.add(new Property(method));
+        }
+
+        properties = new HashMap<String, Property[]>();
+        for (Map.Entry<String, List<Property>> entry : setters.entrySet()) {
+            List<Property> list = entry.getValue();
+            properties.put(entry.getKey(), list.toArray(new Property[list.size()]));
+        }
+    }
+
+    /**
+     * Creates a new model from the given parameters.
+     * @param parameters The model data, used also as the creation parameters.
+     * @param repository The repository the model belongs to.
+     * @return The new model.
+     */
+    public T create(Map<String, ? extends Object> parameters,
+                    Repository<T> repository) {
+        if (parameters instanceof LazyJsonObject && serializer == null) {
+            return createLazy((LazyJsonObject) parameters, repository);
+        }
+        T model = newInstance();
+        model.setRepository(repository);
+        useSchemaOf(repository, model);
+        if (parameters != null) {
+            model.setCreationParameters(parameters);
+            for (Map.Entry<String, ? extends Object> entry : parameters.entrySet()) {
+                bindProperty(model, entry.getKey(), entry.getValue());
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Merges the given parameters into an existing model, filling it the
+     * way {@link #create(Map, Repository)} fills a new model. Properties
+     * missing from the parameters keep their values, so that partial data,
+     * e.g. the result of a query selecting <code>fields</code>, does not
+     * drop the rest of the model.
+     * @param model The model.
+     * @param parameters The new model data.
+     */
+    public void update(T model, Map<String, ? extends Object> parameters) {
+        if (parameters == null) return;
+        if (parameters instanceof LazyJsonObject && serializer == null) {
+            LazyJsonObject lazy = (LazyJsonObject) parameters;
+            for (Map.Entry<String, Object> entry :
+                    model.getOverflow().entrySet()) {
+                if (!lazy.containsKey(entry.getKey())) {
+                    lazy.put(entry.getKey(), entry.getValue());
+                }
+            }
+            fillLazy(model, lazy);
+            return;
+        }
+        Map<String, Object> merged = new HashMap<String, Object>();
+        if (model.getCreationParameters() != null) {
+            merged.putAll(model.getCreationParameters());
+        }
+        merged.putAll(parameters);
+        model.setCreationParameters(merged);
+        for (Map.Entry<String, ? extends Object> entry : parameters.entrySet()) {
+            bindProperty(model, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Creates a new model from the next JSON object in the reader. The JSON
+     * values are stored directly in the model, no intermediate map is
+     * created. The creation parameters of the model are a read-only view
+     * of its key-value dictionary.
+     * @param reader The reader positioned at the beginning of an object.
+     * @param repository The repository the model belongs to.
+     * @return The new model.
+     * @throws IOException If the underlying stream cannot be read.
+     * @throws JSONException If the next value is not a valid JSON object.
+     */
+    public T create(JsonStreamReader reader, Repository<T> repository)
+            throws IOException, JSONException {
+        T model = newInstance();
+        model.setRepository(repository);
+        useSchemaOf(repository, model);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            bindProperty(model, key, reader.readValue());
+        }
+        reader.endObject();
+        model.setCreationParameters(
+                Collections.unmodifiableMap(model.getOverflow()));
+        return model;
+    }
+
+    /**
+     * Creates a model keeping the lazy object as its key-value dictionary,
+     * only the id and the values of properties having a setter are decoded.
+     */
+    private T createLazy(LazyJsonObject parameters, Repository<T> repository) {
+        T model = newInstance();
+        model.setRepository(repository);
+        fillLazy(model, parameters);
+        return model;
+    }
+
+    private void fillLazy(T model, LazyJsonObject parameters) {
+        model.setOverflow(parameters);
+        model.setCreationParameters(Collections.unmodifiableMap(parameters));
+
+        Object id = parameters.get("id");
+        if (id != null) {
+            model.setId(id);
+        }
+        for (Map.Entry<String, Property[]> entry : properties.entrySet()) {
+            String key = entry.getKey();
+            if (parameters.containsKey(key)) {
+                bindSetter(model, entry.getValue(), parameters.get(key));
+            }
+        }
+    }
+
+    private static void useSchemaOf(Repository<?> repository, Model model) {
+        if (repository instanceof ModelRepository) {
+            ModelSchema schema = ((ModelRepository<?>) repository).getSchema();
+            if (schema != null) {
+                model.useSchema(schema);
+            }
+        }
+    }
+
+    private T newInstance() {
+        if (serializer != null) {
+            return serializer.newInstance();
+        }
+        try {
+            return constructor.newInstance();
+        }
+        catch (Exception e) {
+            IllegalArgumentException ex = new IllegalArgumentException();
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    private void bindProperty(T model, String key, Object value) {
+        if (key == null) return;
+
+        model.put(key, value);
+
+        if ("id".equals(key) && value != null) {
+            model.setId(value);
+        }
+
+        if (serializer != null) {
+            serializer.setProperty(model, key, value);
+            return;
+        }
+
+        Property[] candidates = properties.get(key);
+        if (candidates == null) return;
+        bindSetter(model, candidates, value);
+    }
+
+    private static void bindSetter(Model model, Property[] candidates,
+                                   Object value) {
+        for (Property property : candidates) {
+            Object converted = property.convert(value);
+            if (converted == Property.NOT_CONVERTIBLE) continue;
+            property.set(model, converted);
+            return;
+        }
+    }
+
+    /**
+     * A resolved setter and the type of its argument.
+     */
+    private static class Property {
+        static final Object NOT_CONVERTIBLE = ObjectSerializer.NOT_CONVERTIBLE;
+
+        private final Method setter;
+        private final Class<?> type;
+
+        Property(Method setter) {
+            setter.setAccessible(true);
+            this.setter = setter;
+            this.type = setter.getParameterTypes()[0];
+        }
+
+        Object convert(Object value) {
+            return ObjectSerializer.convert(value, type);
+        }
+
+        void set(Object target, Object value) {
+            try {
+                setter.invoke(target, value);
+            }
+            catch (Exception e) {
+                Log.e("ModelBinder", setter.getName() + "() failed", e);
+            }
+        }
+    }
+}
@@ -2,16 +2,23 @@
 
 package com.strongloop.android.loopback;
 
+import com.strongloop.android.loopback.callbacks.IncrementalListCallback;
 import com.strongloop.android.loopback.callbacks.JsonArrayParser;
+import com.strongloop.android.loopback.callbacks.JsonArrayStreamParser;
 import com.strongloop.android.loopback.callbacks.JsonObjectParser;
 import com.strongloop.android.loopback.callbacks.ListCallback;
 import com.strongloop.android.loopback.callbacks.ObjectCallback;
+import com.strongloop.android.remoting.JsonStreamReader;
+import com.strongloop.android.remoting.LazyJsonObject;
 import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.RequestHandle;
 import com.strongloop.android.remoting.adapters.RestContract;
 import com.strongloop.android.remoting.adapters.RestContractItem;
 
 import org.atteo.evo.inflector.English;
+import org.json.JSONException;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -35,6 +42,14 @@ public class ModelRepository<T extends Model> extends RestRepository<T> {
     }
 
     private String nameForRestUrl;
+    private final Class<T> modelClass;
+    private volatile ModelBinder<T> binder;
+    private final boolean isCreateObjectOverridden;
+    private volatile ModelSchema schema;
+    private volatile boolean lazyDecodingEnabled;
+    private volatile LocalModelStore localStore;
+    private volatile ReadPolicy readPolicy = ReadPolicy.NETWORK_ONLY;
+    private volatile IdentityMap<T> identityMap;
 
     public ModelRepository(String className) {
         this(className, null);
@@ -66,6 +81,202 @@ public class ModelRepository<T extends Model> extends RestRepository<T> {
         this.nameForRestUrl = nameForRestUrl != null
                 ? nameForRestUrl
                 : English.plural(className);
+
+        // The binder is resolved on first use, subclasses overriding
+        // createObject() may use model classes it cannot instantiate.
+        this.modelClass = modelClass != null ? modelClass : (Class<T>)Model.class;
+        this.isCreateObjectOverridden = isCreateObjectOverridden();
+    }
+
+    /**
+     * Enables compact storage of the key-value dictionary of the models
+     * created by this repository (see {@link Model#get(String)}). The models
+     * share a schema learned from the property names they hold, and each
+     * model keeps its values in flat arrays indexed by the schema, with
+     * numbers and booleans unboxed. This saves the hash table, the entries
+     * and the boxed values of each model, which adds up when thousands of
+     * models are loaded.
+     * <p>
+     * The behavior of {@link Model#get(String)}, {@link Model#put(String, Object)}
+     * and {@link Model#toMap()} is unchanged, except that numbers and
+     * booleans are boxed again on each read.
+     * <p>
+     * Only models created after the call are affected.
+     * @param enabled <code>true</code> to enable compact storage,
+     *                <code>false</code> to use a hash map per model
+     *                (the default).
+     */
+    public void setCompactStorageEnabled(boolean enabled) {
+        if (enabled != (schema != null)) {
+            schema = enabled ? new ModelSchema() : null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if compact storage is enabled,
+     * see {@link #setCompactStorageEnabled(boolean)}.
+     */
+    public boolean isCompactStorageEnabled() {
+        return schema != null;
+    }
+
+    /**
+     * Enables lazy decoding of the models returned by {@link #findById},
+     * {@link #findOne} and {@link #find(Map, ListCallback)}. The response
+     * is only indexed when it arrives, the value of a property is decoded
+     * when it is first read through {@link Model#get(String)},
+     * {@link Model#toMap()} or when the model is saved, see
+     * {@link LazyJsonObject}. Properties having a setter are still decoded
+     * when the model is created, and so are all properties of classes with
+     * a generated serializer.
+     * <p>
+     * Use it for models with many properties of which only a few are read.
+     * Like other models, they can be read from several threads at once,
+     * decoding a property is synchronized. The models keep the whole
+     * response text in memory, and lazy
+     * decoding takes precedence over compact storage
+     * (see {@link #setCompactStorageEnabled(boolean)}).
+     * @param enabled <code>true</code> to decode properties on first
+     *                access, <code>false</code> to decode whole responses
+     *                (the default).
+     */
+    public void setLazyDecodingEnabled(boolean enabled) {
+        this.lazyDecodingEnabled = enabled;
+    }
+
+    /**
+     * @return <code>true</code> if lazy decoding is enabled,
+     * see {@link #setLazyDecodingEnabled(boolean)}.
+     */
+    public boolean isLazyDecodingEnabled() {
+        return lazyDecodingEnabled;
+    }
+
+    /**
+     * @return The store of fetched models, <code>null</code> if not set.
+     */
+    public LocalModelStore getLocalStore() {
+        return localStore;
+    }
+
+    /**
+     * Sets the store keeping the models returned by {@link #findById},
+     * {@link #findOne} and {@link #find(Map, ListCallback)}, and the
+     * models saved through {@link Model#save}. Reads are answered from it
+     * according to the {@link ReadPolicy}.
+     * @param localStore The store, <code>null</code> to disable it
+     *                   (the default).
+     */
+    public void setLocalStore(LocalModelStore localStore) {
+        this.localStore = localStore;
+    }
+
+    /**
+     * @return The read policy, see {@link #setReadPolicy(ReadPolicy)}.
+     */
+    public ReadPolicy getReadPolicy() {
+        return readPolicy;
+    }
+
+    /**
+     * Sets how reads use the local store, see
+     * {@link #setLocalStore(LocalModelStore)}.
+     * @param readPolicy The policy, {@link ReadPolicy#NETWORK_ONLY} by
+     *                   default.
+     */
+    public void setReadPolicy(ReadPolicy readPolicy) {
+        if (readPolicy == null) {
+            throw new IllegalArgumentException("Read policy cannot be null");
+        }
+        this.readPolicy = readPolicy;
+    }
+
+    /**
+     * @return The identity map, <code>null</code> if not set.
+     */
+    public IdentityMap<T> getIdentityMap() {
+        return identityMap;
+    }
+
+    /**
+     * Sets the map keeping one instance per model id. Models returned by
+     * {@link #findById}, {@link #findOne} and the <code>find</code> methods
+     * then update the instance already loaded for their id in place, and
+     * are the same instance across queries. Loaded data is merged into
+     * that instance: edits of the properties loaded later are overwritten,
+     * other properties are kept. Repositories overriding
+     * {@link #createObject(Map)} always get new instances.
+     * @param identityMap The map, <code>null</code> to create a new
+     *                    instance for each loaded model (the default).
+     */
+    public void setIdentityMap(IdentityMap<T> identityMap) {
+        this.identityMap = identityMap;
+    }
+
+    /**
+     * Returns the model loaded with the given parameters. When an identity
+     * map is set and an instance with the same id is mapped, the parameters
+     * are merged into that instance (see
+     * {@link ModelBinder#update(Model, Map)}) and it is returned, otherwise
+     * a new model is created (see {@link #createObject(Map)}) and mapped.
+     * <p>
+     * Call it on the thread using the models, mapped instances are updated
+     * in place.
+     * @param parameters The model data returned by the server.
+     * @return The model.
+     */
+    public T resolveObject(Map<String, ? extends Object> parameters) {
+        return resolveObject(parameters, null);
+    }
+
+    /**
+     * Creates the model for the given parameters ahead of
+     * {@link #resolveObject(Map, Model)}, on the background thread decoding
+     * the response. No model is created when the identity map holds an
+     * instance for the id, the parameters are merged into it instead.
+     * @param parameters The model data returned by the server.
+     * @return The new model, or <code>null</code> if the model is mapped.
+     */
+    public T prepareObject(Map<String, ? extends Object> parameters) {
+        IdentityMap<T> map = identityMap;
+        if (map != null && parameters != null && !isCreateObjectOverridden &&
+                map.get(parameters.get("id")) != null) {
+            return null;
+        }
+        return createObject(parameters);
+    }
+
+    /**
+     * Returns the model loaded with the given parameters, like
+     * {@link #resolveObject(Map)}, using the model created by
+     * {@link #prepareObject(Map)} when no instance is mapped.
+     * @param parameters The model data returned by the server.
+     * @param prepared The model created beforehand, can be <code>null</code>.
+     * @return The model.
+     */
+    public T resolveObject(Map<String, ? extends Object> parameters,
+                           T prepared) {
+        IdentityMap<T> map = identityMap;
+        if (map == null || parameters == null) {
+            return prepared != null ? prepared : createObject(parameters);
+        }
+        Object id = parameters.get("id");
+        // Subclasses building their own instances always get new ones,
+        // the mapped instance is not reused then.
+        T model = id != null && !isCreateObjectOverridden
+                ? map.lookup(id)
+                : null;
+        if (model == null) {
+            model = prepared != null ? prepared : createObject(parameters);
+        } else if (model != prepared) {
+            getBinder().update(model, parameters);
+        }
+        map.put(model);
+        return model;
+    }
+
+    /* package private */ ModelSchema getSchema() {
+        return schema;
     }
 
    /**
@@ -118,15 +329,44 @@ public class ModelRepository<T extends Model> extends RestRepository<T> {
      */
     @Override
     public T createObject(Map<String, ? extends Object> parameters) {
-        T model = super.createObject(parameters);
-        model.putAll(parameters);
+        return getBinder().create(parameters, this);
+    }
 
-        Object id = parameters.get("id");
-        if (id != null) {
-            model.setId(id);
+    /**
+     * Creates a new {@link Model} of this type from the next JSON object
+     * read from the stream, without building an intermediate map.
+     * <p>
+     * Subclasses overriding {@link #createObject(Map)} keep getting their
+     * implementation called.
+     * @param reader The reader positioned at the beginning of a JSON object.
+     * @return A new {@link Model}.
+     */
+    @Override
+    public T createObject(JsonStreamReader reader)
+            throws IOException, JSONException {
+        if (isCreateObjectOverridden) {
+            return super.createObject(reader);
         }
+        return getBinder().create(reader, this);
+    }
 
-        return model;
+    private ModelBinder<T> getBinder() {
+        ModelBinder<T> binder = this.binder;
+        if (binder == null) {
+            binder = ModelBinder.forClass(modelClass);
+            this.binder = binder;
+        }
+        return binder;
+    }
+
+    private boolean isCreateObjectOverridden() {
+        try {
+            return getClass().getMethod("createObject", Map.class)
+                    .getDeclaringClass() != ModelRepository.class;
+        }
+        catch (NoSuchMethodException e) {
+            return false;
+        }
     }
 
     /**
@@ -134,20 +374,22 @@ public class ModelRepository<T extends Model> extends RestRepository<T> {
      * server with the given id.
      * @param id The id to search for.
      * @param callback The callback to be executed when finished.
+     * @return The handle of the request.
      */
-    public void findById(Object id, final ObjectCallback<T> callback) {
+    public RequestHandle findById(Object id, final ObjectCallback<T> callback) {
         Map<String, Object> params = new HashMap<String, Object>();
         params.put("id", id);
-        invokeStaticMethod("findById", params,
+        return read("findById", params, id, false,
                 new JsonObjectParser<T>(this, callback));
     }
 
     /**
      * Finds and downloads all models of this type on and from the server.
      * @param callback The callback to be executed when finished.
+     * @return The handle of the request.
      */
-    public void findAll(final ListCallback<T> callback) {
-        find(null, callback);
+    public RequestHandle findAll(final ListCallback<T> callback) {
+        return find(null, callback);
     }
 
     /**
@@ -155,11 +397,50 @@ public class ModelRepository<T extends Model> extends RestRepository<T> {
      * that match the specified filter
      * @param parameters filter.
      * @param callback The callback to be executed when finished.
+     * @return The handle of the request.
      */
-    public void find(Map<String, ? extends Object> parameters, final ListCallback<T> callback) {
-        invokeStaticMethod("all",
+    public RequestHandle find(Map<String, ? extends Object> parameters, final ListCallback<T> callback) {
+        if (localStore != null) {
+            return read("all", parameters, null, true,
+                    new JsonArrayParser<T>(this, callback));
+        }
+        if (lazyDecodingEnabled) {
+            // The lazy models index the buffered response.
+            return invokeStaticMethod("all", parameters,
+                    new JsonArrayParser<T>(this, callback));
+        }
+        return invokeStaticMethod("all",
                 parameters,
-                new JsonArrayParser<T>(this, callback));
+                new JsonArrayStreamParser<T>(this, callback));
+    }
+
+    /**
+     * Finds and downloads all models of this type on and from the server,
+     * delivering them in chunks as they arrive.
+     * @param callback The callback to be executed for each chunk and when
+     *                 finished.
+     * @return The handle of the request.
+     */
+    public RequestHandle findAll(final IncrementalListCallback<T> callback) {
+        return find(null, callback);
+    }
+
+    /**
+     * Finds and downloads all models of this type on and from the server
+     * that match the specified filter, delivering them in chunks as they
+     * arrive. Use this variant for large result sets, the models are
+     * created while the response is being downloaded and the full list
+     * is never kept in memory.
+     * @param parameters filter.
+     * @param callback The callback to be executed for each chunk and when
+     *                 finished.
+     * @return The handle of the request.
+     */
+    public RequestHandle find(Map<String, ? extends Object> parameters,
+                              final IncrementalListCallback<T> callback) {
+        return invokeStaticMethod("all",
+                parameters,
+                new JsonArrayStreamParser<T>(this, callback));
     }
 
 
@@ -168,10 +449,148 @@ public class ModelRepository<T extends Model> extends RestRepository<T> {
      * that match the specified filter
      * @param parameters filter.
      * @param callback The callback to be executed when finished.
+     * @return The handle of the request.
      */
-    public void findOne(Map<String, ? extends Object> parameters, final ObjectCallback<T> callback) {
-        invokeStaticMethod("findOne",
-                parameters,
+    public RequestHandle findOne(Map<String, ? extends Object> parameters, final ObjectCallback<T> callback) {
+        return read("findOne", parameters, null, false,
                 new JsonObjectParser<T>(this, callback));
     }
+
+    /**
+     * Invokes a read method, using the local store according to the
+     * read policy.
+     * @param id The id of the model read, <code>null</code> for queries.
+     * @param list <code>true</code> if the method returns a list.
+     */
+    private RequestHandle read(final String method,
+                               final Map<String, ? extends Object> parameters,
+                               Object id, boolean list,
+                               final Adapter.DecodingCallback parser) {
+        LocalModelStore store = localStore;
+        if (store == null) {
+            return invokeStaticMethod(method, parameters, parser);
+        }
+        String model = getClassName();
+        String query = id == null
+                ? LocalModelStore.queryKey(method, parameters)
+                : null;
+        final Adapter.DecodingCallback storing =
+                store.storing(model, query, parser);
+        final ReadPolicy policy = readPolicy;
+        if (policy == ReadPolicy.NETWORK_ONLY ||
+                (id == null && query == null)) {
+            return invokeStaticMethod(method, parameters, storing);
+        }
+
+        final LocalReadHandle handle = new LocalReadHandle(getRestAdapter());
+        // The server's answer is the last delivery of the read.
+        final Adapter.DecodingCallback finishing =
+                new Adapter.DecodingCallback() {
+            @Override
+            public Runnable decode(String response) throws Exception {
+                final Runnable delivery = storing.decode(response);
+                return new Runnable() {
+                    @Override
+                    public void run() {
+                        if (handle.finishRead()) {
+                            delivery.run();
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public void onSuccess(String response) {
+                if (handle.finishRead()) {
+                    storing.onSuccess(response);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                if (handle.finishRead()) {
+                    storing.onError(t);
+                }
+            }
+        };
+        final Runnable network = new Runnable() {
+            @Override
+            public void run() {
+                if (!handle.isCancelled()) {
+                    handle.setNetworkHandle(
+                            invokeStaticMethod(method, parameters, finishing));
+                }
+            }
+        };
+        store.load(model, id, query, list, new Adapter.DecodingCallback() {
+            @Override
+            public Runnable decode(String response) throws Exception {
+                final Runnable delivery = parser.decode(response);
+                return new Runnable() {
+                    @Override
+                    public void run() {
+                        if (policy == ReadPolicy.CACHE_FIRST) {
+                            if (handle.finishRead()) {
+                                delivery.run();
+                            }
+                            return;
+                        }
+                        if (!handle.isCancelled()) {
+                            delivery.run();
+                        }
+                        network.run();
+                    }
+                };
+            }
+
+            @Override
+            public void onSuccess(String response) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+        }, network);
+        return handle;
+    }
+
+    /**
+     * The handle of a read answered by the local store, the server, or
+     * both. It is registered with the adapter while in progress, so that
+     * {@link RestAdapter#cancelAll(Object)} covers the whole read.
+     */
+    private static class LocalReadHandle extends RequestHandle {
+        private final RestAdapter adapter;
+        private volatile RequestHandle networkHandle;
+
+        LocalReadHandle(RestAdapter adapter) {
+            this.adapter = adapter;
+            adapter.registerHandle(this);
+        }
+
+        void setNetworkHandle(RequestHandle networkHandle) {
+            this.networkHandle = networkHandle;
+            if (isCancelled()) {
+                networkHandle.cancel();
+            }
+        }
+
+        boolean finishRead() {
+            return finish();
+        }
+
+        @Override
+        protected void onCancel() {
+            adapter.unregisterHandle(this);
+            RequestHandle network = networkHandle;
+            if (network != null) {
+                network.cancel();
+            }
+        }
+
+        @Override
+        protected void onFinish() {
+            adapter.unregisterHandle(this);
+        }
+    }
 }
@@ -0,0 +1,78 @@
+package com.strongloop.android.loopback;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The property names seen in the models of one {@link ModelRepository},
+ * each mapped to a slot index in the {@link CompactProperties} of the
+ * models. The schema is learned from the data: the first put of a new
+ * name assigns the next free slot, up to {@link #MAX_SLOTS}.
+ * <p>
+ * Lookups don't lock: the name-to-slot map is replaced by a new copy when
+ * a name is added, which happens only while the first models are filled.
+ */
+class ModelSchema {
+    /**
+     * The maximum number of slots, names seen after the schema is full
+     * are stored in the spill map of each model.
+     */
+    static final int MAX_SLOTS = 128;
+
+    private volatile Map<String, Integer> slots = new HashMap<String, Integer>();
+    private volatile String[] names = new String[0];
+
+    /**
+     * @return The slot of the name, or -1 if the name has no slot.
+     */
+    int getSlot(Object name) {
+        Integer slot = slots.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * Returns the slot of the name, assigning a new slot if the name
+     * was never seen.
+     * @return The slot, or -1 if the schema is full.
+     */
+    int getOrAddSlot(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (this) {
+            slot = slots.get(name);
+            if (slot != null) {
+                return slot;
+            }
+            int size = names.length;
+            if (size == MAX_SLOTS) {
+                return -1;
+            }
+            String[] newNames = new String[size + 1];
+            System.arraycopy(names, 0, newNames, 0, size);
+            newNames[size] = name;
+            Map<String, Integer> newSlots = new HashMap<String, Integer>(slots);
+            newSlots.put(name, size);
+            // Publish the names first, readers finding a slot must be able
+            // to get its name.
+            names = newNames;
+            slots = newSlots;
+            return size;
+        }
+    }
+
+    /**
+     * @return The name of the slot.
+     */
+    String getName(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * @return The number of slots assigned so far.
+     */
+    int size() {
+        return names.length;
+    }
+}
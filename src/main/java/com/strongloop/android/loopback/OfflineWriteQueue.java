@@ -0,0 +1,967 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.loopback;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.strongloop.android.loopback.callbacks.VoidCallback;
+import com.strongloop.android.remoting.JsonUtil;
+import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.CircuitOpenException;
+import com.strongloop.android.remoting.adapters.RetryPolicy;
+
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A durable queue of {@link Model#save(VoidCallback)} and
+ * {@link Model#destroy(VoidCallback)} calls that could not be sent to the
+ * server.
+ * <p>
+ * Calls made while the device is offline, and calls that failed before
+ * the request left the device, are recorded in an append-only journal file
+ * and replayed in order once the device is back online. Saves of existing
+ * models and removals can be sent twice without harm, they are queued after
+ * any other network error too. While operations are pending, new calls are
+ * queued behind them to keep the order. Repeated saves of the same model
+ * are coalesced into a single request.
+ * <p>
+ * Operations queued behind the creation of a model that is not created
+ * yet receive its id once the creation was replayed.
+ * <p>
+ * The journal is read and written on a background thread, in the order of
+ * the calls, see {@link #flush()}. Until the journal is loaded, all calls
+ * are queued. An operation failing with a network error while replayed is
+ * retried after a growing delay.
+ * <p>
+ * The callback of a queued call is invoked when its operation is replayed.
+ * Operations restored from the journal after a restart report to the
+ * {@link Listener}, or to a callback registered with
+ * {@link #addCallback(Model, VoidCallback)}.
+ * <pre>
+ * {@code
+ * OfflineWriteQueue queue = new OfflineWriteQueue(
+ *     new File(context.getFilesDir(), "loopback-writes"));
+ * adapter.setWriteQueue(queue);
+ * queue.startMonitoring(context);
+ * }
+ * </pre>
+ */
+public class OfflineWriteQueue {
+    private static final String TAG = "loopback.OfflineWriteQueue";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MIN_OBSOLETE_RECORDS = 64;
+
+    /**
+     * Receives the outcome of replayed operations, including operations
+     * restored from the journal.
+     */
+    public interface Listener {
+        /**
+         * Invoked when the server accepted a replayed operation.
+         * @param operation The operation.
+         */
+        public void onReplayed(Operation operation);
+
+        /**
+         * Invoked when the server rejected a replayed operation, the
+         * operation is removed from the queue.
+         * @param operation The operation.
+         * @param t The error.
+         */
+        public void onRejected(Operation operation, Throwable t);
+    }
+
+    /**
+     * A queued {@link Model#save(VoidCallback)} or
+     * {@link Model#destroy(VoidCallback)} call.
+     */
+    public static class Operation {
+        private final long sequence;
+        private String method;
+        private Object modelId;
+        // The sequence of the pending create of the model, -1 if none.
+        private long createSequence = -1;
+        private Map<String, ? extends Object> constructorParameters;
+        private Map<String, ? extends Object> parameters;
+        private Model model;
+        private final List<VoidCallback> callbacks =
+                new ArrayList<VoidCallback>();
+
+        Operation(long sequence, String method, Object modelId) {
+            this.sequence = sequence;
+            this.method = method;
+            this.modelId = modelId;
+        }
+
+        /**
+         * @return The position of the operation in the queue.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return The remote method, e.g.
+         * <code>"widgets.prototype.save"</code>.
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return The id of the model, <code>null</code> for models not
+         * created on the server yet.
+         */
+        public Object getModelId() {
+            return modelId;
+        }
+
+        /**
+         * @return The properties of the model sent to the server.
+         */
+        public Map<String, ? extends Object> getParameters() {
+            return parameters;
+        }
+
+        /**
+         * @return The model, <code>null</code> for operations restored
+         * from the journal.
+         */
+        public Model getModel() {
+            return model;
+        }
+
+        private boolean isSave() {
+            return method.endsWith(".prototype.save");
+        }
+
+        private boolean isCreate() {
+            return method.endsWith(".prototype.create");
+        }
+
+        @Override
+        public String toString() {
+            return "Operation{sequence=" + sequence +
+                    ", method=" + method +
+                    ", modelId=" + modelId + "}";
+        }
+    }
+
+    private final File journal;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable retry = new Runnable() {
+        @Override
+        public void run() {
+            replay();
+        }
+    };
+
+    // Guarded by this. Ordered by sequence.
+    private final LinkedList<Operation> pending = new LinkedList<Operation>();
+    private Operation replaying;
+    private long nextSequence;
+    private int obsoleteRecords;
+    private int failedReplays;
+    private boolean loaded;
+
+    private volatile boolean online = true;
+    private volatile Listener listener;
+    private volatile RestAdapter adapter;
+    private BroadcastReceiver connectivityReceiver;
+
+    /**
+     * Creates a queue recording operations in the given journal file.
+     * @param journal The file, it is created when needed. The file should
+     * be used exclusively by this queue.
+     */
+    public OfflineWriteQueue(File journal) {
+        if (journal == null) {
+            throw new IllegalArgumentException("Journal cannot be null");
+        }
+        this.journal = journal;
+        Worker.EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * @return The listener, <code>null</code> if not set.
+     */
+    public Listener getListener() {
+        return listener;
+    }
+
+    /**
+     * Sets the listener notified of the outcome of all replayed operations.
+     * @param listener The listener.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return <code>true</code> unless the device was reported offline.
+     */
+    public boolean isOnline() {
+        return online;
+    }
+
+    /**
+     * Reports the connectivity of the device, the queue is replayed when
+     * the device comes online. Not needed after
+     * {@link #startMonitoring(Context)}.
+     * @param online <code>true</code> if the device is online.
+     */
+    public void setOnline(boolean online) {
+        this.online = online;
+        if (online) {
+            replay();
+        }
+    }
+
+    /**
+     * Tracks the connectivity of the device, see
+     * {@link #setOnline(boolean)}. The application must hold the
+     * <code>ACCESS_NETWORK_STATE</code> permission.
+     * @param context The context.
+     */
+    public synchronized void startMonitoring(Context context) {
+        if (connectivityReceiver != null) return;
+        final Context appContext = context.getApplicationContext();
+        connectivityReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                setOnline(isConnected(appContext));
+            }
+        };
+        appContext.registerReceiver(connectivityReceiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * Stops tracking the connectivity of the device.
+     * @param context The context passed to {@link #startMonitoring(Context)}.
+     */
+    public synchronized void stopMonitoring(Context context) {
+        if (connectivityReceiver == null) return;
+        context.getApplicationContext().unregisterReceiver(connectivityReceiver);
+        connectivityReceiver = null;
+    }
+
+    /**
+     * @return The operations not yet accepted or rejected by the server.
+     * Operations restored from the journal are included once it is loaded,
+     * see {@link #flush()}.
+     */
+    public synchronized List<Operation> getPendingOperations() {
+        return Collections.unmodifiableList(
+                new ArrayList<Operation>(pending));
+    }
+
+    /**
+     * @return The number of operations not yet accepted or rejected
+     * by the server, see {@link #getPendingOperations()}.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Registers a callback invoked once all pending operations of the model
+     * were replayed, e.g. after restoring the model from an earlier run of
+     * the application.
+     * <p>
+     * Until the journal is loaded, the callback is registered once it is,
+     * and invoked right away if no operation of the model was restored.
+     * @param model The model.
+     * @param callback The callback.
+     * @return <code>false</code> if no operation of the model is pending.
+     */
+    public synchronized boolean addCallback(final Model model,
+                                            final VoidCallback callback) {
+        if (!loaded) {
+            Worker.EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!addCallback(model, callback)) {
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onSuccess();
+                            }
+                        });
+                    }
+                }
+            });
+            return true;
+        }
+        Operation last = null;
+        for (Operation operation : pending) {
+            if (isOperationOf(operation, model)) {
+                last = operation;
+            }
+        }
+        if (last == null) return false;
+        last.callbacks.add(callback);
+        return true;
+    }
+
+    /**
+     * Sends the pending operations to the server, one after another.
+     * An operation that fails with a network error or a transient server
+     * error stays queued and stops the replay until the next call, or
+     * until the replay is retried after a delay.
+     */
+    public void replay() {
+        Operation operation;
+        RestAdapter adapter = this.adapter;
+        handler.removeCallbacks(retry);
+        synchronized (this) {
+            if (!loaded || !online || adapter == null ||
+                    replaying != null || pending.isEmpty()) {
+                return;
+            }
+            operation = pending.getFirst();
+            if (adapter.getContract().getPatternForMethod(
+                    operation.method) == null) {
+                // The repository of the model was not created yet.
+                return;
+            }
+            replaying = operation;
+        }
+        send(adapter, operation);
+    }
+
+    /**
+     * Removes all pending operations without sending them.
+     */
+    public synchronized void clear() {
+        if (!loaded) {
+            Worker.EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    clear();
+                }
+            });
+            return;
+        }
+        pending.clear();
+        replaying = null;
+        compact();
+    }
+
+    /**
+     * Waits until the journal is loaded and records all calls made so far.
+     * @throws InterruptedException when interrupted while waiting.
+     */
+    public void flush() throws InterruptedException {
+        try {
+            Worker.EXECUTOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void setAdapter(RestAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    /**
+     * @return <code>true</code> if writes must be queued rather than sent,
+     * because the device is offline, earlier writes are pending or the
+     * journal is not loaded yet.
+     */
+    synchronized boolean isQueueing() {
+        return !loaded || !online || !pending.isEmpty();
+    }
+
+    /**
+     * Queues a call of {@link Model#save(VoidCallback)} or
+     * {@link Model#destroy(VoidCallback)}.
+     * @param model The model.
+     * @param method The method, e.g. <code>"save"</code>.
+     * @param parameters The properties of the model at the time of the call.
+     * @param callback The callback of the call.
+     * @param cause The network error the call failed with, <code>null</code>
+     *              if it was not sent, see {@link #isQueueable}.
+     */
+    void enqueue(final Model model, final String method,
+                 final Map<String, ? extends Object> parameters,
+                 final VoidCallback callback, final Throwable cause) {
+        String path = model.getRepository().getClassName() +
+                ".prototype." + method;
+        synchronized (this) {
+            if (!loaded) {
+                // Queued behind the operations restored from the journal.
+                Worker.EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        enqueue(model, method, parameters, callback, cause);
+                    }
+                });
+                return;
+            }
+            try {
+                Operation operation = findCoalescible(path, model);
+                boolean coalesced = operation != null;
+                if (!coalesced) {
+                    operation = new Operation(nextSequence, path, model.getId());
+                    if (operation.modelId == null) {
+                        // Receives the id once the creation was replayed.
+                        Operation create = findCreate(model);
+                        if (create != null) {
+                            operation.createSequence = create.sequence;
+                        }
+                    }
+                }
+                append(toRecord(operation.sequence, path, operation.modelId,
+                        operation.createSequence,
+                        model.getCreationParameters(), parameters));
+                if (coalesced) {
+                    obsoleteRecords++;
+                } else {
+                    nextSequence++;
+                    pending.add(operation);
+                }
+                operation.model = model;
+                operation.constructorParameters = model.getCreationParameters();
+                operation.parameters = parameters;
+                operation.callbacks.add(callback);
+            } catch (Exception e) {
+                Log.w(TAG, "Cannot record operation in " + journal, e);
+                callback.onError(cause != null ? cause : e);
+                return;
+            }
+        }
+        if (cause == null) {
+            // Deferred calls run on the worker thread.
+            handler.post(retry);
+        }
+    }
+
+    /**
+     * Tells whether a failed call must be queued. A call is queued when the
+     * device is offline or the request never left the device. Other network
+     * errors leave open whether the server applied the request, a call is
+     * queued then only if sending it again is harmless: saves of existing
+     * models and removals are, creations are not.
+     * @param method The method, e.g. <code>"save"</code>.
+     * @param t The error the call failed with.
+     * @return <code>true</code> if the call must be queued.
+     */
+    boolean isQueueable(String method, Throwable t) {
+        if (!online || isNotSent(t)) return true;
+        return !"create".equals(method) && isNetworkError(t);
+    }
+
+    /**
+     * @return <code>true</code> if the error means the request did not
+     * leave the device.
+     */
+    private static boolean isNotSent(Throwable t) {
+        return t instanceof ConnectException ||
+                t instanceof ConnectTimeoutException ||
+                t instanceof NoRouteToHostException ||
+                t instanceof UnknownHostException ||
+                t instanceof CircuitOpenException;
+    }
+
+    /**
+     * @return <code>true</code> if the error means the request may not have
+     * reached the server, or its response may not have reached the device.
+     */
+    private static boolean isNetworkError(Throwable t) {
+        return t instanceof IOException && !(t instanceof HttpResponseException);
+    }
+
+    private static boolean isRetriable(Operation operation, Throwable t) {
+        if (t instanceof HttpResponseException) {
+            return RetryPolicy.isTransientStatus(
+                    ((HttpResponseException) t).getStatusCode());
+        }
+        return operation.isCreate() ? isNotSent(t) : isNetworkError(t);
+    }
+
+    private static boolean isConnected(Context context) {
+        ConnectivityManager manager = (ConnectivityManager)
+                context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = manager.getActiveNetworkInfo();
+        return info != null && info.isConnected();
+    }
+
+    //
+    // Replay
+    //
+
+    private void send(RestAdapter adapter, final Operation operation) {
+        try {
+            adapter.invokeInstanceMethod(operation.method,
+                    operation.constructorParameters, operation.parameters,
+                    new Adapter.Callback() {
+                @Override
+                public void onSuccess(String response) {
+                    Model model = operation.model;
+                    JSONObject object = parseObject(response);
+                    if (operation.isCreate() && object != null &&
+                            object.opt("id") != null) {
+                        if (model != null) {
+                            model.setId(object.opt("id"));
+                        }
+                        assignId(operation, object.opt("id"));
+                    }
+                    if (model != null) {
+                        mirror(model, operation, object);
+                    }
+                    complete(operation, null);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    if (isRetriable(operation, t)) {
+                        long delay;
+                        synchronized (OfflineWriteQueue.this) {
+                            replaying = null;
+                            delay = ParallelTransfer.getDelay(++failedReplays);
+                        }
+                        Log.w(TAG, "Replay stopped at " + operation +
+                                ", retrying in " + delay + " ms", t);
+                        handler.postDelayed(retry, delay);
+                    } else {
+                        complete(operation, t);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            complete(operation, e);
+        }
+    }
+
+    private void complete(Operation operation, Throwable error) {
+        List<Operation> completed = new ArrayList<Operation>();
+        synchronized (this) {
+            replaying = null;
+            failedReplays = 0;
+            if (!pending.remove(operation)) return;
+            completed.add(operation);
+            if (error != null && operation.isCreate()) {
+                // Operations waiting for the id of the model cannot be sent.
+                for (Iterator<Operation> it = pending.iterator(); it.hasNext();) {
+                    Operation dependent = it.next();
+                    if (dependent.createSequence == operation.sequence) {
+                        it.remove();
+                        completed.add(dependent);
+                    }
+                }
+            }
+            obsoleteRecords += completed.size();
+            try {
+                if (pending.isEmpty() || completed.size() > 1 ||
+                        (obsoleteRecords > MIN_OBSOLETE_RECORDS &&
+                         obsoleteRecords > pending.size())) {
+                    compact();
+                } else {
+                    JSONObject record = new JSONObject();
+                    record.put("done", operation.sequence);
+                    append(record);
+                    obsoleteRecords++;
+                }
+            } catch (JSONException e) {
+                Log.w(TAG, "Cannot record completion in " + journal, e);
+            }
+        }
+
+        Listener listener = this.listener;
+        for (Operation done : completed) {
+            List<VoidCallback> callbacks =
+                    new ArrayList<VoidCallback>(done.callbacks);
+            done.callbacks.clear();
+            for (VoidCallback callback : callbacks) {
+                if (error == null) {
+                    callback.onSuccess();
+                } else {
+                    callback.onError(error);
+                }
+            }
+            if (listener != null) {
+                if (error == null) {
+                    listener.onReplayed(done);
+                } else {
+                    listener.onRejected(done, error);
+                }
+            }
+        }
+        replay();
+    }
+
+    /**
+     * Passes the id of a created model to the operations queued behind its
+     * creation, a queued creation of the model becomes a save.
+     */
+    private synchronized void assignId(Operation create, Object id) {
+        boolean assigned = false;
+        for (Operation operation : pending) {
+            if (operation.createSequence != create.sequence) continue;
+            operation.createSequence = -1;
+            operation.modelId = id;
+            operation.constructorParameters =
+                    withId(operation.constructorParameters, id);
+            operation.parameters = withId(operation.parameters, id);
+            if (operation.isCreate()) {
+                operation.method = operation.method.substring(0,
+                        operation.method.length() - "create".length()) + "save";
+            }
+            assigned = true;
+        }
+        if (assigned) {
+            compact();
+        }
+    }
+
+    private static Map<String, ? extends Object> withId(
+            Map<String, ? extends Object> parameters, Object id) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        if (parameters != null) {
+            map.putAll(parameters);
+        }
+        map.put("id", id);
+        return map;
+    }
+
+    private static JSONObject parseObject(String response) {
+        try {
+            return new JSONObject(response);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Applies a replayed operation to the local store of the model.
+     */
+    private static void mirror(Model model, Operation operation,
+                               JSONObject response) {
+        LocalModelStore store = model.getLocalStore();
+        if (store == null) return;
+        String className = model.getRepository().getClassName();
+        if (operation.isSave() || operation.isCreate()) {
+            store.storeObject(className, response);
+        } else {
+            store.removeObject(className, operation.modelId);
+        }
+    }
+
+    //
+    // Queue
+    //
+
+    /**
+     * Finds the queued operation a new save can be merged into: the last
+     * operation of the same model, when it is a save that was not sent yet.
+     */
+    private Operation findCoalescible(String path, Model model) {
+        if (pending.isEmpty()) return null;
+        Operation last = null;
+        for (Operation operation : pending) {
+            if (isOperationOf(operation, model)) {
+                last = operation;
+            }
+        }
+        if (last == null || last == replaying || !last.method.equals(path)) {
+            return null;
+        }
+        return last.isSave() || (last.isCreate() && last.model == model)
+                ? last
+                : null;
+    }
+
+    /**
+     * Finds the queued creation of the model, sent or not.
+     */
+    private Operation findCreate(Model model) {
+        Operation create = null;
+        for (Operation operation : pending) {
+            if (operation.model == model && operation.isCreate() &&
+                    operation.createSequence == -1) {
+                create = operation;
+            }
+        }
+        return create;
+    }
+
+    private static boolean isOperationOf(Operation operation, Model model) {
+        if (operation.model == model) return true;
+        return model.getId() != null && model.getRepository() != null &&
+                model.getId().equals(operation.modelId) &&
+                operation.method.startsWith(
+                        model.getRepository().getClassName() + ".prototype.");
+    }
+
+    //
+    // Journal
+    //
+
+    /**
+     * Restores the pending operations from the journal, on the worker thread.
+     * Calls made until then were queued on the worker behind this task.
+     */
+    private void load() {
+        // A record with a known sequence replaces the earlier one.
+        Map<Long, Operation> operations = new LinkedHashMap<Long, Operation>();
+        long next = journal.isFile() ? readJournal(operations) : 0;
+        List<Operation> restored = new ArrayList<Operation>(operations.values());
+        Collections.sort(restored, new Comparator<Operation>() {
+            @Override
+            public int compare(Operation lhs, Operation rhs) {
+                return lhs.sequence < rhs.sequence ? -1
+                        : (lhs.sequence == rhs.sequence ? 0 : 1);
+            }
+        });
+        synchronized (this) {
+            pending.addAll(restored);
+            nextSequence = next;
+            loaded = true;
+            if (!restored.isEmpty()) {
+                compact();
+            }
+        }
+        handler.post(retry);
+    }
+
+    /**
+     * @return The sequence following the last record.
+     */
+    private long readJournal(Map<Long, Operation> operations) {
+        long next = 0;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(journal), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject record;
+                try {
+                    record = new JSONObject(line);
+                } catch (JSONException e) {
+                    // The last record is torn when the process was killed
+                    // while writing it.
+                    Log.w(TAG, "Skipping invalid record in " + journal);
+                    continue;
+                }
+                if (record.has("done")) {
+                    operations.remove(record.getLong("done"));
+                    continue;
+                }
+                Operation operation = fromRecord(record);
+                operations.remove(operation.sequence);
+                operations.put(operation.sequence, operation);
+                next = Math.max(next, operation.sequence + 1);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Cannot read journal " + journal, e);
+        } finally {
+            closeQuietly(reader);
+        }
+        return next;
+    }
+
+    private static JSONObject toRecord(Operation operation)
+            throws JSONException {
+        return toRecord(operation.sequence, operation.method,
+                operation.modelId, operation.createSequence,
+                operation.constructorParameters, operation.parameters);
+    }
+
+    private static JSONObject toRecord(long sequence, String method,
+            Object modelId, long createSequence,
+            Map<String, ? extends Object> constructorParameters,
+            Map<String, ? extends Object> parameters) throws JSONException {
+        JSONObject record = new JSONObject();
+        record.put("seq", sequence);
+        record.put("method", method);
+        record.put("id", JsonUtil.toJson(modelId));
+        if (createSequence != -1) {
+            record.put("create", createSequence);
+        }
+        record.put("ctor", JsonUtil.toJson(constructorParameters));
+        record.put("params", JsonUtil.toJson(parameters));
+        return record;
+    }
+
+    private static Operation fromRecord(JSONObject record)
+            throws JSONException {
+        Object id = record.opt("id");
+        Operation operation = new Operation(record.getLong("seq"),
+                record.getString("method"), id == JSONObject.NULL ? null : id);
+        operation.createSequence = record.optLong("create", -1);
+        operation.constructorParameters =
+                JsonUtil.fromJson(record.optJSONObject("ctor"));
+        operation.parameters = JsonUtil.fromJson(record.optJSONObject("params"));
+        return operation;
+    }
+
+    /**
+     * Appends a record to the journal on the worker thread.
+     */
+    private void append(JSONObject record) {
+        final String line = record.toString() + "\n";
+        Worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeAppend(line);
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot append to journal " + journal, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Rewrites the journal with the pending operations only, on the worker
+     * thread.
+     */
+    private void compact() {
+        obsoleteRecords = 0;
+        final List<String> lines = new ArrayList<String>(pending.size());
+        try {
+            for (Operation operation : pending) {
+                lines.add(toRecord(operation).toString() + "\n");
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Cannot encode operation in " + journal, e);
+            return;
+        }
+        Worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeCompacted(lines);
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot compact journal " + journal, e);
+                }
+            }
+        });
+    }
+
+    private void writeAppend(String line) throws IOException {
+        File parent = journal.getParentFile();
+        if (parent != null && !parent.isDirectory()) {
+            parent.mkdirs();
+        }
+        FileOutputStream out = new FileOutputStream(journal, true);
+        try {
+            out.write(line.getBytes("UTF-8"));
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeCompacted(List<String> lines) throws IOException {
+        if (lines.isEmpty()) {
+            if (journal.exists() && !journal.delete()) {
+                throw new IOException("Cannot delete " + journal);
+            }
+            return;
+        }
+        File temp = new File(journal.getPath() + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        try {
+            for (String line : lines) {
+                writer.write(line);
+            }
+            writer.flush();
+            out.getFD().sync();
+        } finally {
+            writer.close();
+        }
+        if (!temp.renameTo(journal)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + journal);
+        }
+    }
+
+    /**
+     * Reads and writes the journals of all queues, one task after another.
+     */
+    private static class Worker {
+        static volatile Thread thread;
+        static final ExecutorService EXECUTOR =
+                Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        thread = new Thread(runnable, "OfflineWriteQueue journal");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        /**
+         * Runs the task after the tasks submitted so far, or right away on
+         * the worker thread, so that calls deferred until the journal was
+         * loaded are recorded before a later {@link #flush()} returns.
+         */
+        static void execute(Runnable task) {
+            if (Thread.currentThread() == thread) {
+                task.run();
+            } else {
+                EXECUTOR.execute(task);
+            }
+        }
+    }
+
+    private static void closeQuietly(Reader reader) {
+        if (reader == null) return;
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.strongloop.android.loopback;
+
+import android.util.Log;
+
+import com.strongloop.android.loopback.callbacks.TransferResultCallback;
+
+import org.apache.http.client.HttpResponseException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers multiple files, running at most a given number of transfers
+ * at the same time. A transfer failing with an I/O error or a server error
+ * (5xx) is retried after a random delay below an exponentially growing
+ * limit, so that a struggling server is not hit by all retries at once;
+ * client errors (4xx) are final.
+ */
+abstract class ParallelTransfer {
+    private static final String TAG = "ParallelTransfer";
+
+    /**
+     * The default number of transfers in progress at the same time. Lower
+     * than the number of connections of the default client, so that other
+     * requests are not blocked by the transfers.
+     */
+    static final int DEFAULT_CONCURRENCY = 3;
+
+    /**
+     * The default number of retries of a failed transfer.
+     */
+    static final int DEFAULT_RETRIES = 2;
+
+    /**
+     * The limit of the delay before the first retry in milliseconds, the
+     * limit doubles with each retry.
+     */
+    static final long BASE_DELAY = 500;
+
+    /**
+     * The upper bound of the delay before a retry in milliseconds.
+     */
+    static final long MAX_DELAY = 30 * 1000;
+
+    private static final Random RANDOM = new Random();
+
+    private final List<TransferResult.Item> items;
+    private final int concurrency;
+    private final int retries;
+    private final TransferResultCallback callback;
+
+    private int next;
+    private int pending;
+    private boolean completed;
+
+    ParallelTransfer(List<TransferResult.Item> items, int concurrency,
+                     int retries, TransferResultCallback callback) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        if (retries < 0) {
+            throw new IllegalArgumentException("Retries cannot be negative");
+        }
+        this.items = items;
+        this.concurrency = concurrency;
+        this.retries = retries;
+        this.callback = callback;
+    }
+
+    /**
+     * Starts the transfer of the given item. The implementation must call
+     * {@link #succeeded(TransferResult.Item, File)} or
+     * {@link #failed(TransferResult.Item, Throwable)} when done.
+     */
+    protected abstract void transfer(TransferResult.Item item);
+
+    synchronized void start() {
+        startNext();
+    }
+
+    protected synchronized void succeeded(TransferResult.Item item, File file) {
+        item.setFile(file);
+        item.setError(null);
+        pending--;
+        startNext();
+    }
+
+    protected synchronized void failed(final TransferResult.Item item, Throwable t) {
+        if (item.getAttempts() <= retries && isRetryable(t)) {
+            if (Log.isLoggable(TAG, Log.INFO))
+                Log.i(TAG, "Retrying " + item.getLocalFile() + ": " + t);
+            long delay = getDelay(item.getAttempts());
+            item.addAttempt();
+            RetryTimer.EXECUTOR.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    transfer(item);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+        item.setError(t);
+        pending--;
+        startNext();
+    }
+
+    private void startNext() {
+        while (pending < concurrency && next < items.size()) {
+            TransferResult.Item item = items.get(next++);
+            pending++;
+            item.addAttempt();
+            transfer(item);
+        }
+        if (pending == 0 && next == items.size() && !completed) {
+            completed = true;
+            callback.onComplete(new TransferResult(items));
+        }
+    }
+
+    /**
+     * Computes the delay before the given retry, starting at 1.
+     */
+    static long getDelay(int retry) {
+        long limit = BASE_DELAY << Math.min(retry - 1, 30);
+        if (limit > MAX_DELAY || limit < 0) {
+            limit = MAX_DELAY;
+        }
+        return (long) (RANDOM.nextDouble() * limit);
+    }
+
+    private static boolean isRetryable(Throwable t) {
+        if (t instanceof HttpResponseException) {
+            return ((HttpResponseException) t).getStatusCode() >= 500;
+        }
+        // Network failures, but not a missing local file.
+        return t instanceof IOException && !(t instanceof FileNotFoundException);
+    }
+
+    /**
+     * Schedules the retries of all transfers.
+     */
+    private static class RetryTimer {
+        static final ScheduledExecutorService EXECUTOR =
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "ParallelTransfer retries");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+}
@@ -0,0 +1,27 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.loopback;
+
+/**
+ * How a {@link ModelRepository} with a {@link LocalModelStore} answers
+ * reads, see {@link ModelRepository#setReadPolicy(ReadPolicy)}.
+ */
+public enum ReadPolicy {
+    /**
+     * Always ask the server, the response is stored for later reads.
+     * The default.
+     */
+    NETWORK_ONLY,
+
+    /**
+     * Answer from the store when possible, ask the server otherwise.
+     */
+    CACHE_FIRST,
+
+    /**
+     * Answer from the store when possible, then ask the server and
+     * deliver its response too. The callback is invoked twice when the
+     * store had a result.
+     */
+    CACHE_THEN_NETWORK
+}
@@ -19,6 +19,7 @@ public class RestAdapter
     public static final String PROPERTY_ACCESS_TOKEN = "accessToken";
 
     private final Context context;
+    private OfflineWriteQueue writeQueue;
 
     public RestAdapter(Context context, String url) {
         super(context, url);
@@ -40,6 +41,31 @@ public class RestAdapter
         return context;
     }
 
+    /**
+     * Gets the queue recording model writes that could not be sent.
+     * @return the queue, or <code>null</code> when writes fail while
+     * offline (the default).
+     */
+    public OfflineWriteQueue getWriteQueue() {
+        return writeQueue;
+    }
+
+    /**
+     * Sets the queue recording {@link Model#save} and {@link Model#destroy}
+     * calls made while offline or failed with a network error, to replay
+     * them once the device is back online, see {@link OfflineWriteQueue}.
+     * @param writeQueue The queue, <code>null</code> to disable queueing.
+     */
+    public void setWriteQueue(OfflineWriteQueue writeQueue) {
+        if (this.writeQueue != null) {
+            this.writeQueue.setAdapter(null);
+        }
+        this.writeQueue = writeQueue;
+        if (writeQueue != null) {
+            writeQueue.setAdapter(this);
+        }
+    }
+
     /**
      * Creates a new {@link ModelRepository} representing the named model type.
      * @param name The model name.
@@ -4,6 +4,7 @@ import android.content.Context;
 
 import com.strongloop.android.remoting.Repository;
 import com.strongloop.android.remoting.VirtualObject;
+import com.strongloop.android.remoting.adapters.Priority;
 import com.strongloop.android.remoting.adapters.RestContract;
 
 public class RestRepository<T extends VirtualObject> extends Repository<T>{
@@ -23,6 +24,16 @@ public class RestRepository<T extends VirtualObject> extends Repository<T>{
         return (RestAdapter) getAdapter();
     }
 
+    /**
+     * Sets the priority class of all requests of this repository, see
+     * {@link com.strongloop.android.remoting.adapters.RestAdapter#setPriority(String, Priority)}.
+     * The repository must be attached to an adapter.
+     * @param priority The priority, <code>null</code> for the default.
+     */
+    public void setPriority(Priority priority) {
+        getRestAdapter().setPriority(getClassName(), priority);
+    }
+
     protected Context getApplicationContext() {
         return getRestAdapter().getApplicationContext();
     }
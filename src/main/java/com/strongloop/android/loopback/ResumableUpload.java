@@ -0,0 +1,255 @@
+package com.strongloop.android.loopback;
+
+import android.util.Log;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.strongloop.android.loopback.callbacks.JsonObjectParser;
+import com.strongloop.android.loopback.callbacks.ObjectCallback;
+import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.StreamParam;
+
+import org.apache.http.client.HttpResponseException;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Uploads a local file in chunks of a fixed size. The id of the upload
+ * session is kept in a state file, so that the upload can continue from
+ * the last chunk acknowledged by the server after a failure, even when
+ * the process was restarted in the meantime.
+ * <p>
+ * The server side of the protocol:
+ * <ul>
+ * <li><code>POST /containers/:container/uploads</code> with
+ * <code>{ name, size }</code> starts a session and returns
+ * <code>{ id, received }</code>.</li>
+ * <li><code>GET /containers/:container/uploads/:id</code> returns
+ * <code>{ id, received }</code>.</li>
+ * <li><code>POST /containers/:container/uploads/:id/chunks</code> with
+ * multipart fields <code>offset</code> and <code>chunk</code> stores the
+ * chunk and returns <code>{ id, received }</code>.</li>
+ * <li><code>POST /containers/:container/uploads/:id/commit</code> moves
+ * the uploaded content to the container and returns the file.</li>
+ * </ul>
+ */
+class ResumableUpload {
+    private static final String TAG = "ResumableUpload";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAX_RETRIES = 3;
+
+    private final FileRepository repository;
+    private final java.io.File localFile;
+    private final java.io.File stateFile;
+    private final int chunkSize;
+    private final ObjectCallback<File> callback;
+
+    private String id;
+    private int retries;
+
+    ResumableUpload(FileRepository repository, java.io.File localFile,
+                    java.io.File stateDir, int chunkSize,
+                    ObjectCallback<File> callback) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.repository = repository;
+        this.localFile = localFile;
+        this.stateFile = new java.io.File(stateDir, getStateFileName());
+        this.chunkSize = chunkSize;
+        this.callback = callback;
+    }
+
+    /**
+     * Starts a new upload session, or continues the session found
+     * in the state file.
+     */
+    void start() {
+        id = readState();
+        if (id != null) {
+            resume();
+        }
+        else {
+            create();
+        }
+    }
+
+    private void create() {
+        repository.invokeStaticMethod("createUpload",
+                ImmutableMap.of(
+                        "container", repository.getContainerName(),
+                        "name", localFile.getName(),
+                        "size", localFile.length()),
+                new StatusCallback());
+    }
+
+    private void resume() {
+        repository.invokeStaticMethod("getUpload",
+                ImmutableMap.of(
+                        "container", repository.getContainerName(),
+                        "id", id),
+                new StatusCallback() {
+                    @Override
+                    public void onError(Throwable t) {
+                        if (t instanceof HttpResponseException &&
+                                ((HttpResponseException) t).getStatusCode() == 404) {
+                            // The server discarded the session, start over.
+                            stateFile.delete();
+                            create();
+                        }
+                        else {
+                            super.onError(t);
+                        }
+                    }
+                });
+    }
+
+    private void sendChunk(long offset) {
+        if (offset >= localFile.length()) {
+            commit();
+            return;
+        }
+
+        final InputStream chunk;
+        try {
+            InputStream in = new FileInputStream(localFile);
+            ByteStreams.skipFully(in, offset);
+            chunk = ByteStreams.limit(in, chunkSize);
+        } catch (IOException e) {
+            callback.onError(e);
+            return;
+        }
+
+        repository.invokeStaticMethod("uploadChunk",
+                ImmutableMap.of(
+                        "container", repository.getContainerName(),
+                        "id", id,
+                        "offset", String.valueOf(offset),
+                        "chunk", new StreamParam(chunk, localFile.getName())),
+                new StatusCallback() {
+                    @Override
+                    public void onSuccess(JSONObject response) {
+                        closeQuietly(chunk);
+                        retries = 0;
+                        super.onSuccess(response);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        closeQuietly(chunk);
+                        if (retries++ < MAX_RETRIES) {
+                            if (Log.isLoggable(TAG, Log.INFO))
+                                Log.i(TAG, "Chunk upload failed, retrying: " + t);
+                            // The server may have stored a part of the chunk,
+                            // ask where to continue.
+                            resume();
+                        }
+                        else {
+                            super.onError(t);
+                        }
+                    }
+                });
+    }
+
+    private void commit() {
+        repository.invokeStaticMethod("commitUpload",
+                ImmutableMap.of(
+                        "container", repository.getContainerName(),
+                        "id", id),
+                new JsonObjectParser<File>(repository, new ObjectCallback<File>() {
+                    @Override
+                    public void onSuccess(File file) {
+                        stateFile.delete();
+                        callback.onSuccess(file);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        callback.onError(t);
+                    }
+                }));
+    }
+
+    private String getStateFileName() {
+        // Changing the local file invalidates the session.
+        String key = repository.getContainerName() + "\n" +
+                localFile.getAbsolutePath() + "\n" +
+                localFile.length() + "\n" +
+                localFile.lastModified();
+        return "upload-" + Integer.toHexString(key.hashCode()) + ".json";
+    }
+
+    private String readState() {
+        if (!stateFile.exists()) return null;
+        try {
+            JSONObject state = new JSONObject(Files.toString(stateFile, UTF8));
+            if (state.getString("path").equals(localFile.getAbsolutePath()) &&
+                    state.getLong("size") == localFile.length() &&
+                    state.getInt("chunkSize") == chunkSize) {
+                return state.getString("id");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read " + stateFile, e);
+        } catch (JSONException e) {
+            Log.w(TAG, "Cannot parse " + stateFile, e);
+        }
+        stateFile.delete();
+        return null;
+    }
+
+    private void writeState(long received) throws IOException, JSONException {
+        JSONObject state = new JSONObject();
+        state.put("id", id);
+        state.put("path", localFile.getAbsolutePath());
+        state.put("size", localFile.length());
+        state.put("chunkSize", chunkSize);
+        state.put("received", received);
+
+        // Replace the state atomically, a partially written state
+        // would lose the session.
+        java.io.File temp = new java.io.File(stateFile.getPath() + ".tmp");
+        Files.write(state.toString(), temp, UTF8);
+        if (!temp.renameTo(stateFile)) {
+            throw new IOException("Cannot rename " + temp + " to " + stateFile);
+        }
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Records the session status returned by the server and sends
+     * the next chunk.
+     */
+    private class StatusCallback extends Adapter.JsonObjectCallback {
+        @Override
+        public void onSuccess(JSONObject response) {
+            long received;
+            try {
+                id = response.getString("id");
+                received = response.getLong("received");
+                writeState(received);
+            } catch (Exception e) {
+                callback.onError(e);
+                return;
+            }
+            sendChunk(received);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            callback.onError(t);
+        }
+    }
+}
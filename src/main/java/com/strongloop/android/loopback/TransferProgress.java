@@ -0,0 +1,224 @@
+package com.strongloop.android.loopback;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.strongloop.android.loopback.callbacks.ProgressCallback;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tracks the progress of a file transfer and estimates its throughput,
+ * e.g. to show the remaining time. The estimate is reported only, the
+ * transfer itself uses the timeouts of the transport.
+ * <p>
+ * The transfer reads its data through {@link #wrap(InputStream, long)}.
+ * The callback is invoked on the thread that created this object, at most
+ * once per interval, and once more when the transfer completes.
+ * <pre>
+ * {@code
+ * TransferProgress progress = new TransferProgress(new ProgressCallback() {
+ *     public void onProgress(long bytesTransferred, long bytesTotal) {
+ *         progressBar.setProgress((int) (100 * bytesTransferred / bytesTotal));
+ *     }
+ * });
+ * file.download(localFile, progress, callback);
+ * }
+ * </pre>
+ */
+public class TransferProgress {
+
+    /**
+     * The default minimal interval between two progress events.
+     */
+    public static final long DEFAULT_INTERVAL = 100;
+
+    // The weight of the newest sample in the throughput estimate.
+    private static final double THROUGHPUT_WEIGHT = 0.3;
+
+    private final ProgressCallback callback;
+    private final long interval;
+    private final Handler handler;
+    private final AtomicBoolean eventPending = new AtomicBoolean();
+
+    private volatile long bytesTransferred;
+    private volatile long bytesTotal = -1;
+    private volatile double throughput;
+
+    private long sampleTime;
+    private long sampleBytes;
+    private long lastEventTime;
+
+    /**
+     * Creates a tracker reporting at most every {@link #DEFAULT_INTERVAL} ms.
+     * @param callback The callback to report the progress to.
+     */
+    public TransferProgress(ProgressCallback callback) {
+        this(callback, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Creates a tracker.
+     * @param callback The callback to report the progress to.
+     * @param interval The minimal interval between two events in milliseconds.
+     */
+    public TransferProgress(ProgressCallback callback, long interval) {
+        if (callback == null) {
+            throw new IllegalArgumentException("Callback cannot be null");
+        }
+        if (interval < 0) {
+            throw new IllegalArgumentException("Interval cannot be negative");
+        }
+        this.callback = callback;
+        this.interval = interval;
+        Looper looper = Looper.myLooper();
+        this.handler = looper != null ? new Handler(looper) : null;
+    }
+
+    /**
+     * @return The number of bytes transferred so far.
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    /**
+     * @return The size of the transfer, or -1 when not known.
+     */
+    public long getBytesTotal() {
+        return bytesTotal;
+    }
+
+    /**
+     * Gets the current throughput, a moving average over the samples taken
+     * each interval.
+     * @return The throughput in bytes per second, 0 before the first sample.
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Estimates the time needed to transfer the given number of bytes
+     * at the current throughput, e.g. the rest of the transfer:
+     * <code>estimateTime(getBytesTotal() - getBytesTransferred())</code>.
+     * @param bytes The number of bytes.
+     * @return The time in milliseconds, or -1 when there is no estimate yet.
+     */
+    public long estimateTime(long bytes) {
+        double current = throughput;
+        return current > 0 ? (long) (bytes * 1000 / current) : -1;
+    }
+
+    /**
+     * Tracks the bytes read from the given stream. The transfer is complete
+     * when the stream reaches its end.
+     * @param in The stream with the content being transferred.
+     * @param total The size of the content, -1 when not known.
+     * @return The stream to read the content from.
+     */
+    public InputStream wrap(InputStream in, long total) {
+        synchronized (this) {
+            bytesTransferred = 0;
+            bytesTotal = total;
+            sampleTime = lastEventTime = SystemClock.elapsedRealtime();
+            sampleBytes = 0;
+        }
+        return new ProgressInputStream(in);
+    }
+
+    private synchronized void add(long count) {
+        bytesTransferred += count;
+        long now = SystemClock.elapsedRealtime();
+        if (now - sampleTime >= interval && now > sampleTime) {
+            double rate = (bytesTransferred - sampleBytes) * 1000.0 /
+                    (now - sampleTime);
+            throughput = throughput == 0 ? rate :
+                    THROUGHPUT_WEIGHT * rate + (1 - THROUGHPUT_WEIGHT) * throughput;
+            sampleTime = now;
+            sampleBytes = bytesTransferred;
+        }
+        if (now - lastEventTime >= interval) {
+            lastEventTime = now;
+            report(false);
+        }
+    }
+
+    private synchronized void finish() {
+        if (bytesTotal < 0) {
+            bytesTotal = bytesTransferred;
+        }
+        report(true);
+    }
+
+    private void report(boolean last) {
+        // Skip the event when the previous one was not delivered yet,
+        // a slow UI thread should not accumulate a queue of events.
+        if (!eventPending.compareAndSet(false, true) && !last) return;
+
+        final long transferred = bytesTransferred;
+        final long total = bytesTotal;
+        Runnable event = new Runnable() {
+            @Override
+            public void run() {
+                eventPending.set(false);
+                callback.onProgress(transferred, total);
+            }
+        };
+        if (handler != null) {
+            handler.post(event);
+        }
+        else {
+            event.run();
+        }
+    }
+
+    private class ProgressInputStream extends FilterInputStream {
+        private boolean finished;
+
+        ProgressInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            count(b == -1 ? -1 : 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int result = super.read(buffer, offset, count);
+            count(result);
+            return result;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long result = super.skip(count);
+            if (result > 0) count(result);
+            return result;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long result) {
+            if (finished) return;
+            if (result == -1) {
+                finished = true;
+                finish();
+            }
+            else if (result > 0) {
+                add(result);
+            }
+        }
+    }
+}
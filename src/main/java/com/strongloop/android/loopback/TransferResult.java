@@ -0,0 +1,108 @@
+package com.strongloop.android.loopback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a transfer of multiple files, see
+ * {@link FileRepository#uploadAll(List, com.strongloop.android.loopback.callbacks.TransferResultCallback)}
+ * and {@link File#downloadAll(List, java.io.File, com.strongloop.android.loopback.callbacks.TransferResultCallback)}.
+ */
+public class TransferResult {
+
+    /**
+     * The outcome of the transfer of a single file.
+     */
+    public static class Item {
+        private final java.io.File localFile;
+        private File file;
+        private Throwable error;
+        private int attempts;
+
+        Item(java.io.File localFile, File file) {
+            this.localFile = localFile;
+            this.file = file;
+        }
+
+        /**
+         * @return The local file, <code>null</code> when the name of
+         * a downloaded file cannot be used locally.
+         */
+        public java.io.File getLocalFile() {
+            return localFile;
+        }
+
+        /**
+         * @return The remote file, <code>null</code> when an upload failed.
+         */
+        public File getFile() {
+            return file;
+        }
+
+        void setFile(File file) {
+            this.file = file;
+        }
+
+        /**
+         * @return The error of the last attempt, <code>null</code> when
+         * the transfer succeeded.
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        void setError(Throwable error) {
+            this.error = error;
+        }
+
+        /**
+         * @return The number of attempts made, including retries.
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        int addAttempt() {
+            return ++attempts;
+        }
+
+        /**
+         * @return <code>true</code> if the file was transferred.
+         */
+        public boolean isSuccessful() {
+            return error == null;
+        }
+    }
+
+    private final List<Item> items;
+
+    TransferResult(List<Item> items) {
+        this.items = Collections.unmodifiableList(new ArrayList<Item>(items));
+    }
+
+    /**
+     * @return The outcome of each file, in the order the files were given.
+     */
+    public List<Item> getItems() {
+        return items;
+    }
+
+    /**
+     * @return The items of the files that failed to transfer.
+     */
+    public List<Item> getFailedItems() {
+        List<Item> failed = new ArrayList<Item>();
+        for (Item item : items) {
+            if (!item.isSuccessful()) failed.add(item);
+        }
+        return failed;
+    }
+
+    /**
+     * @return <code>true</code> if all files were transferred.
+     */
+    public boolean isSuccessful() {
+        return getFailedItems().size() == 0;
+    }
+}
@@ -0,0 +1,19 @@
+package com.strongloop.android.loopback.callbacks;
+
+import com.strongloop.android.remoting.VirtualObject;
+
+import java.util.List;
+
+/**
+ * A variant of {@link ListCallback} receiving the objects in chunks
+ * as they are read from the response, without keeping the whole list
+ * in memory.
+ * <p>
+ * {@link #onError(Throwable)} may be called after some chunks were already
+ * delivered, e.g. when the connection drops in the middle of the response.
+ */
+public interface IncrementalListCallback<T extends VirtualObject> {
+    public void onChunk(List<T> objects);
+    public void onSuccess();
+    public void onError(Throwable t);
+}
@@ -1,14 +1,20 @@
 package com.strongloop.android.loopback.callbacks;
 
+import com.strongloop.android.loopback.Model;
+import com.strongloop.android.loopback.ModelRepository;
 import com.strongloop.android.remoting.JsonUtil;
+import com.strongloop.android.remoting.LazyJsonObject;
 import com.strongloop.android.remoting.Repository;
 import com.strongloop.android.remoting.VirtualObject;
 import com.strongloop.android.remoting.adapters.Adapter;
 
 import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class JsonArrayParser<T extends VirtualObject> extends Adapter.JsonArrayCallback {
     private final Repository<T> repository;
@@ -19,16 +25,86 @@ public class JsonArrayParser<T extends VirtualObject> extends Adapter.JsonArrayC
         this.callback = callback;
     }
 
+    // Indexes the response instead of parsing it when the repository
+    // decodes lazily.
+    @Override
+    public Runnable decode(String response) throws JSONException {
+        if (!isLazy()) {
+            return super.decode(response);
+        }
+        return deliver(LazyJsonObject.parseArray(response));
+    }
+
+    private boolean isLazy() {
+        return repository instanceof ModelRepository &&
+                ((ModelRepository<?>) repository).isLazyDecodingEnabled();
+    }
+
+    // Creates the models on the background thread. Models mapped by the
+    // identity map of the repository may be in use, the data is merged
+    // into them on the callback thread.
+    private Runnable deliver(
+            final List<? extends Map<String, ? extends Object>> objects) {
+        final List<T> prepared = new ArrayList<T>();
+        if (objects != null) {
+            for (Map<String, ? extends Object> object : objects) {
+                prepared.add(prepare(object));
+            }
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                List<T> list = new ArrayList<T>(prepared.size());
+                for (int i = 0; i < prepared.size(); i++) {
+                    list.add(resolve(objects.get(i), prepared.get(i)));
+                }
+                callback.onSuccess(list);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private T prepare(Map<String, ? extends Object> parameters) {
+        if (repository instanceof ModelRepository) {
+            return (T) ((ModelRepository<?>) repository).prepareObject(parameters);
+        }
+        return repository.createObject(parameters);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private T resolve(Map<String, ? extends Object> parameters, T prepared) {
+        if (repository instanceof ModelRepository) {
+            return (T) ((ModelRepository) repository).resolveObject(
+                    parameters, (Model) prepared);
+        }
+        return prepared;
+    }
+
     @Override
     public void onSuccess(JSONArray response) {
-        List<T> list = new ArrayList<T>();
+        deliver(toMaps(response)).run();
+    }
+
+    // Builds the objects on the background thread decoding the response.
+    @Override
+    protected Runnable prepare(Object response) throws JSONException {
+        if (!(response instanceof JSONArray) && response != JSONObject.NULL) {
+            // Let onSuccess(Object) report the invalid response.
+            return super.prepare(response);
+        }
+        return deliver(toMaps(response instanceof JSONArray
+                ? (JSONArray) response
+                : null));
+    }
+
+    private static List<Map<String, Object>> toMaps(JSONArray response) {
+        List<Map<String, Object>> maps = new ArrayList<Map<String, Object>>();
         if (response != null) {
             for (int i = 0; i < response.length(); i++) {
-                list.add(repository.createObject(JsonUtil.fromJson(
-                        response.optJSONObject(i))));
+                maps.add(JsonUtil.fromJson(response.optJSONObject(i)));
             }
         }
-        callback.onSuccess(list);
+        return maps;
     }
 
     @Override
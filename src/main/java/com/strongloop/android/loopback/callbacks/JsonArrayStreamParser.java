@@ -0,0 +1,154 @@
+package com.strongloop.android.loopback.callbacks;
+
+import com.strongloop.android.loopback.Model;
+import com.strongloop.android.loopback.ModelRepository;
+import com.strongloop.android.remoting.JsonStreamReader;
+import com.strongloop.android.remoting.Repository;
+import com.strongloop.android.remoting.VirtualObject;
+import com.strongloop.android.remoting.adapters.Adapter;
+
+import org.json.JSONException;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a JSON array response directly from the response stream, creating
+ * objects one by one as they arrive. Unlike {@link JsonArrayParser}, the
+ * response is never held in memory as a whole.
+ */
+public class JsonArrayStreamParser<T extends VirtualObject>
+        extends Adapter.StreamCallback {
+
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    private final Repository<T> repository;
+    private final IncrementalListCallback<T> callback;
+    private final int chunkSize;
+
+    public JsonArrayStreamParser(Repository<T> repository,
+                                 ListCallback<T> callback) {
+        this(repository, new ListCollector<T>(callback), DEFAULT_CHUNK_SIZE);
+    }
+
+    public JsonArrayStreamParser(Repository<T> repository,
+                                 IncrementalListCallback<T> callback) {
+        this(repository, callback, DEFAULT_CHUNK_SIZE);
+    }
+
+    public JsonArrayStreamParser(Repository<T> repository,
+                                 IncrementalListCallback<T> callback,
+                                 int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.repository = repository;
+        this.callback = callback;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void onResponse(InputStream body, String contentType)
+            throws Exception {
+        JsonStreamReader reader = new JsonStreamReader(
+                new InputStreamReader(body, "UTF-8"));
+
+        JsonStreamReader.Token token = reader.peek();
+        if (token == JsonStreamReader.Token.NULL) {
+            reader.nextNull();
+        }
+        else if (token == JsonStreamReader.Token.BEGIN_ARRAY) {
+            reader.beginArray();
+            List<T> chunk = new ArrayList<T>(chunkSize);
+            while (reader.hasNext()) {
+                if (reader.peek() != JsonStreamReader.Token.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+                chunk.add(repository.createObject(reader));
+                if (chunk.size() == chunkSize) {
+                    deliverChunk(chunk);
+                    chunk = new ArrayList<T>(chunkSize);
+                }
+            }
+            reader.endArray();
+            if (!chunk.isEmpty()) {
+                deliverChunk(chunk);
+            }
+        }
+        else {
+            throw new JSONException("Expecting a JSON array: " + token);
+        }
+
+        post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onSuccess();
+            }
+        });
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        callback.onError(t);
+    }
+
+    private void deliverChunk(final List<T> chunk) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onChunk(resolve(chunk));
+            }
+        });
+    }
+
+    /**
+     * Replaces the models mapped by the identity map of the repository by
+     * the mapped instances, merging the streamed data into them. Runs on
+     * the callback thread, the mapped instances may be in use.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private List<T> resolve(List<T> chunk) {
+        if (!(repository instanceof ModelRepository) ||
+                ((ModelRepository<?>) repository).getIdentityMap() == null) {
+            return chunk;
+        }
+        ModelRepository models = (ModelRepository) repository;
+        List<T> resolved = new ArrayList<T>(chunk.size());
+        for (T object : chunk) {
+            resolved.add((T) models.resolveObject(
+                    object.getCreationParameters(), (Model) object));
+        }
+        return resolved;
+    }
+
+    /**
+     * Adapts a {@link ListCallback} to receive all chunks as a single list.
+     */
+    private static class ListCollector<T extends VirtualObject>
+            implements IncrementalListCallback<T> {
+        private final ListCallback<T> callback;
+        private final List<T> list = new ArrayList<T>();
+
+        public ListCollector(ListCallback<T> callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void onChunk(List<T> objects) {
+            list.addAll(objects);
+        }
+
+        @Override
+        public void onSuccess() {
+            callback.onSuccess(list);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            callback.onError(t);
+        }
+    }
+}
@@ -1,12 +1,18 @@
 package com.strongloop.android.loopback.callbacks;
 
+import com.strongloop.android.loopback.Model;
+import com.strongloop.android.loopback.ModelRepository;
 import com.strongloop.android.remoting.JsonUtil;
+import com.strongloop.android.remoting.LazyJsonObject;
 import com.strongloop.android.remoting.Repository;
 import com.strongloop.android.remoting.VirtualObject;
 import com.strongloop.android.remoting.adapters.Adapter;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Map;
+
 public class JsonObjectParser<T extends VirtualObject>
         extends Adapter.JsonObjectCallback {
 
@@ -18,6 +24,53 @@ public class JsonObjectParser<T extends VirtualObject>
         this.callback = callback;
     }
 
+    // Indexes the response instead of parsing it when the repository
+    // decodes lazily.
+    @Override
+    public Runnable decode(String response) throws JSONException {
+        if (!isLazy()) {
+            return super.decode(response);
+        }
+        return deliver(LazyJsonObject.parse(response));
+    }
+
+    private boolean isLazy() {
+        return repository instanceof ModelRepository &&
+                ((ModelRepository<?>) repository).isLazyDecodingEnabled();
+    }
+
+    // Creates the model on the background thread. Models mapped by the
+    // identity map of the repository may be in use, the data is merged
+    // into them on the callback thread.
+    private Runnable deliver(final Map<String, ? extends Object> parameters) {
+        final T prepared = parameters != null ? prepare(parameters) : null;
+        return new Runnable() {
+            @Override
+            public void run() {
+                callback.onSuccess(parameters != null
+                        ? resolve(parameters, prepared)
+                        : null);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private T prepare(Map<String, ? extends Object> parameters) {
+        if (repository instanceof ModelRepository) {
+            return (T) ((ModelRepository<?>) repository).prepareObject(parameters);
+        }
+        return repository.createObject(parameters);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private T resolve(Map<String, ? extends Object> parameters, T prepared) {
+        if (repository instanceof ModelRepository) {
+            return (T) ((ModelRepository) repository).resolveObject(
+                    parameters, (Model) prepared);
+        }
+        return prepared;
+    }
+
     @Override
     public void onSuccess(JSONObject response) {
         if (response == null) {
@@ -25,9 +78,17 @@ public class JsonObjectParser<T extends VirtualObject>
             callback.onSuccess(null);
             return;
         }
+        deliver(JsonUtil.fromJson(response)).run();
+    }
 
-        callback.onSuccess(
-                repository.createObject(JsonUtil.fromJson(response)));
+    // Builds the object on the background thread decoding the response.
+    @Override
+    protected Runnable prepare(Object response) throws JSONException {
+        if (!(response instanceof JSONObject)) {
+            // Let onSuccess(Object) handle null and invalid responses.
+            return super.prepare(response);
+        }
+        return deliver(JsonUtil.fromJson((JSONObject) response));
     }
 
     @Override
@@ -0,0 +1,103 @@
+package com.strongloop.android.loopback.callbacks;
+
+import com.strongloop.android.loopback.TransferProgress;
+import com.strongloop.android.remoting.adapters.Adapter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Writes the response body to a local file as it arrives, through a buffer
+ * of a fixed size. The body is written to a temporary file in the same
+ * directory first, the temporary file replaces the target file only when
+ * the whole body was received. The target file is never left half-written.
+ */
+public class LocalFileWriter extends Adapter.StreamCallback {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final String TEMP_FILE_SUFFIX = ".download";
+
+    private final File file;
+    private final VoidCallback callback;
+    private final int bufferSize;
+    private final TransferProgress progress;
+
+    public LocalFileWriter(File file, VoidCallback callback) {
+        this(file, callback, null);
+    }
+
+    public LocalFileWriter(File file, VoidCallback callback,
+                           TransferProgress progress) {
+        this(file, callback, progress, DEFAULT_BUFFER_SIZE);
+    }
+
+    public LocalFileWriter(File file, VoidCallback callback,
+                           TransferProgress progress, int bufferSize) {
+        if (file == null) {
+            throw new IllegalArgumentException("File cannot be null");
+        }
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        this.file = file;
+        this.callback = callback;
+        this.bufferSize = bufferSize;
+        this.progress = progress;
+    }
+
+    @Override
+    public void onResponse(InputStream body, String contentType)
+            throws Exception {
+        onResponse(body, contentType, -1);
+    }
+
+    @Override
+    public void onResponse(InputStream body, String contentType,
+                           long contentLength) throws Exception {
+        if (progress != null) {
+            body = progress.wrap(body, contentLength);
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), TEMP_FILE_SUFFIX, dir);
+        boolean renamed = false;
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[bufferSize];
+                int count;
+                while ((count = body.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+                // Make sure the content is on the disk before the rename,
+                // otherwise a crash can leave an empty target file behind.
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp + " to " + file);
+            }
+            renamed = true;
+        } finally {
+            if (!renamed) {
+                temp.delete();
+            }
+        }
+
+        post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onSuccess();
+            }
+        });
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        callback.onError(t);
+    }
+}
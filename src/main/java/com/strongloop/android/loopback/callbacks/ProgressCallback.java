@@ -0,0 +1,13 @@
+package com.strongloop.android.loopback.callbacks;
+
+/**
+ * Receives the progress of a file transfer, see
+ * {@link com.strongloop.android.loopback.TransferProgress}.
+ */
+public interface ProgressCallback {
+    /**
+     * @param bytesTransferred The number of bytes transferred so far.
+     * @param bytesTotal The size of the file, or -1 when not known.
+     */
+    public void onProgress(long bytesTransferred, long bytesTotal);
+}
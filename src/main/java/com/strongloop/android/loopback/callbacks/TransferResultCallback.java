@@ -0,0 +1,11 @@
+package com.strongloop.android.loopback.callbacks;
+
+import com.strongloop.android.loopback.TransferResult;
+
+/**
+ * Receives the outcome of a transfer of multiple files. Failures of
+ * individual files are reported in the result.
+ */
+public interface TransferResultCallback {
+    public void onComplete(TransferResult result);
+}
@@ -2,20 +2,61 @@ package com.strongloop.android.remoting;
 
 import android.util.Log;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+/**
+ * Copies properties between beans and maps. The getters and setters of
+ * each class are looked up once and cached, see {@link ClassInfo}.
+ */
 public class BeanUtil {
+
+    // A ClassInfo does not reference its class, see MethodRef, so the
+    // entries of classes of unloaded class loaders are collected; reads
+    // don't lock.
+    private static final LoadingCache<Class<?>, ClassInfo> publicClassInfos =
+            newClassInfoCache(true);
+    private static final LoadingCache<Class<?>, ClassInfo> declaredClassInfos =
+            newClassInfoCache(false);
+
+    // The wrapper classes of values that can be passed to a setter of
+    // each primitive type.
+    private static final Map<Class<?>, Set<Class<?>>> PRIMITIVE_COERCIONS;
+    static {
+        Map<Class<?>, Set<Class<?>>> coercions = new HashMap<Class<?>, Set<Class<?>>>();
+        coercions.put(Boolean.TYPE, ImmutableSet.<Class<?>>of(Boolean.class));
+        coercions.put(Byte.TYPE, ImmutableSet.<Class<?>>of(Byte.class));
+        coercions.put(Character.TYPE, ImmutableSet.<Class<?>>of(Character.class));
+        coercions.put(Short.TYPE, ImmutableSet.<Class<?>>of(
+                Short.class, Byte.class));
+        coercions.put(Integer.TYPE, ImmutableSet.<Class<?>>of(
+                Integer.class, Character.class, Short.class, Byte.class));
+        coercions.put(Long.TYPE, ImmutableSet.<Class<?>>of(
+                Long.class, Integer.class, Character.class, Short.class, Byte.class));
+        coercions.put(Float.TYPE, ImmutableSet.<Class<?>>of(
+                Float.class, Long.class, Integer.class, Character.class, Short.class, Byte.class));
+        coercions.put(Double.TYPE, ImmutableSet.<Class<?>>of(
+                Double.class, Float.class, Long.class, Integer.class, Character.class, Short.class, Byte.class));
+        PRIMITIVE_COERCIONS = coercions;
+    }
+
     public static void setProperties(Object object, Map<String, ? extends Object> properties, boolean includeSuperClasses) {
         if (object == null || properties == null) {
             return;
         }
 
-        Class<?> objectClass = object.getClass();
+        ClassInfo info = getClassInfo(object.getClass(), includeSuperClasses);
 
         for (Map.Entry<String, ? extends Object> entry : properties.entrySet()) {
             String key = entry.getKey();
@@ -23,43 +64,16 @@ public class BeanUtil {
             if (key == null) continue;
             if (key.length() == 0) continue;
 
-            String setterName = "set" + Character.toUpperCase(key.charAt(0)) + key.substring(1);
-            Method setter = null;
-
-            // Try to use the exact setter
-            if (value != null) {
-                try {
-                    if (includeSuperClasses) {
-                        setter = objectClass.getMethod(setterName, value.getClass());
-                    } else {
-                        setter = objectClass.getDeclaredMethod(setterName, value.getClass());
-                    }
-                } catch (Exception ex) {
-                }
-            }
-
-            // Find a more generic setter
-            if (setter == null) {
-                Method[] methods = includeSuperClasses ? objectClass.getMethods() : objectClass.getDeclaredMethods();
-                for (Method method : methods) {
-                    if (method.getName().equals(setterName)) {
-                        Class<?>[] parameterTypes = method.getParameterTypes();
-                        if (parameterTypes.length == 1 && isAssignableFrom(parameterTypes[0], value)) {
-                            setter = method;
-                            break;
-                        }
-                    }
-                }
-            }
+            Setter setter = info.findSetter(object.getClass(), key, value);
 
             // Invoke
             if (setter != null) {
-                if (setter.getAnnotation(Transient.class) != null) continue;
+                if (setter.isTransient) continue;
 
                 try {
-                    setter.invoke(object, value);
+                    setter.method.get(object.getClass()).invoke(object, value);
                 } catch (Exception e) {
-                    Log.e("BeanUtil", setterName + "() failed", e);
+                    Log.e("BeanUtil", setter.method.name + "() failed", e);
                 }
             }
         }
@@ -71,58 +85,43 @@ public class BeanUtil {
             return map;
         }
 
-        Class<?> objectClass = object.getClass();
-        Method[] methods = includeSuperClasses ? objectClass.getMethods() : objectClass.getDeclaredMethods();
-        for (Method method : methods) {
-            if (method.getDeclaringClass() == java.lang.Object.class) continue;
-            if (method.getParameterTypes().length > 0) continue;
-            if (method.getReturnType().equals(Void.TYPE)) continue;
-            if (method.getAnnotation(Transient.class) != null) continue;
-
-            String methodName = method.getName();
-            String propertyName = "";
-            if (methodName.startsWith("get")) {
-                propertyName = methodName.substring(3);
-            } else if (methodName.startsWith("is")) {
-                propertyName = methodName.substring(2);
-            }
-            if (propertyName.length() > 0 && Character.isUpperCase(propertyName.charAt(0))) {
-                propertyName = Character.toLowerCase(propertyName.charAt(0)) + propertyName.substring(1);
+        ClassInfo info = getClassInfo(object.getClass(), includeSuperClasses);
+        for (Getter getter : info.getters) {
+            String propertyName = getter.propertyName;
 
-                Object value = null;
-                try {
-                    value = method.invoke(object);
-                } catch (Exception e) {
-                    Log.e("BeanUtil", method.getName() + "() failed", e);
-                }
+            Object value = null;
+            try {
+                value = getter.method.get(object.getClass()).invoke(object);
+            } catch (Exception e) {
+                Log.e("BeanUtil", getter.method.name + "() failed", e);
+            }
 
-                if (!deepCopy) {
+            if (!deepCopy) {
+                map.put(propertyName, value);
+            } else {
+                if (isSimpleObject(value)) {
                     map.put(propertyName, value);
-                } else {
-                    if (isSimpleObject(value)) {
-                        map.put(propertyName, value);
-                    } else if (value instanceof Map) {
-                        Map<String, Object> submap = new HashMap<String, Object>();
-                        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
-                            submap.put(String.valueOf(entry.getKey()), convertObject(entry.getValue(), includeSuperClasses));
-                        }
-                        map.put(propertyName, submap);
-                    } else if (value instanceof Iterable) {
-                        List<Object> sublist = new ArrayList<Object>();
-                        for (Object v : (Iterable<?>) object) {
-                            sublist.add(convertObject(v, includeSuperClasses));
-                        }
-                        map.put(propertyName, sublist);
-                    } else if (value.getClass().isArray()) {
-                        List<Object> sublist = new ArrayList<Object>();
-                        int length = Array.getLength(value);
-                        for (int i = 0; i < length; i++) {
-                            sublist.add(convertObject(Array.get(value, i), includeSuperClasses));
-                        }
-                        map.put(propertyName, sublist);
-                    } else {
-                        map.put(propertyName, getProperties(value, includeSuperClasses, deepCopy));
+                } else if (value instanceof Map) {
+                    Map<String, Object> submap = new HashMap<String, Object>();
+                    for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                        submap.put(String.valueOf(entry.getKey()), convertObject(entry.getValue(), includeSuperClasses));
                     }
+                    map.put(propertyName, submap);
+                } else if (value instanceof Iterable) {
+                    List<Object> sublist = new ArrayList<Object>();
+                    for (Object v : (Iterable<?>) value) {
+                        sublist.add(convertObject(v, includeSuperClasses));
+                    }
+                    map.put(propertyName, sublist);
+                } else if (value.getClass().isArray()) {
+                    List<Object> sublist = new ArrayList<Object>();
+                    int length = Array.getLength(value);
+                    for (int i = 0; i < length; i++) {
+                        sublist.add(convertObject(Array.get(value, i), includeSuperClasses));
+                    }
+                    map.put(propertyName, sublist);
+                } else {
+                    map.put(propertyName, getProperties(value, includeSuperClasses, deepCopy));
                 }
             }
         }
@@ -130,40 +129,190 @@ public class BeanUtil {
         return map;
     }
 
-    private static boolean isAssignableFrom(Class<?> parameterType, Object value) {
-        if (parameterType.isPrimitive()) {
-            if (value == null) {
-                return false;
-            }
-            Class<?> valueClass = value.getClass();
+    private static ClassInfo getClassInfo(Class<?> objectClass, boolean includeSuperClasses) {
+        return (includeSuperClasses ? publicClassInfos : declaredClassInfos)
+                .getUnchecked(objectClass);
+    }
 
-            if (parameterType == Boolean.TYPE) {
-                return valueClass == Boolean.class;
-            }
-            else if (parameterType == Byte.TYPE) {
-                return valueClass == Byte.class;
-            }
-            else if (parameterType == Character.TYPE) {
-                return valueClass == Character.class;
-            }
-            else if (parameterType == Short.TYPE) {
-                return valueClass == Short.class || valueClass == Byte.class;
+    private static LoadingCache<Class<?>, ClassInfo> newClassInfoCache(
+            final boolean includeSuperClasses) {
+        return CacheBuilder.newBuilder().weakKeys().build(
+                new CacheLoader<Class<?>, ClassInfo>() {
+                    @Override
+                    public ClassInfo load(Class<?> objectClass) {
+                        return new ClassInfo(objectClass, includeSuperClasses);
+                    }
+                });
+    }
+
+    /**
+     * The getters and setters of a class, in the order returned by
+     * {@link Class#getMethods()} or {@link Class#getDeclaredMethods()}.
+     */
+    private static class ClassInfo {
+        final Getter[] getters;
+        final Map<String, Setter[]> setters;
+
+        ClassInfo(Class<?> objectClass, boolean includeSuperClasses) {
+            Method[] methods = includeSuperClasses ? objectClass.getMethods() : objectClass.getDeclaredMethods();
+
+            List<Getter> getterList = new ArrayList<Getter>();
+            Map<String, List<Setter>> setterLists = new HashMap<String, List<Setter>>();
+            for (Method method : methods) {
+                String methodName = method.getName();
+                Class<?>[] parameterTypes = method.getParameterTypes();
+
+                if (parameterTypes.length == 1 && methodName.length() > 3 &&
+                        methodName.startsWith("set")) {
+                    String key = methodName.substring(3);
+                    List<Setter> list = setterLists.get(key);
+                    if (list == null) {
+                        list = new ArrayList<Setter>(1);
+                        setterLists.put(key, list);
+                    }
+                    list.add(new Setter(method, includeSuperClasses));
+                    continue;
+                }
+
+                if (method.getDeclaringClass() == java.lang.Object.class) continue;
+                if (parameterTypes.length > 0) continue;
+                if (method.getReturnType().equals(Void.TYPE)) continue;
+                if (method.getAnnotation(Transient.class) != null) continue;
+
+                String propertyName = "";
+                if (methodName.startsWith("get")) {
+                    propertyName = methodName.substring(3);
+                } else if (methodName.startsWith("is")) {
+                    propertyName = methodName.substring(2);
+                }
+                if (propertyName.length() > 0 && Character.isUpperCase(propertyName.charAt(0))) {
+                    propertyName = Character.toLowerCase(propertyName.charAt(0)) + propertyName.substring(1);
+                    getterList.add(new Getter(propertyName,
+                            new MethodRef(method, includeSuperClasses)));
+                }
             }
-            else if (parameterType == Integer.TYPE) {
-                return valueClass == Integer.class || valueClass == Character.class || valueClass == Short.class || valueClass == Byte.class;
+
+            getters = getterList.toArray(new Getter[getterList.size()]);
+            setters = new HashMap<String, Setter[]>();
+            for (Map.Entry<String, List<Setter>> entry : setterLists.entrySet()) {
+                List<Setter> list = entry.getValue();
+                setters.put(entry.getKey(), list.toArray(new Setter[list.size()]));
             }
-            else if (parameterType == Long.TYPE) {
-                return valueClass == Long.class || valueClass == Integer.class || valueClass == Character.class || valueClass == Short.class || valueClass == Byte.class;
+        }
+
+        /**
+         * Finds the setter of the given property accepting the value: the one
+         * declaring the exact class of the value if there is one, otherwise
+         * the first one the value can be passed to.
+         */
+        Setter findSetter(Class<?> objectClass, String key, Object value) {
+            String name = Character.toUpperCase(key.charAt(0)) + key.substring(1);
+            Setter[] candidates = setters.get(name);
+            if (candidates == null) return null;
+
+            if (value != null) {
+                Class<?> valueClass = value.getClass();
+                for (Setter setter : candidates) {
+                    if (setter.method.getParameterType(objectClass) == valueClass) {
+                        return setter;
+                    }
+                }
             }
-            else if (parameterType == Float.TYPE) {
-                return valueClass == Float.class || valueClass == Long.class || valueClass == Integer.class || valueClass == Character.class || valueClass == Short.class || valueClass == Byte.class;
+            for (Setter setter : candidates) {
+                if (isAssignableFrom(setter.method.getParameterType(objectClass), value)) {
+                    return setter;
+                }
             }
-            else if (parameterType == Double.TYPE) {
-                return valueClass == Double.class || valueClass == Float.class || valueClass == Long.class || valueClass == Integer.class || valueClass == Character.class || valueClass == Short.class || valueClass == Byte.class;
+            return null;
+        }
+    }
+
+    private static class Getter {
+        final String propertyName;
+        final MethodRef method;
+
+        Getter(String propertyName, MethodRef method) {
+            this.propertyName = propertyName;
+            this.method = method;
+        }
+    }
+
+    private static class Setter {
+        final MethodRef method;
+        final boolean isTransient;
+
+        Setter(Method method, boolean includeSuperClasses) {
+            this.method = new MethodRef(method, includeSuperClasses);
+            this.isTransient = method.getAnnotation(Transient.class) != null;
+        }
+    }
+
+    /**
+     * A method of a class, referenced softly: a {@link Method} references
+     * its class, which would keep the entry of the class in the cache
+     * forever. When collected, the method is found again by its signature
+     * in the class of the object it is invoked on.
+     */
+    private static class MethodRef {
+        final String name;
+        private final String signature;
+        private final boolean includeSuperClasses;
+        private volatile SoftReference<Resolved> resolved;
+
+        MethodRef(Method method, boolean includeSuperClasses) {
+            this.name = method.getName();
+            this.signature = method.toString();
+            this.includeSuperClasses = includeSuperClasses;
+            this.resolved = new SoftReference<Resolved>(new Resolved(method));
+        }
+
+        /**
+         * @param objectClass The class the method was found in, used when
+         *                    the method was collected.
+         */
+        Method get(Class<?> objectClass) {
+            return resolve(objectClass).method;
+        }
+
+        Class<?> getParameterType(Class<?> objectClass) {
+            return resolve(objectClass).parameterType;
+        }
+
+        private Resolved resolve(Class<?> objectClass) {
+            Resolved r = resolved.get();
+            if (r != null) return r;
+            Method[] methods = includeSuperClasses ?
+                    objectClass.getMethods() : objectClass.getDeclaredMethods();
+            for (Method method : methods) {
+                if (method.getName().equals(name) &&
+                        method.toString().equals(signature)) {
+                    r = new Resolved(method);
+                    resolved = new SoftReference<Resolved>(r);
+                    return r;
+                }
             }
-            else {
+            throw new IllegalStateException("Method not found: " + signature);
+        }
+    }
+
+    private static class Resolved {
+        final Method method;
+        final Class<?> parameterType;
+
+        Resolved(Method method) {
+            this.method = method;
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            this.parameterType = parameterTypes.length == 1 ? parameterTypes[0] : null;
+        }
+    }
+
+    private static boolean isAssignableFrom(Class<?> parameterType, Object value) {
+        if (parameterType.isPrimitive()) {
+            if (value == null) {
                 return false;
             }
+            Set<Class<?>> valueClasses = PRIMITIVE_COERCIONS.get(parameterType);
+            return valueClasses != null && valueClasses.contains(value.getClass());
         }
         else {
             return value == null || parameterType.isAssignableFrom(value.getClass());
@@ -0,0 +1,19 @@
+package com.strongloop.android.remoting;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * An annotation marking a {@link VirtualObject} subclass for which
+ * the optional annotation processor generates an {@link ObjectSerializer},
+ * so that the properties of its instances are accessed without reflection.
+ * <p>
+ * The annotated class must not be private, must have a non-private
+ * no-argument constructor and, when nested, must be static.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface GenerateSerializer {
+}
@@ -0,0 +1,563 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+
+/**
+ * A pull parser reading a JSON document token by token from a
+ * {@link java.io.Reader}, without building the whole document in memory.
+ * <p>
+ * The values returned by {@link #readValue()} follow the conventions of
+ * {@link JsonUtil#fromJson(org.json.JSONObject)}: objects are converted to
+ * {@link java.util.Map}, arrays to {@link java.util.List}, JSON
+ * <code>null</code> to <code>null</code> and numbers to
+ * {@link java.lang.Integer}, {@link java.lang.Long} or
+ * {@link java.lang.Double}, exactly as {@link org.json.JSONTokener} does.
+ * <p>
+ * (<code>android.util.JsonReader</code> is not available on all API levels
+ * supported by this library.)
+ */
+public class JsonStreamReader implements Closeable {
+
+    /**
+     * The type of a JSON token.
+     */
+    public enum Token {
+        BEGIN_ARRAY,
+        END_ARRAY,
+        BEGIN_OBJECT,
+        END_OBJECT,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT
+    }
+
+    private static final int EMPTY_ARRAY = 1;
+    private static final int NONEMPTY_ARRAY = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    private static final int EMPTY_DOCUMENT = 6;
+    private static final int NONEMPTY_DOCUMENT = 7;
+
+    private final Reader in;
+    private final char[] buffer = new char[4096];
+    private int pos = 0;
+    private int limit = 0;
+    private long bufferOffset = 0;
+
+    private int[] stack = new int[32];
+    private int stackSize = 0;
+
+    private Token peeked;
+    private String peekedValue;
+
+    /**
+     * Creates a new reader consuming the given character stream.
+     * @param in The stream to read from.
+     */
+    public JsonStreamReader(Reader in) {
+        if (in == null) {
+            throw new IllegalArgumentException("Reader cannot be null");
+        }
+        this.in = in;
+        push(EMPTY_DOCUMENT);
+    }
+
+    /**
+     * Returns the type of the next token without consuming it.
+     * @return the type of the next token.
+     * @throws IOException If the underlying stream cannot be read.
+     * @throws JSONException If the document is not valid JSON.
+     */
+    public Token peek() throws IOException, JSONException {
+        if (peeked != null) {
+            return peeked;
+        }
+
+        int c;
+        switch (stack[stackSize - 1]) {
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                pos--;
+                return peeked = readValueToken();
+
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError("Unterminated array");
+                }
+                return peeked = readValueToken();
+
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (stack[stackSize - 1] == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Unterminated object");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                stack[stackSize - 1] = DANGLING_NAME;
+                peekedValue = readString();
+                return peeked = Token.NAME;
+
+            case DANGLING_NAME:
+                c = nextNonWhitespace();
+                if (c != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                return peeked = readValueToken();
+
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                return peeked = readValueToken();
+
+            case NONEMPTY_DOCUMENT:
+                if (skipWhitespace()) {
+                    throw syntaxError("Expected end of document");
+                }
+                return peeked = Token.END_DOCUMENT;
+
+            default:
+                throw new IllegalStateException("JsonStreamReader is closed");
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the current array or object has another
+     * element.
+     */
+    public boolean hasNext() throws IOException, JSONException {
+        Token token = peek();
+        return token != Token.END_OBJECT &&
+                token != Token.END_ARRAY &&
+                token != Token.END_DOCUMENT;
+    }
+
+    /**
+     * Consumes the next token, which must be the beginning of an array.
+     */
+    public void beginArray() throws IOException, JSONException {
+        consume(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    /**
+     * Consumes the next token, which must be the end of the current array.
+     */
+    public void endArray() throws IOException, JSONException {
+        consume(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    /**
+     * Consumes the next token, which must be the beginning of an object.
+     */
+    public void beginObject() throws IOException, JSONException {
+        consume(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    /**
+     * Consumes the next token, which must be the end of the current object.
+     */
+    public void endObject() throws IOException, JSONException {
+        consume(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    /**
+     * Consumes the next token, which must be a property name.
+     * @return the property name.
+     */
+    public String nextName() throws IOException, JSONException {
+        consume(Token.NAME);
+        return peekedValue;
+    }
+
+    /**
+     * Consumes the next token, which must be a string.
+     * @return the string value.
+     */
+    public String nextString() throws IOException, JSONException {
+        consume(Token.STRING);
+        return peekedValue;
+    }
+
+    /**
+     * Consumes the next token, which must be a number.
+     * @return an {@link java.lang.Integer}, {@link java.lang.Long} or
+     * {@link java.lang.Double}, whichever is the narrowest type that can
+     * represent the value.
+     */
+    public Number nextNumber() throws IOException, JSONException {
+        consume(Token.NUMBER);
+        return parseNumber(peekedValue);
+    }
+
+    /**
+     * Consumes the next token, which must be a boolean.
+     * @return the boolean value.
+     */
+    public boolean nextBoolean() throws IOException, JSONException {
+        consume(Token.BOOLEAN);
+        return "true".equals(peekedValue);
+    }
+
+    /**
+     * Consumes the next token, which must be <code>null</code>.
+     */
+    public void nextNull() throws IOException, JSONException {
+        consume(Token.NULL);
+    }
+
+    /**
+     * Skips the next value, including all nested arrays and objects.
+     */
+    public void skipValue() throws IOException, JSONException {
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Unexpected end of document");
+                default:
+                    peeked = null;
+                    break;
+            }
+        } while (depth != 0);
+    }
+
+    /**
+     * Reads the next value, converting objects and arrays to Java
+     * collections.
+     * @return the value, see the class description for the type mapping.
+     */
+    public Object readValue() throws IOException, JSONException {
+        Token token = peek();
+        switch (token) {
+            case BEGIN_OBJECT:
+                return readObject();
+            case BEGIN_ARRAY:
+                return readArray();
+            case STRING:
+                return nextString();
+            case NUMBER:
+                return nextNumber();
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                nextNull();
+                return null;
+            default:
+                throw syntaxError("Expected a value but was " + token);
+        }
+    }
+
+    /**
+     * Reads the next value, which must be an object, into a
+     * {@link java.util.Map}.
+     * @return the map.
+     */
+    public Map<String, Object> readObject() throws IOException, JSONException {
+        Map<String, Object> map = new HashMap<String, Object>();
+        beginObject();
+        while (hasNext()) {
+            String name = nextName();
+            map.put(name, readValue());
+        }
+        endObject();
+        return map;
+    }
+
+    /**
+     * Reads the next value, which must be an array, into a
+     * {@link java.util.List}.
+     * @return the list.
+     */
+    public List<Object> readArray() throws IOException, JSONException {
+        List<Object> list = new ArrayList<Object>();
+        beginArray();
+        while (hasNext()) {
+            list.add(readValue());
+        }
+        endArray();
+        return list;
+    }
+
+    @Override
+    public void close() throws IOException {
+        peeked = null;
+        stackSize = 1;
+        stack[0] = 0;
+        in.close();
+    }
+
+    private void consume(Token expected) throws IOException, JSONException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] newStack = new int[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private Token readValueToken() throws IOException, JSONException {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                peekedValue = readString();
+                return Token.STRING;
+            default:
+                pos--;
+                peekedValue = readLiteral();
+                if ("true".equals(peekedValue) || "false".equals(peekedValue)) {
+                    return Token.BOOLEAN;
+                }
+                if ("null".equals(peekedValue)) {
+                    return Token.NULL;
+                }
+                char first = peekedValue.length() > 0 ? peekedValue.charAt(0) : 0;
+                if (first == '-' || (first >= '0' && first <= '9')) {
+                    return Token.NUMBER;
+                }
+                throw syntaxError("Unexpected value: " + peekedValue);
+        }
+    }
+
+    static Number parseNumber(String literal) throws JSONException {
+        if (literal.indexOf('.') < 0 &&
+                literal.indexOf('e') < 0 &&
+                literal.indexOf('E') < 0) {
+            try {
+                long value = Long.parseLong(literal);
+                if (value <= Integer.MAX_VALUE && value >= Integer.MIN_VALUE) {
+                    return Integer.valueOf((int) value);
+                }
+                return Long.valueOf(value);
+            } catch (NumberFormatException e) {
+                // Fall through to double, like JSONTokener does.
+            }
+        }
+        try {
+            return Double.valueOf(literal);
+        } catch (NumberFormatException e) {
+            throw new JSONException("Invalid number: " + literal);
+        }
+    }
+
+    private String readString() throws IOException, JSONException {
+        StringBuilder builder = null;
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == '"') {
+                    if (builder == null) {
+                        return new String(buffer, start, pos - start - 1);
+                    }
+                    builder.append(buffer, start, pos - start - 1);
+                    return builder.toString();
+                }
+                if (c == '\\') {
+                    if (builder == null) {
+                        builder = new StringBuilder();
+                    }
+                    builder.append(buffer, start, pos - start - 1);
+                    builder.append(readEscapeCharacter());
+                    start = pos;
+                }
+            }
+            if (builder == null) {
+                builder = new StringBuilder();
+            }
+            builder.append(buffer, start, pos - start);
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private char readEscapeCharacter() throws IOException, JSONException {
+        int c = nextChar();
+        switch (c) {
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(nextChar(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid escape sequence");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case '"':
+            case '\'':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    private String readLiteral() throws IOException, JSONException {
+        StringBuilder builder = null;
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos];
+                if (isLiteralEnd(c)) {
+                    if (builder == null) {
+                        return new String(buffer, start, pos - start);
+                    }
+                    builder.append(buffer, start, pos - start);
+                    return builder.toString();
+                }
+                pos++;
+            }
+            if (builder == null) {
+                builder = new StringBuilder();
+            }
+            builder.append(buffer, start, pos - start);
+            if (!fill()) {
+                return builder.toString();
+            }
+        }
+    }
+
+    private static boolean isLiteralEnd(char c) {
+        switch (c) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\r':
+            case ',':
+            case ':':
+            case ']':
+            case '}':
+            case '[':
+            case '{':
+            case '"':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private int nextChar() throws IOException, JSONException {
+        if (pos == limit && !fill()) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return buffer[pos++];
+    }
+
+    private int nextNonWhitespace() throws IOException, JSONException {
+        if (!skipWhitespace()) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return buffer[pos++];
+    }
+
+    /**
+     * Advances past whitespace.
+     * @return <code>true</code> if there is more input available.
+     */
+    private boolean skipWhitespace() throws IOException {
+        while (true) {
+            while (pos < limit) {
+                char c = buffer[pos];
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    return true;
+                }
+                pos++;
+            }
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        bufferOffset += limit;
+        pos = 0;
+        limit = 0;
+        int count;
+        while ((count = in.read(buffer, 0, buffer.length)) == 0) {
+            // Keep reading until we get some data or hit the end of stream.
+        }
+        if (count < 0) {
+            return false;
+        }
+        limit = count;
+        return true;
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + (bufferOffset + pos));
+    }
+}
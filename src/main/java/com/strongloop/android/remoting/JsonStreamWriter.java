@@ -0,0 +1,250 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Writes a JSON document token by token to a {@link java.io.Writer},
+ * without building a {@link org.json.JSONObject} tree or a string of
+ * the whole document first.
+ * <p>
+ * {@link #value(Object)} converts values the same way
+ * {@link JsonUtil#toJson(Object)} does.
+ * <p>
+ * (<code>android.util.JsonWriter</code> is not available on all API levels
+ * supported by this library.)
+ */
+public class JsonStreamWriter implements Closeable, Flushable {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+
+    // true when the next value or name in the current scope needs a comma
+    private boolean[] separators = new boolean[32];
+    private int depth = 0;
+    private boolean afterName = false;
+
+    /**
+     * Creates a new writer producing characters to the given stream.
+     * @param out The stream to write to.
+     */
+    public JsonStreamWriter(Writer out) {
+        if (out == null) {
+            throw new IllegalArgumentException("Writer cannot be null");
+        }
+        this.out = out;
+    }
+
+    /**
+     * Begins a new JSON object.
+     * @return This writer.
+     * @throws IOException If the underlying stream cannot be written.
+     */
+    public JsonStreamWriter beginObject() throws IOException {
+        beforeValue();
+        out.write('{');
+        push();
+        return this;
+    }
+
+    /**
+     * Ends the current JSON object.
+     * @return This writer.
+     * @throws IOException If the underlying stream cannot be written.
+     */
+    public JsonStreamWriter endObject() throws IOException {
+        pop();
+        out.write('}');
+        return this;
+    }
+
+    /**
+     * Begins a new JSON array.
+     * @return This writer.
+     * @throws IOException If the underlying stream cannot be written.
+     */
+    public JsonStreamWriter beginArray() throws IOException {
+        beforeValue();
+        out.write('[');
+        push();
+        return this;
+    }
+
+    /**
+     * Ends the current JSON array.
+     * @return This writer.
+     * @throws IOException If the underlying stream cannot be written.
+     */
+    public JsonStreamWriter endArray() throws IOException {
+        pop();
+        out.write(']');
+        return this;
+    }
+
+    /**
+     * Writes the name of the next property of the current object.
+     * @param name The property name.
+     * @return This writer.
+     * @throws IOException If the underlying stream cannot be written.
+     */
+    public JsonStreamWriter name(String name) throws IOException {
+        if (name == null) {
+            throw new IllegalArgumentException("Name cannot be null");
+        }
+        beforeValue();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * Writes a value, converting maps to JSON objects, iterables and
+     * arrays to JSON arrays and objects other than numbers, booleans
+     * and strings to strings, see {@link JsonUtil#toJson(Object)}.
+     * @param value The value, can be <code>null</code>.
+     * @return This writer.
+     * @throws IOException If the underlying stream cannot be written.
+     * @throws JSONException If a number is infinite or NaN.
+     */
+    public JsonStreamWriter value(Object value) throws IOException, JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            beforeValue();
+            out.write("null");
+        }
+        else if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                name(String.valueOf(entry.getKey()));
+                value(entry.getValue());
+            }
+            endObject();
+        }
+        else if (value instanceof Iterable) {
+            beginArray();
+            for (Object item : (Iterable<?>) value) {
+                value(item);
+            }
+            endArray();
+        }
+        else if (value.getClass().isArray()) {
+            beginArray();
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                value(Array.get(value, i));
+            }
+            endArray();
+        }
+        else if (value instanceof Number) {
+            beforeValue();
+            out.write(JSONObject.numberToString((Number) value));
+        }
+        else if (value instanceof Boolean) {
+            beforeValue();
+            out.write(((Boolean) value) ? "true" : "false");
+        }
+        else if (value instanceof JSONObject || value instanceof JSONArray) {
+            beforeValue();
+            out.write(value.toString());
+        }
+        else {
+            beforeValue();
+            writeString(value.toString());
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (separators[depth - 1]) {
+                out.write(',');
+            }
+            separators[depth - 1] = true;
+        }
+    }
+
+    private void push() {
+        if (depth == separators.length) {
+            boolean[] grown = new boolean[depth * 2];
+            System.arraycopy(separators, 0, grown, 0, depth);
+            separators = grown;
+        }
+        separators[depth++] = false;
+    }
+
+    private void pop() {
+        if (depth == 0 || afterName) {
+            throw new IllegalStateException("Nesting problem");
+        }
+        depth--;
+    }
+
+    /**
+     * Writes a quoted string, escaping quotes, backslashes, control
+     * characters and the slash of <code>"&lt;/"</code>.
+     */
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escaped;
+            switch (c) {
+                case '"': escaped = "\\\""; break;
+                case '\\': escaped = "\\\\"; break;
+                case '\b': escaped = "\\b"; break;
+                case '\t': escaped = "\\t"; break;
+                case '\n': escaped = "\\n"; break;
+                case '\f': escaped = "\\f"; break;
+                case '\r': escaped = "\\r"; break;
+                case '/':
+                    // "</" is escaped so that the output can be embedded
+                    // in HTML.
+                    if (i == 0 || value.charAt(i - 1) != '<') continue;
+                    escaped = "\\/";
+                    break;
+                default:
+                    if (c >= ' ') continue;
+                    escaped = null;
+            }
+            out.write(value, start, i - start);
+            if (escaped != null) {
+                out.write(escaped);
+            }
+            else {
+                out.write("\\u00");
+                out.write(HEX_DIGITS[(c >> 4) & 0xF]);
+                out.write(HEX_DIGITS[c & 0xF]);
+            }
+            start = i + 1;
+        }
+        out.write(value, start, length - start);
+        out.write('"');
+    }
+}
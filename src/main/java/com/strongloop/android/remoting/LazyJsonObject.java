@@ -0,0 +1,694 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.json.JSONException;
+
+/**
+ * A JSON object decoded on demand. Parsing only indexes the document:
+ * the names of the properties are decoded, the values are recorded as
+ * offsets into the source text. A value is decoded on its first access
+ * and kept for later accesses, following the conventions of
+ * {@link JsonStreamReader#readValue()}.
+ * <p>
+ * All objects parsed from a document share its source text, the text is
+ * retained as long as one of them is.
+ * <p>
+ * Decoding a value on its first access is synchronized, so the map can be
+ * read from several threads, e.g. through a model shared by the UI and a
+ * background thread. The map can be modified; like {@link HashMap}, a
+ * modification must not run concurrently with other accesses.
+ */
+public class LazyJsonObject extends AbstractMap<String, Object> {
+    private static final byte RAW = 0;
+    private static final byte DECODED = 1;
+    private static final byte REMOVED = 2;
+
+    private final String source;
+    private String[] names = new String[8];
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private Object[] values;
+    private byte[] states;
+    private int count = 0;
+    private int removed = 0;
+    // Open addressing hash table of name indexes + 1, 0 marks a free slot.
+    private int[] table;
+    private Map<String, Object> added;
+
+    private LazyJsonObject(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Indexes a document holding a JSON object.
+     * @param json The document.
+     * @return The object, or <code>null</code> if the document is
+     * <code>null</code>.
+     * @throws JSONException If the document is not a JSON object.
+     */
+    public static LazyJsonObject parse(String json) throws JSONException {
+        Indexer indexer = new Indexer(json);
+        LazyJsonObject object;
+        char c = indexer.peek();
+        if (c == '{') {
+            object = indexer.readObject();
+        }
+        else if (indexer.skipNull()) {
+            object = null;
+        }
+        else {
+            throw indexer.syntaxError("Expecting a JSON object");
+        }
+        indexer.expectEnd();
+        return object;
+    }
+
+    /**
+     * Indexes a document holding a JSON array of objects.
+     * @param json The document.
+     * @return The objects, with <code>null</code> in place of elements that
+     * are not objects, or <code>null</code> if the document is
+     * <code>null</code>.
+     * @throws JSONException If the document is not a JSON array.
+     */
+    public static List<LazyJsonObject> parseArray(String json) throws JSONException {
+        Indexer indexer = new Indexer(json);
+        List<LazyJsonObject> list;
+        char c = indexer.peek();
+        if (c == '[') {
+            list = indexer.readArrayOfObjects();
+        }
+        else if (indexer.skipNull()) {
+            list = null;
+        }
+        else {
+            throw indexer.syntaxError("Expecting a JSON array");
+        }
+        indexer.expectEnd();
+        return list;
+    }
+
+    /**
+     * @return The number of values decoded so far, for diagnostics.
+     */
+    public synchronized int getDecodedCount() {
+        int decoded = 0;
+        if (states != null) {
+            for (int i = 0; i < count; i++) {
+                if (states[i] == DECODED) decoded++;
+            }
+        }
+        return decoded;
+    }
+
+    @Override
+    public int size() {
+        return count - removed + (added != null ? added.size() : 0);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            return state(index) != REMOVED;
+        }
+        return added != null && added.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            return valueAt(index);
+        }
+        return added != null ? added.get(key) : null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int index = indexOf(key);
+        if (index < 0) {
+            if (added == null) {
+                added = new HashMap<String, Object>(4);
+            }
+            return added.put(key, value);
+        }
+        Object previous = valueAt(index);
+        if (state(index) == REMOVED) {
+            removed--;
+        }
+        ensureDecodedStorage();
+        values[index] = value;
+        states[index] = DECODED;
+        return previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return added != null ? added.remove(key) : null;
+        }
+        Object previous = valueAt(index);
+        if (state(index) != REMOVED) {
+            ensureDecodedStorage();
+            values[index] = null;
+            states[index] = REMOVED;
+            removed++;
+        }
+        return previous;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return LazyJsonObject.this.size();
+            }
+        };
+    }
+
+    private byte state(int index) {
+        return states != null ? states[index] : RAW;
+    }
+
+    private void ensureDecodedStorage() {
+        if (states == null) {
+            states = new byte[count];
+            values = new Object[count];
+        }
+    }
+
+    // Synchronized: reads store the decoded value.
+    private synchronized Object valueAt(int index) {
+        switch (state(index)) {
+            case DECODED:
+                return values[index];
+            case REMOVED:
+                return null;
+            default:
+                break;
+        }
+        Object value;
+        try {
+            value = new JsonStreamReader(
+                    new SliceReader(source, starts[index], ends[index]))
+                    .readValue();
+        }
+        catch (Exception e) {
+            IllegalStateException ex = new IllegalStateException(
+                    "Invalid JSON value of \"" + names[index] + "\"");
+            ex.initCause(e);
+            throw ex;
+        }
+        ensureDecodedStorage();
+        values[index] = value;
+        states[index] = DECODED;
+        return value;
+    }
+
+    private int indexOf(Object key) {
+        if (!(key instanceof String) || table == null) {
+            return -1;
+        }
+        int mask = table.length - 1;
+        for (int i = key.hashCode() & mask; table[i] != 0; i = (i + 1) & mask) {
+            int index = table[i] - 1;
+            if (names[index].equals(key)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private void addProperty(String name, int start, int end) {
+        int existing = indexOf(name);
+        if (existing >= 0) {
+            // The last value wins, like in JSONObject.
+            starts[existing] = start;
+            ends[existing] = end;
+            return;
+        }
+        if (count == names.length) {
+            names = grow(names);
+            starts = grow(starts);
+            ends = grow(ends);
+        }
+        names[count] = name;
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+        if (table == null || count * 2 > table.length) {
+            rehash();
+        }
+        else {
+            insert(count - 1);
+        }
+    }
+
+    private void rehash() {
+        int length = 16;
+        while (length < count * 4) {
+            length *= 2;
+        }
+        table = new int[length];
+        for (int i = 0; i < count; i++) {
+            insert(i);
+        }
+    }
+
+    private void insert(int index) {
+        int mask = table.length - 1;
+        int i = names[index].hashCode() & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = index + 1;
+    }
+
+    private static String[] grow(String[] array) {
+        String[] grown = new String[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private int next = -1;
+        private Iterator<Map.Entry<String, Object>> addedIterator;
+        private int last = -1;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            do {
+                next++;
+            } while (next < count && state(next) == REMOVED);
+            if (next >= count && added != null) {
+                addedIterator = added.entrySet().iterator();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < count ||
+                    (addedIterator != null && addedIterator.hasNext());
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (next < count) {
+                last = next;
+                advance();
+                return new Entry(last);
+            }
+            if (addedIterator == null) {
+                throw new NoSuchElementException();
+            }
+            last = -1;
+            return addedIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            if (last >= 0) {
+                LazyJsonObject.this.remove(names[last]);
+                last = -1;
+            }
+            else if (addedIterator != null) {
+                addedIterator.remove();
+            }
+            else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    private class Entry implements Map.Entry<String, Object> {
+        private final int index;
+
+        Entry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return names[index];
+        }
+
+        @Override
+        public Object getValue() {
+            return valueAt(index);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            return put(names[index], value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object value = getValue();
+            return getKey().equals(e.getKey()) && (value == null
+                    ? e.getValue() == null
+                    : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    /**
+     * Finds the boundaries of the values in the source text. The whole
+     * document is validated by the rules of {@link JsonStreamReader}, so
+     * that a malformed document fails to parse instead of failing a later
+     * access; only decoding the values is deferred.
+     */
+    private static class Indexer {
+        private final String source;
+        private int pos = 0;
+
+        Indexer(String source) throws JSONException {
+            if (source == null) {
+                throw new JSONException("Invalid null response");
+            }
+            this.source = source;
+        }
+
+        char peek() throws JSONException {
+            skipWhitespace();
+            if (pos == source.length()) {
+                throw syntaxError("Unexpected end of document");
+            }
+            return source.charAt(pos);
+        }
+
+        boolean skipNull() {
+            if (source.startsWith("null", pos)) {
+                pos += 4;
+                return true;
+            }
+            return false;
+        }
+
+        void expectEnd() throws JSONException {
+            skipWhitespace();
+            if (pos != source.length()) {
+                throw syntaxError("Expected end of document");
+            }
+        }
+
+        LazyJsonObject readObject() throws JSONException {
+            LazyJsonObject object = new LazyJsonObject(source);
+            pos++; // '{'
+            if (peek() == '}') {
+                pos++;
+                return object;
+            }
+            while (true) {
+                if (peek() != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                String name = readName();
+                if (peek() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                pos++;
+                peek();
+                int start = pos;
+                skipValue();
+                object.addProperty(name, start, pos);
+
+                char c = peek();
+                pos++;
+                if (c == '}') {
+                    return object;
+                }
+                if (c != ',') {
+                    throw syntaxError("Unterminated object");
+                }
+            }
+        }
+
+        List<LazyJsonObject> readArrayOfObjects() throws JSONException {
+            List<LazyJsonObject> list = new ArrayList<LazyJsonObject>();
+            pos++; // '['
+            if (peek() == ']') {
+                pos++;
+                return list;
+            }
+            while (true) {
+                if (peek() == '{') {
+                    list.add(readObject());
+                }
+                else {
+                    skipValue();
+                    list.add(null);
+                }
+
+                char c = peek();
+                pos++;
+                if (c == ']') {
+                    return list;
+                }
+                if (c != ',') {
+                    throw syntaxError("Unterminated array");
+                }
+            }
+        }
+
+        private String readName() throws JSONException {
+            int start = pos + 1;
+            skipString();
+            String raw = source.substring(start, pos - 1);
+            if (raw.indexOf('\\') < 0) {
+                return raw;
+            }
+            try {
+                return (String) new JsonStreamReader(
+                        new SliceReader(source, start - 1, pos)).readValue();
+            }
+            catch (IOException e) {
+                // Reading a string cannot fail.
+                throw new AssertionError(e);
+            }
+        }
+
+        private void skipValue() throws JSONException {
+            // The closing brackets of the enclosing containers, kept on a
+            // stack instead of recursing so that deep documents cannot
+            // overflow the thread's stack.
+            StringBuilder closers = null;
+            while (true) {
+                char c = peek();
+                if (c == '{' || c == '[') {
+                    pos++;
+                    char closer = c == '{' ? '}' : ']';
+                    if (peek() == closer) {
+                        pos++;
+                    }
+                    else {
+                        if (closers == null) {
+                            closers = new StringBuilder();
+                        }
+                        closers.append(closer);
+                        if (closer == '}') {
+                            skipName();
+                        }
+                        continue;
+                    }
+                }
+                else if (c == '"') {
+                    skipString();
+                }
+                else {
+                    skipLiteral();
+                }
+
+                // The value is complete, close the containers it ends.
+                while (true) {
+                    if (closers == null || closers.length() == 0) {
+                        return;
+                    }
+                    int top = closers.length() - 1;
+                    char closer = closers.charAt(top);
+                    char next = peek();
+                    pos++;
+                    if (next == closer) {
+                        closers.setLength(top);
+                        continue;
+                    }
+                    if (next != ',') {
+                        throw syntaxError(closer == '}'
+                                ? "Unterminated object"
+                                : "Unterminated array");
+                    }
+                    if (closer == '}') {
+                        skipName();
+                    }
+                    break;
+                }
+            }
+        }
+
+        private void skipName() throws JSONException {
+            if (peek() != '"') {
+                throw syntaxError("Expected a name");
+            }
+            skipString();
+            if (peek() != ':') {
+                throw syntaxError("Expected ':'");
+            }
+            pos++;
+        }
+
+        private void skipLiteral() throws JSONException {
+            int start = pos;
+            while (pos < source.length() && isLiteralPart(source.charAt(pos))) {
+                pos++;
+            }
+            int length = pos - start;
+            if (length == 0) {
+                throw syntaxError("Expected a value");
+            }
+            if ((length == 4 && (source.startsWith("true", start) ||
+                    source.startsWith("null", start))) ||
+                    (length == 5 && source.startsWith("false", start))) {
+                return;
+            }
+            char first = source.charAt(start);
+            String literal = source.substring(start, pos);
+            if (first != '-' && (first < '0' || first > '9')) {
+                throw syntaxError("Unexpected value: " + literal);
+            }
+            JsonStreamReader.parseNumber(literal);
+        }
+
+        private void skipString() throws JSONException {
+            pos++; // opening quote
+            while (pos < source.length()) {
+                char c = source.charAt(pos++);
+                if (c == '"') {
+                    return;
+                }
+                if (c == '\\') {
+                    skipEscape();
+                }
+            }
+            throw syntaxError("Unterminated string");
+        }
+
+        private void skipEscape() throws JSONException {
+            if (pos == source.length()) {
+                throw syntaxError("Unterminated string");
+            }
+            switch (source.charAt(pos++)) {
+                case 'u':
+                    for (int i = 0; i < 4; i++) {
+                        if (pos == source.length() ||
+                                Character.digit(source.charAt(pos++), 16) < 0) {
+                            throw syntaxError("Invalid escape sequence");
+                        }
+                    }
+                    return;
+                case 't':
+                case 'b':
+                case 'n':
+                case 'r':
+                case 'f':
+                case '"':
+                case '\'':
+                case '\\':
+                case '/':
+                    return;
+                default:
+                    throw syntaxError("Invalid escape sequence");
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < source.length()) {
+                char c = source.charAt(pos);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    return;
+                }
+                pos++;
+            }
+        }
+
+        private static boolean isLiteralPart(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+                    (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.';
+        }
+
+        JSONException syntaxError(String message) {
+            return new JSONException(message + " at character " + pos);
+        }
+    }
+
+    /**
+     * Reads a range of a string without copying it.
+     */
+    private static class SliceReader extends Reader {
+        private final String source;
+        private int pos;
+        private final int end;
+
+        SliceReader(String source, int start, int end) {
+            this.source = source;
+            this.pos = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (pos >= end) {
+                return -1;
+            }
+            int n = Math.min(length, end - pos);
+            source.getChars(pos, pos + n, buffer, offset);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.strongloop.android.remoting;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+
+/**
+ * Creates objects of a single class and copies their properties to and
+ * from maps without reflection. Implementations are generated by the
+ * annotation processor for classes annotated with
+ * {@link GenerateSerializer}, and named after the class they serialize,
+ * e.g. <code>com.example.Widget$$Serializer</code>.
+ * <p>
+ * {@link Repository#createObject(Map)} and {@link VirtualObject#toMap()}
+ * use the serializer of the class when there is one and fall back to
+ * {@link BeanUtil} otherwise.
+ * <p>
+ * Generated serializers are found by name the first time a class is used.
+ * The library ships ProGuard rules keeping the annotated classes and their
+ * serializers under their names. Apps can also {@link #register} the
+ * serializers at startup, which skips the lookup.
+ */
+public abstract class ObjectSerializer<T extends VirtualObject> {
+
+    /**
+     * The suffix appended to the name of a class to get the name of its
+     * serializer.
+     */
+    public static final String SUFFIX = "$$Serializer";
+
+    /**
+     * Returned by {@link #convert(Object, Class)} for values that cannot
+     * be passed as the given type.
+     */
+    public static final Object NOT_CONVERTIBLE = new Object();
+
+    private static final Object NONE = new Object();
+
+    // Values are strong, each serializer is created once. Classes without
+    // a serializer map to NONE, their entries are collected with the class;
+    // a serializer references the class loader of its class.
+    private static final Cache<Class<?>, Object> serializers =
+            CacheBuilder.newBuilder().weakKeys().build();
+
+    /**
+     * Registers the serializer of the given class, so that it is not
+     * looked up by name.
+     * @param objectClass The class.
+     * @param serializer The serializer.
+     */
+    public static <T extends VirtualObject> void register(
+            Class<T> objectClass, ObjectSerializer<T> serializer) {
+        if (serializer == null) {
+            throw new IllegalArgumentException("Serializer cannot be null");
+        }
+        serializers.put(objectClass, serializer);
+    }
+
+    /**
+     * Returns the serializer of the given class, loading it on the first
+     * call.
+     * @param objectClass The class.
+     * @return The serializer, or <code>null</code> if the class is not
+     * annotated with {@link GenerateSerializer} or its serializer was not
+     * generated.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends VirtualObject> ObjectSerializer<T> forClass(
+            Class<T> objectClass) {
+        Object serializer = serializers.getIfPresent(objectClass);
+        if (serializer == null) {
+            serializer = load(objectClass);
+            Object loaded = serializers.asMap().putIfAbsent(objectClass, serializer);
+            if (loaded != null) {
+                serializer = loaded;
+            }
+        }
+        return serializer != NONE ? (ObjectSerializer<T>) serializer : null;
+    }
+
+    private static Object load(Class<?> objectClass) {
+        if (!objectClass.isAnnotationPresent(GenerateSerializer.class)) {
+            return NONE;
+        }
+        try {
+            Class<?> serializerClass = Class.forName(
+                    objectClass.getName() + SUFFIX, true,
+                    objectClass.getClassLoader());
+            return serializerClass.asSubclass(ObjectSerializer.class).newInstance();
+        }
+        catch (ClassNotFoundException e) {
+            // The processor did not run, use reflection.
+            return NONE;
+        }
+        catch (Exception e) {
+            IllegalArgumentException ex = new IllegalArgumentException(
+                    "Cannot create the serializer of " + objectClass.getName());
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    /**
+     * Creates a new object using its no-argument constructor.
+     * @return The new object.
+     */
+    public abstract T newInstance();
+
+    /**
+     * Passes the value to the setter of the named property.
+     * @param object The object to update.
+     * @param name The property name, e.g. <code>"name"</code> for
+     *             <code>setName()</code>.
+     * @param value The value.
+     * @return <code>true</code> if a setter accepted the value,
+     * <code>false</code> if the property has no setter accepting it.
+     */
+    public abstract boolean setProperty(T object, String name, Object value);
+
+    /**
+     * Reads the properties declared by the class of the object, like
+     * <code>BeanUtil.getProperties(object, false, false)</code>.
+     * @param object The object to read.
+     * @return The values of the properties by name.
+     */
+    public abstract Map<String, Object> getProperties(T object);
+
+    /**
+     * Passes each value to the setter of the property with the same name.
+     * @param object The object to update.
+     * @param properties The values by property name.
+     */
+    public void setProperties(T object, Map<String, ? extends Object> properties) {
+        for (Map.Entry<String, ? extends Object> entry : properties.entrySet()) {
+            String key = entry.getKey();
+            if (key == null || key.length() == 0) continue;
+            setProperty(object, key, entry.getValue());
+        }
+    }
+
+    /**
+     * Converts the properties of the object to JSON. Generated serializers
+     * override it to write each property directly.
+     * @param object The object to convert.
+     * @return The JSON object.
+     * @throws JSONException If a value cannot be converted.
+     */
+    public JSONObject toJson(T object) throws JSONException {
+        return (JSONObject) JsonUtil.toJson(getProperties(object));
+    }
+
+    /**
+     * Creates a new object with the properties found in the JSON object.
+     * Generated serializers override it to read each property directly.
+     * @param json The JSON object.
+     * @return The new object.
+     */
+    public T fromJson(JSONObject json) {
+        T object = newInstance();
+        setProperties(object, JsonUtil.fromJson(json));
+        return object;
+    }
+
+    /**
+     * Converts a property value to a value accepted by
+     * {@link JSONObject#put(String, Object)}, used by generated code.
+     * @param value The property value.
+     * @return The JSON value.
+     * @throws JSONException If the value cannot be converted.
+     */
+    protected static Object toJsonValue(Object value) throws JSONException {
+        return JsonUtil.toJson(value);
+    }
+
+    /**
+     * Converts a value read from a {@link JSONObject} to the value passed
+     * to a setter, used by generated code. Nested objects and arrays are
+     * converted to maps and lists.
+     * @param value The JSON value.
+     * @return The property value.
+     */
+    protected static Object fromJsonValue(Object value) {
+        if (value == JSONObject.NULL) {
+            return null;
+        }
+        if (value instanceof JSONObject) {
+            return JsonUtil.fromJson((JSONObject) value);
+        }
+        if (value instanceof JSONArray) {
+            return JsonUtil.fromJson((JSONArray) value);
+        }
+        return value;
+    }
+
+    /**
+     * Converts a value to the type of a setter argument. Numbers are
+     * converted to other number types when no precision is lost,
+     * e.g. a <code>Long</code> can be passed as an <code>int</code> if it
+     * is in the range of <code>int</code>.
+     * @param value The value.
+     * @param type The argument type, can be primitive.
+     * @return The converted value, or {@link #NOT_CONVERTIBLE}.
+     */
+    public static Object convert(Object value, Class<?> type) {
+        boolean primitive = type.isPrimitive();
+        if (value == null) {
+            return primitive ? NOT_CONVERTIBLE : null;
+        }
+        if (primitive) {
+            type = box(type);
+        }
+        if (type.isInstance(value)) {
+            return value;
+        }
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            boolean integral = value instanceof Integer ||
+                    value instanceof Long ||
+                    value instanceof Short ||
+                    value instanceof Byte;
+            if (type == Double.class) {
+                return number.doubleValue();
+            }
+            if (type == Float.class) {
+                return number.floatValue();
+            }
+            if (!integral) {
+                return NOT_CONVERTIBLE;
+            }
+            long l = number.longValue();
+            if (type == Long.class) {
+                return l;
+            }
+            if (type == Integer.class && l == (int) l) {
+                return (int) l;
+            }
+            if (type == Short.class && l == (short) l) {
+                return (short) l;
+            }
+            if (type == Byte.class && l == (byte) l) {
+                return (byte) l;
+            }
+        }
+        return NOT_CONVERTIBLE;
+    }
+
+    private static Class<?> box(Class<?> primitiveType) {
+        if (primitiveType == Boolean.TYPE) return Boolean.class;
+        if (primitiveType == Byte.TYPE) return Byte.class;
+        if (primitiveType == Character.TYPE) return Character.class;
+        if (primitiveType == Short.TYPE) return Short.class;
+        if (primitiveType == Integer.TYPE) return Integer.class;
+        if (primitiveType == Long.TYPE) return Long.class;
+        if (primitiveType == Float.TYPE) return Float.class;
+        if (primitiveType == Double.TYPE) return Double.class;
+        return Void.class;
+    }
+}
@@ -2,9 +2,14 @@
 
 package com.strongloop.android.remoting;
 
+import java.io.IOException;
 import java.util.Map;
 
+import org.json.JSONException;
+
 import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.RemoteMethod;
+import com.strongloop.android.remoting.adapters.RequestHandle;
 
 /**
  * A local representative of remote model repository, it provides
@@ -78,23 +83,80 @@ public class Repository<T extends VirtualObject> {
      */
     public T createObject(
             Map<String, ? extends Object> creationParameters) {
+        ObjectSerializer<T> serializer = ObjectSerializer.forClass(objectClass);
         T object = null;
-        try {
-            object = objectClass.newInstance();
+        if (serializer != null) {
+            object = serializer.newInstance();
         }
-        catch (Exception e) {
-            IllegalArgumentException ex = new IllegalArgumentException();
-            ex.initCause(e);
-            throw ex;
+        else {
+            try {
+                object = objectClass.newInstance();
+            }
+            catch (Exception e) {
+                IllegalArgumentException ex = new IllegalArgumentException();
+                ex.initCause(e);
+                throw ex;
+            }
         }
         object.setRepository(this);
         if (creationParameters != null) {
             object.setCreationParameters(creationParameters);
-            BeanUtil.setProperties(object, creationParameters, true);
+            if (serializer != null) {
+                serializer.setProperties(object, creationParameters);
+            }
+            else {
+                BeanUtil.setProperties(object, creationParameters, true);
+            }
         }
         return object;
     }
 
+    /**
+     * Creates a new {@link VirtualObject} from the next JSON object read
+     * from the stream. Subclasses can override this method to build
+     * the object directly from the JSON tokens.
+     * @param reader The reader positioned at the beginning of a JSON object.
+     * @return A new {@link VirtualObject} based on this prototype.
+     * @throws IOException If the underlying stream cannot be read.
+     * @throws JSONException If the next value is not a valid JSON object.
+     */
+    public T createObject(JsonStreamReader reader)
+            throws IOException, JSONException {
+        return createObject(reader.readObject());
+    }
+
+    /**
+     * Resolves a remotable method exposed statically within this class on
+     * the server once, for invoking it repeatedly.
+     * @see Adapter#bindStaticMethod(String)
+     * @param method The method (without the class name), e.g.
+     * <code>"doSomething"</code>.
+     * @return The bound method.
+     */
+    public RemoteMethod method(String method) {
+        if (adapter == null) {
+            throw new IllegalArgumentException("No adapter set");
+        }
+        return adapter.bindStaticMethod(className + "." + method);
+    }
+
+    /**
+     * Resolves a remotable method exposed within instances of this class on
+     * the server once, for invoking it repeatedly. Pass
+     * {@link VirtualObject#getCreationParameters()} of the instance to
+     * {@link RemoteMethod#invoke(Map, Map, Adapter.Callback)}.
+     * @see Adapter#bindInstanceMethod(String)
+     * @param method The method (without the class name), e.g.
+     * <code>"doSomething"</code>.
+     * @return The bound method.
+     */
+    public RemoteMethod prototypeMethod(String method) {
+        if (adapter == null) {
+            throw new IllegalArgumentException("No adapter set");
+        }
+        return adapter.bindInstanceMethod(className + ".prototype." + method);
+    }
+
     /**
      * Invokes a remotable method exposed statically within this class on the
      * server.
@@ -104,15 +166,16 @@ public class Repository<T extends VirtualObject> {
      * <code>"doSomething"</code>.
      * @param parameters The parameters to invoke with.
      * @param callback The callback to invoke when the execution finishes.
+     * @return The handle of the invocation.
      */
-    public void invokeStaticMethod(String method,
+    public RequestHandle invokeStaticMethod(String method,
             Map<String, ? extends Object> parameters,
             Adapter.Callback callback) {
         if (adapter == null) {
             throw new IllegalArgumentException("No adapter set");
         }
         String path = className + "." + method;
-        adapter.invokeStaticMethod(path, parameters, callback);
+        return adapter.invokeStaticMethod(path, parameters, callback);
     }
 
     /**
@@ -125,14 +188,37 @@ public class Repository<T extends VirtualObject> {
      * <code>"doSomething"</code>.
      * @param parameters The parameters to invoke with.
      * @param callback The callback to invoke when the execution finishes.
+     * @return The handle of the invocation.
+     */
+    public RequestHandle invokeStaticMethod(String method,
+                                            Map<String, ? extends Object> parameters,
+                                            Adapter.BinaryCallback callback) {
+        if (adapter == null) {
+            throw new IllegalArgumentException("No adapter set");
+        }
+        String path = className + "." + method;
+        return adapter.invokeStaticMethod(path, parameters, callback);
+    }
+
+    /**
+     * Invokes a remotable method exposed statically within this class on the
+     * server,
+     * streams the response body to the callback.
+     * @see Adapter#invokeStaticMethod(String, Map,
+     * com.strongloop.android.remoting.adapters.Adapter.StreamCallback)
+     * @param method The method to invoke (without the class name), e.g.
+     * <code>"doSomething"</code>.
+     * @param parameters The parameters to invoke with.
+     * @param callback The callback to invoke when the response arrives.
+     * @return The handle of the invocation.
      */
-    public void invokeStaticMethod(String method,
-                                   Map<String, ? extends Object> parameters,
-                                   Adapter.BinaryCallback callback) {
+    public RequestHandle invokeStaticMethod(String method,
+                                            Map<String, ? extends Object> parameters,
+                                            Adapter.StreamCallback callback) {
         if (adapter == null) {
             throw new IllegalArgumentException("No adapter set");
         }
         String path = className + "." + method;
-        adapter.invokeStaticMethod(path, parameters, callback);
+        return adapter.invokeStaticMethod(path, parameters, callback);
     }
 }
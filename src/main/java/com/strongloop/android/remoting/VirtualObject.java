@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.RequestHandle;
 
 /**
  * A local representative of a single virtual object. The behavior of this
@@ -77,7 +78,13 @@ public class VirtualObject {
      * Converts the object (and all of its Java Bean properties) into a
      * {@link java.util.Map}.
      */
+    @SuppressWarnings("unchecked")
     public Map<String, ? extends Object> toMap() {
+        ObjectSerializer<VirtualObject> serializer =
+                ObjectSerializer.forClass((Class<VirtualObject>) getClass());
+        if (serializer != null) {
+            return serializer.getProperties(this);
+        }
         return BeanUtil.getProperties(this, false, false);
     }
 
@@ -88,8 +95,9 @@ public class VirtualObject {
      * <code>"doSomething"</code>.
      * @param parameters The parameters to invoke with.
      * @param callback The callback to invoke when the execution finishes.
+     * @return The handle of the invocation.
      */
-    public void invokeMethod(String method,
+    public RequestHandle invokeMethod(String method,
             Map<String, ? extends Object> parameters,
             Adapter.Callback callback) {
         Adapter adapter = repository.getAdapter();
@@ -98,7 +106,7 @@ public class VirtualObject {
                     "Repository adapter cannot be null");
         }
         String path = repository.getClassName() + ".prototype." + method;
-        adapter.invokeInstanceMethod(path, creationParameters, parameters,
+        return adapter.invokeInstanceMethod(path, creationParameters, parameters,
         		callback);
     }
 
@@ -110,17 +118,41 @@ public class VirtualObject {
      * <code>"doSomething"</code>.
      * @param parameters The parameters to invoke with.
      * @param callback The callback to invoke when the execution finishes.
+     * @return The handle of the invocation.
+     */
+    public RequestHandle invokeMethod(String method,
+                                      Map<String, ? extends Object> parameters,
+                                      Adapter.BinaryCallback callback) {
+        Adapter adapter = repository.getAdapter();
+        if (adapter == null) {
+            throw new IllegalArgumentException(
+                    "Repository adapter cannot be null");
+        }
+        String path = repository.getClassName() + ".prototype." + method;
+        return adapter.invokeInstanceMethod(path, creationParameters, parameters,
+                callback);
+    }
+
+    /**
+     * Invokes a remotable method exposed within instances of this class on the
+     * server,
+     * streams the response body to the callback.
+     * @param method The method to invoke (without the repository), e.g.
+     * <code>"doSomething"</code>.
+     * @param parameters The parameters to invoke with.
+     * @param callback The callback to invoke when the response arrives.
+     * @return The handle of the invocation.
      */
-    public void invokeMethod(String method,
-                             Map<String, ? extends Object> parameters,
-                             Adapter.BinaryCallback callback) {
+    public RequestHandle invokeMethod(String method,
+                                      Map<String, ? extends Object> parameters,
+                                      Adapter.StreamCallback callback) {
         Adapter adapter = repository.getAdapter();
         if (adapter == null) {
             throw new IllegalArgumentException(
                     "Repository adapter cannot be null");
         }
         String path = repository.getClassName() + ".prototype." + method;
-        adapter.invokeInstanceMethod(path, creationParameters, parameters,
+        return adapter.invokeInstanceMethod(path, creationParameters, parameters,
                 callback);
     }
 }
@@ -2,6 +2,9 @@
 
 package com.strongloop.android.remoting.adapters;
 
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.json.JSONArray;
@@ -10,6 +13,8 @@ import org.json.JSONObject;
 import org.json.JSONTokener;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 
 /**
  * The entry point to all networking accomplished with LoopBack. Adapters
@@ -56,11 +61,32 @@ public abstract class Adapter {
         public void onError(Throwable t);
     }
 
+    /**
+     * A {@link Callback} able to decode the response before it is delivered.
+     * Adapters supporting it (e.g. {@link RestAdapter}) call
+     * {@link #decode(String)} on a background thread and run the returned
+     * task on the thread that invoked the method, instead of calling
+     * {@link #onSuccess(String)}. Subclasses overriding
+     * {@link #onSuccess(String)} receive the response there instead.
+     */
+    public interface DecodingCallback extends Callback {
+
+        /**
+         * The method invoked on a background thread when the call completes
+         * successfully.
+         * @param response The HTTP response body.
+         * @return The task delivering the decoded response.
+         * @throws Exception When the response cannot be decoded. The exception
+         * is passed to {@link #onError(Throwable)}.
+         */
+        public Runnable decode(String response) throws Exception;
+    }
+
     /**
      * A callback that parses a JSON response. If the return value
      * is not valid JSON, then the {@link #onError(Throwable)} method is called.
      */
-    public abstract static class JsonCallback implements Callback {
+    public abstract static class JsonCallback implements DecodingCallback {
 
     	/**
          * The method invoked when the call completes successfully. The
@@ -73,17 +99,40 @@ public abstract class Adapter {
 
         @Override
         public void onSuccess(String response) {
-        	if (response == null) {
-        		onError(new JSONException("Invalid null response"));
-        	}
-        	else {
-	            try {
-	            	onSuccess(new JSONTokener(response).nextValue());
-		        }
-		        catch (JSONException e) {
-		            onError(e);
-		        }
-        	}
+            try {
+                decode(response).run();
+            }
+            catch (JSONException e) {
+                onError(e);
+            }
+        }
+
+        /**
+         * Parses the response, see {@link DecodingCallback#decode(String)}.
+         */
+        @Override
+        public Runnable decode(String response) throws JSONException {
+            if (response == null) {
+                throw new JSONException("Invalid null response");
+            }
+            return prepare(new JSONTokener(response).nextValue());
+        }
+
+        /**
+         * Processes the parsed response on the background thread. Subclasses
+         * can override it to build their result off the callback thread.
+         * Delivers the response to {@link #onSuccess(Object)} by default.
+         * @param response The parsed response.
+         * @return The task delivering the result.
+         * @throws JSONException When the response is not valid.
+         */
+        protected Runnable prepare(final Object response) throws JSONException {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    onSuccess(response);
+                }
+            };
         }
     }
 
@@ -147,6 +196,71 @@ public abstract class Adapter {
         }
     }
 
+    /**
+     * A callback consuming the HTTP response body as a stream, without
+     * buffering the whole body in memory first.
+     * <p>
+     * Unlike other callbacks, {@link #onResponse(InputStream, String)} is
+     * invoked on the background thread performing the request. Use
+     * {@link #post(Runnable)} to deliver results to the thread that created
+     * the callback. {@link #onError(Throwable)} is always invoked on the
+     * thread that created the callback.
+     */
+    public abstract static class StreamCallback {
+        private final Handler handler;
+
+        public StreamCallback() {
+            Looper looper = Looper.myLooper();
+            handler = looper != null ? new Handler(looper) : null;
+        }
+
+        /**
+         * The method invoked on a background thread when the server
+         * responded successfully. The stream is closed when this method
+         * returns.
+         * @param body The response body.
+         * @param contentType The value of "Content-Type" response header.
+         * @throws Exception When the body cannot be processed. The exception
+         * is passed to {@link #onError(Throwable)}.
+         */
+        public abstract void onResponse(InputStream body, String contentType)
+                throws Exception;
+
+        /**
+         * The method invoked on a background thread when the server
+         * responded successfully, override it to get the size of the body.
+         * Calls {@link #onResponse(InputStream, String)} by default.
+         * @param body The response body.
+         * @param contentType The value of "Content-Type" response header.
+         * @param contentLength The size of the body, -1 when not known.
+         * @throws Exception When the body cannot be processed.
+         */
+        public void onResponse(InputStream body, String contentType,
+                               long contentLength) throws Exception {
+            onResponse(body, contentType);
+        }
+
+        /**
+         * The method invoked when an error occurs.
+         * @param t The Throwable.
+         */
+        public abstract void onError(Throwable t);
+
+        /**
+         * Runs the task on the thread that created this callback, or
+         * immediately when that thread has no {@link android.os.Looper}.
+         * @param task The task to run.
+         */
+        protected void post(Runnable task) {
+            if (handler != null) {
+                handler.post(task);
+            }
+            else {
+                task.run();
+            }
+        }
+    }
+
     /**
      * Creates a new, disconnected Adapter.
      */
@@ -185,8 +299,9 @@ public abstract class Adapter {
      * 		<code>"module.doSomething"</code>.
      * @param parameters The parameters to invoke with.
      * @param callback The callback to invoke when the execution finishes.
+     * @return The handle of the invocation.
      */
-    public abstract void invokeStaticMethod(String method,
+    public abstract RequestHandle invokeStaticMethod(String method,
     		Map<String, ? extends Object> parameters, Callback callback);
 
     /**
@@ -199,14 +314,34 @@ public abstract class Adapter {
      * 		<code>"module.doSomething"</code>.
      * @param parameters The parameters to invoke with.
      * @param callback The callback to invoke when the execution finishes.
+     * @return The handle of the invocation.
      */
-    public void invokeStaticMethod(String method,
-                                   Map<String, ? extends Object> parameters,
-                                   BinaryCallback callback) {
+    public RequestHandle invokeStaticMethod(String method,
+                                            Map<String, ? extends Object> parameters,
+                                            BinaryCallback callback) {
         throw new UnsupportedOperationException(
                 getClass().getName() + " does not support binary responses.");
     }
 
+    /**
+     * Invokes a remotable method exposed statically on the server,
+     * streams the response body to the callback.
+     * <p>
+     * Unlike {@link #invokeInstanceMethod(String, Map, Map, StreamCallback)},
+     * no object needs to be created on the server.
+     * @param method The method to invoke, e.g.
+     * 		<code>"module.doSomething"</code>.
+     * @param parameters The parameters to invoke with.
+     * @param callback The callback to invoke when the response arrives.
+     * @return The handle of the invocation.
+     */
+    public RequestHandle invokeStaticMethod(String method,
+                                            Map<String, ? extends Object> parameters,
+                                            StreamCallback callback) {
+        throw new UnsupportedOperationException(
+                getClass().getName() + " does not support streamed responses.");
+    }
+
     /**
      * Invokes a remotable method exposed within a prototype on the server.
      * <p>
@@ -222,8 +357,9 @@ public abstract class Adapter {
      * created with.
      * @param parameters The parameters to invoke with.
      * @param callback The callback to invoke when the execution finishes.
+     * @return The handle of the invocation.
      */
-    public abstract void invokeInstanceMethod(String method,
+    public abstract RequestHandle invokeInstanceMethod(String method,
     		Map<String, ? extends Object> constructorParameters,
     		Map<String, ? extends Object> parameters, Callback callback);
 
@@ -243,13 +379,188 @@ public abstract class Adapter {
      * created with.
      * @param parameters The parameters to invoke with.
      * @param callback The callback to invoke when the execution finishes.
+     * @return The handle of the invocation.
      */
-    public void invokeInstanceMethod(String method,
-                                     Map<String, ? extends Object> constructorParameters,
-                                     Map<String, ? extends Object> parameters,
-                                     BinaryCallback callback) {
+    public RequestHandle invokeInstanceMethod(String method,
+                                              Map<String, ? extends Object> constructorParameters,
+                                              Map<String, ? extends Object> parameters,
+                                              BinaryCallback callback) {
         throw new UnsupportedOperationException(
                 getClass().getName() + " does not support binary responses.");
     }
 
+    /**
+     * Invokes a remotable method exposed within a prototype on the server,
+     * streams the response body to the callback.
+     * <p>
+     * This should be thought of as a two-step process. First, the server loads
+     * or creates an object with the appropriate type. Then and only then is
+     * the method invoked on that object. The two parameter dictionaries
+     * correspond to these two steps: `creationParameters` for the former, and
+     * `parameters` for the latter.
+     *
+     * @param method The method to invoke, e.g.
+     * 		<code>"MyClass.prototype.doSomething"</code>.
+     * @param constructorParameters The parameters the virtual object should be
+     * created with.
+     * @param parameters The parameters to invoke with.
+     * @param callback The callback to invoke when the response arrives.
+     * @return The handle of the invocation.
+     */
+    public RequestHandle invokeInstanceMethod(String method,
+                                              Map<String, ? extends Object> constructorParameters,
+                                              Map<String, ? extends Object> parameters,
+                                              StreamCallback callback) {
+        throw new UnsupportedOperationException(
+                getClass().getName() + " does not support streamed responses.");
+    }
+
+    /**
+     * Resolves a method exposed statically on the server, see
+     * {@link RemoteMethod}.
+     * <p>
+     * The default implementation resolves the method on each invocation,
+     * subclasses override it to resolve the method once.
+     * @param method The method, e.g. <code>"module.doSomething"</code>.
+     * @return The bound method.
+     */
+    public RemoteMethod bindStaticMethod(String method) {
+        return new DelegatingRemoteMethod(method, false);
+    }
+
+    /**
+     * Resolves a method exposed within a prototype on the server, see
+     * {@link RemoteMethod}.
+     * @param method The method, e.g.
+     * 		<code>"MyClass.prototype.doSomething"</code>.
+     * @return The bound method.
+     * @see #bindStaticMethod(String)
+     */
+    public RemoteMethod bindInstanceMethod(String method) {
+        return new DelegatingRemoteMethod(method, true);
+    }
+
+    /**
+     * Creates a new batch of remote method invocations sent to the server
+     * together.
+     * @return The batch.
+     * @see Batch
+     */
+    public Batch batch() {
+        return new Batch(this);
+    }
+
+    /**
+     * Executes the invocations of a batch, see {@link Batch#execute()}.
+     * <p>
+     * The default implementation invokes the methods one after another,
+     * subclasses supporting batch requests override it.
+     * @param calls The invocations to execute.
+     * @param callback The callback to invoke after all invocations
+     * completed. Can be <code>null</code>.
+     */
+    protected void executeBatch(List<Batch.Call> calls,
+                                Batch.CompletionCallback callback) {
+        executeSequentially(calls.iterator(), callback);
+    }
+
+    /**
+     * Invokes the methods one after another, each invocation starts when
+     * the previous one completed.
+     * @param calls The invocations to execute.
+     * @param callback The callback to invoke after all invocations
+     * completed. Can be <code>null</code>.
+     */
+    protected void executeSequentially(final Iterator<Batch.Call> calls,
+                                       final Batch.CompletionCallback callback) {
+        if (!calls.hasNext()) {
+            if (callback != null) callback.onComplete();
+            return;
+        }
+
+        final Batch.Call call = calls.next();
+        Callback next = new Callback() {
+            @Override
+            public void onSuccess(String response) {
+                try {
+                    call.getCallback().onSuccess(response);
+                }
+                finally {
+                    executeSequentially(calls, callback);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                try {
+                    call.getCallback().onError(t);
+                }
+                finally {
+                    executeSequentially(calls, callback);
+                }
+            }
+        };
+
+        try {
+            if (call.isInstanceMethod()) {
+                invokeInstanceMethod(call.getMethod(),
+                        call.getConstructorParameters(), call.getParameters(),
+                        next);
+            }
+            else {
+                invokeStaticMethod(call.getMethod(), call.getParameters(), next);
+            }
+        }
+        catch (RuntimeException e) {
+            next.onError(e);
+        }
+    }
+
+    /**
+     * A {@link RemoteMethod} calling the invoke methods of the adapter.
+     */
+    private class DelegatingRemoteMethod extends RemoteMethod {
+        DelegatingRemoteMethod(String name, boolean instanceMethod) {
+            super(name, instanceMethod);
+        }
+
+        @Override
+        public RequestHandle invoke(Map<String, ? extends Object> constructorParameters,
+                                    Map<String, ? extends Object> parameters,
+                                    Callback callback) {
+            if (isInstanceMethod()) {
+                return invokeInstanceMethod(getName(), constructorParameters,
+                        parameters, callback);
+            }
+            else {
+                return invokeStaticMethod(getName(), parameters, callback);
+            }
+        }
+
+        @Override
+        public RequestHandle invoke(Map<String, ? extends Object> constructorParameters,
+                                    Map<String, ? extends Object> parameters,
+                                    BinaryCallback callback) {
+            if (isInstanceMethod()) {
+                return invokeInstanceMethod(getName(), constructorParameters,
+                        parameters, callback);
+            }
+            else {
+                return invokeStaticMethod(getName(), parameters, callback);
+            }
+        }
+
+        @Override
+        public RequestHandle invoke(Map<String, ? extends Object> constructorParameters,
+                                    Map<String, ? extends Object> parameters,
+                                    StreamCallback callback) {
+            if (isInstanceMethod()) {
+                return invokeInstanceMethod(getName(), constructorParameters,
+                        parameters, callback);
+            }
+            else {
+                return invokeStaticMethod(getName(), parameters, callback);
+            }
+        }
+    }
 }
@@ -0,0 +1,177 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A group of remote method invocations sent to the server together.
+ * <p>
+ * Adapters supporting batching (see {@link RestAdapter#setBatchPath(String)})
+ * send all invocations in a single request and split the combined response
+ * back to the individual callbacks. Other adapters invoke the methods one
+ * after another.
+ * <pre>
+ * {@code
+ * adapter.batch()
+ *     .invokeStatic("widgets.count", null, countCallback)
+ *     .invokeInstance("widgets.prototype.getName", widgetParams, null, nameCallback)
+ *     .execute();
+ * }
+ * </pre>
+ */
+public class Batch {
+
+    /**
+     * A callback invoked after the callbacks of all invocations in the batch
+     * were invoked.
+     */
+    public interface CompletionCallback {
+
+        /**
+         * The method invoked when the batch completes.
+         */
+        public void onComplete();
+    }
+
+    /**
+     * A single invocation within a batch.
+     */
+    public static class Call {
+        private final String method;
+        private final Map<String, ? extends Object> constructorParameters;
+        private final Map<String, ? extends Object> parameters;
+        private final Adapter.Callback callback;
+        private final boolean instanceMethod;
+
+        Call(String method,
+             Map<String, ? extends Object> constructorParameters,
+             Map<String, ? extends Object> parameters,
+             Adapter.Callback callback,
+             boolean instanceMethod) {
+            this.method = method;
+            this.constructorParameters = constructorParameters;
+            this.parameters = parameters;
+            this.callback = callback;
+            this.instanceMethod = instanceMethod;
+        }
+
+        /**
+         * @return The method to invoke, e.g. <code>"module.doSomething"</code>.
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return The parameters the virtual object should be created with,
+         * <code>null</code> for static methods.
+         */
+        public Map<String, ? extends Object> getConstructorParameters() {
+            return constructorParameters;
+        }
+
+        /**
+         * @return The parameters to invoke with.
+         */
+        public Map<String, ? extends Object> getParameters() {
+            return parameters;
+        }
+
+        /**
+         * @return The callback to invoke when the execution finishes.
+         */
+        public Adapter.Callback getCallback() {
+            return callback;
+        }
+
+        /**
+         * @return <code>true</code> if the method is exposed within
+         * a prototype, <code>false</code> if it is a static method.
+         */
+        public boolean isInstanceMethod() {
+            return instanceMethod;
+        }
+    }
+
+    private final Adapter adapter;
+    private final List<Call> calls = new ArrayList<Call>();
+
+    Batch(Adapter adapter) {
+        this.adapter = adapter;
+    }
+
+    /**
+     * Adds an invocation of a method exposed statically on the server.
+     * @param method The method to invoke, e.g.
+     * 		<code>"module.doSomething"</code>.
+     * @param parameters The parameters to invoke with.
+     * @param callback The callback to invoke when the execution finishes.
+     * @return This batch.
+     * @see Adapter#invokeStaticMethod(String, Map, Adapter.Callback)
+     */
+    public Batch invokeStatic(String method,
+                              Map<String, ? extends Object> parameters,
+                              Adapter.Callback callback) {
+        return add(new Call(method, null, parameters, callback, false));
+    }
+
+    /**
+     * Adds an invocation of a method exposed within a prototype on the server.
+     * @param method The method to invoke, e.g.
+     * 		<code>"MyClass.prototype.doSomething"</code>.
+     * @param constructorParameters The parameters the virtual object should be
+     * created with.
+     * @param parameters The parameters to invoke with.
+     * @param callback The callback to invoke when the execution finishes.
+     * @return This batch.
+     * @see Adapter#invokeInstanceMethod(String, Map, Map, Adapter.Callback)
+     */
+    public Batch invokeInstance(String method,
+                                Map<String, ? extends Object> constructorParameters,
+                                Map<String, ? extends Object> parameters,
+                                Adapter.Callback callback) {
+        return add(new Call(method, constructorParameters, parameters,
+                callback, true));
+    }
+
+    /**
+     * @return The number of invocations in this batch.
+     */
+    public int size() {
+        return calls.size();
+    }
+
+    /**
+     * Sends all invocations to the server.
+     */
+    public void execute() {
+        execute(null);
+    }
+
+    /**
+     * Sends all invocations to the server.
+     * @param callback The callback to invoke after the callbacks of all
+     * invocations were invoked. Can be <code>null</code>.
+     */
+    public void execute(CompletionCallback callback) {
+        List<Call> snapshot = Collections.unmodifiableList(
+                new ArrayList<Call>(calls));
+        calls.clear();
+        adapter.executeBatch(snapshot, callback);
+    }
+
+    private Batch add(Call call) {
+        if (call.getMethod() == null) {
+            throw new IllegalArgumentException("Method cannot be null");
+        }
+        if (call.getCallback() == null) {
+            throw new IllegalArgumentException("Callback cannot be null");
+        }
+        calls.add(call);
+        return this;
+    }
+}
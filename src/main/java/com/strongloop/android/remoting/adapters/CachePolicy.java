@@ -0,0 +1,96 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+/**
+ * Describes how responses of a GET route are stored in the
+ * {@link ResponseCache} of a {@link RestAdapter}.
+ * <p>
+ * The policy is configured per route, e.g.
+ * <pre>
+ * {@code
+ * contract.addItem(
+ *     new RestContractItem("/widgets/:id", "GET")
+ *         .withCachePolicy(CachePolicy.maxAge(60).staleWhileRevalidate(600)),
+ *     "widgets.findById");
+ * }
+ * </pre>
+ */
+public class CachePolicy {
+
+    /**
+     * Store responses and revalidate them with the server on every request,
+     * unless the server allowed a longer lifetime via
+     * <code>Cache-Control: max-age</code>.
+     */
+    public static final CachePolicy DEFAULT = new CachePolicy(true, -1, 0);
+
+    /**
+     * Never store responses of the route.
+     */
+    public static final CachePolicy NO_STORE = new CachePolicy(false, 0, 0);
+
+    /**
+     * Creates a policy serving stored responses without contacting the server
+     * while they are younger than the given age.
+     * @param seconds The maximum age of a stored response in seconds.
+     * @return The policy.
+     */
+    public static CachePolicy maxAge(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Max age cannot be negative");
+        }
+        return new CachePolicy(true, seconds, 0);
+    }
+
+    private final boolean store;
+    private final int maxAge;
+    private final int staleWhileRevalidate;
+
+    private CachePolicy(boolean store, int maxAge, int staleWhileRevalidate) {
+        this.store = store;
+        this.maxAge = maxAge;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    /**
+     * Creates a copy of this policy that serves an expired response for the
+     * given time, while fetching a fresh copy in the background.
+     * @param seconds How long after expiration a response can be served.
+     * @return The new policy.
+     */
+    public CachePolicy staleWhileRevalidate(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException(
+                    "Stale-while-revalidate time cannot be negative");
+        }
+        if (!store) {
+            throw new IllegalStateException(
+                    "Cannot serve stale responses that are not stored");
+        }
+        return new CachePolicy(store, maxAge, seconds);
+    }
+
+    /**
+     * @return <code>true</code> if responses can be stored.
+     */
+    public boolean isStoreAllowed() {
+        return store;
+    }
+
+    /**
+     * @return The maximum age in seconds, or -1 when the age is determined
+     * by the server response.
+     */
+    public int getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * @return How long in seconds an expired response can be served while it
+     * is being revalidated.
+     */
+    public int getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+}
@@ -0,0 +1,84 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the work saved by cancelled invocations, see
+ * {@link RestAdapter#getCancellationStats()}.
+ */
+public class CancellationStats {
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong dequeued = new AtomicLong();
+    private final AtomicLong aborted = new AtomicLong();
+    private final AtomicLong skippedResponses = new AtomicLong();
+    private final AtomicLong skippedBytes = new AtomicLong();
+
+    void addCancelled() {
+        cancelled.incrementAndGet();
+    }
+
+    void addDequeued() {
+        dequeued.incrementAndGet();
+    }
+
+    void addAborted() {
+        aborted.incrementAndGet();
+    }
+
+    void addSkippedResponse(long bytes) {
+        skippedResponses.incrementAndGet();
+        if (bytes > 0) {
+            skippedBytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * @return The number of invocations cancelled.
+     */
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    /**
+     * @return The number of requests cancelled while waiting for a free
+     * slot, they were never sent.
+     */
+    public long getDequeuedCount() {
+        return dequeued.get();
+    }
+
+    /**
+     * @return The number of requests aborted while waiting for
+     * the response.
+     */
+    public long getAbortedCount() {
+        return aborted.get();
+    }
+
+    /**
+     * @return The number of responses that arrived after the invocation
+     * was cancelled, they were not decoded.
+     */
+    public long getSkippedResponseCount() {
+        return skippedResponses.get();
+    }
+
+    /**
+     * @return The size of the bodies of skipped responses, as far as
+     * announced by <code>Content-Length</code>.
+     */
+    public long getSkippedBytes() {
+        return skippedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CancellationStats{cancelled=" + getCancelledCount() +
+                ", dequeued=" + getDequeuedCount() +
+                ", aborted=" + getAbortedCount() +
+                ", skippedResponses=" + getSkippedResponseCount() +
+                ", skippedBytes=" + getSkippedBytes() + "}";
+    }
+}
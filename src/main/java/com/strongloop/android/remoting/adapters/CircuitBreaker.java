@@ -0,0 +1,85 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import android.os.SystemClock;
+
+/**
+ * Tracks the health of a single host. After a number of consecutive
+ * failures the circuit opens and requests fail fast. Once the open time
+ * elapsed, a single trial request is let through: the circuit closes when
+ * it succeeds and opens again when it fails.
+ * <p>
+ * Times are measured with {@link SystemClock#elapsedRealtime()}, which
+ * does not jump when the user or the network changes the wall clock.
+ */
+class CircuitBreaker {
+    private final int threshold;
+    private final long openTime;
+    private int failures;
+    private boolean open;
+    private long openedAt;
+
+    /**
+     * @param threshold The number of consecutive failures opening
+     *                  the circuit.
+     * @param openTime The time in milliseconds requests fail fast.
+     */
+    CircuitBreaker(int threshold, long openTime) {
+        this.threshold = threshold;
+        this.openTime = openTime;
+    }
+
+    /**
+     * @return <code>true</code> if a request can be sent.
+     */
+    synchronized boolean allowRequest(long now) {
+        if (!open) return true;
+        if (now - openedAt < openTime) return false;
+        // Let a single trial request through per open period.
+        openedAt = now;
+        return true;
+    }
+
+    synchronized void recordSuccess() {
+        failures = 0;
+        open = false;
+    }
+
+    synchronized void recordFailure(long now) {
+        failures++;
+        if (open || failures >= threshold) {
+            open = true;
+            openedAt = now;
+        }
+    }
+
+    /**
+     * @param statusCode The status code of a response.
+     * @return <code>true</code> if the status says the host is unhealthy.
+     * Errors that the server reports for every request alike, such as
+     * 501 Not Implemented, do not count.
+     */
+    static boolean isFailureStatus(int statusCode) {
+        return statusCode == 500 || statusCode == 502 ||
+                statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * @return The current time for the methods of this class.
+     */
+    static long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    synchronized boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * @return The time in milliseconds until the next trial request.
+     */
+    synchronized long getRemainingOpenTime(long now) {
+        return open ? Math.max(0, openTime - (now - openedAt)) : 0;
+    }
+}
@@ -0,0 +1,39 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.IOException;
+
+/**
+ * The error reported for requests not sent because too many requests to
+ * the host failed recently, see
+ * {@link RestAdapter#setCircuitBreakerThreshold(int)}.
+ */
+public class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String host;
+    private final long retryAfter;
+
+    public CircuitOpenException(String host, long retryAfter) {
+        super("Requests to " + host + " are failing, retry in " +
+                retryAfter + " ms");
+        this.host = host;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return The host, e.g. <code>"example.com:3000"</code>.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return The time in milliseconds until the next request to the host
+     * is let through.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
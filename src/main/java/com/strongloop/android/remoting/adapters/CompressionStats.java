@@ -0,0 +1,124 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of compressed requests and responses of a single route,
+ * see {@link RestAdapter#getCompressionStats(String)}.
+ * <p>
+ * Sizes are in bytes, times are CPU times of the threads performing
+ * the compression in nanoseconds.
+ */
+public class CompressionStats {
+    private final AtomicLong compressedRequestCount = new AtomicLong();
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong compressedRequestBytes = new AtomicLong();
+    private final AtomicLong compressionTime = new AtomicLong();
+    private final AtomicLong compressedResponseCount = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLong compressedResponseBytes = new AtomicLong();
+    private final AtomicLong decompressionTime = new AtomicLong();
+
+    void addRequest(long bytes, long compressedBytes, long cpuNanos) {
+        compressedRequestCount.incrementAndGet();
+        requestBytes.addAndGet(bytes);
+        compressedRequestBytes.addAndGet(compressedBytes);
+        compressionTime.addAndGet(cpuNanos);
+    }
+
+    void addResponse(long bytes, long compressedBytes, long cpuNanos) {
+        compressedResponseCount.incrementAndGet();
+        responseBytes.addAndGet(bytes);
+        compressedResponseBytes.addAndGet(compressedBytes);
+        decompressionTime.addAndGet(cpuNanos);
+    }
+
+    /**
+     * @return The number of requests sent with a gzip-compressed body.
+     */
+    public long getCompressedRequestCount() {
+        return compressedRequestCount.get();
+    }
+
+    /**
+     * @return The size of the compressed request bodies before compression.
+     */
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    /**
+     * @return The size of the compressed request bodies sent.
+     */
+    public long getCompressedRequestBytes() {
+        return compressedRequestBytes.get();
+    }
+
+    /**
+     * @return The CPU time spent compressing request bodies.
+     */
+    public long getCompressionTime() {
+        return compressionTime.get();
+    }
+
+    /**
+     * @return The number of gzip-compressed responses received.
+     */
+    public long getCompressedResponseCount() {
+        return compressedResponseCount.get();
+    }
+
+    /**
+     * @return The size of the compressed response bodies after
+     * decompression.
+     */
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    /**
+     * @return The size of the compressed response bodies received.
+     */
+    public long getCompressedResponseBytes() {
+        return compressedResponseBytes.get();
+    }
+
+    /**
+     * @return The CPU time spent decompressing response bodies.
+     */
+    public long getDecompressionTime() {
+        return decompressionTime.get();
+    }
+
+    /**
+     * @return The original size of request bodies divided by the size sent,
+     * or 1 when no request was compressed.
+     */
+    public double getRequestCompressionRatio() {
+        return ratio(requestBytes.get(), compressedRequestBytes.get());
+    }
+
+    /**
+     * @return The decompressed size of response bodies divided by the size
+     * received, or 1 when no response was compressed.
+     */
+    public double getResponseCompressionRatio() {
+        return ratio(responseBytes.get(), compressedResponseBytes.get());
+    }
+
+    private static double ratio(long bytes, long compressedBytes) {
+        return compressedBytes > 0 ? (double) bytes / compressedBytes : 1.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "requests: %d (%.2fx, %d us), responses: %d (%.2fx, %d us)",
+                getCompressedRequestCount(), getRequestCompressionRatio(),
+                getCompressionTime() / 1000,
+                getCompressedResponseCount(), getResponseCompressionRatio(),
+                getDecompressionTime() / 1000);
+    }
+}
@@ -0,0 +1,208 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import android.os.Debug;
+
+import org.apache.http.Header;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compression of request bodies and decompression of response bodies,
+ * used by {@link RestAdapter} for all transports.
+ */
+class ContentEncoding {
+    static final String GZIP = "gzip";
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Wraps the body to be compressed while it is written to the connection.
+     * The length of the compressed body is not known in advance, it is sent
+     * using chunked transfer encoding.
+     */
+    static RequestBody gzip(final RequestBody body, final CompressionStats stats) {
+        return new RequestBody() {
+            @Override
+            public String getContentType() {
+                return body.getContentType();
+            }
+
+            @Override
+            public long getContentLength() {
+                return -1;
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return body.isRepeatable();
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                long start = Debug.threadCpuTimeNanos();
+                CountingOutputStream compressed = new CountingOutputStream(out);
+                GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+                CountingOutputStream original = new CountingOutputStream(gzip);
+                body.writeTo(original);
+                gzip.finish();
+                stats.addRequest(original.count, compressed.count,
+                        Debug.threadCpuTimeNanos() - start);
+            }
+        };
+    }
+
+    /**
+     * Wraps the listener to decompress gzip-encoded response bodies. The
+     * response passed to the listener has no "Content-Encoding" and
+     * "Content-Length" headers.
+     */
+    static Transport.Listener decoding(final Transport.Listener listener,
+                                       final CompressionStats stats) {
+        return new Transport.Listener() {
+            @Override
+            public void onResponse(TransportResponse response) throws Exception {
+                String encoding = response.getHeader("Content-Encoding");
+                if (encoding == null || !GZIP.equalsIgnoreCase(encoding.trim())) {
+                    listener.onResponse(response);
+                    return;
+                }
+
+                List<Header> headers = new ArrayList<Header>();
+                for (Header h : response.getHeaders()) {
+                    if (!h.getName().equalsIgnoreCase("Content-Encoding") &&
+                            !h.getName().equalsIgnoreCase("Content-Length")) {
+                        headers.add(h);
+                    }
+                }
+
+                GzipBody body = new GzipBody(response.getBody());
+                try {
+                    listener.onResponse(new TransportResponse(
+                            response.getStatusCode(), response.getReasonPhrase(),
+                            headers.toArray(new Header[headers.size()]),
+                            body, -1));
+                } finally {
+                    stats.addResponse(body.count, body.compressed.count, body.time);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                listener.onFailure(error);
+            }
+        };
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            count += length;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = in.read(buffer, offset, length);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Decompresses the body as it is read. The gzip header is not read until
+     * the first read, so that empty bodies (e.g. of 304 responses)
+     * are accepted.
+     */
+    private static class GzipBody extends InputStream {
+        final CountingInputStream compressed;
+        private InputStream decompressed;
+        private boolean eof;
+        long count;
+        long time;
+
+        GzipBody(InputStream in) {
+            compressed = new CountingInputStream(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (eof) return -1;
+            long start = Debug.threadCpuTimeNanos();
+            try {
+                if (decompressed == null) {
+                    PushbackInputStream pushback = new PushbackInputStream(compressed);
+                    int first = pushback.read();
+                    if (first < 0) {
+                        eof = true;
+                        return -1;
+                    }
+                    pushback.unread(first);
+                    decompressed = new GZIPInputStream(pushback);
+                }
+                int n = decompressed.read(buffer, offset, length);
+                if (n < 0) eof = true;
+                else count += n;
+                return n;
+            } finally {
+                time += Debug.threadCpuTimeNanos() - start;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (decompressed != null) decompressed.close();
+            else compressed.close();
+        }
+    }
+}
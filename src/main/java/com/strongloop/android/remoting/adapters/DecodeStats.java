@@ -0,0 +1,64 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the responses decoded off the callback thread,
+ * see {@link RestAdapter#getDecodeStats()}.
+ * <p>
+ * Times are wall-clock times in nanoseconds, covering parsing the JSON
+ * and building the objects handed over to the callback.
+ */
+public class DecodeStats {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong time = new AtomicLong();
+    private final AtomicLong maxTime = new AtomicLong();
+
+    void add(long nanos) {
+        count.incrementAndGet();
+        time.addAndGet(nanos);
+        long max;
+        do {
+            max = maxTime.get();
+        } while (nanos > max && !maxTime.compareAndSet(max, nanos));
+    }
+
+    /**
+     * @return The number of responses decoded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return The time spent decoding all responses.
+     */
+    public long getTime() {
+        return time.get();
+    }
+
+    /**
+     * @return The longest time spent decoding a single response.
+     */
+    public long getMaxTime() {
+        return maxTime.get();
+    }
+
+    /**
+     * @return The average time spent decoding a response, 0 when no response
+     * was decoded.
+     */
+    public long getAverageTime() {
+        long n = count.get();
+        return n > 0 ? time.get() / n : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "DecodeStats{count=" + getCount() +
+                ", averageTime=" + getAverageTime() +
+                ", maxTime=" + getMaxTime() + "}";
+    }
+}
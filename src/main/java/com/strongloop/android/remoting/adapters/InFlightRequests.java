@@ -0,0 +1,203 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import android.util.Log;
+
+import org.apache.http.Header;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A registry of requests in progress, used to collapse identical concurrent
+ * idempotent requests into a single network exchange.
+ * <p>
+ * The first caller for a given key performs the request, callers arriving
+ * while the request is in progress join it and receive the same response.
+ * Each caller's listener decodes the shared response body on its own, because
+ * callbacks usually build mutable objects (e.g. models) from it.
+ */
+class InFlightRequests {
+    private static final String TAG = "remoting.InFlight";
+
+    private final Map<String, SharedListener> requests =
+            new HashMap<String, SharedListener>();
+    private final AtomicLong collapsedCount = new AtomicLong();
+
+    /**
+     * Builds the key identifying identical requests.
+     */
+    static String keyFor(String verb, String url, Header[] headers) {
+        StringBuilder key = new StringBuilder();
+        key.append(verb.toUpperCase()).append(' ').append(url);
+        if (headers != null) {
+            for (Header h : headers) {
+                key.append('\n').append(h.getName().toLowerCase())
+                        .append(": ").append(h.getValue());
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Registers the listener for the request identified by the key.
+     * @return The listener that should be used to perform the request,
+     * or <code>null</code> when an identical request is already in progress
+     * and the listener was attached to it.
+     */
+    Transport.Listener join(String key, Transport.Listener listener) {
+        synchronized (requests) {
+            SharedListener shared = requests.get(key);
+            if (shared != null) {
+                shared.waiters.add(listener);
+                collapsedCount.incrementAndGet();
+                if (Log.isLoggable(TAG, Log.DEBUG))
+                    Log.d(TAG, "Joined in-flight request " + key);
+                return null;
+            }
+            shared = new SharedListener(key, listener);
+            requests.put(key, shared);
+            return shared;
+        }
+    }
+
+    /**
+     * Detaches the listener of a cancelled caller from the request
+     * identified by the key. When no caller is left, the request is
+     * forgotten and its abandon action runs, see
+     * {@link #setAbandonAction(Transport.Listener, Runnable)}.
+     */
+    void leave(String key, Transport.Listener listener) {
+        SharedListener abandoned = null;
+        synchronized (requests) {
+            SharedListener shared = requests.get(key);
+            if (shared != null && shared.waiters.remove(listener) &&
+                    shared.waiters.isEmpty()) {
+                requests.remove(key);
+                abandoned = shared;
+            }
+        }
+        if (abandoned != null) {
+            abandoned.abandon();
+        }
+    }
+
+    /**
+     * Sets the action aborting the request performed with the listener
+     * returned by {@link #join(String, Transport.Listener)}, run when all
+     * callers left the request.
+     */
+    static void setAbandonAction(Transport.Listener shared, Runnable action) {
+        ((SharedListener) shared).setAbandonAction(action);
+    }
+
+    /**
+     * @return The number of requests that were served by joining
+     * an identical request already in progress.
+     */
+    long getCollapsedCount() {
+        return collapsedCount.get();
+    }
+
+    private List<Transport.Listener> complete(SharedListener shared) {
+        synchronized (requests) {
+            if (requests.get(shared.key) == shared) {
+                requests.remove(shared.key);
+            }
+            if (shared.completedWaiters == null) {
+                shared.completedWaiters =
+                        new ArrayList<Transport.Listener>(shared.waiters);
+            }
+            return shared.completedWaiters;
+        }
+    }
+
+    /**
+     * The listener of the shared request, fanning out the response
+     * to the listeners of the callers waiting for it.
+     */
+    private class SharedListener implements Transport.Listener {
+        private final String key;
+        private final List<Transport.Listener> waiters =
+                new ArrayList<Transport.Listener>();
+        private List<Transport.Listener> completedWaiters;
+        private Runnable abandonAction;
+        private boolean abandoned;
+
+        SharedListener(String key, Transport.Listener leader) {
+            this.key = key;
+            this.waiters.add(leader);
+        }
+
+        void setAbandonAction(Runnable action) {
+            synchronized (this) {
+                abandonAction = action;
+                if (!abandoned) return;
+            }
+            action.run();
+        }
+
+        void abandon() {
+            Runnable action;
+            synchronized (this) {
+                abandoned = true;
+                action = abandonAction;
+            }
+            if (action != null) {
+                action.run();
+            }
+        }
+
+        @Override
+        public void onResponse(TransportResponse response) throws Exception {
+            List<Transport.Listener> targets = complete(this);
+            if (targets.isEmpty()) {
+                // All callers left, nobody reads the body.
+                return;
+            }
+            if (targets.size() == 1) {
+                targets.get(0).onResponse(response);
+                return;
+            }
+
+            // Read the body once, replay it to every waiting listener.
+            byte[] body = readFully(response.getBody());
+            for (Transport.Listener target : targets) {
+                try {
+                    target.onResponse(response.withBody(
+                            new ByteArrayInputStream(body), body.length));
+                } catch (Throwable t) {
+                    target.onFailure(t);
+                }
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+            for (Transport.Listener target : complete(this)) {
+                target.onFailure(error);
+            }
+        }
+    }
+
+    /**
+     * Reads the stream to the end.
+     */
+    static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
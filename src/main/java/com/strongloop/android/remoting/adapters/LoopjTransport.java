@@ -0,0 +1,310 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import android.content.Context;
+
+import com.loopj.android.http.AsyncHttpClient;
+import com.loopj.android.http.RequestHandle;
+import com.loopj.android.http.ResponseHandlerInterface;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link Transport} based on "Android Asynchronous Http Client"
+ * (http://loopj.com/android-async-http/), the engine {@link RestAdapter}
+ * uses by default. Connection pooling, timeouts and the thread pool are
+ * configured on the {@link AsyncHttpClient}. Since {@link RestAdapter}
+ * retries requests according to its {@link RetryPolicy}, the client should
+ * not retry them again, see
+ * {@link AsyncHttpClient#setMaxRetriesAndTimeout(int, int)}.
+ * <p>
+ * {@link AsyncHttpClient} inflates gzip-encoded responses itself. Such
+ * responses are delivered decoded, without the
+ * <code>Content-Encoding</code> header, see {@link Transport}.
+ */
+public class LoopjTransport implements Transport {
+    private final Context context;
+    private final AsyncHttpClient client;
+
+    /**
+     * Creates a new transport sending requests via the given client.
+     * @param context The context the requests are associated with, see
+     * {@link AsyncHttpClient#cancelRequests(Context, boolean)}.
+     * Can be <code>null</code>.
+     * @param client The client.
+     */
+    public LoopjTransport(Context context, AsyncHttpClient client) {
+        if (client == null) {
+            throw new IllegalArgumentException("Client cannot be null");
+        }
+        this.context = context;
+        this.client = client;
+    }
+
+    /**
+     * Gets the client sending the requests.
+     * @return the client.
+     */
+    public AsyncHttpClient getClient() {
+        return client;
+    }
+
+    @Override
+    public Call execute(TransportRequest request, Listener listener) {
+        String verb = request.getVerb();
+        String url = request.getUrl();
+        Header[] headers = request.getHeaders();
+        HttpEntity entity = request.getBody() != null
+                ? new BodyEntity(request.getBody())
+                : null;
+        ResponseHandlerInterface handler = new ListenerHandler(listener);
+
+        RequestHandle handle;
+        if ("GET".equals(verb)) {
+            handle = client.get(context, url, headers, null, handler);
+        }
+        else if ("HEAD".equals(verb)) {
+            handle = client.head(context, url, headers, null, handler);
+        }
+        else if ("DELETE".equals(verb)) {
+            handle = client.delete(context, url, headers, handler);
+        }
+        else if ("POST".equals(verb)) {
+            handle = client.post(context, url, headers, entity, null, handler);
+        }
+        else if ("PUT".equals(verb)) {
+            handle = client.put(context, url, headers, entity, null, handler);
+        }
+        else {
+            throw new IllegalArgumentException("Illegal method: " +
+                    verb + ". Only GET, HEAD, POST, PUT, DELETE supported.");
+        }
+        return new LoopjCall(handle);
+    }
+
+    private static class LoopjCall implements Call {
+        private final RequestHandle handle;
+
+        LoopjCall(RequestHandle handle) {
+            this.handle = handle;
+        }
+
+        @Override
+        public boolean cancel() {
+            return handle.cancel(true);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return handle.isCancelled();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return handle.isFinished();
+        }
+    }
+
+    /**
+     * Writes a {@link RequestBody} to the connection.
+     */
+    private static class BodyEntity extends AbstractHttpEntity {
+        private final RequestBody body;
+
+        BodyEntity(RequestBody body) {
+            this.body = body;
+            setContentType(body.getContentType());
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return body.isRepeatable();
+        }
+
+        @Override
+        public long getContentLength() {
+            return body.getContentLength();
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            throw new UnsupportedOperationException(
+                    "The body can be only written to a stream");
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException {
+            body.writeTo(outstream);
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+
+    /**
+     * Translates the events of the loopj client to {@link Transport.Listener}.
+     * The response is processed on the thread performing the request.
+     */
+    private static class ListenerHandler implements ResponseHandlerInterface {
+        private static final String UNKNOWN_HOST_PREFIX =
+                "UnknownHostException exception: ";
+
+        private final Listener listener;
+        private URI requestURI;
+        private Header[] requestHeaders;
+
+        ListenerHandler(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void sendResponseMessage(HttpResponse response) throws IOException {
+            if (Thread.currentThread().isInterrupted()) return;
+
+            HttpEntity entity = response.getEntity();
+            InputStream body = entity != null ? entity.getContent() : null;
+            Header[] headers = response.getAllHeaders();
+            long length = entity != null ? entity.getContentLength() : 0;
+            if (isInflated(entity)) {
+                headers = withoutEncoding(headers);
+                length = -1;
+            }
+            TransportResponse transportResponse = new TransportResponse(
+                    response.getStatusLine().getStatusCode(),
+                    response.getStatusLine().getReasonPhrase(),
+                    headers,
+                    body,
+                    length);
+            try {
+                listener.onResponse(transportResponse);
+            } catch (Throwable t) {
+                if (!Thread.currentThread().isInterrupted()) {
+                    listener.onFailure(t);
+                }
+            } finally {
+                transportResponse.getBody().close();
+            }
+        }
+
+        /**
+         * Checks whether the entity was wrapped by the interceptor
+         * {@link AsyncHttpClient} installs to inflate gzip-encoded
+         * responses.
+         */
+        private static boolean isInflated(HttpEntity entity) {
+            return entity != null && entity.getClass().getName()
+                    .equals(AsyncHttpClient.class.getName() + "$InflatingEntity");
+        }
+
+        private static Header[] withoutEncoding(Header[] headers) {
+            List<Header> result = new ArrayList<Header>();
+            for (Header h : headers) {
+                if (!h.getName().equalsIgnoreCase("Content-Encoding") &&
+                        !h.getName().equalsIgnoreCase("Content-Length")) {
+                    result.add(h);
+                }
+            }
+            return result.toArray(new Header[result.size()]);
+        }
+
+        @Override
+        public void sendFailureMessage(int statusCode, Header[] headers,
+                                       byte[] responseBody, Throwable error) {
+            listener.onFailure(restoreUnknownHost(error));
+        }
+
+        /**
+         * The client reports an unknown host as a plain IOException,
+         * restore the type so that listeners can tell the request was
+         * never sent.
+         */
+        private Throwable restoreUnknownHost(Throwable error) {
+            String message = error.getMessage();
+            if (error.getClass() == IOException.class && message != null &&
+                    message.startsWith(UNKNOWN_HOST_PREFIX)) {
+                return new UnknownHostException(
+                        message.substring(UNKNOWN_HOST_PREFIX.length()));
+            }
+            return error;
+        }
+
+        @Override
+        public void sendSuccessMessage(int statusCode, Header[] headers,
+                                       byte[] responseBody) {
+            // Not used, the response is handled by sendResponseMessage.
+        }
+
+        @Override
+        public void sendStartMessage() {
+        }
+
+        @Override
+        public void sendFinishMessage() {
+        }
+
+        @Override
+        public void sendProgressMessage(int bytesWritten, int bytesTotal) {
+        }
+
+        @Override
+        public void sendCancelMessage() {
+        }
+
+        @Override
+        public void sendRetryMessage(int retryNo) {
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return requestURI;
+        }
+
+        @Override
+        public Header[] getRequestHeaders() {
+            return requestHeaders;
+        }
+
+        @Override
+        public void setRequestURI(URI requestURI) {
+            this.requestURI = requestURI;
+        }
+
+        @Override
+        public void setRequestHeaders(Header[] requestHeaders) {
+            this.requestHeaders = requestHeaders;
+        }
+
+        @Override
+        public void setUseSynchronousMode(boolean useSynchronousMode) {
+        }
+
+        @Override
+        public boolean getUseSynchronousMode() {
+            return false;
+        }
+
+        @Override
+        public void onPreProcessResponse(ResponseHandlerInterface instance,
+                                         HttpResponse response) {
+        }
+
+        @Override
+        public void onPostProcessResponse(ResponseHandlerInterface instance,
+                                          HttpResponse response) {
+        }
+    }
+}
@@ -0,0 +1,30 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+/**
+ * The priority class of a request, see
+ * {@link RestAdapter#setPriority(String, Priority)}. When requests are
+ * waiting for a free slot, the request of the highest class is sent first.
+ */
+public enum Priority {
+    /**
+     * Requests the user is waiting for, e.g. loading the current screen.
+     */
+    INTERACTIVE,
+
+    /**
+     * The default class.
+     */
+    NORMAL,
+
+    /**
+     * Requests nobody is waiting for, e.g. synchronization or analytics.
+     */
+    BACKGROUND,
+
+    /**
+     * Large uploads and downloads.
+     */
+    BULK_TRANSFER
+}
@@ -0,0 +1,75 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the time requests of one {@link Priority} waited for a free
+ * slot before being sent, see {@link RestAdapter#getQueueStats(Priority)}.
+ * <p>
+ * Times are in nanoseconds. Requests sent immediately are counted with
+ * a zero wait.
+ */
+public class QueueStats {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    void add(long nanos, boolean wasQueued) {
+        count.incrementAndGet();
+        if (!wasQueued) return;
+        queued.incrementAndGet();
+        waitTime.addAndGet(nanos);
+        long max;
+        do {
+            max = maxWaitTime.get();
+        } while (nanos > max && !maxWaitTime.compareAndSet(max, nanos));
+    }
+
+    /**
+     * @return The number of requests sent.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return The number of requests that had to wait for a free slot.
+     */
+    public long getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * @return The time all requests spent waiting.
+     */
+    public long getWaitTime() {
+        return waitTime.get();
+    }
+
+    /**
+     * @return The longest time a single request waited.
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+    /**
+     * @return The average wait of all requests sent, 0 when no request
+     * was sent.
+     */
+    public long getAverageWaitTime() {
+        long n = count.get();
+        return n > 0 ? waitTime.get() / n : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "QueueStats{count=" + getCount() +
+                ", queued=" + getQueuedCount() +
+                ", averageWaitTime=" + getAverageWaitTime() +
+                ", maxWaitTime=" + getMaxWaitTime() + "}";
+    }
+}
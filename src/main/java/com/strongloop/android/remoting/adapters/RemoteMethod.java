@@ -0,0 +1,127 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.Map;
+
+/**
+ * A remote method resolved once by an {@link Adapter}, to be invoked many
+ * times. Adapters resolve the route of the method when binding it, so
+ * that invoking a bound method only renders the parameters and sends
+ * the request.
+ * <pre>
+ * {@code
+ * RemoteMethod findById = repository.method("findById");
+ * findById.invoke(params, callback);
+ * }
+ * </pre>
+ * A bound method does not see changes made to the contract after it was
+ * bound.
+ *
+ * @see Adapter#bindStaticMethod(String)
+ * @see Adapter#bindInstanceMethod(String)
+ */
+public abstract class RemoteMethod {
+    private final String name;
+    private final boolean instanceMethod;
+
+    protected RemoteMethod(String name, boolean instanceMethod) {
+        if (name == null) {
+            throw new IllegalArgumentException("Method cannot be null");
+        }
+        this.name = name;
+        this.instanceMethod = instanceMethod;
+    }
+
+    /**
+     * @return The method, e.g. <code>"module.doSomething"</code>.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return <code>true</code> if the method is exposed within
+     * a prototype, <code>false</code> if it is a static method.
+     */
+    public boolean isInstanceMethod() {
+        return instanceMethod;
+    }
+
+    /**
+     * Invokes the method.
+     * @param parameters The parameters to invoke with.
+     * @param callback The callback to invoke when the execution finishes.
+     * @return The handle of the invocation.
+     */
+    public RequestHandle invoke(Map<String, ? extends Object> parameters,
+                                Adapter.Callback callback) {
+        return invoke(null, parameters, callback);
+    }
+
+    /**
+     * Invokes the method, parses the response as binary data.
+     * @param parameters The parameters to invoke with.
+     * @param callback The callback to invoke when the execution finishes.
+     * @return The handle of the invocation.
+     */
+    public RequestHandle invoke(Map<String, ? extends Object> parameters,
+                                Adapter.BinaryCallback callback) {
+        return invoke(null, parameters, callback);
+    }
+
+    /**
+     * Invokes the method, streams the response body to the callback.
+     * @param parameters The parameters to invoke with.
+     * @param callback The callback to invoke when the response arrives.
+     * @return The handle of the invocation.
+     */
+    public RequestHandle invoke(Map<String, ? extends Object> parameters,
+                                Adapter.StreamCallback callback) {
+        return invoke(null, parameters, callback);
+    }
+
+    /**
+     * Invokes the method on an object created with the given parameters,
+     * see {@link Adapter#invokeInstanceMethod(String, Map, Map, Adapter.Callback)}.
+     * @param constructorParameters The parameters the virtual object should be
+     * created with, ignored by static methods.
+     * @param parameters The parameters to invoke with.
+     * @param callback The callback to invoke when the execution finishes.
+     * @return The handle of the invocation.
+     */
+    public abstract RequestHandle invoke(Map<String, ? extends Object> constructorParameters,
+                                         Map<String, ? extends Object> parameters,
+                                         Adapter.Callback callback);
+
+    /**
+     * Invokes the method on an object created with the given parameters,
+     * parses the response as binary data.
+     * @param constructorParameters The parameters the virtual object should be
+     * created with, ignored by static methods.
+     * @param parameters The parameters to invoke with.
+     * @param callback The callback to invoke when the execution finishes.
+     * @return The handle of the invocation.
+     */
+    public abstract RequestHandle invoke(Map<String, ? extends Object> constructorParameters,
+                                         Map<String, ? extends Object> parameters,
+                                         Adapter.BinaryCallback callback);
+
+    /**
+     * Invokes the method on an object created with the given parameters,
+     * streams the response body to the callback.
+     * @param constructorParameters The parameters the virtual object should be
+     * created with, ignored by static methods.
+     * @param parameters The parameters to invoke with.
+     * @param callback The callback to invoke when the response arrives.
+     * @return The handle of the invocation.
+     */
+    public abstract RequestHandle invoke(Map<String, ? extends Object> constructorParameters,
+                                         Map<String, ? extends Object> parameters,
+                                         Adapter.StreamCallback callback);
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,48 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The body of a {@link TransportRequest}, written by the transport directly
+ * to the connection.
+ */
+public abstract class RequestBody {
+
+    /**
+     * @return The value of the "Content-Type" header,
+     * or <code>null</code> if unknown.
+     */
+    public abstract String getContentType();
+
+    /**
+     * @return The length of the body in bytes, or -1 if unknown. Bodies of
+     * unknown length are sent using chunked transfer encoding.
+     */
+    public abstract long getContentLength();
+
+    /**
+     * @return The length of the body in bytes, or an estimate of it when
+     * unknown. Used to decide whether to compress the body.
+     */
+    long estimateLength() {
+        return getContentLength();
+    }
+
+    /**
+     * Writes the body to the stream.
+     * @param out The stream to write to. It must not be closed.
+     * @throws IOException When the body cannot be written.
+     */
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * @return <code>true</code> if {@link #writeTo(OutputStream)} can be
+     * called more than once, e.g. to retry the request.
+     */
+    public boolean isRepeatable() {
+        return false;
+    }
+}
@@ -0,0 +1,104 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A remote method invocation in progress, returned by the invoke methods
+ * of {@link Adapter} and {@link RemoteMethod}.
+ * <p>
+ * After a successful {@link #cancel()}, the callback of the invocation
+ * is not invoked. Handles can be tagged, e.g. with the activity that made
+ * the invocation, to cancel all invocations of the activity at once, see
+ * {@link RestAdapter#cancelAll(Object)}.
+ */
+public class RequestHandle {
+    private static final int ACTIVE = 0;
+    private static final int CANCELLED = 1;
+    private static final int FINISHED = 2;
+
+    private final AtomicInteger state = new AtomicInteger(ACTIVE);
+    private volatile Object tag;
+
+    /**
+     * Cancels the invocation. The callback is not invoked after
+     * a successful cancellation.
+     * @return <code>false</code> if the invocation could not be cancelled,
+     * because the callback was already invoked or the invocation was
+     * cancelled before.
+     */
+    public boolean cancel() {
+        if (!state.compareAndSet(ACTIVE, CANCELLED)) {
+            return false;
+        }
+        onCancel();
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> if the invocation was cancelled.
+     */
+    public boolean isCancelled() {
+        return state.get() == CANCELLED;
+    }
+
+    /**
+     * @return <code>true</code> if the callback was invoked or the
+     * invocation was cancelled.
+     */
+    public boolean isFinished() {
+        return state.get() != ACTIVE;
+    }
+
+    /**
+     * @return The tag, <code>null</code> if not set.
+     */
+    public Object getTag() {
+        return tag;
+    }
+
+    /**
+     * Tags the invocation, see {@link RestAdapter#cancelAll(Object)}.
+     * @param tag The tag, compared using <code>equals()</code>.
+     * @return This handle.
+     */
+    public RequestHandle setTag(Object tag) {
+        this.tag = tag;
+        return this;
+    }
+
+    /**
+     * Marks the invocation as finished, adapters call it before
+     * invoking the callback.
+     * @return <code>true</code> if the callback should be invoked,
+     * <code>false</code> if the invocation was cancelled.
+     */
+    protected boolean finish() {
+        if (state.compareAndSet(ACTIVE, FINISHED)) {
+            onFinish();
+            return true;
+        }
+        return state.get() == FINISHED;
+    }
+
+    /**
+     * Invoked once when the invocation is cancelled, adapters override it
+     * to abort the request.
+     */
+    protected void onCancel() {
+    }
+
+    /**
+     * Invoked once when the invocation finishes without being cancelled.
+     */
+    protected void onFinish() {
+    }
+
+    @Override
+    public String toString() {
+        return "RequestHandle{tag=" + tag +
+                ", cancelled=" + isCancelled() +
+                ", finished=" + isFinished() + "}";
+    }
+}
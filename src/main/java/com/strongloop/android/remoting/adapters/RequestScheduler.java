@@ -0,0 +1,190 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Limits the number of requests in flight, overall and per
+ * {@link Priority}, and starts waiting requests by priority when a slot
+ * is released.
+ * <p>
+ * A waiting request is promoted by one class for every aging interval it
+ * waited, so that a steady flow of interactive requests cannot starve the
+ * background ones. Requests of the same class start in FIFO order.
+ */
+class RequestScheduler {
+    static final int DEFAULT_MAX_REQUESTS = 10;
+    static final long DEFAULT_AGING_INTERVAL = 5000;
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private int maxRequests = DEFAULT_MAX_REQUESTS;
+    private final int[] maxPerClass = new int[PRIORITIES.length];
+    private long agingIntervalNanos = DEFAULT_AGING_INTERVAL * 1000000L;
+
+    private final int[] inFlight = new int[PRIORITIES.length];
+    private int totalInFlight;
+    private final List<LinkedList<Task>> queues =
+            new ArrayList<LinkedList<Task>>(PRIORITIES.length);
+    private final QueueStats[] stats = new QueueStats[PRIORITIES.length];
+
+    RequestScheduler() {
+        for (Priority priority : PRIORITIES) {
+            queues.add(new LinkedList<Task>());
+            stats[priority.ordinal()] = new QueueStats();
+        }
+        // Lower classes leave slots free for the higher ones.
+        maxPerClass[Priority.INTERACTIVE.ordinal()] = DEFAULT_MAX_REQUESTS;
+        maxPerClass[Priority.NORMAL.ordinal()] = 8;
+        maxPerClass[Priority.BACKGROUND.ordinal()] = 4;
+        maxPerClass[Priority.BULK_TRANSFER.ordinal()] = 2;
+    }
+
+    synchronized int getMaxRequests() {
+        return maxRequests;
+    }
+
+    void setMaxRequests(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("The limit must be positive");
+        }
+        synchronized (this) {
+            maxRequests = max;
+        }
+        startReady();
+    }
+
+    synchronized int getMaxRequests(Priority priority) {
+        return maxPerClass[priority.ordinal()];
+    }
+
+    void setMaxRequests(Priority priority, int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("The limit must be positive");
+        }
+        synchronized (this) {
+            maxPerClass[priority.ordinal()] = max;
+        }
+        startReady();
+    }
+
+    synchronized long getAgingInterval() {
+        return agingIntervalNanos / 1000000L;
+    }
+
+    synchronized void setAgingInterval(long millis) {
+        if (millis < 1) {
+            throw new IllegalArgumentException("The interval must be positive");
+        }
+        agingIntervalNanos = millis * 1000000L;
+    }
+
+    QueueStats getStats(Priority priority) {
+        return stats[priority.ordinal()];
+    }
+
+    /**
+     * Runs the task now if a slot is free, or when one is released.
+     * The task must call {@link #release(Priority)} when the request
+     * completes.
+     * @return A token for {@link #remove(Object)} if the task is waiting,
+     * <code>null</code> if it was run.
+     */
+    Object submit(Priority priority, Runnable task) {
+        synchronized (this) {
+            if (!hasFreeSlot(priority.ordinal())) {
+                Task queued = new Task(priority, task, System.nanoTime());
+                queues.get(priority.ordinal()).add(queued);
+                return queued;
+            }
+            acquire(priority.ordinal());
+        }
+        stats[priority.ordinal()].add(0, false);
+        task.run();
+        return null;
+    }
+
+    /**
+     * Removes a waiting task.
+     * @param token The token returned by {@link #submit(Priority, Runnable)}.
+     * @return <code>false</code> if the task is not waiting anymore.
+     */
+    synchronized boolean remove(Object token) {
+        Task task = (Task) token;
+        return queues.get(task.priority.ordinal()).remove(task);
+    }
+
+    /**
+     * Releases the slot of a completed request and starts waiting requests.
+     */
+    void release(Priority priority) {
+        synchronized (this) {
+            inFlight[priority.ordinal()]--;
+            totalInFlight--;
+        }
+        startReady();
+    }
+
+    private void startReady() {
+        List<Task> ready = new ArrayList<Task>();
+        long now = System.nanoTime();
+        synchronized (this) {
+            Task task;
+            while ((task = pollNext(now)) != null) {
+                acquire(task.priority.ordinal());
+                ready.add(task);
+            }
+        }
+        for (Task task : ready) {
+            stats[task.priority.ordinal()].add(now - task.enqueuedAt, true);
+            task.runnable.run();
+        }
+    }
+
+    private Task pollNext(long now) {
+        if (totalInFlight >= maxRequests) {
+            return null;
+        }
+        LinkedList<Task> best = null;
+        long bestRank = 0;
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            LinkedList<Task> queue = queues.get(i);
+            if (queue.isEmpty() || inFlight[i] >= maxPerClass[i]) continue;
+            Task head = queue.getFirst();
+            long rank = i - (now - head.enqueuedAt) / agingIntervalNanos;
+            if (best == null || rank < bestRank || (rank == bestRank &&
+                    head.enqueuedAt < best.getFirst().enqueuedAt)) {
+                best = queue;
+                bestRank = rank;
+            }
+        }
+        return best != null ? best.removeFirst() : null;
+    }
+
+    private boolean hasFreeSlot(int priority) {
+        // Don't overtake requests of the same class already waiting.
+        return totalInFlight < maxRequests &&
+                inFlight[priority] < maxPerClass[priority] &&
+                queues.get(priority).isEmpty();
+    }
+
+    private void acquire(int priority) {
+        inFlight[priority]++;
+        totalInFlight++;
+    }
+
+    private static class Task {
+        final Priority priority;
+        final Runnable runnable;
+        final long enqueuedAt;
+
+        Task(Priority priority, Runnable runnable, long enqueuedAt) {
+            this.priority = priority;
+            this.runnable = runnable;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
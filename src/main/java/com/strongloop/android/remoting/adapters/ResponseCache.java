@@ -0,0 +1,792 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import android.util.Log;
+
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.message.BasicHeader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, disk-backed cache of GET responses, evicting the least recently
+ * used entries first.
+ * <p>
+ * Stored responses are revalidated with the server using
+ * <code>If-None-Match</code> and <code>If-Modified-Since</code>; when the
+ * server answers <code>304 Not Modified</code>, the stored body is served.
+ * How long a response is served without revalidation is controlled by the
+ * {@link CachePolicy} of the route.
+ * <p>
+ * Responses stored by an earlier run are indexed on a background thread,
+ * lookups miss them until then, see {@link #awaitIndexing()}.
+ * <pre>
+ * {@code
+ * adapter.setResponseCache(new ResponseCache(
+ *     new File(context.getCacheDir(), "loopback-http"), 10 * 1024 * 1024));
+ * }
+ * </pre>
+ */
+public class ResponseCache {
+    private static final String TAG = "remoting.ResponseCache";
+    private static final String META_SUFFIX = ".meta";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String META_VERSION = "2";
+    // Temporary files modified less than this long before the cache was
+    // created may be written by it, indexing leaves them alone.
+    private static final long TEMP_FILE_MARGIN = 2000;
+
+    private final File directory;
+    private final long maxSize;
+    private final long createdAt = System.currentTimeMillis();
+    private final Future<?> indexing;
+
+    // Guarded by this. Ordered from the least to the most recently used.
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long size;
+    private boolean indexed;
+    // The keys stored or removed before the stored responses were indexed,
+    // the indexed entries of these keys are obsolete.
+    private final Set<String> changedBeforeIndexed = new HashSet<String>();
+    // Set when the cache was cleared before the stored responses were
+    // indexed, they are removed instead.
+    private boolean clearedBeforeIndexed;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong revalidationCount = new AtomicLong();
+    private final AtomicLong notModifiedCount = new AtomicLong();
+
+    /**
+     * Creates a cache storing responses in the given directory.
+     * @param directory The directory, it is created when it does not exist.
+     * The directory should be used exclusively by this cache.
+     * @param maxSize The maximum size of stored bodies in bytes.
+     */
+    public ResponseCache(File directory, long maxSize) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory cannot be null");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive");
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.indexing = Indexer.EXECUTOR.submit(new Runnable() {
+            @Override
+            public void run() {
+                index();
+            }
+        });
+    }
+
+    /**
+     * @return The number of requests served from the cache without
+     * contacting the server, including stale responses served while
+     * revalidating.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return The number of requests for which no response was stored.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return The number of conditional requests sent to the server to
+     * revalidate a stored response.
+     */
+    public long getRevalidationCount() {
+        return revalidationCount.get();
+    }
+
+    /**
+     * @return The number of revalidations answered with
+     * <code>304 Not Modified</code>.
+     */
+    public long getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    /**
+     * @return The current size of stored bodies in bytes, not counting the
+     * responses of earlier runs until they were indexed.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return The maximum size of stored bodies in bytes.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Removes all stored responses. Responses of earlier runs not indexed
+     * yet are removed by the background thread.
+     */
+    public synchronized void clear() {
+        if (!indexed) {
+            clearedBeforeIndexed = true;
+        }
+        for (Entry entry : new ArrayList<Entry>(entries.values())) {
+            remove(entry);
+        }
+    }
+
+    /**
+     * Waits until the responses stored by earlier runs were indexed.
+     * @throws InterruptedException when interrupted while waiting.
+     */
+    public void awaitIndexing() throws InterruptedException {
+        try {
+            indexing.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //
+    // Request processing, see RestAdapter
+    //
+
+    /**
+     * Looks up a stored response for the request. Does not wait for the
+     * stored responses to be indexed, see {@link #awaitIndexing()}.
+     * @return The stored response or <code>null</code>.
+     */
+    Entry lookup(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            missCount.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * @return <code>true</code> when the stored response can be served
+     * without revalidation.
+     */
+    boolean isFresh(Entry entry, CachePolicy policy) {
+        return entry.getAge() < getLifetime(entry, policy);
+    }
+
+    /**
+     * @return <code>true</code> when the stored response has expired, but can
+     * be served while it is being revalidated.
+     */
+    boolean isUsableWhileRevalidating(Entry entry, CachePolicy policy) {
+        return entry.getAge() <
+                getLifetime(entry, policy) + policy.getStaleWhileRevalidate() * 1000L;
+    }
+
+    /**
+     * Serves the stored response to the listener on the executor thread.
+     */
+    void serve(final Entry entry, final Transport.Listener listener,
+               Executor executor) {
+        hitCount.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                TransportResponse response = null;
+                try {
+                    response = entry.toResponse();
+                    listener.onResponse(response);
+                } catch (Throwable t) {
+                    Log.w(TAG, "Cannot serve stored response", t);
+                    listener.onFailure(t);
+                } finally {
+                    if (response != null) closeQuietly(response.getBody());
+                }
+            }
+        });
+    }
+
+    /**
+     * Makes the request conditional on the stored response.
+     * @return The conditional request.
+     */
+    TransportRequest addConditionalHeaders(Entry entry, TransportRequest request) {
+        revalidationCount.incrementAndGet();
+        String etag = entry.getHeader("ETag");
+        if (etag != null) {
+            request = request.withHeader("If-None-Match", etag);
+        }
+        String lastModified = entry.getHeader("Last-Modified");
+        if (lastModified != null) {
+            request = request.withHeader("If-Modified-Since", lastModified);
+        }
+        return request;
+    }
+
+    /**
+     * Wraps the listener to store the response and to serve the stored body
+     * on <code>304 Not Modified</code>.
+     * @param key The key of the request.
+     * @param entry The stored response being revalidated or <code>null</code>.
+     * @param policy The cache policy of the route.
+     * @param listener The listener receiving the response.
+     * @return The listener to use for the request.
+     */
+    CachingListener wrap(String key, Entry entry, CachePolicy policy,
+                         Transport.Listener listener) {
+        return new CachingListener(key, entry, policy, listener);
+    }
+
+    /**
+     * Creates a listener for background revalidation of a stale response
+     * served to the caller already. The listener only reads the response,
+     * storing it is left to {@link #wrap}.
+     */
+    Transport.Listener newRefreshListener() {
+        return new Transport.Listener() {
+            @Override
+            public void onResponse(TransportResponse response) throws IOException {
+                InputStream body = response.getBody();
+                byte[] buffer = new byte[4096];
+                while (body.read(buffer) != -1) {
+                    // Read to the end to store the response.
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                Log.w(TAG, "Background revalidation failed", error);
+            }
+        };
+    }
+
+    private long getLifetime(Entry entry, CachePolicy policy) {
+        if (policy.getMaxAge() >= 0) {
+            return policy.getMaxAge() * 1000L;
+        }
+        int serverMaxAge = getMaxAge(entry.getHeader("Cache-Control"));
+        return serverMaxAge > 0 ? serverMaxAge * 1000L : 0;
+    }
+
+    private static int getMaxAge(String cacheControl) {
+        if (cacheControl == null) return -1;
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim();
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return Integer.parseInt(directive.substring(8).trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isStorable(TransportResponse response, CachePolicy policy) {
+        if (response.getStatusCode() != HttpStatus.SC_OK) {
+            return false;
+        }
+        String cacheControl = response.getHeader("Cache-Control");
+        if (cacheControl != null &&
+                cacheControl.toLowerCase().contains("no-store")) {
+            return false;
+        }
+        return policy.getMaxAge() > 0 ||
+                response.getHeader("ETag") != null ||
+                response.getHeader("Last-Modified") != null ||
+                getMaxAge(cacheControl) > 0;
+    }
+
+    //
+    // Storage
+    //
+
+    /**
+     * Reads the responses stored by earlier runs, on the indexer thread.
+     * The files are read without holding the lock, responses stored by this
+     * cache in the meantime replace the indexed ones.
+     */
+    private void index() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Cannot create cache directory " + directory);
+            markIndexed(new ArrayList<Entry>());
+            return;
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) files = new File[0];
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+
+        List<Entry> found = new ArrayList<Entry>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                if (file.lastModified() < createdAt - TEMP_FILE_MARGIN) {
+                    file.delete();
+                }
+                continue;
+            }
+            if (!name.endsWith(META_SUFFIX)) continue;
+
+            Entry entry = readEntry(file);
+            // The base name is derived from the key, so that each file
+            // is indexed by exactly one entry.
+            if (entry == null || !entry.bodyFile.isFile() ||
+                    !entry.baseName.equals(baseNameFor(entry.key))) {
+                String baseName = name.substring(0,
+                        name.length() - META_SUFFIX.length());
+                new File(directory, baseName + BODY_SUFFIX).delete();
+                file.delete();
+                continue;
+            }
+            entry.length = entry.bodyFile.length();
+            found.add(entry);
+        }
+        markIndexed(found);
+    }
+
+    /**
+     * Adds the indexed entries as less recently used than the entries stored
+     * since the cache was created.
+     */
+    private synchronized void markIndexed(List<Entry> found) {
+        indexed = true;
+        Map<String, Entry> stored = new LinkedHashMap<String, Entry>(entries);
+        entries.clear();
+        for (Entry entry : found) {
+            if (changedBeforeIndexed.contains(entry.key)) continue;
+            if (clearedBeforeIndexed) {
+                entry.bodyFile.delete();
+                entry.metaFile.delete();
+                continue;
+            }
+            entries.put(entry.key, entry);
+            size += entry.length;
+        }
+        entries.putAll(stored);
+        changedBeforeIndexed.clear();
+        trim();
+    }
+
+    private Entry readEntry(File metaFile) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(metaFile), "UTF-8"));
+            if (!META_VERSION.equals(reader.readLine())) return null;
+            String key = unescape(reader.readLine());
+            long storedAt = Long.parseLong(reader.readLine());
+            List<Header> headers = new ArrayList<Header>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) continue;
+                headers.add(new BasicHeader(line.substring(0, colon),
+                        line.substring(colon + 1).trim()));
+            }
+            String baseName = metaFile.getName().substring(0,
+                    metaFile.getName().length() - META_SUFFIX.length());
+            return new Entry(key, baseName, storedAt,
+                    headers.toArray(new Header[headers.size()]));
+        } catch (Exception e) {
+            Log.w(TAG, "Cannot read cache entry " + metaFile, e);
+            return null;
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private void commit(Entry entry, File bodyTempFile) throws IOException {
+        // Only the renames are made while holding the lock.
+        File metaTempFile = new File(directory, entry.baseName + META_SUFFIX + TEMP_SUFFIX);
+        writeMeta(entry, metaTempFile);
+        entry.length = bodyTempFile.length();
+
+        synchronized (this) {
+            Entry previous = entries.remove(entry.key);
+            if (previous != null) {
+                size -= previous.length;
+            }
+            if (!indexed) {
+                changedBeforeIndexed.add(entry.key);
+            }
+            if (!bodyTempFile.renameTo(entry.bodyFile) ||
+                    !metaTempFile.renameTo(entry.metaFile)) {
+                bodyTempFile.delete();
+                metaTempFile.delete();
+                entry.bodyFile.delete();
+                entry.metaFile.delete();
+                throw new IOException("Cannot commit cache entry " + entry.key);
+            }
+            entries.put(entry.key, entry);
+            size += entry.length;
+            trim();
+        }
+    }
+
+    private void update(Entry entry) {
+        try {
+            File metaTempFile = new File(directory, entry.baseName + META_SUFFIX + TEMP_SUFFIX);
+            writeMeta(entry, metaTempFile);
+            synchronized (this) {
+                if (!metaTempFile.renameTo(entry.metaFile)) {
+                    metaTempFile.delete();
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot update cache entry " + entry.key, e);
+        }
+    }
+
+    private void writeMeta(Entry entry, File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(META_VERSION + "\n");
+            writer.write(escape(entry.key) + "\n");
+            writer.write(entry.storedAt + "\n");
+            for (Header h : entry.headers) {
+                writer.write(h.getName() + ": " + h.getValue() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Escapes line breaks, request keys hold one line per header.
+     */
+    private static String escape(String key) {
+        StringBuilder escaped = new StringBuilder(key.length() + 16);
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == '\\') escaped.append("\\\\");
+            else if (c == '\n') escaped.append("\\n");
+            else if (c == '\r') escaped.append("\\r");
+            else escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    private static String unescape(String line) {
+        if (line == null) return null;
+        StringBuilder key = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                key.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                key.append(c);
+            }
+        }
+        return key.toString();
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        if (!indexed) {
+            changedBeforeIndexed.add(entry.key);
+        }
+        size -= entry.length;
+        entry.bodyFile.delete();
+        entry.metaFile.delete();
+    }
+
+    private void trim() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            if (!indexed) {
+                changedBeforeIndexed.add(eldest.key);
+            }
+            size -= eldest.length;
+            eldest.bodyFile.delete();
+            eldest.metaFile.delete();
+        }
+    }
+
+    private String baseNameFor(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Indexes the stored responses of all caches, one after another.
+     */
+    private static class Indexer {
+        static final ExecutorService EXECUTOR =
+                Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "ResponseCache index");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * A stored response.
+     */
+    class Entry {
+        private final String key;
+        private final String baseName;
+        private final File metaFile;
+        private final File bodyFile;
+        private volatile long storedAt;
+        private volatile Header[] headers;
+        // The length of the body, guarded by the cache once stored.
+        private long length;
+
+        Entry(String key, String baseName, long storedAt, Header[] headers) {
+            this.key = key;
+            this.baseName = baseName;
+            this.metaFile = new File(directory, baseName + META_SUFFIX);
+            this.bodyFile = new File(directory, baseName + BODY_SUFFIX);
+            this.storedAt = storedAt;
+            this.headers = headers;
+        }
+
+        long getAge() {
+            return System.currentTimeMillis() - storedAt;
+        }
+
+        String getHeader(String name) {
+            for (Header h : headers) {
+                if (h.getName().equalsIgnoreCase(name)) return h.getValue();
+            }
+            return null;
+        }
+
+        TransportResponse toResponse() throws IOException {
+            return new TransportResponse(HttpStatus.SC_OK, "OK", headers,
+                    new FileInputStream(bodyFile), bodyFile.length());
+        }
+    }
+
+    /**
+     * Stores the response while the delegate is reading it.
+     */
+    class CachingListener implements Transport.Listener {
+        private final String key;
+        private final Entry entry;
+        private final CachePolicy policy;
+        private final Transport.Listener delegate;
+        private volatile boolean cancelled;
+
+        CachingListener(String key, Entry entry, CachePolicy policy,
+                        Transport.Listener delegate) {
+            this.key = key;
+            this.entry = entry;
+            this.policy = policy;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onResponse(TransportResponse response) throws Exception {
+            if (response.getStatusCode() == HttpStatus.SC_NOT_MODIFIED &&
+                    entry != null) {
+                notModifiedCount.incrementAndGet();
+                entry.storedAt = System.currentTimeMillis();
+                update(entry);
+                TransportResponse stored = entry.toResponse();
+                try {
+                    delegate.onResponse(stored);
+                } finally {
+                    closeQuietly(stored.getBody());
+                }
+                return;
+            }
+
+            if (!isStorable(response, policy)) {
+                delegate.onResponse(response);
+                return;
+            }
+
+            Entry newEntry = new Entry(key, baseNameFor(key),
+                    System.currentTimeMillis(), response.getHeaders());
+            TeeInputStream tee = new TeeInputStream(response.getBody(),
+                    newEntry, this);
+            try {
+                delegate.onResponse(response.withBody(tee,
+                        response.getContentLength()));
+            } finally {
+                tee.close();
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+            delegate.onFailure(error);
+        }
+
+        /**
+         * Abandons storing the response, the rest of the body is not read
+         * when the request was cancelled.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * A stream copying the content to the cache while it is being read.
+     * The copy is committed when the content was read to the end.
+     */
+    private class TeeInputStream extends FilterInputStream {
+        private final Entry entry;
+        private final CachingListener listener;
+        private final File tempFile;
+        private OutputStream out;
+        private boolean done;
+
+        TeeInputStream(InputStream in, Entry entry, CachingListener listener) {
+            super(in);
+            this.entry = entry;
+            this.listener = listener;
+            this.tempFile = new File(directory, entry.baseName + BODY_SUFFIX + TEMP_SUFFIX);
+            try {
+                out = new FileOutputStream(tempFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot store response " + entry.key, e);
+                done = true;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) commit();
+            else write(new byte[] { (byte) b }, 0, 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int n = super.read(buffer, offset, count);
+            if (n < 0) commit();
+            else write(buffer, offset, n);
+            return n;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Streaming parsers may stop before the end of the body,
+            // store the remaining bytes too, unless nobody wants them.
+            try {
+                byte[] buffer = new byte[4096];
+                while (!done && !listener.cancelled &&
+                        read(buffer, 0, buffer.length) >= 0) {
+                    // keep reading
+                }
+            } catch (IOException e) {
+                abortUnlessCommitted();
+            } finally {
+                abortUnlessCommitted();
+                super.close();
+            }
+        }
+
+        private void write(byte[] buffer, int offset, int count) {
+            if (done) return;
+            try {
+                out.write(buffer, offset, count);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot store response " + entry.key, e);
+                abortUnlessCommitted();
+            }
+        }
+
+        private void commit() {
+            if (done) return;
+            done = true;
+            try {
+                out.close();
+                ResponseCache.this.commit(entry, tempFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot store response " + entry.key, e);
+                tempFile.delete();
+            }
+        }
+
+        private void abortUnlessCommitted() {
+            if (done) return;
+            done = true;
+            closeQuietly(out);
+            tempFile.delete();
+        }
+    }
+}
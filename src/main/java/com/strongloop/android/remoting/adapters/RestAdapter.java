@@ -6,29 +6,57 @@ import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import com.google.common.collect.MapMaker;
 import com.loopj.android.http.AsyncHttpClient;
 import com.loopj.android.http.AsyncHttpResponseHandler;
-import com.loopj.android.http.BinaryHttpResponseHandler;
 import com.loopj.android.http.RequestParams;
+import com.loopj.android.http.ResponseHandlerInterface;
+import com.strongloop.android.remoting.JsonStreamWriter;
 import com.strongloop.android.remoting.JsonUtil;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.NameValuePair;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.entity.AbstractHttpEntity;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair;
+import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A specific {@link Adapter} implementation for RESTful servers.
@@ -42,9 +70,37 @@ import java.util.Map;
  */
 public class RestAdapter extends Adapter {
     private static final String TAG = "remoting.RestAdapter";
+    private static final String CHARSET = "UTF-8";
 
     private RestHttpClient client;
+    private Transport defaultTransport;
+    private Transport transport;
     private RestContract contract;
+    private InFlightRequests inFlightRequests;
+    private boolean collapsingEnabled = true;
+    private ResponseCache responseCache;
+    private String batchPath;
+    private volatile boolean batchUnsupported;
+    private long requestCompressionThreshold = -1;
+    private volatile Executor decodeExecutor;
+    private final DecodeStats decodeStats = new DecodeStats();
+    private boolean responseCompressionEnabled = true;
+    private final Map<String, CompressionStats> compressionStats =
+            new ConcurrentHashMap<String, CompressionStats>();
+    private final RequestScheduler scheduler = new RequestScheduler();
+    private final Map<String, Priority> priorities =
+            new ConcurrentHashMap<String, Priority>();
+    private static final ThreadLocal<Priority> callPriority =
+            new ThreadLocal<Priority>();
+    private final CancellationStats cancellationStats = new CancellationStats();
+    private final Map<RequestHandle, Boolean> activeHandles =
+            new ConcurrentHashMap<RequestHandle, Boolean>();
+    private volatile RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private volatile int circuitBreakerThreshold = 5;
+    private volatile long circuitBreakerOpenTime = 30000;
+    private final ConcurrentHashMap<String, CircuitBreaker> circuitBreakers =
+            new ConcurrentHashMap<String, CircuitBreaker>();
+    private static final Random RANDOM = new Random();
 
     public RestAdapter(Context context, String url) {
         super(context, url);
@@ -80,10 +136,15 @@ public class RestAdapter extends Adapter {
     public void connect(Context context, String url) {
         if (url == null) {
             client = null;
+            defaultTransport = null;
         }
         else {
             client = new RestHttpClient(context, url);
             client.addHeader("Accept", "application/json");
+            // Retries are made by the adapter, see setRetryPolicy().
+            client.setMaxRetriesAndTimeout(0,
+                    AsyncHttpClient.DEFAULT_RETRY_SLEEP_TIME_MILLIS);
+            defaultTransport = new LoopjTransport(context, client);
         }
     }
 
@@ -92,6 +153,413 @@ public class RestAdapter extends Adapter {
         return client != null;
     }
 
+    /**
+     * Gets the HTTP engine sending the requests.
+     * @return the transport, a {@link LoopjTransport} using
+     * {@link #getClient()} unless configured otherwise.
+     */
+    public Transport getTransport() {
+        return transport != null ? transport : defaultTransport;
+    }
+
+    /**
+     * Sets the HTTP engine sending the requests, e.g.
+     * {@link UrlConnectionTransport}. Headers added to {@link #getClient()}
+     * are sent by all transports.
+     * @param transport The transport, <code>null</code> to use the default
+     * {@link LoopjTransport}.
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Gets whether identical GET requests made while a previous one is still
+     * in progress share the response of the first one instead of being sent
+     * again.
+     * @return <code>true</code> if enabled (the default).
+     */
+    public boolean isRequestCollapsingEnabled() {
+        return collapsingEnabled;
+    }
+
+    /**
+     * Enables or disables collapsing of identical concurrent GET requests.
+     * Requests are identical when they have the same URL (including the query
+     * string) and the same headers.
+     * @param enabled <code>true</code> to enable collapsing.
+     */
+    public void setRequestCollapsingEnabled(boolean enabled) {
+        this.collapsingEnabled = enabled;
+    }
+
+    /**
+     * Gets the number of requests that did not hit the network, because an
+     * identical request was already in progress.
+     * @return the number of collapsed requests.
+     */
+    public long getCollapsedRequestCount() {
+        return inFlightRequests != null
+                ? inFlightRequests.getCollapsedCount()
+                : 0;
+    }
+
+    /**
+     * Gets the cache storing responses of GET requests.
+     * @return the cache or <code>null</code> when responses are not cached
+     * (the default).
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Sets the cache storing responses of GET requests. How the responses
+     * of a route are cached is configured by its {@link CachePolicy}, see
+     * {@link RestContractItem#withCachePolicy(CachePolicy)}.
+     * @param responseCache The cache, <code>null</code> to disable caching.
+     */
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Gets the minimal size of request bodies sent gzip-compressed.
+     * @return the size in bytes, or -1 if request bodies are not compressed
+     * (the default).
+     */
+    public long getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    /**
+     * Enables gzip compression (<code>Content-Encoding: gzip</code>) of JSON
+     * and form request bodies of at least the given size. Multipart bodies
+     * are never compressed. The server must accept compressed bodies,
+     * LoopBack does.
+     * @param bytes The minimal size in bytes, -1 to disable compression.
+     */
+    public void setRequestCompressionThreshold(long bytes) {
+        this.requestCompressionThreshold = bytes;
+    }
+
+    /**
+     * Gets whether the server is asked to compress responses.
+     * @return <code>true</code> if enabled (the default).
+     */
+    public boolean isResponseCompressionEnabled() {
+        return responseCompressionEnabled;
+    }
+
+    /**
+     * Enables or disables <code>Accept-Encoding: gzip</code>. Compressed
+     * responses are decompressed while they are read, regardless of this
+     * setting.
+     * @param enabled <code>true</code> to ask for compressed responses.
+     */
+    public void setResponseCompressionEnabled(boolean enabled) {
+        this.responseCompressionEnabled = enabled;
+    }
+
+    /**
+     * Gets the executor decoding responses.
+     * @return the executor, or <code>null</code> when responses are decoded
+     * on the thread that received them (the default).
+     */
+    public Executor getDecodeExecutor() {
+        return decodeExecutor;
+    }
+
+    /**
+     * Sets the executor decoding responses for callbacks implementing
+     * {@link Adapter.DecodingCallback}, e.g. parsing JSON and building
+     * models. Only the decoded result is delivered to the thread that
+     * invoked the method. By default the thread that received the response
+     * decodes it, a separate executor releases that thread sooner.
+     * @param executor The executor, <code>null</code> for the default.
+     */
+    public void setDecodeExecutor(Executor executor) {
+        this.decodeExecutor = executor;
+    }
+
+    /**
+     * Gets the time spent decoding responses off the callback thread.
+     * @return the counters.
+     */
+    public DecodeStats getDecodeStats() {
+        return decodeStats;
+    }
+
+    /**
+     * Gets the compression counters of the given method.
+     * @param method The method, e.g. <code>"widgets.find"</code>.
+     * @return the counters or <code>null</code> if the method was not
+     * invoked yet.
+     */
+    public CompressionStats getCompressionStats(String method) {
+        return compressionStats.get(method);
+    }
+
+    /**
+     * Gets the priority class of requests invoking the given method.
+     * @param method The method, e.g. <code>"widgets.find"</code>.
+     * @return the priority set for the method, for its class (e.g.
+     * <code>"widgets"</code>) or {@link Priority#NORMAL} by default.
+     */
+    public Priority getPriority(String method) {
+        Priority priority = priorities.get(method);
+        if (priority == null) {
+            int dot = method.indexOf('.');
+            if (dot >= 0) {
+                priority = priorities.get(method.substring(0, dot));
+            }
+        }
+        return priority != null ? priority : Priority.NORMAL;
+    }
+
+    /**
+     * Sets the priority class of requests invoking a method or any method
+     * of a class (i.e. a repository). A method setting takes precedence
+     * over the setting of its class, {@link #runWithPriority} takes
+     * precedence over both.
+     * @param methodOrClass The method, e.g. <code>"widgets.find"</code>,
+     *                      or the class, e.g. <code>"widgets"</code>.
+     * @param priority The priority, <code>null</code> to remove the setting.
+     */
+    public void setPriority(String methodOrClass, Priority priority) {
+        if (priority == null) {
+            priorities.remove(methodOrClass);
+        } else {
+            priorities.put(methodOrClass, priority);
+        }
+    }
+
+    /**
+     * Runs the given code sending all requests it invokes on the calling
+     * thread with the given priority, e.g.
+     * <pre>
+     * adapter.runWithPriority(Priority.INTERACTIVE, new Runnable() {
+     *     public void run() {
+     *         repository.findById(id, callback);
+     *     }
+     * });
+     * </pre>
+     * @param priority The priority.
+     * @param code The code to run.
+     */
+    public void runWithPriority(Priority priority, Runnable code) {
+        Priority previous = callPriority.get();
+        callPriority.set(priority);
+        try {
+            code.run();
+        } finally {
+            callPriority.set(previous);
+        }
+    }
+
+    /**
+     * Gets the maximal number of requests in progress.
+     * @return the limit, 10 by default.
+     */
+    public int getMaxRequests() {
+        return scheduler.getMaxRequests();
+    }
+
+    /**
+     * Sets the maximal number of requests in progress. Further requests
+     * wait until a request completes.
+     * @param max The limit.
+     */
+    public void setMaxRequests(int max) {
+        scheduler.setMaxRequests(max);
+    }
+
+    /**
+     * Gets the maximal number of requests of the given class in progress.
+     * @param priority The class.
+     * @return the limit, by default 10 for {@link Priority#INTERACTIVE},
+     * 8 for {@link Priority#NORMAL}, 4 for {@link Priority#BACKGROUND}
+     * and 2 for {@link Priority#BULK_TRANSFER}.
+     */
+    public int getMaxRequests(Priority priority) {
+        return scheduler.getMaxRequests(priority);
+    }
+
+    /**
+     * Sets the maximal number of requests of the given class in progress.
+     * The limits of the lower classes should leave slots for the higher
+     * classes, so that an interactive request does not wait for uploads
+     * to complete.
+     * @param priority The class.
+     * @param max The limit.
+     */
+    public void setMaxRequests(Priority priority, int max) {
+        scheduler.setMaxRequests(priority, max);
+    }
+
+    /**
+     * Gets the time after which a waiting request is treated as one of
+     * the next higher class.
+     * @return the interval in milliseconds, 5000 by default.
+     */
+    public long getPriorityAgingInterval() {
+        return scheduler.getAgingInterval();
+    }
+
+    /**
+     * Sets the time after which a waiting request is treated as one of
+     * the next higher class, so that low priority requests are not starved
+     * by a steady flow of higher priority ones.
+     * @param millis The interval in milliseconds.
+     */
+    public void setPriorityAgingInterval(long millis) {
+        scheduler.setAgingInterval(millis);
+    }
+
+    /**
+     * Gets the time requests of the given class waited for a free slot.
+     * @param priority The class.
+     * @return the counters.
+     */
+    public QueueStats getQueueStats(Priority priority) {
+        return scheduler.getStats(priority);
+    }
+
+    /**
+     * Cancels all invocations in progress with the given tag, see
+     * {@link RequestHandle#setTag(Object)}. Requests waiting for a free
+     * slot are not sent, requests in progress are aborted and responses
+     * arriving later are not decoded.
+     * @param tag The tag.
+     * @return The number of invocations cancelled.
+     */
+    public int cancelAll(Object tag) {
+        int count = 0;
+        for (RequestHandle handle : activeHandles.keySet()) {
+            Object handleTag = handle.getTag();
+            if (handleTag != null && handleTag.equals(tag) && handle.cancel()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Lets {@link #cancelAll(Object)} cancel an invocation whose handle was
+     * not created by this adapter, e.g. a read answered from a local store.
+     * @param handle The handle, to be unregistered once finished.
+     */
+    public void registerHandle(RequestHandle handle) {
+        activeHandles.put(handle, Boolean.TRUE);
+    }
+
+    /**
+     * Reverts {@link #registerHandle(RequestHandle)}.
+     * @param handle The handle.
+     */
+    public void unregisterHandle(RequestHandle handle) {
+        activeHandles.remove(handle);
+    }
+
+    /**
+     * Gets the work saved by cancelled invocations.
+     * @return the counters.
+     */
+    public CancellationStats getCancellationStats() {
+        return cancellationStats;
+    }
+
+    /**
+     * Gets the retry policy of routes without their own policy.
+     * @return the policy, {@link RetryPolicy#DEFAULT} by default.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the retry policy of routes without their own policy, see
+     * {@link RestContractItem#withRetryPolicy(RetryPolicy)}. Batch requests
+     * are never retried. The client of the default transport does not retry
+     * on its own; disable the retries of clients given to a custom
+     * {@link LoopjTransport} too.
+     * @param retryPolicy The policy, e.g. {@link RetryPolicy#NONE}.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new IllegalArgumentException("Retry policy cannot be null");
+        }
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Gets the number of consecutive failures after which requests to
+     * a host fail fast.
+     * @return the number of failures, 0 when disabled. 5 by default.
+     */
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    /**
+     * Sets the number of consecutive failures (network errors and 5xx
+     * responses) after which requests to a host fail fast with
+     * a {@link CircuitOpenException}, without being sent. After the open
+     * time, a single request is sent to probe the host.
+     * @param failures The number of failures, 0 to disable.
+     */
+    public void setCircuitBreakerThreshold(int failures) {
+        this.circuitBreakerThreshold = failures;
+        circuitBreakers.clear();
+    }
+
+    /**
+     * Gets the time requests to an unhealthy host fail fast.
+     * @return the time in milliseconds, 30000 by default.
+     */
+    public long getCircuitBreakerOpenTime() {
+        return circuitBreakerOpenTime;
+    }
+
+    /**
+     * Sets the time requests to an unhealthy host fail fast, see
+     * {@link #setCircuitBreakerThreshold(int)}.
+     * @param millis The time in milliseconds.
+     */
+    public void setCircuitBreakerOpenTime(long millis) {
+        this.circuitBreakerOpenTime = millis;
+        circuitBreakers.clear();
+    }
+
+    /**
+     * Gets the route accepting batch requests.
+     * @return the route or <code>null</code> when batches are executed
+     * as separate requests (the default).
+     */
+    public String getBatchPath() {
+        return batchPath;
+    }
+
+    /**
+     * Sets the route accepting batch requests, see {@link #batch()}.
+     * <p>
+     * A batch is sent as a single <code>POST</code> request with the body
+     * <code>{"requests": [{"method": "GET", "url": "/widgets?x=1"},
+     * {"method": "POST", "url": "/widgets", "body": {...}}]}</code>.
+     * The server is expected to respond with an array of
+     * <code>{"status": 200, "body": "..."}</code> objects, one per request,
+     * where <code>body</code> is the raw response body of the request.
+     * <p>
+     * When the server responds with 404, 405 or 501, the adapter stops using
+     * the route and executes batches as separate requests.
+     * @param batchPath The route, e.g. <code>"/batch"</code>,
+     * or <code>null</code> to disable batch requests.
+     */
+    public void setBatchPath(String batchPath) {
+        this.batchPath = batchPath;
+        this.batchUnsupported = false;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -100,195 +568,1113 @@ public class RestAdapter extends Adapter {
      * or the adapter is not connected.
      */
     @Override
-    public void invokeStaticMethod(String method,
+    public RequestHandle invokeStaticMethod(String method,
             Map<String, ? extends Object> parameters,
             final Callback callback) {
-        AsyncHttpResponseHandler httpHandler = new CallbackHandler(callback);
-        invokeStaticMethod(method, parameters, httpHandler);
+        ResponseHandler httpHandler = new CallbackHandler(callback);
+        return invokeStaticMethod(method, parameters, httpHandler);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if the contract is not set
+     * (see {@link #setContract(RestContract)})
+     * or the adapter is not connected.
+     */
+    @Override
+    public RequestHandle invokeStaticMethod(String method,
+                                            Map<String, ? extends Object> parameters,
+                                            final BinaryCallback callback) {
+        ResponseHandler httpHandler = new BinaryHandler(callback);
+        return invokeStaticMethod(method, parameters, httpHandler);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if the contract is not set
+     * (see {@link #setContract(RestContract)})
+     * or the adapter is not connected.
+     */
+    @Override
+    public RequestHandle invokeStaticMethod(String method,
+                                            Map<String, ? extends Object> parameters,
+                                            final StreamCallback callback) {
+        ResponseHandler httpHandler = new StreamHandler(callback);
+        return invokeStaticMethod(method, parameters, httpHandler);
+    }
+
+    private RequestHandle invokeStaticMethod(String method, Map<String, ? extends Object> parameters, ResponseHandler httpHandler) {
+        if (contract == null) {
+            throw new IllegalStateException("Invalid contract");
+        }
+
+        String verb = contract.getVerbForMethod(method);
+        String path = contract.getUrlForMethod(method, parameters);
+        ParameterEncoding parameterEncoding = contract.getParameterEncodingForMethod(method);
+        CachePolicy cachePolicy = contract.getCachePolicyForMethod(method);
+        RetryPolicy retryPolicy = contract.getRetryPolicyForMethod(method);
+
+        UrlTemplate template = contract.getUrlTemplateForMethod(method);
+
+        return request(statsFor(method), priorityFor(method), path, verb,
+                withoutPathParameters(template, verb, parameters),
+                parameterEncoding, cachePolicy, retryPolicy, httpHandler);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if the contract is not set
+     * (see {@link #setContract(RestContract)})
+     * or the adapter is not connected.
+     */
+    @Override
+    public RequestHandle invokeInstanceMethod(String method,
+            Map<String, ? extends Object> constructorParameters,
+            Map<String, ? extends Object> parameters,
+            final Callback callback) {
+        ResponseHandler httpHandler = new CallbackHandler(callback);
+        return invokeInstanceMethod(method, constructorParameters, parameters, httpHandler);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if the contract is not set
+     * (see {@link #setContract(RestContract)})
+     * or the adapter is not connected.
+     */
+    @Override
+    public RequestHandle invokeInstanceMethod(String method,
+                                              Map<String, ? extends Object> constructorParameters,
+                                              Map<String, ? extends Object> parameters,
+                                              final BinaryCallback callback) {
+        ResponseHandler httpHandler = new BinaryHandler(callback);
+        return invokeInstanceMethod(method, constructorParameters, parameters, httpHandler);
+    };
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if the contract is not set
+     * (see {@link #setContract(RestContract)})
+     * or the adapter is not connected.
+     */
+    @Override
+    public RequestHandle invokeInstanceMethod(String method,
+                                              Map<String, ? extends Object> constructorParameters,
+                                              Map<String, ? extends Object> parameters,
+                                              final StreamCallback callback) {
+        ResponseHandler httpHandler = new StreamHandler(callback);
+        return invokeInstanceMethod(method, constructorParameters, parameters, httpHandler);
+    }
+
+    private RequestHandle invokeInstanceMethod(String method,
+                                      Map<String, ? extends Object> constructorParameters,
+                                      Map<String, ? extends Object> parameters,
+                                      ResponseHandler httpHandler) {
+        if (contract == null) {
+            throw new IllegalStateException("Invalid contract");
+        }
+
+        Map<String, Object> combinedParameters =
+                combineParameters(constructorParameters, parameters);
+
+        String verb = contract.getVerbForMethod(method);
+        String path = contract.getUrlForMethod(method, combinedParameters);
+        ParameterEncoding parameterEncoding = contract.getParameterEncodingForMethod(method);
+        CachePolicy cachePolicy = contract.getCachePolicyForMethod(method);
+        RetryPolicy retryPolicy = contract.getRetryPolicyForMethod(method);
+
+        UrlTemplate template = contract.getUrlTemplateForMethod(method);
+
+        return request(statsFor(method), priorityFor(method), path, verb,
+                withoutPathParameters(template, verb, combinedParameters),
+                parameterEncoding, cachePolicy, retryPolicy, httpHandler);
+    }
+
+    /**
+     * Removes the parameters rendered into the path from parameters sent
+     * in the query string. Bodies keep all parameters, they usually carry
+     * the whole model including its id.
+     */
+    private static Map<String, ? extends Object> withoutPathParameters(
+            UrlTemplate template, String verb,
+            Map<String, ? extends Object> parameters) {
+        if (parameters == null || !RestHttpClient.hasQueryParameters(verb)) {
+            return parameters;
+        }
+        if (template == null || template.getParameterNames().isEmpty()) {
+            return parameters;
+        }
+        Map<String, Object> queryParameters =
+                new HashMap<String, Object>(parameters);
+        queryParameters.keySet().removeAll(template.getParameterNames());
+        return queryParameters;
+    }
+
+    private static Map<String, Object> combineParameters(
+            Map<String, ? extends Object> constructorParameters,
+            Map<String, ? extends Object> parameters) {
+        Map<String, Object> combinedParameters = new HashMap<String, Object>();
+        if (constructorParameters != null) {
+            combinedParameters.putAll(constructorParameters);
+        }
+        if (parameters != null) {
+            combinedParameters.putAll(parameters);
+        }
+        return combinedParameters;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The verb, route, parameter encoding and cache policy are resolved
+     * from the contract when the method is bound.
+     *
+     * @throws IllegalStateException if the contract is not set
+     * (see {@link #setContract(RestContract)}).
+     */
+    @Override
+    public RemoteMethod bindStaticMethod(String method) {
+        return new RestRemoteMethod(method, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The verb, route, parameter encoding and cache policy are resolved
+     * from the contract when the method is bound.
+     *
+     * @throws IllegalStateException if the contract is not set
+     * (see {@link #setContract(RestContract)}).
+     */
+    @Override
+    public RemoteMethod bindInstanceMethod(String method) {
+        return new RestRemoteMethod(method, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Sends all invocations as a single request when the batch route
+     * is configured (see {@link #setBatchPath(String)}).
+     *
+     * @throws IllegalStateException if the contract is not set
+     * (see {@link #setContract(RestContract)})
+     * or the adapter is not connected.
+     */
+    @Override
+    protected void executeBatch(List<Batch.Call> calls,
+                                Batch.CompletionCallback callback) {
+        if (batchPath == null || batchUnsupported || calls.size() < 2) {
+            super.executeBatch(calls, callback);
+            return;
+        }
+        if (contract == null) {
+            throw new IllegalStateException("Invalid contract");
+        }
+        if (!isConnected()) {
+            throw new IllegalStateException("Adapter not connected");
+        }
+
+        List<Object> requests = new ArrayList<Object>(calls.size());
+        Priority priority = null;
+        for (Batch.Call call : calls) {
+            String method = call.getMethod();
+            Priority callPriority = priorityFor(method);
+            if (priority == null || callPriority.compareTo(priority) < 0) {
+                priority = callPriority;
+            }
+            if (contract.getParameterEncodingForMethod(method) ==
+                    ParameterEncoding.FORM_MULTIPART) {
+                // Multipart bodies cannot be embedded in the JSON request.
+                super.executeBatch(calls, callback);
+                return;
+            }
+
+            Map<String, ? extends Object> parameters = call.isInstanceMethod()
+                    ? combineParameters(call.getConstructorParameters(),
+                            call.getParameters())
+                    : call.getParameters();
+            String verb = contract.getVerbForMethod(method);
+            String path = contract.getUrlForMethod(method, parameters);
+            Uri uri = client.buildUri(verb, path, withoutPathParameters(
+                    contract.getUrlTemplateForMethod(method), verb, parameters));
+            String url = uri.getEncodedPath();
+            if (uri.getEncodedQuery() != null) {
+                url += "?" + uri.getEncodedQuery();
+            }
+
+            Map<String, Object> request = new HashMap<String, Object>();
+            request.put("method", verb.toUpperCase());
+            request.put("url", url);
+            if (parameters != null && !RestHttpClient.hasQueryParameters(verb)) {
+                request.put("body", parameters);
+            }
+            requests.add(request);
+        }
+
+        Map<String, Object> body = new HashMap<String, Object>();
+        body.put("requests", requests);
+        request(statsFor(batchPath), priority, batchPath, "POST", body,
+                ParameterEncoding.JSON,
+                CachePolicy.NO_STORE, null, new BatchHandler(calls, callback));
+    }
+
+    private CompressionStats statsFor(String method) {
+        CompressionStats stats = compressionStats.get(method);
+        if (stats == null) {
+            stats = new CompressionStats();
+            compressionStats.put(method, stats);
+        }
+        return stats;
+    }
+
+    private Priority priorityFor(String method) {
+        Priority priority = callPriority.get();
+        return priority != null ? priority : getPriority(method);
+    }
+
+    private RequestHandle request(CompressionStats stats,
+                                  Priority priority,
+                                  String path,
+                                  String verb,
+                                  Map<String, ? extends Object> parameters,
+                                  ParameterEncoding parameterEncoding,
+                                  CachePolicy cachePolicy,
+                                  RetryPolicy retryPolicy,
+                                  ResponseHandler responseHandler) {
+
+        if (!isConnected()) {
+            throw new IllegalStateException("Adapter not connected");
+        }
+
+        TransportRequest request = client.buildRequest(verb, path, parameters,
+                parameterEncoding);
+        Transport.Listener listener = responseHandler;
+        RestRequestHandle handle = responseHandler.handle;
+        activeHandles.put(handle, Boolean.TRUE);
+        // Whether the network exchange is performed for this caller only,
+        // and can be aborted when the caller cancels.
+        boolean owned = true;
+        Transport.Listener shared = null;
+        ResponseCache.CachingListener caching = null;
+
+        request = request.withHeader("Accept-Encoding",
+                responseCompressionEnabled ? ContentEncoding.GZIP : "identity");
+        RequestBody body = request.getBody();
+        if (body != null && requestCompressionThreshold >= 0 &&
+                parameterEncoding != ParameterEncoding.FORM_MULTIPART &&
+                body.estimateLength() >= requestCompressionThreshold) {
+            request = request.withBody(ContentEncoding.gzip(body, stats))
+                    .withHeader("Content-Encoding", ContentEncoding.GZIP);
+        }
+
+        // Streamed responses are never buffered: they are neither shared
+        // between identical requests nor stored in the cache.
+        if ("GET".equals(request.getVerb()) &&
+                !(responseHandler instanceof StreamHandler)) {
+            if (collapsingEnabled && inFlightRequests == null) {
+                inFlightRequests = new InFlightRequests();
+            }
+            InFlightRequests inFlight = collapsingEnabled ? inFlightRequests : null;
+            ResponseCache cache = cachePolicy.isStoreAllowed() ? responseCache : null;
+
+            String key = null;
+            if (inFlight != null || cache != null) {
+                key = InFlightRequests.keyFor(request.getVerb(),
+                        request.getUrl(), request.getHeaders());
+            }
+
+            ResponseCache.Entry cached = null;
+            if (cache != null) {
+                cached = cache.lookup(key);
+                if (cached != null && cache.isFresh(cached, cachePolicy)) {
+                    cache.serve(cached, listener, client.getThreadPool());
+                    return handle;
+                }
+                if (cached != null &&
+                        cache.isUsableWhileRevalidating(cached, cachePolicy)) {
+                    // Serve the stale response now, refresh it for
+                    // the next caller.
+                    cache.serve(cached, listener, client.getThreadPool());
+                    listener = cache.newRefreshListener();
+                    owned = false;
+                }
+            }
+
+            if (inFlight != null) {
+                Transport.Listener caller = listener;
+                listener = inFlight.join(key, caller);
+                if (owned) {
+                    handle.share(inFlight, key, caller);
+                }
+                if (listener == null) {
+                    // An identical request is in progress already.
+                    return handle;
+                }
+                shared = listener;
+            }
+
+            if (cache != null) {
+                if (cached != null) {
+                    request = cache.addConditionalHeaders(cached, request);
+                }
+                caching = cache.wrap(key, cached, cachePolicy, listener);
+                listener = caching;
+            }
+        }
+
+        final Exchange exchange = new Exchange(priority, getTransport(), request,
+                ContentEncoding.decoding(listener, stats),
+                retryPolicy != null ? retryPolicy : this.retryPolicy);
+        Runnable abortAction = exchange;
+        if (caching != null) {
+            // Do not drain the rest of an abandoned body into the cache.
+            final ResponseCache.CachingListener abandoned = caching;
+            abortAction = new Runnable() {
+                @Override
+                public void run() {
+                    abandoned.cancel();
+                    exchange.run();
+                }
+            };
+        }
+        if (shared != null) {
+            // Aborted when all callers joining the request cancelled.
+            InFlightRequests.setAbandonAction(shared, abortAction);
+        }
+        else if (owned) {
+            handle.own(abortAction);
+        }
+        exchange.start();
+        return handle;
+    }
+
+    /**
+     * A network exchange, waiting for a slot in the scheduler or
+     * in progress, retried according to the retry policy. Runs as the
+     * abort action of collapsed requests.
+     */
+    private class Exchange implements Runnable {
+        private final Priority priority;
+        private final Transport transport;
+        private final TransportRequest request;
+        private final Transport.Listener listener;
+        private final RetryPolicy retryPolicy;
+        private final String host;
+        private final CircuitBreaker breaker;
+        private volatile int retries;
+        private volatile Object queued;
+        private volatile ScheduledFuture<?> pendingRetry;
+        private volatile Attempt attempt;
+        private volatile boolean aborted;
+
+        Exchange(Priority priority, Transport transport,
+                 TransportRequest request, Transport.Listener listener,
+                 RetryPolicy retryPolicy) {
+            this.priority = priority;
+            this.transport = transport;
+            this.request = request;
+            this.listener = listener;
+            RequestBody body = request.getBody();
+            this.retryPolicy = retryPolicy.isRetryAllowed(request.getVerb()) &&
+                    (body == null || body.isRepeatable())
+                    ? retryPolicy : null;
+            this.host = Uri.parse(request.getUrl()).getEncodedAuthority();
+            this.breaker = host != null ? breakerFor(host) : null;
+        }
+
+        void start() {
+            long now = CircuitBreaker.now();
+            if (breaker != null && !breaker.allowRequest(now)) {
+                listener.onFailure(new CircuitOpenException(host,
+                        breaker.getRemainingOpenTime(now)));
+                return;
+            }
+            queued = scheduler.submit(priority, new Runnable() {
+                @Override
+                public void run() {
+                    send();
+                }
+            });
+        }
+
+        private void send() {
+            Attempt current = new Attempt();
+            attempt = current;
+            if (aborted) {
+                current.release();
+                return;
+            }
+            try {
+                current.call = transport.execute(request, current);
+            } catch (RuntimeException e) {
+                current.onFailure(e);
+                return;
+            }
+            if (aborted) {
+                abortCall();
+            }
+        }
+
+        /**
+         * Aborts the exchange.
+         */
+        @Override
+        public void run() {
+            aborted = true;
+            Object token = queued;
+            if (token != null && scheduler.remove(token)) {
+                cancellationStats.addDequeued();
+                return;
+            }
+            ScheduledFuture<?> retry = pendingRetry;
+            if (retry != null && retry.cancel(false)) {
+                cancellationStats.addDequeued();
+                return;
+            }
+            abortCall();
+        }
+
+        private void abortCall() {
+            Attempt current = attempt;
+            Transport.Call call = current != null ? current.call : null;
+            if (call != null && call.cancel() && current.release()) {
+                cancellationStats.addAborted();
+            }
+        }
+
+        /**
+         * Schedules the next attempt.
+         * @param retryAfter The delay asked for by the server, -1 if none.
+         * @return <code>false</code> if the request is not retried.
+         */
+        private boolean retry(long retryAfter) {
+            if (aborted || retryPolicy == null) return false;
+            long delay = retryPolicy.getDelay(retries + 1, retryAfter, RANDOM);
+            if (delay < 0) return false;
+            retries++;
+            if (Log.isLoggable(TAG, Log.DEBUG))
+                Log.d(TAG, "Retrying " + request.getVerb() + " " +
+                        request.getUrl() + " in " + delay + " ms");
+            pendingRetry = RetryTimer.EXECUTOR.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!aborted) start();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            return true;
+        }
+
+        /**
+         * A single attempt, holding a slot in the scheduler until the
+         * response was processed. The slot is released only once, even
+         * when a failure in <code>onResponse</code> is passed to
+         * <code>onFailure</code>.
+         */
+        private class Attempt implements Transport.Listener {
+            private final AtomicBoolean released = new AtomicBoolean();
+            private volatile boolean responded;
+            volatile Transport.Call call;
+
+            @Override
+            public void onResponse(TransportResponse response) throws Exception {
+                int statusCode = response.getStatusCode();
+                if (breaker != null) {
+                    if (CircuitBreaker.isFailureStatus(statusCode)) {
+                        breaker.recordFailure(CircuitBreaker.now());
+                    } else {
+                        breaker.recordSuccess();
+                    }
+                }
+                if (RetryPolicy.isTransientStatus(statusCode) && retry(
+                        parseRetryAfter(response.getHeader("Retry-After")))) {
+                    release();
+                    return;
+                }
+                responded = true;
+                try {
+                    listener.onResponse(response);
+                } finally {
+                    release();
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                if (!responded) {
+                    // Other errors are client-side problems, e.g. a bad URL,
+                    // or the caller cancelling the request.
+                    if (breaker != null && error instanceof IOException &&
+                            !aborted) {
+                        breaker.recordFailure(CircuitBreaker.now());
+                    }
+                    if (error instanceof IOException && retry(-1)) {
+                        release();
+                        return;
+                    }
+                }
+                try {
+                    listener.onFailure(error);
+                } finally {
+                    release();
+                }
+            }
+
+            boolean release() {
+                if (released.compareAndSet(false, true)) {
+                    scheduler.release(priority);
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Parses the value of <code>Retry-After</code>, either seconds or
+     * an HTTP date.
+     * @return The delay in milliseconds, -1 if the value is missing or
+     * invalid.
+     */
+    static long parseRetryAfter(String value) {
+        if (value == null) return -1;
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // An HTTP date.
+        }
+        SimpleDateFormat format = new SimpleDateFormat(
+                "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return Math.max(0,
+                    format.parse(value).getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    private CircuitBreaker breakerFor(String host) {
+        if (circuitBreakerThreshold <= 0) return null;
+        CircuitBreaker breaker = circuitBreakers.get(host);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(circuitBreakerThreshold,
+                    circuitBreakerOpenTime);
+            CircuitBreaker existing = circuitBreakers.putIfAbsent(host, breaker);
+            if (existing != null) {
+                breaker = existing;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * The timer of pending retries, shared by all adapters.
+     */
+    private static class RetryTimer {
+        static final ScheduledExecutorService EXECUTOR =
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "RestAdapter retries");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * The handle of an invocation made through {@link #request}.
+     */
+    private class RestRequestHandle extends RequestHandle {
+        private volatile Runnable abortAction;
+        private volatile InFlightRequests inFlight;
+        private String key;
+        private Transport.Listener caller;
+
+        /**
+         * Makes the caller the only owner of the exchange.
+         * @param abortAction Aborts the exchange.
+         */
+        void own(Runnable abortAction) {
+            this.abortAction = abortAction;
+            if (isCancelled()) {
+                abortAction.run();
+            }
+        }
+
+        void share(InFlightRequests inFlight, String key,
+                   Transport.Listener caller) {
+            this.key = key;
+            this.caller = caller;
+            this.inFlight = inFlight;
+            if (isCancelled()) {
+                inFlight.leave(key, caller);
+            }
+        }
+
+        @Override
+        protected void onCancel() {
+            activeHandles.remove(this);
+            cancellationStats.addCancelled();
+            InFlightRequests shared = inFlight;
+            Runnable owned = abortAction;
+            if (shared != null) {
+                // The exchange is aborted when all callers left.
+                shared.leave(key, caller);
+            }
+            else if (owned != null) {
+                owned.run();
+            }
+        }
+
+        @Override
+        protected void onFinish() {
+            activeHandles.remove(this);
+        }
+    }
+
+    /**
+     * A method with the route resolved from the contract once.
+     */
+    private class RestRemoteMethod extends RemoteMethod {
+        private final String verb;
+        private final UrlTemplate template;
+        private final String fixedPath;
+        private final ParameterEncoding parameterEncoding;
+        private final CachePolicy cachePolicy;
+        private final RetryPolicy retryPolicy;
+        private final CompressionStats stats;
+
+        RestRemoteMethod(String method, boolean instanceMethod) {
+            super(method, instanceMethod);
+            if (contract == null) {
+                throw new IllegalStateException("Invalid contract");
+            }
+            verb = contract.getVerbForMethod(method);
+            template = contract.getUrlTemplateForMethod(method);
+            fixedPath = template == null
+                    ? contract.getUrlForMethodWithoutItem(method)
+                    : null;
+            parameterEncoding = contract.getParameterEncodingForMethod(method);
+            cachePolicy = contract.getCachePolicyForMethod(method);
+            retryPolicy = contract.getRetryPolicyForMethod(method);
+            stats = statsFor(method);
+        }
+
+        @Override
+        public RequestHandle invoke(Map<String, ? extends Object> constructorParameters,
+                                    Map<String, ? extends Object> parameters,
+                                    Callback callback) {
+            return invoke(constructorParameters, parameters,
+                    new CallbackHandler(callback));
+        }
+
+        @Override
+        public RequestHandle invoke(Map<String, ? extends Object> constructorParameters,
+                                    Map<String, ? extends Object> parameters,
+                                    BinaryCallback callback) {
+            return invoke(constructorParameters, parameters,
+                    new BinaryHandler(callback));
+        }
+
+        @Override
+        public RequestHandle invoke(Map<String, ? extends Object> constructorParameters,
+                                    Map<String, ? extends Object> parameters,
+                                    StreamCallback callback) {
+            return invoke(constructorParameters, parameters,
+                    new StreamHandler(callback));
+        }
+
+        private RequestHandle invoke(Map<String, ? extends Object> constructorParameters,
+                                     Map<String, ? extends Object> parameters,
+                                     ResponseHandler httpHandler) {
+            if (isInstanceMethod() && constructorParameters != null) {
+                parameters = combineParameters(constructorParameters,
+                        parameters);
+            }
+            String path = template != null
+                    ? template.expand(parameters)
+                    : fixedPath;
+            return request(stats, priorityFor(getName()), path, verb,
+                    withoutPathParameters(template, verb, parameters),
+                    parameterEncoding, cachePolicy, retryPolicy, httpHandler);
+        }
     }
 
     /**
-     * {@inheritDoc}
-     *
-     * @throws IllegalStateException if the contract is not set
-     * (see {@link #setContract(RestContract)})
-     * or the adapter is not connected.
+     * The base of listeners delivering the decoded response to the thread
+     * that invoked the remote method.
      */
-    @Override
-    public void invokeStaticMethod(String method,
-                                   Map<String, ? extends Object> parameters,
-                                   final BinaryCallback callback) {
-        AsyncHttpResponseHandler httpHandler = new BinaryHandler(callback);
-        invokeStaticMethod(method, parameters, httpHandler);
-    }
+    abstract class ResponseHandler implements Transport.Listener {
+        private final Handler handler;
+        private final String type;
+        final RestRequestHandle handle = new RestRequestHandle();
+
+        public ResponseHandler(String type) {
+            Looper looper = Looper.myLooper();
+            this.handler = looper != null ? new Handler(looper) : null;
+            this.type = type;
+        }
 
-    private void invokeStaticMethod(String method, Map<String, ? extends Object> parameters, AsyncHttpResponseHandler httpHandler) {
-        if (contract == null) {
-            throw new IllegalStateException("Invalid contract");
+        @Override
+        public void onResponse(TransportResponse response) throws Exception {
+            if (handle.isCancelled()) {
+                // The body is closed unread.
+                cancellationStats.addSkippedResponse(
+                        response.getContentLength());
+                return;
+            }
+            int statusCode = response.getStatusCode();
+            if (statusCode >= 300) {
+                byte[] body = InFlightRequests.readFully(response.getBody());
+                onFailure(statusCode, body, new HttpResponseException(
+                        statusCode, response.getReasonPhrase()));
+                return;
+            }
+            onSuccess(response);
         }
 
-        String verb = contract.getVerbForMethod(method);
-        String path = contract.getUrlForMethod(method, parameters);
-        ParameterEncoding parameterEncoding = contract.getParameterEncodingForMethod(method);
+        @Override
+        public void onFailure(Throwable error) {
+            if (handle.isCancelled()) return;
+            onFailure(0, null, error);
+        }
+
+        /**
+         * Processes a successful response on the background thread.
+         */
+        protected abstract void onSuccess(TransportResponse response)
+                throws Exception;
+
+        /**
+         * Reports the error on the thread that invoked the remote method.
+         */
+        protected abstract void onError(Throwable error);
+
+        protected void onFailure(int statusCode, byte[] body,
+                                 final Throwable error) {
+            logFailure(type, statusCode, body, error);
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    onError(error);
+                }
+            });
+        }
 
-        request(path, verb, parameters, parameterEncoding, httpHandler);
+        /**
+         * Runs the task on the thread that invoked the remote method, or
+         * immediately when that thread has no {@link Looper}. The task is
+         * skipped when the invocation was cancelled in the meantime.
+         */
+        protected void post(final Runnable task) {
+            Runnable delivery = new Runnable() {
+                @Override
+                public void run() {
+                    if (handle.finish()) {
+                        task.run();
+                    }
+                }
+            };
+            if (handler != null) {
+                handler.post(delivery);
+            }
+            else {
+                delivery.run();
+            }
+        }
     }
 
+    // Whether callbacks of the class are decoded, see usesDecoder.
+    private static final Map<Class<?>, Boolean> DECODERS =
+            new MapMaker().weakKeys().makeMap();
+
     /**
-     * {@inheritDoc}
-     *
-     * @throws IllegalStateException if the contract is not set
-     * (see {@link #setContract(RestContract)})
-     * or the adapter is not connected.
+     * Checks whether the response of the callback can be decoded by
+     * {@link DecodingCallback#decode(String)}. A subclass overriding
+     * {@link Callback#onSuccess(String)} expects the body there instead.
      */
-    @Override
-    public void invokeInstanceMethod(String method,
-            Map<String, ? extends Object> constructorParameters,
-            Map<String, ? extends Object> parameters,
-            final Callback callback) {
-        AsyncHttpResponseHandler httpHandler = new CallbackHandler(callback);
-        invokeInstanceMethod(method, constructorParameters, parameters, httpHandler);
+    static boolean usesDecoder(Callback callback) {
+        if (!(callback instanceof DecodingCallback)) return false;
+        Class<?> type = callback.getClass();
+        Boolean result = DECODERS.get(type);
+        if (result == null) {
+            try {
+                Class<?> onSuccess = type.getMethod("onSuccess", String.class)
+                        .getDeclaringClass();
+                Class<?> decode = type.getMethod("decode", String.class)
+                        .getDeclaringClass();
+                result = onSuccess.isAssignableFrom(decode);
+            } catch (NoSuchMethodException e) {
+                result = false;
+            }
+            DECODERS.put(type, result);
+        }
+        return result;
     }
 
-    /**
-     * {@inheritDoc}
-     *
-     * @throws IllegalStateException if the contract is not set
-     * (see {@link #setContract(RestContract)})
-     * or the adapter is not connected.
-     */
-    @Override
-    public void invokeInstanceMethod(String method,
-                                     Map<String, ? extends Object> constructorParameters,
-                                     Map<String, ? extends Object> parameters,
-                                     final BinaryCallback callback) {
-        AsyncHttpResponseHandler httpHandler = new BinaryHandler(callback);
-        invokeInstanceMethod(method, constructorParameters, parameters, httpHandler);
-    };
+    class CallbackHandler extends ResponseHandler {
+        private final Callback callback;
 
-    private void invokeInstanceMethod(String method,
-                                      Map<String, ? extends Object> constructorParameters,
-                                      Map<String, ? extends Object> parameters,
-                                      AsyncHttpResponseHandler httpHandler) {
-        if (contract == null) {
-            throw new IllegalStateException("Invalid contract");
+        public CallbackHandler(Callback callback) {
+            super("string");
+            this.callback = callback;
         }
 
-        Map<String, Object> combinedParameters = new HashMap<String, Object>();
-        if (constructorParameters != null) {
-            combinedParameters.putAll(constructorParameters);
-        }
-        if (parameters != null) {
-            combinedParameters.putAll(parameters);
+        @Override
+        protected void onSuccess(TransportResponse response) throws Exception {
+            final String body = new String(
+                    InFlightRequests.readFully(response.getBody()), CHARSET);
+            if (usesDecoder(callback)) {
+                decode((DecodingCallback) callback, body);
+                return;
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (Log.isLoggable(TAG, Log.DEBUG))
+                            Log.d(TAG, "Success (string): " + body);
+                        callback.onSuccess(body);
+                    } catch (Throwable t) {
+                        callback.onError(t);
+                    }
+                }
+            });
         }
 
-        String verb = contract.getVerbForMethod(method);
-        String path = contract.getUrlForMethod(method, combinedParameters);
-        ParameterEncoding parameterEncoding = contract.getParameterEncodingForMethod(method);
-
-        request(path, verb, combinedParameters, parameterEncoding, httpHandler);
-    }
+        @Override
+        protected void onError(Throwable error) {
+            callback.onError(error);
+        }
 
-    private void request(String path,
-                         String verb,
-                         Map<String, ? extends Object> parameters,
-                         ParameterEncoding parameterEncoding,
-                         AsyncHttpResponseHandler responseHandler) {
+        private void decode(final DecodingCallback decoder, final String body) {
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    if (handle.isCancelled()) {
+                        cancellationStats.addSkippedResponse(-1);
+                        return;
+                    }
+                    if (Log.isLoggable(TAG, Log.DEBUG))
+                        Log.d(TAG, "Success (string): " + body);
+                    long start = System.nanoTime();
+                    final Runnable delivery;
+                    try {
+                        delivery = decoder.decode(body);
+                    } catch (final Throwable t) {
+                        post(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onError(t);
+                            }
+                        });
+                        return;
+                    } finally {
+                        decodeStats.add(System.nanoTime() - start);
+                    }
+                    // Exceptions thrown by the delivery come from the
+                    // application's callback, they are not reported to it
+                    // again through onError.
+                    post(delivery);
+                }
+            };
 
-        if (!isConnected()) {
-            throw new IllegalStateException("Adapter not connected");
+            Executor executor = decodeExecutor;
+            if (executor != null) {
+                executor.execute(task);
+            }
+            else {
+                task.run();
+            }
         }
-
-        client.request(verb, path, parameters, parameterEncoding, responseHandler);
     }
 
-    class CallbackHandler extends AsyncHttpResponseHandler {
-        private final Callback callback;
+    class BatchHandler extends ResponseHandler {
+        private final List<Batch.Call> calls;
+        private final Batch.CompletionCallback callback;
 
-        public CallbackHandler(Callback callback) {
+        public BatchHandler(List<Batch.Call> calls,
+                            Batch.CompletionCallback callback) {
+            super("batch");
+            this.calls = calls;
             this.callback = callback;
         }
 
         @Override
-        public void onSuccess(int status, Header[] headers, byte[] body) {
+        protected void onSuccess(TransportResponse response) throws Exception {
+            final byte[] body = InFlightRequests.readFully(response.getBody());
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch(body);
+                }
+            });
+        }
+
+        private void dispatch(byte[] body) {
+            JSONArray responses = null;
+            Throwable error = null;
             try {
-                String response = body == null ? null : new String(body, getCharset());
-                if (Log.isLoggable(TAG, Log.DEBUG))
-                    Log.d(TAG, "Success (string): " + response);
-                callback.onSuccess(response);
+                Object json = new JSONTokener(new String(body, CHARSET)).nextValue();
+                if (json instanceof JSONArray &&
+                        ((JSONArray) json).length() == calls.size()) {
+                    responses = (JSONArray) json;
+                }
+                else {
+                    error = new JSONException(
+                            "Expecting a JSON array of " + calls.size() +
+                            " responses: " + json);
+                }
             } catch (Throwable t) {
-                callback.onError(t);
+                error = t;
+            }
+
+            for (int i = 0; i < calls.size(); i++) {
+                Callback target = calls.get(i).getCallback();
+                try {
+                    if (responses == null) {
+                        target.onError(error);
+                        continue;
+                    }
+                    JSONObject response = responses.optJSONObject(i);
+                    if (response == null) {
+                        target.onError(new JSONException(
+                                "Invalid batch response: " + responses.opt(i)));
+                        continue;
+                    }
+                    int statusCode = response.optInt("status");
+                    String responseBody = response.isNull("body")
+                            ? null : response.optString("body");
+                    if (statusCode >= 200 && statusCode < 300) {
+                        if (Log.isLoggable(TAG, Log.DEBUG))
+                            Log.d(TAG, "Success (batch): " + responseBody);
+                        target.onSuccess(responseBody);
+                    }
+                    else {
+                        logFailure("batch", statusCode,
+                                responseBody != null ? responseBody.getBytes() : null,
+                                null);
+                        target.onError(new HttpResponseException(statusCode,
+                                responseBody));
+                    }
+                } catch (Throwable t) {
+                    target.onError(t);
+                }
             }
+
+            if (callback != null) callback.onComplete();
         }
 
         @Override
-        public void onFailure(int statusCode,
-                              org.apache.http.Header[] headers,
-                              byte[] responseBody,
-                              java.lang.Throwable error) {
-            if (Log.isLoggable(TAG, Log.WARN)) {
-                String message;
-                if (error != null) {
-                    message = error.toString();
-                } else {
-                    message = statusCode + "\n";
-                    try {
-                        message += new String(responseBody, getCharset());
-                    } catch (UnsupportedEncodingException e) {
-                        message += new String(responseBody);
+        protected void onFailure(int statusCode, byte[] body, Throwable error) {
+            if (statusCode == 404 || statusCode == 405 || statusCode == 501) {
+                Log.w(TAG, "Batch requests are not supported by the server, " +
+                        "falling back to separate requests");
+                batchUnsupported = true;
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        executeSequentially(calls.iterator(), callback);
                     }
-                }
-                Log.w(TAG, "HTTP request (string) failed: " + message);
+                });
+                return;
             }
-            callback.onError(error);
+            super.onFailure(statusCode, body, error);
+        }
+
+        @Override
+        protected void onError(Throwable error) {
+            for (Batch.Call call : calls) {
+                call.getCallback().onError(error);
+            }
+            if (callback != null) callback.onComplete();
         }
     }
 
-    class BinaryHandler extends BinaryHttpResponseHandler {
+    class BinaryHandler extends ResponseHandler {
         private final BinaryCallback callback;
 
         public BinaryHandler(BinaryCallback callback) {
-            super(new String[]{ ".*" });
+            super("binary");
             this.callback = callback;
         }
 
         @Override
-        public void onFailure(int statusCode,
-                              org.apache.http.Header[] headers,
-                              byte[] responseBody,
-                              java.lang.Throwable error) {
-            if (Log.isLoggable(TAG, Log.WARN)) {
-                String message;
-                if (error != null) {
-                    message = error.toString();
-                } else {
-                    message = statusCode + "\n";
+        protected void onSuccess(TransportResponse response) throws Exception {
+            final byte[] binaryData = InFlightRequests.readFully(response.getBody());
+            final String contentType = response.getContentType();
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (Log.isLoggable(TAG, Log.DEBUG))
+                        Log.d(TAG, "Success (binary): " + binaryData.length + " bytes");
                     try {
-                        message += new String(responseBody, getCharset());
-                    } catch (UnsupportedEncodingException e) {
-                        message += new String(responseBody);
+                        callback.onSuccess(binaryData, contentType);
+                    } catch (Throwable t) {
+                        callback.onError(t);
                     }
                 }
-                Log.w(TAG, "HTTP request (binary) failed: " + message);
-            }
+            });
+        }
+
+        @Override
+        protected void onError(Throwable error) {
             callback.onError(error);
         }
+    }
+
+    class StreamHandler extends ResponseHandler {
+        private final StreamCallback callback;
+
+        public StreamHandler(StreamCallback callback) {
+            super("stream");
+            this.callback = callback;
+        }
 
+        // Runs on the background thread, the body is handed over to
+        // the callback as a stream instead of being buffered first.
+        // The invocation can be cancelled until the body was read, reading
+        // fails once the request is aborted.
         @Override
-        public void onSuccess(int statusCode, Header[] headers, byte[] binaryData) {
+        protected void onSuccess(TransportResponse response) throws Exception {
+            callback.onResponse(response.getBody(), response.getContentType(),
+                    response.getContentLength());
+            handle.finish();
             if (Log.isLoggable(TAG, Log.DEBUG))
-                Log.d(TAG, "Success (binary): " + binaryData.length + " bytes");
-            try {
-                String contentType = null;
-                for (Header h: headers) {
-                    if (h.getName().equalsIgnoreCase("content-type"))
-                        contentType = h.getValue();
+                Log.d(TAG, "Success (stream)");
+        }
+
+        @Override
+        protected void onError(Throwable error) {
+            callback.onError(error);
+        }
+    }
+
+    private static void logFailure(String type, int statusCode,
+                                   byte[] responseBody, Throwable error) {
+        if (!Log.isLoggable(TAG, Log.WARN)) return;
+        String message;
+        if (error != null) {
+            message = error.toString();
+        } else {
+            message = statusCode + "\n";
+            if (responseBody != null) {
+                try {
+                    message += new String(responseBody, CHARSET);
+                } catch (UnsupportedEncodingException e) {
+                    message += new String(responseBody);
                 }
-                callback.onSuccess(binaryData, contentType);
-            } catch (Throwable t) {
-                callback.onError(t);
             }
         }
+        Log.w(TAG, "HTTP request (" + type + ") failed: " + message);
     }
 
     //
@@ -333,8 +1719,26 @@ public class RestAdapter extends Adapter {
             return deviceName;
         }
 
+        // Multipart entities report the upload progress to a handler.
+        private static final ResponseHandlerInterface PROGRESS_IGNORED =
+                new AsyncHttpResponseHandler(Looper.getMainLooper()) {
+                    @Override
+                    public void onSuccess(int statusCode, Header[] headers,
+                                          byte[] body) {
+                    }
+
+                    @Override
+                    public void onFailure(int statusCode, Header[] headers,
+                                          byte[] body, Throwable error) {
+                    }
+                };
+
         private Context context;
         private String baseUrl;
+        private final Uri baseUri;
+        private String userAgent;
+        private final Map<String, String> clientHeaders =
+                new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
 
         public RestHttpClient(Context context, String baseUrl) {
             if (baseUrl == null) {
@@ -349,6 +1753,7 @@ public class RestAdapter extends Adapter {
             if (!this.baseUrl.endsWith("/")) {
                 this.baseUrl += "/";
             }
+            this.baseUri = Uri.parse(this.baseUrl);
 
             // More useful User-Agent, similar to AFNetworing.
             String appName;
@@ -368,39 +1773,52 @@ public class RestAdapter extends Adapter {
             setUserAgent(userAgent);
         }
 
-        public void request(String method, String path,
-                Map<String, ? extends Object> parameters,
-                ParameterEncoding parameterEncoding,
-                final AsyncHttpResponseHandler httpCallback) {
-            Uri.Builder uri = Uri.parse(baseUrl).buildUpon();
-            if (path != null) {
-                if (path.startsWith("/")) {
-                    uri.appendEncodedPath(path.substring(1));
-                }
-                else {
-                    uri.appendEncodedPath(path);
-                }
+        @Override
+        public void setUserAgent(String userAgent) {
+            super.setUserAgent(userAgent);
+            this.userAgent = userAgent;
+        }
+
+        @Override
+        public void addHeader(String header, String value) {
+            super.addHeader(header, value);
+            synchronized (clientHeaders) {
+                clientHeaders.put(header, value);
+            }
+        }
+
+        @Override
+        public void removeHeader(String header) {
+            super.removeHeader(header);
+            synchronized (clientHeaders) {
+                clientHeaders.remove(header);
+            }
+        }
+
+        @Override
+        public void removeAllHeaders() {
+            super.removeAllHeaders();
+            synchronized (clientHeaders) {
+                clientHeaders.clear();
             }
+        }
+
+        /**
+         * Resolves the request: builds the URL, encodes the parameters and
+         * adds the client headers.
+         */
+        public TransportRequest buildRequest(String method, String path,
+                Map<String, ? extends Object> parameters,
+                ParameterEncoding parameterEncoding) {
+            Uri uri = buildUri(method, path, parameters);
             AbstractHttpEntity body = null;
+            JsonBody jsonBody = null;
             RequestParams requestParams = null;
             String charset = "utf-8";
 
             if (parameters != null) {
-                if ("GET".equalsIgnoreCase(method) ||
-                        "HEAD".equalsIgnoreCase(method) ||
-                        "DELETE".equalsIgnoreCase(method)) {
-
-                    try {
-                        for (Map.Entry<String, ? extends Object> entry :
-                                flattenParameters(parameters).entrySet()) {
-                            uri.appendQueryParameter(entry.getKey(),
-                                    String.valueOf(entry.getValue()));
-                        }
-                    } catch(JSONException ex) {
-                        // FIXME(bajtos) we should rethrow
-                        Log.e(TAG, "Couldn't convert parameters to JSON", ex);
-                    }
-
+                if (hasQueryParameters(method)) {
+                    // Parameters were added to the query string by buildUri.
                 }
                 else if (parameterEncoding == ParameterEncoding.FORM_URL) {
                 	// NOTE: Code for "x-www-form-urlencoded" is not used
@@ -442,52 +1860,85 @@ public class RestAdapter extends Adapter {
                     }
                 }
                 else if (parameterEncoding == ParameterEncoding.JSON) {
-                    String s = "";
-                    try {
-                        s = String.valueOf(JsonUtil.toJson(parameters));
-                    }
-                    catch (JSONException e) {
-                        // FIXME(bajtos) we should rethrow
-                        Log.e(TAG, "Couldn't convert parameters to JSON", e);
-                    }
-                    try {
-                        body = new StringEntity(s, charset);
-                        body.setContentType("application/json; charset=" + charset);
-                    }
-                    catch (UnsupportedEncodingException e) {
-                        // Won't happen
-                        Log.e(TAG, "Couldn't encode JSON params", e);
-                    }
+                    jsonBody = new JsonBody(parameters);
                 }
 
             }
 
-            Header[] headers = {
-                    new BasicHeader("Accept", "application/json"),
-            };
+            List<Header> headers = new ArrayList<Header>();
+            headers.add(new BasicHeader("Accept", "application/json"));
+            synchronized (clientHeaders) {
+                for (Map.Entry<String, String> entry : clientHeaders.entrySet()) {
+                    if (entry.getValue() != null &&
+                            !"Accept".equalsIgnoreCase(entry.getKey())) {
+                        headers.add(new BasicHeader(entry.getKey(), entry.getValue()));
+                    }
+                }
+            }
+            if (userAgent != null) {
+                headers.add(new BasicHeader("User-Agent", userAgent));
+            }
 
-            String url = uri.build().toString();
+            String url = uri.toString();
             logRequest(method, url, body, requestParams);
 
-            if ("GET".equalsIgnoreCase(method)) {
-                get(context, url, headers, null, httpCallback);
-            }
-            else if ("DELETE".equalsIgnoreCase(method)) {
-                delete(context, url, headers, httpCallback);
+            HttpEntity entity = body;
+            if (requestParams != null) {
+                try {
+                    entity = requestParams.getEntity(PROGRESS_IGNORED);
+                }
+                catch (IOException e) {
+                    IllegalArgumentException ex = new IllegalArgumentException(
+                            "Invalid multipart parameters");
+                    ex.initCause(e);
+                    throw ex;
+                }
             }
-            else if ("POST".equalsIgnoreCase(method)) {
-                if (requestParams != null)
-                    post(context, url, headers, requestParams, null, httpCallback);
-                else
-                    post(context, url, headers, body, null, httpCallback);
+
+            RequestBody requestBody = jsonBody;
+            if (entity != null) {
+                requestBody = new EntityBody(entity);
             }
-            else if ("PUT".equalsIgnoreCase(method)) {
-                put(context, url, headers, body, null, httpCallback);
+            return new TransportRequest(method, url,
+                    headers.toArray(new Header[headers.size()]),
+                    requestBody);
+        }
+
+        /**
+         * Builds the URL of a request, adding the parameters to the query
+         * string for verbs that don't have a request body.
+         */
+        public Uri buildUri(String method, String path,
+                            Map<String, ? extends Object> parameters) {
+            Uri.Builder uri = baseUri.buildUpon();
+            if (path != null) {
+                if (path.startsWith("/")) {
+                    uri.appendEncodedPath(path.substring(1));
+                }
+                else {
+                    uri.appendEncodedPath(path);
+                }
             }
-            else {
-                throw new IllegalArgumentException("Illegal method: " +
-                        method + ". Only GET, POST, PUT, DELETE supported.");
+
+            if (parameters != null && hasQueryParameters(method)) {
+                try {
+                    for (Map.Entry<String, ? extends Object> entry :
+                            flattenParameters(parameters).entrySet()) {
+                        uri.appendQueryParameter(entry.getKey(),
+                                String.valueOf(entry.getValue()));
+                    }
+                } catch(JSONException ex) {
+                    // FIXME(bajtos) we should rethrow
+                    Log.e(TAG, "Couldn't convert parameters to JSON", ex);
+                }
             }
+            return uri.build();
+        }
+
+        public static boolean hasQueryParameters(String method) {
+            return "GET".equalsIgnoreCase(method) ||
+                    "HEAD".equalsIgnoreCase(method) ||
+                    "DELETE".equalsIgnoreCase(method);
         }
 
         private void logRequest(String method, String url, AbstractHttpEntity body, RequestParams requestParams) {
@@ -554,4 +2005,114 @@ public class RestAdapter extends Adapter {
             return requestParams;
         }
     }
+
+    /**
+     * Writes the parameters as a JSON object, see {@link JsonStreamWriter}.
+     * The parameters are encoded while the request is sent, straight to the
+     * connection: no {@link JSONObject} tree, String or byte buffer is built.
+     * A shallow copy of the parameters keeps later changes to the map out
+     * of the request. The length is unknown, the body is sent using chunked
+     * transfer encoding.
+     */
+    private static class JsonBody extends RequestBody {
+        private final Map<String, Object> parameters;
+
+        JsonBody(Map<String, ? extends Object> parameters) {
+            this.parameters = new LinkedHashMap<String, Object>(parameters);
+        }
+
+        @Override
+        public String getContentType() {
+            return "application/json; charset=utf-8";
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        long estimateLength() {
+            return estimateLength(parameters, 0);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            Writer writer = new OutputStreamWriter(out, CHARSET);
+            try {
+                new JsonStreamWriter(writer).value(parameters);
+            }
+            catch (JSONException e) {
+                IOException ex = new IOException(
+                        "Couldn't convert parameters to JSON");
+                ex.initCause(e);
+                throw ex;
+            }
+            writer.flush();
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        /**
+         * Sums the lengths of the strings in the value, without encoding it.
+         */
+        private static long estimateLength(Object value, int depth) {
+            if (value instanceof CharSequence) {
+                return ((CharSequence) value).length() + 2;
+            }
+            if (depth > 8) {
+                return 16;
+            }
+            long length = 2;
+            if (value instanceof Map) {
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    length += estimateLength(entry.getKey(), depth + 1) + 2 +
+                            estimateLength(entry.getValue(), depth + 1);
+                }
+                return length;
+            }
+            if (value instanceof Collection) {
+                for (Object item : (Collection<?>) value) {
+                    length += estimateLength(item, depth + 1) + 1;
+                }
+                return length;
+            }
+            return value instanceof Number ? 8 : 4;
+        }
+    }
+
+    /**
+     * Writes an {@link HttpEntity} built by {@link RestHttpClient}.
+     */
+    private static class EntityBody extends RequestBody {
+        private final HttpEntity entity;
+
+        EntityBody(HttpEntity entity) {
+            this.entity = entity;
+        }
+
+        @Override
+        public String getContentType() {
+            Header contentType = entity.getContentType();
+            return contentType != null ? contentType.getValue() : null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return entity.getContentLength();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            entity.writeTo(out);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return entity.isRepeatable();
+        }
+    }
 }
@@ -87,6 +87,23 @@ public class RestContract {
         return item != null ? item.getPattern() : null;
     }
 
+    /**
+     * Returns the compiled pattern representing the given method string, or
+     * <code>null</code> if no custom pattern exists.
+     * @param method The method to resolve.
+     * @return The template if a custom pattern exists, <code>null</code>
+     * otherwise.
+     */
+    public UrlTemplate getUrlTemplateForMethod(String method) {
+        if (method == null) {
+            throw new IllegalArgumentException("Method cannot be null");
+        }
+
+        RestContractItem item = items.get(method);
+
+        return item != null ? item.getUrlTemplate() : null;
+    }
+
     /**
      * Gets the HTTP verb for the given method string.
      * @param method The method to resolve.
@@ -120,6 +137,39 @@ public class RestContract {
                 : RestAdapter.ParameterEncoding.JSON;
     }
 
+    /**
+     * Gets the CachePolicy for the given method.
+     *
+     * @param method The method to resolve.
+     * @return The cache policy, or {@link CachePolicy#DEFAULT} if it isn't
+     * defined.
+     */
+    public CachePolicy getCachePolicyForMethod(String method) {
+        if (method == null) {
+            throw new IllegalArgumentException("Method cannot be null");
+        }
+
+        RestContractItem item = items.get(method);
+
+        return item != null ? item.getCachePolicy() : CachePolicy.DEFAULT;
+    }
+
+    /**
+     * Gets the RetryPolicy for the given method.
+     *
+     * @param method The method to resolve.
+     * @return The retry policy, or <code>null</code> if it isn't defined.
+     */
+    public RetryPolicy getRetryPolicyForMethod(String method) {
+        if (method == null) {
+            throw new IllegalArgumentException("Method cannot be null");
+        }
+
+        RestContractItem item = items.get(method);
+
+        return item != null ? item.getRetryPolicy() : null;
+    }
+
     /**
      * Resolves a specific method, replacing pattern fragments with the optional
      * parameters as appropriate.
@@ -133,10 +183,10 @@ public class RestContract {
             throw new IllegalArgumentException("Method cannot be null");
         }
 
-        String pattern = getPatternForMethod(method);
+        UrlTemplate template = getUrlTemplateForMethod(method);
 
-        if (pattern != null) {
-            return getUrl(pattern, parameters);
+        if (template != null) {
+            return template.expand(parameters);
         }
         else {
             return getUrlForMethodWithoutItem(method);
@@ -161,7 +211,7 @@ public class RestContract {
      * Returns a rendered URL pattern using the parameters provided. For
      * example, the pattern <code>"/widgets/:id"</code> with the parameters
      * that contain the value <code>"57"</code> for key <code>"id"</code>,
-     * begets <code>"/widgets/57"</code>.
+     * begets <code>"/widgets/57"</code>. The values are URL-encoded.
      * @param pattern The pattern to render.
      * @param parameters The values to render with.
      * @return The rendered URL.
@@ -172,18 +222,6 @@ public class RestContract {
             throw new IllegalArgumentException("Pattern cannot be null");
         }
 
-        String url = pattern;
-        if (parameters == null) {
-            return url;
-        }
-
-        for (Map.Entry<String, ? extends Object> entry :
-        	parameters.entrySet()) {
-            String key = ":" + entry.getKey();
-            String value = String.valueOf(entry.getValue());
-            url = url.replace(key, value);
-        }
-
-        return url;
+        return new UrlTemplate(pattern).expand(parameters);
     }
 }
@@ -7,8 +7,11 @@ package com.strongloop.android.remoting.adapters;
 public class RestContractItem {
 
     private final String pattern;
+    private final UrlTemplate urlTemplate;
     private final String verb;
     private final RestAdapter.ParameterEncoding parameterEncoding;
+    private final CachePolicy cachePolicy;
+    private final RetryPolicy retryPolicy;
 
     /**
      * Creates a new item encapsulating the given pattern and the default verb,
@@ -48,9 +51,48 @@ public class RestContractItem {
     private RestContractItem(String pattern,
                              String verb,
                              RestAdapter.ParameterEncoding parameterEncoding) {
+        this(pattern, verb, parameterEncoding, CachePolicy.DEFAULT, null);
+    }
+
+    private RestContractItem(String pattern,
+                             String verb,
+                             RestAdapter.ParameterEncoding parameterEncoding,
+                             CachePolicy cachePolicy,
+                             RetryPolicy retryPolicy) {
         this.pattern = pattern;
+        this.urlTemplate = new UrlTemplate(pattern);
         this.verb = verb;
         this.parameterEncoding = parameterEncoding;
+        this.cachePolicy = cachePolicy;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Creates a copy of this item using the given cache policy. The policy
+     * applies to GET routes when the adapter has a {@link ResponseCache}.
+     * @param cachePolicy The cache policy, e.g. {@link CachePolicy#NO_STORE}.
+     * @return The RestContractItem created.
+     */
+    public RestContractItem withCachePolicy(CachePolicy cachePolicy) {
+        if (cachePolicy == null) {
+            throw new IllegalArgumentException("Cache policy cannot be null");
+        }
+        return new RestContractItem(pattern, verb, parameterEncoding,
+                cachePolicy, retryPolicy);
+    }
+
+    /**
+     * Creates a copy of this item using the given retry policy instead of
+     * the policy of the adapter.
+     * @param retryPolicy The retry policy, e.g. {@link RetryPolicy#NONE}.
+     * @return The RestContractItem created.
+     */
+    public RestContractItem withRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new IllegalArgumentException("Retry policy cannot be null");
+        }
+        return new RestContractItem(pattern, verb, parameterEncoding,
+                cachePolicy, retryPolicy);
     }
 
     /**
@@ -62,6 +104,14 @@ public class RestContractItem {
         return pattern;
     }
 
+    /**
+     * Gets the pattern compiled for rendering URLs.
+     * @return the template.
+     */
+    public UrlTemplate getUrlTemplate() {
+        return urlTemplate;
+    }
+
     /**
      * Gets the verb corresponding to this route, e.g. <code>"GET"</code>.
      * @return the verb.
@@ -77,4 +127,22 @@ public class RestContractItem {
     public RestAdapter.ParameterEncoding getParameterEncoding() {
         return parameterEncoding;
     }
+
+    /**
+     * Gets the cache policy of this route.
+     * @return the cache policy, {@link CachePolicy#DEFAULT} unless configured
+     * via {@link #withCachePolicy(CachePolicy)}.
+     */
+    public CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    /**
+     * Gets the retry policy of this route.
+     * @return the retry policy, or <code>null</code> when the policy of
+     * the adapter applies.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
 }
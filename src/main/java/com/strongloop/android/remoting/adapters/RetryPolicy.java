@@ -0,0 +1,166 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.Random;
+
+/**
+ * Describes how a {@link RestAdapter} retries requests that failed because
+ * of a network error or a transient server error (408, 429, 502, 503
+ * and 504).
+ * <p>
+ * Only requests with idempotent verbs (GET, HEAD, OPTIONS, PUT and DELETE)
+ * are retried, unless the policy says otherwise. The delay before each
+ * retry is chosen at random between zero and an exponentially growing
+ * limit ("full jitter"), so that clients failing at the same time do not
+ * retry at the same time. A <code>Retry-After</code> header sent by the
+ * server takes precedence when it asks for a longer delay.
+ * <p>
+ * The policy is configured per adapter
+ * ({@link RestAdapter#setRetryPolicy(RetryPolicy)}) or per route, e.g.
+ * <pre>
+ * {@code
+ * contract.addItem(
+ *     new RestContractItem("/widgets/:id", "GET")
+ *         .withRetryPolicy(RetryPolicy.maxRetries(5).withBackoff(1000, 60000)),
+ *     "widgets.findById");
+ * }
+ * </pre>
+ */
+public class RetryPolicy {
+
+    /**
+     * Never retry.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0, false);
+
+    /**
+     * Retry idempotent requests twice, after up to 0.5 and 1 second.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(2, 500, 30000, false);
+
+    /**
+     * Creates a policy retrying idempotent requests the given number of
+     * times, with the backoff of {@link #DEFAULT}.
+     * @param retries The maximal number of retries.
+     * @return The policy.
+     */
+    public static RetryPolicy maxRetries(int retries) {
+        if (retries < 0) {
+            throw new IllegalArgumentException("Retries cannot be negative");
+        }
+        return new RetryPolicy(retries, DEFAULT.baseDelay, DEFAULT.maxDelay,
+                false);
+    }
+
+    private final int maxRetries;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final boolean allVerbs;
+
+    private RetryPolicy(int maxRetries, long baseDelay, long maxDelay,
+                        boolean allVerbs) {
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.allVerbs = allVerbs;
+    }
+
+    /**
+     * Creates a copy of this policy with the given backoff. The n-th retry
+     * waits up to <code>min(maxDelay, baseDelay * 2^(n-1))</code>.
+     * @param baseDelay The limit of the first delay in milliseconds.
+     * @param maxDelay The upper bound of all delays in milliseconds. Retries
+     *                 are abandoned when <code>Retry-After</code> asks for
+     *                 a longer delay.
+     * @return The new policy.
+     */
+    public RetryPolicy withBackoff(long baseDelay, long maxDelay) {
+        if (baseDelay < 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("Invalid backoff");
+        }
+        return new RetryPolicy(maxRetries, baseDelay, maxDelay, allVerbs);
+    }
+
+    /**
+     * Creates a copy of this policy that retries requests of all verbs,
+     * use it for POST routes the server implements idempotently.
+     * @return The new policy.
+     */
+    public RetryPolicy retryingAllVerbs() {
+        return new RetryPolicy(maxRetries, baseDelay, maxDelay, true);
+    }
+
+    /**
+     * @return The maximal number of retries.
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @return The limit of the first delay in milliseconds.
+     */
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    /**
+     * @return The upper bound of all delays in milliseconds.
+     */
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * @param verb The verb, e.g. <code>"GET"</code>.
+     * @return <code>true</code> if requests with the verb can be retried.
+     */
+    public boolean isRetryAllowed(String verb) {
+        if (maxRetries == 0) return false;
+        if (allVerbs) return true;
+        return "GET".equalsIgnoreCase(verb) ||
+                "HEAD".equalsIgnoreCase(verb) ||
+                "OPTIONS".equalsIgnoreCase(verb) ||
+                "PUT".equalsIgnoreCase(verb) ||
+                "DELETE".equalsIgnoreCase(verb);
+    }
+
+    /**
+     * @param statusCode The status code of a response.
+     * @return <code>true</code> if the status denotes a transient error.
+     */
+    public static boolean isTransientStatus(int statusCode) {
+        return statusCode == 408 || statusCode == 429 ||
+                statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * Computes the delay before a retry.
+     * @param retry The number of the retry, starting at 1.
+     * @param retryAfter The delay asked for by the server in milliseconds,
+     *                   -1 if none.
+     * @param random The source of the jitter.
+     * @return The delay in milliseconds, or -1 if the request should not be
+     * retried.
+     */
+    long getDelay(int retry, long retryAfter, Random random) {
+        if (retry > maxRetries || retryAfter > maxDelay) {
+            return -1;
+        }
+        long limit = baseDelay << Math.min(retry - 1, 30);
+        if (limit > maxDelay || limit < 0) {
+            limit = maxDelay;
+        }
+        long delay = limit > 0 ? (long) (random.nextDouble() * limit) : 0;
+        return Math.max(delay, retryAfter);
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{maxRetries=" + maxRetries +
+                ", baseDelay=" + baseDelay +
+                ", maxDelay=" + maxDelay +
+                ", allVerbs=" + allVerbs + "}";
+    }
+}
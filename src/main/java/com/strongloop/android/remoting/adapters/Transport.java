@@ -0,0 +1,78 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+/**
+ * The HTTP engine used by {@link RestAdapter} to send requests.
+ * <p>
+ * A transport receives a fully resolved {@link TransportRequest} and delivers
+ * the response as a stream to a {@link Listener}, on a background thread.
+ * The body is delivered as received, including any
+ * <code>Content-Encoding</code>, or already decoded by the underlying
+ * client, in which case the <code>Content-Encoding</code> and
+ * <code>Content-Length</code> headers are removed. Decoding the body and
+ * delivering the result to the application is left to the adapter.
+ *
+ * @see LoopjTransport
+ * @see UrlConnectionTransport
+ * @see RestAdapter#setTransport(Transport)
+ */
+public interface Transport {
+
+    /**
+     * Receives the outcome of a request. Exactly one of the methods is
+     * invoked, unless the request is cancelled before the response arrives.
+     */
+    public interface Listener {
+
+        /**
+         * The method invoked on a background thread when the server responded,
+         * regardless of the status code. The response body is closed when
+         * this method returns.
+         * @param response The response.
+         * @throws Exception When the response cannot be processed. The
+         * exception is passed to {@link #onFailure(Throwable)}.
+         */
+        public void onResponse(TransportResponse response) throws Exception;
+
+        /**
+         * The method invoked on a background thread when the request could
+         * not be completed, e.g. because of a network error.
+         * @param error The error.
+         */
+        public void onFailure(Throwable error);
+    }
+
+    /**
+     * A request in progress.
+     */
+    public interface Call {
+
+        /**
+         * Attempts to cancel the request. The listener is not invoked after
+         * a successful cancellation.
+         * @return <code>false</code> if the request could not be cancelled,
+         * typically because it has already completed.
+         */
+        public boolean cancel();
+
+        /**
+         * @return <code>true</code> if the request was cancelled.
+         */
+        public boolean isCancelled();
+
+        /**
+         * @return <code>true</code> if the request completed or was
+         * cancelled.
+         */
+        public boolean isFinished();
+    }
+
+    /**
+     * Sends the request.
+     * @param request The request.
+     * @param listener The listener receiving the response.
+     * @return The request in progress.
+     */
+    public Call execute(TransportRequest request, Listener listener);
+}
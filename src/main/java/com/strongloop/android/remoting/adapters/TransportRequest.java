@@ -0,0 +1,106 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * A resolved HTTP request passed to a {@link Transport}: the verb,
+ * the absolute URL including the query string, all headers to send
+ * and the optional body.
+ */
+public class TransportRequest {
+    private final String verb;
+    private final String url;
+    private final Header[] headers;
+    private final RequestBody body;
+
+    /**
+     * Creates a new request.
+     * @param verb The verb, e.g. <code>"GET"</code>.
+     * @param url The absolute URL, e.g.
+     * <code>"http://localhost:3000/widgets?filter=..."</code>.
+     * @param headers The headers to send. Can be <code>null</code>.
+     * @param body The body to send. Can be <code>null</code>.
+     */
+    public TransportRequest(String verb, String url, Header[] headers,
+                            RequestBody body) {
+        if (verb == null) {
+            throw new IllegalArgumentException("Verb cannot be null");
+        }
+        if (url == null) {
+            throw new IllegalArgumentException("URL cannot be null");
+        }
+        this.verb = verb.toUpperCase();
+        this.url = url;
+        this.headers = headers != null ? headers.clone() : new Header[0];
+        this.body = body;
+    }
+
+    /**
+     * Creates a copy of this request with an additional header.
+     * @param name The header name.
+     * @param value The header value.
+     * @return The new request.
+     */
+    public TransportRequest withHeader(String name, String value) {
+        Header[] newHeaders = new Header[headers.length + 1];
+        System.arraycopy(headers, 0, newHeaders, 0, headers.length);
+        newHeaders[headers.length] = new BasicHeader(name, value);
+        return new TransportRequest(verb, url, newHeaders, body);
+    }
+
+    /**
+     * Creates a copy of this request with a different body.
+     * @param body The new body. Can be <code>null</code>.
+     * @return The new request.
+     */
+    public TransportRequest withBody(RequestBody body) {
+        return new TransportRequest(verb, url, headers, body);
+    }
+
+    /**
+     * Gets the verb in upper case, e.g. <code>"GET"</code>.
+     * @return the verb.
+     */
+    public String getVerb() {
+        return verb;
+    }
+
+    /**
+     * Gets the absolute URL including the query string.
+     * @return the URL.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Gets the headers to send.
+     * @return the headers, never <code>null</code>.
+     */
+    public Header[] getHeaders() {
+        return headers.clone();
+    }
+
+    /**
+     * Gets the value of the first header with the given name.
+     * @param name The header name, case insensitive.
+     * @return the value or <code>null</code>.
+     */
+    public String getHeader(String name) {
+        for (Header h : headers) {
+            if (h.getName().equalsIgnoreCase(name)) return h.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Gets the body to send.
+     * @return the body or <code>null</code>.
+     */
+    public RequestBody getBody() {
+        return body;
+    }
+}
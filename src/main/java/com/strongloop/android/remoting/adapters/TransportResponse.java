@@ -0,0 +1,105 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import org.apache.http.Header;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * An HTTP response delivered by a {@link Transport}. The body is streamed
+ * from the connection and can be read only once.
+ */
+public class TransportResponse {
+    private final int statusCode;
+    private final String reasonPhrase;
+    private final Header[] headers;
+    private final InputStream body;
+    private final long contentLength;
+
+    /**
+     * Creates a new response.
+     * @param statusCode The status code, e.g. 200.
+     * @param reasonPhrase The reason phrase, e.g. "OK". Can be
+     * <code>null</code>.
+     * @param headers The response headers. Can be <code>null</code>.
+     * @param body The response body. Can be <code>null</code> when the
+     * response has no body.
+     * @param contentLength The length of the body in bytes, or -1 if unknown.
+     */
+    public TransportResponse(int statusCode, String reasonPhrase,
+                             Header[] headers, InputStream body,
+                             long contentLength) {
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+        this.headers = headers != null ? headers : new Header[0];
+        this.body = body != null ? body : new ByteArrayInputStream(new byte[0]);
+        this.contentLength = body != null ? contentLength : 0;
+    }
+
+    /**
+     * Creates a copy of this response with a different body.
+     * @param body The new body.
+     * @param contentLength The length of the new body, or -1 if unknown.
+     * @return The new response.
+     */
+    public TransportResponse withBody(InputStream body, long contentLength) {
+        return new TransportResponse(statusCode, reasonPhrase, headers, body,
+                contentLength);
+    }
+
+    /**
+     * @return The status code, e.g. 200.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return The reason phrase, e.g. "OK", or <code>null</code>.
+     */
+    public String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    /**
+     * @return The response headers, never <code>null</code>.
+     */
+    public Header[] getHeaders() {
+        return headers.clone();
+    }
+
+    /**
+     * Gets the value of the first header with the given name.
+     * @param name The header name, case insensitive.
+     * @return the value or <code>null</code>.
+     */
+    public String getHeader(String name) {
+        for (Header h : headers) {
+            if (h.getName().equalsIgnoreCase(name)) return h.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * @return The value of the "Content-Type" header or <code>null</code>.
+     */
+    public String getContentType() {
+        return getHeader("Content-Type");
+    }
+
+    /**
+     * @return The length of the body in bytes, or -1 if unknown.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @return The response body, never <code>null</code>.
+     */
+    public InputStream getBody() {
+        return body;
+    }
+}
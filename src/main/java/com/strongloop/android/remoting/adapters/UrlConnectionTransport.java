@@ -0,0 +1,320 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import android.util.Log;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link Transport} based on {@link HttpURLConnection}.
+ * <p>
+ * Requests are executed on a fixed pool of threads, one per connection.
+ * The platform's keep-alive pool is shared by the whole process and is
+ * sized by the <code>http.maxConnections</code> system property; the
+ * transport leaves it to the application to raise it when using more
+ * than {@link #DEFAULT_MAX_CONNECTIONS} connections.
+ * <pre>
+ * {@code
+ * UrlConnectionTransport transport = new UrlConnectionTransport(8);
+ * transport.setStreamingMode(UrlConnectionTransport.StreamingMode.CHUNKED);
+ * adapter.setTransport(transport);
+ * }
+ * </pre>
+ */
+public class UrlConnectionTransport implements Transport {
+    private static final String TAG = "remoting.UrlConnection";
+
+    /**
+     * The default number of concurrent connections, the same as
+     * the platform default of <code>http.maxConnections</code>.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 5;
+
+    /**
+     * The default connect and read timeout in milliseconds.
+     */
+    public static final int DEFAULT_TIMEOUT = 10 * 1000;
+
+    /**
+     * How request bodies are written to the connection.
+     */
+    public enum StreamingMode {
+        /**
+         * Send the <code>Content-Length</code> header and stream the body
+         * without buffering. Bodies of unknown length are sent chunked.
+         */
+        FIXED_LENGTH,
+
+        /**
+         * Stream the body using chunked transfer encoding.
+         */
+        CHUNKED,
+
+        /**
+         * Let {@link HttpURLConnection} buffer the whole body in memory before
+         * sending it.
+         */
+        BUFFERED
+    }
+
+    private final int maxConnections;
+    private final ExecutorService executor;
+    private volatile int connectTimeout = DEFAULT_TIMEOUT;
+    private volatile int readTimeout = DEFAULT_TIMEOUT;
+    private volatile StreamingMode streamingMode = StreamingMode.FIXED_LENGTH;
+    private volatile int chunkSize = 0;
+
+    /**
+     * Creates a transport using {@link #DEFAULT_MAX_CONNECTIONS} connections.
+     */
+    public UrlConnectionTransport() {
+        this(DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Creates a transport using at most the given number of concurrent
+     * connections.
+     * @param maxConnections The number of connections.
+     */
+    public UrlConnectionTransport(int maxConnections) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException(
+                    "Max connections must be positive");
+        }
+        this.maxConnections = maxConnections;
+        this.executor = Executors.newFixedThreadPool(maxConnections,
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r,
+                                "UrlConnectionTransport #" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * @return The maximum number of concurrent connections.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return The connect timeout in milliseconds.
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @param connectTimeout The connect timeout in milliseconds,
+     * 0 for no timeout.
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return The read timeout in milliseconds.
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @param readTimeout The read timeout in milliseconds, 0 for no timeout.
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @return How request bodies are written to the connection.
+     */
+    public StreamingMode getStreamingMode() {
+        return streamingMode;
+    }
+
+    /**
+     * @param streamingMode How request bodies are written to the connection.
+     */
+    public void setStreamingMode(StreamingMode streamingMode) {
+        if (streamingMode == null) {
+            throw new IllegalArgumentException("Streaming mode cannot be null");
+        }
+        this.streamingMode = streamingMode;
+    }
+
+    /**
+     * @return The chunk size used by chunked streaming in bytes,
+     * 0 for the platform default.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param chunkSize The chunk size used by chunked streaming in bytes,
+     * 0 for the platform default.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Stops the threads of this transport. Requests in progress complete,
+     * new requests are rejected.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public Call execute(final TransportRequest request, final Listener listener) {
+        final UrlConnectionCall call = new UrlConnectionCall();
+        call.task = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                call.perform(request, listener);
+            }
+        }, null);
+        executor.execute(call.task);
+        return call;
+    }
+
+    private class UrlConnectionCall implements Call {
+        private FutureTask<Void> task;
+        private volatile HttpURLConnection connection;
+        private volatile boolean cancelled;
+
+        @Override
+        public boolean cancel() {
+            if (task.isDone()) return false;
+            cancelled = true;
+            task.cancel(true);
+            HttpURLConnection c = connection;
+            if (c != null) c.disconnect();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return task.isDone();
+        }
+
+        void perform(TransportRequest request, Listener listener) {
+            InputStream in = null;
+            try {
+                TransportResponse response = send(request);
+                in = response.getBody();
+                if (cancelled) return;
+                try {
+                    listener.onResponse(response);
+                } catch (Throwable t) {
+                    if (!cancelled) listener.onFailure(t);
+                }
+            } catch (IOException e) {
+                if (!cancelled) listener.onFailure(e);
+            } catch (RuntimeException e) {
+                if (!cancelled) listener.onFailure(e);
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+
+        private TransportResponse send(TransportRequest request) throws IOException {
+            HttpURLConnection c = (HttpURLConnection)
+                    new URL(request.getUrl()).openConnection();
+            connection = c;
+            c.setConnectTimeout(connectTimeout);
+            c.setReadTimeout(readTimeout);
+            c.setUseCaches(false);
+            c.setRequestMethod(request.getVerb());
+            for (Header h : request.getHeaders()) {
+                if (h.getValue() != null) {
+                    c.addRequestProperty(h.getName(), h.getValue());
+                }
+            }
+
+            RequestBody body = request.getBody();
+            if (body != null) {
+                c.setDoOutput(true);
+                if (body.getContentType() != null &&
+                        request.getHeader("Content-Type") == null) {
+                    c.setRequestProperty("Content-Type", body.getContentType());
+                }
+                long length = body.getContentLength();
+                if (streamingMode == StreamingMode.FIXED_LENGTH &&
+                        length >= 0 && length <= Integer.MAX_VALUE) {
+                    c.setFixedLengthStreamingMode((int) length);
+                }
+                else if (streamingMode != StreamingMode.BUFFERED) {
+                    c.setChunkedStreamingMode(chunkSize);
+                }
+                OutputStream out = c.getOutputStream();
+                try {
+                    body.writeTo(out);
+                } finally {
+                    out.close();
+                }
+            }
+
+            int status = c.getResponseCode();
+            if (status < 0) {
+                throw new IOException("Invalid HTTP response from " +
+                        request.getUrl());
+            }
+            InputStream in = status >= 400 ? c.getErrorStream() : c.getInputStream();
+
+            List<Header> headers = new ArrayList<Header>();
+            Map<String, List<String>> fields = c.getHeaderFields();
+            if (fields != null) {
+                for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+                    // The status line is reported with a null key.
+                    if (field.getKey() == null) continue;
+                    for (String value : field.getValue()) {
+                        headers.add(new BasicHeader(field.getKey(), value));
+                    }
+                }
+            }
+
+            if (Log.isLoggable(TAG, Log.DEBUG))
+                Log.d(TAG, request.getVerb() + " " + request.getUrl() + " " + status);
+
+            return new TransportResponse(status, c.getResponseMessage(),
+                    headers.toArray(new Header[headers.size()]), in,
+                    c.getContentLength());
+        }
+    }
+}
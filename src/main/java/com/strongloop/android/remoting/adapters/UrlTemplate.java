@@ -0,0 +1,176 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A URL pattern like <code>"/widgets/:id"</code> split into literal
+ * segments and named placeholders once, so that rendering a URL is
+ * a single pass over the segments.
+ * <p>
+ * A placeholder is a colon followed by a name made of letters, digits,
+ * <code>_</code> and <code>$</code>, starting with a letter,
+ * <code>_</code> or <code>$</code>. The longest name wins:
+ * <code>":idx"</code> is never rendered using the parameter
+ * <code>"id"</code>.
+ */
+public class UrlTemplate {
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final String pattern;
+    // Literal segments at even positions, placeholder names at odd ones.
+    private final String[] segments;
+    private final Set<String> parameterNames;
+
+    /**
+     * Compiles the given pattern.
+     * @param pattern The pattern, e.g. <code>"/widgets/:id"</code>.
+     */
+    public UrlTemplate(String pattern) {
+        if (pattern == null) {
+            throw new IllegalArgumentException("Pattern cannot be null");
+        }
+        this.pattern = pattern;
+
+        List<String> parts = new ArrayList<String>();
+        Set<String> names = new LinkedHashSet<String>();
+        int literalStart = 0;
+        int i = 0;
+        while (i < pattern.length()) {
+            if (pattern.charAt(i) != ':' || i + 1 == pattern.length() ||
+                    !isNameStart(pattern.charAt(i + 1))) {
+                i++;
+                continue;
+            }
+            int nameEnd = i + 2;
+            while (nameEnd < pattern.length() &&
+                    isNamePart(pattern.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            String name = pattern.substring(i + 1, nameEnd);
+            parts.add(pattern.substring(literalStart, i));
+            parts.add(name);
+            names.add(name);
+            literalStart = i = nameEnd;
+        }
+        parts.add(pattern.substring(literalStart));
+
+        this.segments = parts.toArray(new String[parts.size()]);
+        this.parameterNames = Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * @return The pattern this template was compiled from.
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return The names of the placeholders in the pattern.
+     */
+    public Set<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    /**
+     * Renders the URL, replacing each placeholder by the URL-encoded value
+     * of the parameter with the same name. Placeholders without a parameter
+     * are kept as they are.
+     * @param parameters The values to render with. Can be <code>null</code>.
+     * @return The rendered URL.
+     */
+    public String expand(Map<String, ? extends Object> parameters) {
+        if (segments.length == 1) {
+            return pattern;
+        }
+
+        StringBuilder url = new StringBuilder(pattern.length() + 32);
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (i % 2 == 0) {
+                url.append(segment);
+                continue;
+            }
+            Object value = parameters != null ? parameters.get(segment) : null;
+            if (value == null && (parameters == null ||
+                    !parameters.containsKey(segment))) {
+                url.append(':').append(segment);
+            }
+            else {
+                appendEncoded(url, String.valueOf(value));
+            }
+        }
+        return url.toString();
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    private static boolean isNameStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+                c == '_' || c == '$';
+    }
+
+    private static boolean isNamePart(char c) {
+        return isNameStart(c) || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * Percent-encodes the value as a path segment (RFC 3986), keeping
+     * the characters allowed in a segment as they are.
+     */
+    static void appendEncoded(StringBuilder url, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (isAllowedInSegment(c)) {
+                url.append(c);
+                continue;
+            }
+
+            // Encode the whole run of characters needing it at once, so that
+            // surrogate pairs are converted to UTF-8 correctly.
+            int end = i + 1;
+            while (end < value.length() && !isAllowedInSegment(value.charAt(end))) {
+                end++;
+            }
+            byte[] bytes;
+            try {
+                bytes = value.substring(i, end).getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                // UTF-8 is always supported
+                throw new AssertionError(e);
+            }
+            for (byte b : bytes) {
+                url.append('%')
+                        .append(HEX_DIGITS[(b >> 4) & 0xF])
+                        .append(HEX_DIGITS[b & 0xF]);
+            }
+            i = end - 1;
+        }
+    }
+
+    private static boolean isAllowedInSegment(char c) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+                (c >= '0' && c <= '9')) {
+            return true;
+        }
+        switch (c) {
+            case '-': case '.': case '_': case '~':
+            case '!': case '$': case '&': case '\'': case '(': case ')':
+            case '*': case '+': case ',': case ';': case '=': case ':': case '@':
+                return true;
+            default:
+                return false;
+        }
+    }
+}
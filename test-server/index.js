@@ -105,6 +105,109 @@ Container.destroyAll.shared = true;
 Container.destroyAll.http = { verb: 'del', path: '/' }
 
 app.use(require('morgan')('loopback> :method :url :status'));
+
+// resumable (chunked) uploads, see FileRepository.uploadResumable
+var crypto = require('crypto');
+var express = require('express');
+var formidable = require('formidable');
+var uploads = path.join(__dirname, 'uploads');
+if (!fs.existsSync(uploads))
+  fs.mkdirSync(uploads);
+var uploadSessions = {};
+
+function findUploadSession(req, res, next) {
+  var session = uploadSessions[req.params.id];
+  if (!session || session.container !== req.params.container) {
+    return res.status(404).send({ error: { message: 'Unknown upload' } });
+  }
+  req.uploadSession = session;
+  next();
+}
+
+function uploadStatus(session, cb) {
+  fs.stat(session.path, function(err, stat) {
+    if (err) return cb(err);
+    cb(null, { id: session.id, received: stat.size });
+  });
+}
+
+app.post('/containers/:container/uploads', express.json(),
+  function(req, res, next) {
+    var id = crypto.randomBytes(16).toString('hex');
+    var session = {
+      id: id,
+      container: req.params.container,
+      name: req.body.name,
+      size: Number(req.body.size),
+      path: path.join(uploads, id)
+    };
+    fs.writeFile(session.path, '', function(err) {
+      if (err) return next(err);
+      uploadSessions[id] = session;
+      res.send({ id: id, received: 0 });
+    });
+  });
+
+app.get('/containers/:container/uploads/:id', findUploadSession,
+  function(req, res, next) {
+    uploadStatus(req.uploadSession, function(err, status) {
+      if (err) return next(err);
+      res.send(status);
+    });
+  });
+
+app.post('/containers/:container/uploads/:id/chunks', findUploadSession,
+  function(req, res, next) {
+    var session = req.uploadSession;
+    new formidable.IncomingForm().parse(req, function(err, fields, files) {
+      if (err) return next(err);
+      var offset = Number(fields.offset);
+      var chunk = files.chunk;
+      uploadStatus(session, function(err, status) {
+        if (err) return next(err);
+        if (!chunk || !(offset <= status.received)) {
+          return res.status(409).send(status);
+        }
+        // a chunk sent again overwrites the previous copy
+        async.series([
+          fs.truncate.bind(fs, session.path, offset),
+          function(done) {
+            fs.readFile(chunk.path, function(err, data) {
+              if (err) return done(err);
+              fs.appendFile(session.path, data, done);
+            });
+          },
+          fs.unlink.bind(fs, chunk.path)
+        ], function(err) {
+          if (err) return next(err);
+          uploadStatus(session, function(err, status) {
+            if (err) return next(err);
+            res.send(status);
+          });
+        });
+      });
+    });
+  });
+
+app.post('/containers/:container/uploads/:id/commit', findUploadSession,
+  function(req, res, next) {
+    var session = req.uploadSession;
+    uploadStatus(session, function(err, status) {
+      if (err) return next(err);
+      if (status.received !== session.size) {
+        return res.status(409).send(status);
+      }
+      var target = path.join(storage, session.container, session.name);
+      fs.rename(session.path, target, function(err) {
+        if (err) return next(err);
+        delete uploadSessions[session.id];
+        Container.getFile(session.container, session.name, function(err, file) {
+          if (err) return next(err);
+          res.send(file);
+        });
+      });
+    });
+  });
 app.enableAuth();
 app.use(loopback.rest());
 app.listen(3000, function() {
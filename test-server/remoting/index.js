@@ -6,6 +6,8 @@
 var SG = require('strong-globalize');
 var g = SG();
 var express = require('express');
+var http = require('http');
+var async = require('async');
 var remotes = require('strong-remoting').create();
 var SharedClass = require('strong-remoting').SharedClass;
 
@@ -19,11 +21,72 @@ remotes.addClass(new SharedClass('ContractClass', require('./contract-class')));
 
 var app = express();
 app.use(require('morgan')('strong-remoting> :method :url :status'));
+app.post('/batch', batch);
 app.use(remotes.handler('rest'));
 
-var server = require('http')
+var PORT = 3001;
+
+/**
+ * Executes a batch of requests sent by RestAdapter.batch():
+ *   { requests: [{ method: 'GET', url: '/path?query', body: {...} }] }
+ * Responds with [{ status: 200, body: '<raw response body>' }].
+ */
+function batch(req, res, next) {
+  var chunks = [];
+  req.on('data', function(chunk) { chunks.push(chunk); });
+  req.on('end', function() {
+    var requests;
+    try {
+      requests = JSON.parse(Buffer.concat(chunks).toString()).requests;
+    } catch (err) {
+      return res.status(400).send(err.message);
+    }
+    if (!Array.isArray(requests)) {
+      return res.status(400).send('"requests" must be an array');
+    }
+
+    async.mapSeries(requests, forward, function(err, responses) {
+      if (err) return next(err);
+      res.json(responses);
+    });
+  });
+
+  function forward(subRequest, cb) {
+    var body = subRequest.body !== undefined ?
+      JSON.stringify(subRequest.body) : null;
+    var headers = { accept: 'application/json' };
+    if (body !== null) {
+      headers['content-type'] = 'application/json';
+      headers['content-length'] = Buffer.byteLength(body);
+    }
+    if (req.headers.authorization) {
+      headers.authorization = req.headers.authorization;
+    }
+
+    var forwarded = http.request({
+      port: PORT,
+      method: subRequest.method,
+      path: subRequest.url,
+      headers: headers,
+    }, function(response) {
+      var data = [];
+      response.on('data', function(chunk) { data.push(chunk); });
+      response.on('end', function() {
+        cb(null, {
+          status: response.statusCode,
+          body: Buffer.concat(data).toString(),
+        });
+      });
+    });
+    forwarded.on('error', cb);
+    if (body !== null) forwarded.write(body);
+    forwarded.end();
+  }
+}
+
+var server = http
   .createServer(app)
-  .listen(3001, function() {
+  .listen(PORT, function() {
     console.log(g.f(
       '{{strong-remoting}} test server listening on {{http://localhost:3001/}}'));
   });